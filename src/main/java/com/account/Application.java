@@ -4,15 +4,20 @@ package com.account;
  * Main Application - This is the main application class.
  */
 import com.account.dao.DAOFactory;
+import com.account.metrics.MetricsFeature;
 import com.account.service.AccountService;
+import com.account.service.MetricsService;
 import com.account.service.ServiceExceptionMapper;
 import com.account.service.TransactionService;
 import com.account.service.UserService;
+import com.account.utils.Utils;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.servlet.ServletContainer;
 
 /**
@@ -22,13 +27,23 @@ public class Application
 {
 	private static Logger log = Logger.getLogger(Application.class);
 
+	// Key-Value from application.properties, Jetty request threads.
+	private static final String JETTY_MIN_THREADS = "jetty_min_threads";
+	private static final String JETTY_MAX_THREADS = "jetty_max_threads";
+	private static final String JETTY_IDLE_TIMEOUT = "jetty_idle_timeout_ms";
+
 	public static void main( String[] args ) throws Exception
 	{
 		// Initialize database with demo data
 		log.info("Initialize demo .....");
 		
-		DAOFactory dataDaoFactory = DAOFactory.getDAOFactory(DAOFactory.DATA);
-		dataDaoFactory.populateTestData();
+		DAOFactory dataDaoFactory = DAOFactory.getDAOFactory();
+
+		// Load demo data unless the previous run's data was restored.
+		if (!dataDaoFactory.recover())
+		{
+			dataDaoFactory.populateTestData();
+		}
 		
 		log.info("Initialisation Complete....");
 		
@@ -37,13 +52,25 @@ public class Application
 	}
 
 	/**
-	 * Service provisioning.
+	 * Service provisioning. Jetty's request thread pool is sized from
+	 * application.properties, and the servlet supports the suspended
+	 * resource methods.
 	 * 
 	 * @throws Exception
 	 */
 	private static void startService() throws Exception
 	{
-		Server server = new Server(8080);
+		QueuedThreadPool threadPool = new QueuedThreadPool(
+						Utils.getIntegerProperty(JETTY_MAX_THREADS, 200),
+						Utils.getIntegerProperty(JETTY_MIN_THREADS, 8),
+						Utils.getIntegerProperty(JETTY_IDLE_TIMEOUT, 60000));
+		threadPool.setName("jetty");
+		
+		Server server = new Server(threadPool);
+		
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(8080);
+		server.addConnector(connector);
 		
 		ServletContextHandler context = new ServletContextHandler(
 						ServletContextHandler.SESSIONS);
@@ -53,12 +80,15 @@ public class Application
 		server.setHandler(context);
 		
 		ServletHolder servletHolder = context.addServlet(ServletContainer.class, "/*");
+		servletHolder.setAsyncSupported(true);
 		servletHolder.setInitParameter(
 						"jersey.config.server.provider.classnames",
 						UserService.class.getCanonicalName() + "," +
 						AccountService.class.getCanonicalName()	+ "," +
 						ServiceExceptionMapper.class.getCanonicalName() + ","+
-						TransactionService.class.getCanonicalName());
+						TransactionService.class.getCanonicalName() + "," +
+						MetricsService.class.getCanonicalName() + "," +
+						MetricsFeature.class.getCanonicalName());
 		/*
 		 * Start server. Provide for closure
 		 */
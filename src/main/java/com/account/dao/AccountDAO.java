@@ -2,6 +2,8 @@ package com.account.dao;
 
 import com.account.exception.CustomException;
 import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.TransferResult;
 import com.account.model.UserTransaction;
 
 import java.math.BigDecimal;
@@ -22,6 +24,32 @@ public interface AccountDAO
 	 */
 	List<Account> getAllAccounts() throws CustomException;
 
+	/**
+	 * Retrieve a page of accounts in account id order, starting after the
+	 * given account id.
+	 * 
+	 * @param afterAccountId - last account id of the previous page, 0 for the
+	 *            first page.
+	 * @param limit - maximum number of accounts to return.
+	 * @return - accounts with an id greater than afterAccountId.
+	 * @throws CustomException
+	 */
+	List<Account> getAccounts( long afterAccountId, int limit )
+					throws CustomException;
+
+	/**
+	 * Pass accounts in account id order to a handler as they are read,
+	 * starting after the given account id.
+	 * 
+	 * @param afterAccountId - account id to start after, 0 for all accounts.
+	 * @param limit - maximum number of accounts to read, 0 for no limit.
+	 * @param handler - handler receiving each account.
+	 * @throws CustomException - if the accounts cannot be read or the handler
+	 *             fails.
+	 */
+	void streamAccounts( long afterAccountId, int limit,
+					RowHandler<Account> handler ) throws CustomException;
+
 	/**
 	 * Retrieve the account details by account id.
 	 * 
@@ -31,14 +59,27 @@ public interface AccountDAO
 	 */
 	Account getAccountById( long accountId ) throws CustomException;
 
+	/**
+	 * Retrieve a page of an account's ledger legs in ledger id order,
+	 * starting after the given ledger id.
+	 * 
+	 * @param accountId - user account id.
+	 * @param afterLedgerId - ledger id to start after, 0 for the first leg.
+	 * @param limit - maximum number of legs to read, 0 for no limit.
+	 * @return - ledger legs of the account.
+	 * @throws CustomException
+	 */
+	List<LedgerEntry> getAccountHistory( long accountId, long afterLedgerId,
+					int limit ) throws CustomException;
+
 	/**
 	 * Create an account using the account details.
 	 * 
 	 * @param account - user account details object.
-	 * @return - user account id to confirm.
+	 * @return - created account details, including the generated account id.
 	 * @throws CustomException
 	 */
-	long createAccount( Account account ) throws CustomException;
+	Account createAccount( Account account ) throws CustomException;
 
 	/**
 	 * Delete/Remove account details by account id.
@@ -54,9 +95,24 @@ public interface AccountDAO
 	 * 
 	 * @param accountId - user accountId
 	 * @param deltaAmount - amount to be debit(less than 0)/credit(greater than 0).
-	 * @return - number of rows updated
+	 * @return - account details after the update.
+	 * @throws CustomException - if the account does not exist or has
+	 *             insufficient funds.
+	 */
+	Account updateAccountBalance( long accountId, BigDecimal deltaAmount )
+					throws CustomException;
+
+	/**
+	 * Spread the credits to an account over a number of balance slots, for
+	 * accounts receiving a large share of all transfers. The balance of the
+	 * account is unchanged.
+	 * 
+	 * @param accountId - user account id.
+	 * @param slotCount - number of slots, 0 for a single balance.
+	 * @return - account details.
+	 * @throws CustomException - if the account does not exist.
 	 */
-	int updateAccountBalance( long accountId, BigDecimal deltaAmount )
+	Account setBalanceSlots( long accountId, int slotCount )
 					throws CustomException;
 
 	/**
@@ -68,4 +124,17 @@ public interface AccountDAO
 	 */
 	int transferAccountBalance( UserTransaction userTransaction )
 					throws CustomException;
+
+	/**
+	 * Transfer balances for a batch of user transactions. Transactions are
+	 * applied in groups, each group in one database transaction, and each
+	 * transfer succeeds or fails on its own.
+	 * 
+	 * @param userTransactions - transfers to apply, in order.
+	 * @return - outcome of each transfer, in the same order.
+	 * @throws CustomException
+	 */
+	List<TransferResult> transferAccountBalances(
+					List<UserTransaction> userTransactions )
+					throws CustomException;
 }
@@ -1,5 +1,7 @@
 package com.account.dao;
 
+import com.account.utils.Utils;
+
 /**
  * Data Access object factory.
  * 
@@ -10,6 +12,13 @@ public abstract class DAOFactory
     // DATA factory type enumeration.
 	public static final int DATA = 1;
 
+	// In-memory factory type enumeration.
+	public static final int MEMORY = 2;
+
+	// Key-Value from application.properties, factory type used by the
+	// services.
+	private static final String DAO_FACTORY_TYPE = "dao_factory_type";
+
 	/**
 	 *  Retrieve the user Data Access Object.
 	 *  
@@ -24,11 +33,40 @@ public abstract class DAOFactory
 	 */
 	public abstract AccountDAO getAccountDAO();
 
+	/**
+	 *  Retrieve the idempotency key Data Access Object.
+	 *  
+	 * @return - Idempotency key Data Access Object.
+	 */
+	public abstract IdempotencyDAO getIdempotencyDAO();
+
 	/**
 	 *  Populate the data for testing.
 	 */
 	public abstract void populateTestData();
 
+	/**
+	 *  Restore the data kept by a previous run, for factories that persist
+	 *  it.
+	 *
+	 * @return - true if data was restored, false if there was none.
+	 */
+	public boolean recover()
+	{
+		return false;
+	}
+
+	/**
+	 * Establish the Data Access Object factory configured by
+	 * dao_factory_type in application.properties, DATA by default.
+	 * 
+	 * @return - Data Access Object factory source.
+	 */
+	public static DAOFactory getDAOFactory()
+	{
+		return getDAOFactory(Utils.getIntegerProperty(DAO_FACTORY_TYPE, DATA));
+	}
+
 	/**
 	 * Establish the Data Access Object factory
 	 * 
@@ -45,6 +83,11 @@ public abstract class DAOFactory
 			{
 				return new DataDAOFactory();
 			}
+			// Case for MEMORY
+			case MEMORY:
+			{
+				return new MemoryDAOFactory();
+			}
 			// Default Data Factory
 			default:
 			{
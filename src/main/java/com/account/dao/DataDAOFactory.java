@@ -1,17 +1,30 @@
 package com.account.dao;
 
+import com.account.dao.cache.CacheStats;
+import com.account.dao.cache.CachingAccountDAO;
+import com.account.dao.cache.CachingIdempotencyDAO;
+import com.account.dao.cache.CachingUserDAO;
 import com.account.dao.impl.AccountDAOImpl;
+import com.account.dao.impl.GroupCommitAccountDAO;
+import com.account.dao.impl.IdempotencyDAOImpl;
 import com.account.dao.impl.UserDAOImpl;
+import com.account.dao.pool.ConnectionPool;
+import com.account.dao.pool.PoolStats;
+import com.account.metrics.Gauge;
+import com.account.metrics.MetricsRegistry;
+import com.account.metrics.TimedProxy;
+import com.account.metrics.TransferMetrics;
+import com.account.utils.Log;
 import com.account.utils.Utils;
 
 import org.apache.commons.dbutils.DbUtils;
-import org.apache.log4j.Logger;
 import org.h2.tools.RunScript;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 /**
@@ -21,13 +34,38 @@ import java.sql.SQLException;
  */
 public class DataDAOFactory extends DAOFactory
 {
-	private static Logger log = Logger.getLogger(DataDAOFactory.class);
+	private static Log log = Log.getLog(DataDAOFactory.class);
 	
 	// Key-Value from application.properties.
 	private static final String DATA_DRIVER = "data_driver";
 	private static final String DATA_CONN_URL = "data_connection_url";
 	private static final String DATA_USER = "data_user";
 	private static final String DATA_PASSWORD = "data_password";
+	private static final String DATA_POOL_MIN_SIZE = "data_pool_min_size";
+	private static final String DATA_POOL_MAX_SIZE = "data_pool_max_size";
+	private static final String DATA_POOL_ACQUIRE_TIMEOUT = "data_pool_acquire_timeout_ms";
+	private static final String DATA_POOL_VALIDATION_INTERVAL = "data_pool_validation_interval_ms";
+	private static final String DATA_POOL_VALIDATION_TIMEOUT = "data_pool_validation_timeout_sec";
+	private static final String DATA_POOL_LEAK_THRESHOLD = "data_pool_leak_detection_ms";
+	private static final String DATA_POOL_STATEMENT_CACHE_SIZE = "data_pool_statement_cache_size";
+	private static final String ACCOUNT_CACHE_ENABLED = "account_cache_enabled";
+	private static final String ACCOUNT_CACHE_MAX_SIZE = "account_cache_max_size";
+	private static final String ACCOUNT_CACHE_TTL = "account_cache_ttl_ms";
+	private static final String USER_CACHE_ENABLED = "user_cache_enabled";
+	private static final String USER_CACHE_MAX_SIZE = "user_cache_max_size";
+	private static final String USER_CACHE_TTL = "user_cache_ttl_ms";
+	private static final String USER_CACHE_NEGATIVE_TTL = "user_cache_negative_ttl_ms";
+	private static final String IDEMPOTENCY_CACHE_MAX_SIZE = "idempotency_cache_max_size";
+	private static final String IDEMPOTENCY_TTL = "idempotency_ttl_ms";
+	private static final String GROUP_COMMIT_ENABLED = "group_commit_enabled";
+	private static final String GROUP_COMMIT_MAX_DELAY = "group_commit_max_delay_us";
+	private static final String GROUP_COMMIT_MAX_BATCH_SIZE = "group_commit_max_batch_size";
+	private static final String GROUP_COMMIT_TIMEOUT = "group_commit_timeout_ms";
+
+	// Unique user name index, ledger, idempotency key and balance slot
+	// schemas, run on the classpath after the test data.
+	private static final String[] SCHEMA_SCRIPTS = { "/user_name.sql",
+					"/ledger.sql", "/idempotency.sql", "/account_slot.sql" };
 	
 	// Obtain the values from the application.properties file.
 	private static final String data_driver = Utils.getStringProperty(DATA_DRIVER);
@@ -35,9 +73,26 @@ public class DataDAOFactory extends DAOFactory
 	private static final String data_user = Utils.getStringProperty(DATA_USER);
 	private static final String data_password = Utils.getStringProperty(DATA_PASSWORD);
 
-	// Declare constructors.
-	private final UserDAOImpl userDAO = new UserDAOImpl();
-	private final AccountDAOImpl accountDAO = new AccountDAOImpl();
+	// Connection pool shared by all DAOs, created on first use.
+	private static volatile ConnectionPool pool;
+
+	// Declare constructors. Shared by every factory instance so that all
+	// services see the same account and user caches. Calls made by the
+	// services are timed.
+	private static final CachingUserDAO userCache = createUserCache();
+	private static final UserDAO userDAO = TimedProxy.wrap(UserDAO.class,
+					(userCache != null) ? userCache : new UserDAOImpl(), null);
+	private static final AccountDAO accountStore = createAccountStore();
+	private static final CachingAccountDAO accountCache = createAccountCache(accountStore);
+	private static final AccountDAO accountDAO = TimedProxy.wrap(
+					AccountDAO.class, (accountCache != null) ? accountCache
+									: accountStore, new TransferMetrics());
+	private static final CachingIdempotencyDAO idempotencyDAO = createIdempotencyDAO();
+
+	static
+	{
+		registerMetrics(MetricsRegistry.getInstance());
+	}
 
 	/**
 	 *  Data DAO constructor for the data driver
@@ -50,12 +105,266 @@ public class DataDAOFactory extends DAOFactory
 
 	
 	/**
-	 * Connect to the data base for account details. 
+	 * Connect to the data base for account details. The connection is taken
+	 * from the shared pool, closing it returns it to the pool.
 	 */
 	public static Connection getConnection() throws SQLException
 	{
-		return DriverManager.getConnection(data_connection_url, data_user,
-						data_password);
+		return getPool().getConnection();
+	}
+
+	/**
+	 * Retrieve the connection pool statistics.
+	 * 
+	 * @return - pool statistics snapshot.
+	 */
+	public static PoolStats getPoolStats()
+	{
+		return getPool().getStats();
+	}
+
+	/**
+	 * Retrieve the account cache statistics.
+	 * 
+	 * @return - cache statistics snapshot, null if the cache is disabled.
+	 */
+	public static CacheStats getAccountCacheStats()
+	{
+		return (accountCache != null) ? accountCache.getStats() : null;
+	}
+
+	/**
+	 * Retrieve the user cache statistics.
+	 * 
+	 * @return - cache statistics snapshot, null if the cache is disabled.
+	 */
+	public static CacheStats getUserCacheStats()
+	{
+		return (userCache != null) ? userCache.getStats() : null;
+	}
+
+	/**
+	 * Export the connection pool and cache statistics with the metrics. They
+	 * are read when the metrics are exported, the pool being created then if
+	 * not in use yet.
+	 */
+	private static void registerMetrics( MetricsRegistry registry )
+	{
+		registry.gauge("db_pool_connections", "Pooled connections by state.",
+						MetricsRegistry.labels("state", "active"), new Gauge()
+						{
+							public double getValue()
+							{
+								return getPoolStats().getActiveConnections();
+							}
+						});
+		registry.gauge("db_pool_connections", "Pooled connections by state.",
+						MetricsRegistry.labels("state", "idle"), new Gauge()
+						{
+							public double getValue()
+							{
+								return getPoolStats().getIdleConnections();
+							}
+						});
+		registry.gauge("db_pool_waiting_threads",
+						"Threads waiting for a pooled connection.", "",
+						new Gauge()
+						{
+							public double getValue()
+							{
+								return getPoolStats().getWaitingThreads();
+							}
+						});
+		registry.functionCounter("db_pool_acquire_timeouts_total",
+						"Connection requests that timed out.", "", new Gauge()
+						{
+							public double getValue()
+							{
+								return getPoolStats().getTimeoutCount();
+							}
+						});
+		registry.functionCounter("db_statement_cache_hits_total",
+						"Prepared statements served from the statement cache.",
+						"", new Gauge()
+						{
+							public double getValue()
+							{
+								return getPoolStats().getStatementCacheHitCount();
+							}
+						});
+		registry.functionCounter("db_statement_cache_misses_total",
+						"Prepared statements not found in the statement cache.",
+						"", new Gauge()
+						{
+							public double getValue()
+							{
+								return getPoolStats().getStatementCacheMissCount();
+							}
+						});
+		
+		// Caches, when enabled.
+		if (accountCache != null)
+		{
+			registerCacheMetrics(registry, "account", new Gauge()
+			{
+				public double getValue()
+				{
+					return accountCache.getStats().getHitCount();
+				}
+			}, new Gauge()
+			{
+				public double getValue()
+				{
+					return accountCache.getStats().getMissCount();
+				}
+			}, new Gauge()
+			{
+				public double getValue()
+				{
+					return accountCache.getStats().getSize();
+				}
+			});
+		}
+		
+		if (userCache != null)
+		{
+			registerCacheMetrics(registry, "user", new Gauge()
+			{
+				public double getValue()
+				{
+					return userCache.getStats().getHitCount();
+				}
+			}, new Gauge()
+			{
+				public double getValue()
+				{
+					return userCache.getStats().getMissCount();
+				}
+			}, new Gauge()
+			{
+				public double getValue()
+				{
+					return userCache.getStats().getSize();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Export the statistics of one cache.
+	 */
+	private static void registerCacheMetrics( MetricsRegistry registry,
+					String cache, Gauge hits, Gauge misses, Gauge size )
+	{
+		String labels = MetricsRegistry.labels("cache", cache);
+		
+		registry.functionCounter("cache_hits_total",
+						"Lookups served from the cache.", labels, hits);
+		registry.functionCounter("cache_misses_total",
+						"Lookups loaded from the database.", labels, misses);
+		registry.gauge("cache_size", "Entries held by the cache.", labels, size);
+	}
+
+	/**
+	 * Create the account DAO writing to the database, committing concurrent
+	 * balance updates together if enabled in application.properties.
+	 */
+	private static AccountDAO createAccountStore()
+	{
+		// Group commit disabled, each update commits on its own.
+		if (!Utils.getBooleanProperty(GROUP_COMMIT_ENABLED, false))
+		{
+			return new AccountDAOImpl();
+		}
+		
+		return new GroupCommitAccountDAO(new AccountDAOImpl(),
+						Utils.getIntegerProperty(GROUP_COMMIT_MAX_DELAY, 500),
+						Utils.getIntegerProperty(GROUP_COMMIT_MAX_BATCH_SIZE, 100),
+						Utils.getIntegerProperty(GROUP_COMMIT_TIMEOUT, 10000));
+	}
+
+	/**
+	 * Create the account cache if enabled in application.properties.
+	 * 
+	 * @param accountStore - account DAO writing to the database.
+	 */
+	private static CachingAccountDAO createAccountCache( AccountDAO accountStore )
+	{
+		// Cache disabled, use the account DAO directly.
+		if (!Utils.getBooleanProperty(ACCOUNT_CACHE_ENABLED, false))
+		{
+			return null;
+		}
+		
+		return new CachingAccountDAO(accountStore,
+						Utils.getIntegerProperty(ACCOUNT_CACHE_MAX_SIZE, 10000),
+						Utils.getIntegerProperty(ACCOUNT_CACHE_TTL, 30000));
+	}
+
+	/**
+	 * Create the user cache if enabled in application.properties.
+	 */
+	private static CachingUserDAO createUserCache()
+	{
+		// Cache disabled, use the user DAO directly.
+		if (!Utils.getBooleanProperty(USER_CACHE_ENABLED, false))
+		{
+			return null;
+		}
+		
+		return new CachingUserDAO(new UserDAOImpl(),
+						Utils.getIntegerProperty(USER_CACHE_MAX_SIZE, 10000),
+						Utils.getIntegerProperty(USER_CACHE_TTL, 60000),
+						Utils.getIntegerProperty(USER_CACHE_NEGATIVE_TTL, 1000));
+	}
+
+	/**
+	 * Create the idempotency key DAO, with retries of completed requests
+	 * answered from memory.
+	 */
+	private static CachingIdempotencyDAO createIdempotencyDAO()
+	{
+		long ttl = Utils.getIntegerProperty(IDEMPOTENCY_TTL, 86400000);
+		
+		return new CachingIdempotencyDAO(new IdempotencyDAOImpl(ttl),
+						Utils.getIntegerProperty(IDEMPOTENCY_CACHE_MAX_SIZE,
+										10000), ttl);
+	}
+
+	/**
+	 * Obtain the shared connection pool, creating it from the
+	 * application.properties settings on first use.
+	 */
+	private static ConnectionPool getPool()
+	{
+		ConnectionPool p = pool;
+		
+		// Create the pool once only.
+		if (p == null)
+		{
+			synchronized (DataDAOFactory.class)
+			{
+				p = pool;
+				
+				if (p == null)
+				{
+					DbUtils.loadDriver(data_driver);
+					
+					p = new ConnectionPool(data_connection_url, data_user,
+									data_password,
+									Utils.getIntegerProperty(DATA_POOL_MIN_SIZE, 2),
+									Utils.getIntegerProperty(DATA_POOL_MAX_SIZE, 20),
+									Utils.getIntegerProperty(DATA_POOL_ACQUIRE_TIMEOUT, 30000),
+									Utils.getIntegerProperty(DATA_POOL_VALIDATION_INTERVAL, 30000),
+									Utils.getIntegerProperty(DATA_POOL_VALIDATION_TIMEOUT, 2),
+									Utils.getIntegerProperty(DATA_POOL_LEAK_THRESHOLD, 60000),
+									Utils.getIntegerProperty(DATA_POOL_STATEMENT_CACHE_SIZE, 64));
+					pool = p;
+				}
+			}
+		}
+		
+		return p;
 	}
 
 	
@@ -78,7 +387,18 @@ public class DataDAOFactory extends DAOFactory
 
 	
 	/**
-	 * Execute the process to populate the account and user test data. 
+	 *  Obtain the idempotency key Data Access Object
+	 */
+	public IdempotencyDAO getIdempotencyDAO()
+	{
+		return idempotencyDAO;
+	}
+
+	
+	/**
+	 * Execute the process to populate the account and user test data, make
+	 * user names unique, then create the ledger with an opening leg per account, and empty
+	 * idempotency key and balance slot tables.
 	 */
 	@Override
 	public void populateTestData()
@@ -93,6 +413,29 @@ public class DataDAOFactory extends DAOFactory
 			conn = DataDAOFactory.getConnection();
 			RunScript.execute(conn, new FileReader(
 							"src/test/resources/demo.sql"));
+			
+			for ( String script : SCHEMA_SCRIPTS )
+			{
+				RunScript.execute(conn, new InputStreamReader(
+								DataDAOFactory.class.getResourceAsStream(script),
+								StandardCharsets.UTF_8));
+			}
+			
+			// Cached accounts and users no longer match the reloaded data.
+			if (accountCache != null)
+			{
+				accountCache.clear();
+			}
+			
+			if (userCache != null)
+			{
+				userCache.clear();
+			}
+			
+			idempotencyDAO.clear();
+			
+			// The AccountSlot table was recreated empty.
+			AccountDAOImpl.reloadBalanceSlots();
 		}
 		// Catch SQL Exception
 		catch (SQLException e)
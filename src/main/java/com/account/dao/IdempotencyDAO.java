@@ -0,0 +1,45 @@
+package com.account.dao;
+
+import com.account.exception.CustomException;
+import com.account.model.IdempotencyRecord;
+
+/**
+ * Interface for the idempotency key Data Access Object.
+ *
+ * A request made with a key first claims it. Only one request can hold the
+ * claim, which is then completed with the outcome of the request, or
+ * released if nothing was changed so that the client may retry. Keys are
+ * kept until their time to live has passed.
+ */
+public interface IdempotencyDAO
+{
+
+	/**
+	 * Claim a key for a request.
+	 *
+	 * @param key - idempotency key.
+	 * @param fingerprint - request parameters.
+	 * @return - null if the key was claimed by this request, otherwise the
+	 *         record of the request already made with the key.
+	 * @throws CustomException
+	 */
+	IdempotencyRecord claimKey( String key, String fingerprint )
+					throws CustomException;
+
+	/**
+	 * Record the outcome of a request holding the claim on a key.
+	 *
+	 * @param record - completed record.
+	 * @throws CustomException
+	 */
+	void completeKey( IdempotencyRecord record ) throws CustomException;
+
+	/**
+	 * Release the claim on a key for a request that changed nothing.
+	 *
+	 * @param key - idempotency key.
+	 * @throws CustomException
+	 */
+	void releaseKey( String key ) throws CustomException;
+
+}
@@ -0,0 +1,328 @@
+package com.account.dao;
+
+import com.account.dao.memory.Journal;
+import com.account.dao.memory.JournalAdapter;
+import com.account.dao.memory.MemoryAccountDAO;
+import com.account.dao.memory.MemoryIdempotencyDAO;
+import com.account.dao.memory.MemoryUserDAO;
+import com.account.exception.CustomException;
+import com.account.metrics.TimedProxy;
+import com.account.metrics.TransferMetrics;
+import com.account.model.Account;
+import com.account.model.User;
+import com.account.utils.Log;
+import com.account.utils.Utils;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.h2.tools.RunScript;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory DAO factory, holding users and accounts in memory rather than in
+ * the database.
+ *
+ * The data does not survive a restart unless journal_enabled is set, in
+ * which case every change is written to a journal in journal_dir, a
+ * snapshot is taken every journal_snapshot_interval_ms, and recover()
+ * restores the data on start up. Idempotency keys are never persisted, and
+ * at most idempotency_cache_max_size of them are held, so a retry after a
+ * restart or past that many keys runs the transfer again.
+ */
+public class MemoryDAOFactory extends DAOFactory
+{
+	private static Log log = Log.getLog(MemoryDAOFactory.class);
+
+	// Key-Value from application.properties.
+	private static final String MEMORY_LOCK_STRIPES = "memory_lock_stripes";
+	private static final String MEMORY_TRANSFER_SHARDS = "memory_transfer_shards";
+	private static final String IDEMPOTENCY_CACHE_MAX_SIZE = "idempotency_cache_max_size";
+	private static final String IDEMPOTENCY_TTL = "idempotency_ttl_ms";
+	private static final String JOURNAL_ENABLED = "journal_enabled";
+	private static final String JOURNAL_DIR = "journal_dir";
+	private static final String JOURNAL_SEGMENT_BYTES = "journal_segment_bytes";
+	private static final String JOURNAL_SYNC = "journal_sync";
+	private static final String JOURNAL_FLUSH_INTERVAL_MS = "journal_flush_interval_ms";
+	private static final String JOURNAL_SNAPSHOT_INTERVAL_MS = "journal_snapshot_interval_ms";
+
+	// Scratch database used to read the test data script.
+	private static final String SCRIPT_DB_URL = "jdbc:h2:mem:";
+
+	// Declare constructors. Shared by every factory instance so that all
+	// services see the same data.
+	private static final MemoryUserDAO userDAO = new MemoryUserDAO();
+	private static final MemoryAccountDAO accountDAO = new MemoryAccountDAO(
+					Utils.getIntegerProperty(MEMORY_LOCK_STRIPES, 1024),
+					Utils.getIntegerProperty(MEMORY_TRANSFER_SHARDS, 0));
+	private static final MemoryIdempotencyDAO idempotencyDAO = new MemoryIdempotencyDAO(
+					Utils.getIntegerProperty(IDEMPOTENCY_CACHE_MAX_SIZE, 10000),
+					Utils.getIntegerProperty(IDEMPOTENCY_TTL, 86400000));
+	private static final JournalAdapter journalAdapter = new JournalAdapter(
+					userDAO, accountDAO);
+
+	// Calls made by the services are timed.
+	private static final UserDAO timedUserDAO = TimedProxy.wrap(UserDAO.class,
+					userDAO, null);
+	private static final AccountDAO timedAccountDAO = TimedProxy.wrap(
+					AccountDAO.class, accountDAO, new TransferMetrics());
+
+	// Journal of changes, null when journaling is disabled.
+	private static final Journal journal = Utils.getBooleanProperty(
+					JOURNAL_ENABLED, false) ? new Journal(new File(
+					Utils.getStringProperty(JOURNAL_DIR, "data/journal")),
+					Utils.getIntegerProperty(JOURNAL_SEGMENT_BYTES, 64 << 20),
+					Utils.getBooleanProperty(JOURNAL_SYNC, true),
+					Utils.getIntegerProperty(JOURNAL_FLUSH_INTERVAL_MS, 10))
+					: null;
+
+	// Periodic snapshots, started with the journal.
+	private static ScheduledExecutorService snapshotExecutor;
+
+	/**
+	 * In-memory DAO factory constructor.
+	 */
+	MemoryDAOFactory()
+	{
+	}
+
+	/**
+	 * Obtain the user Data Access Object.
+	 */
+	public UserDAO getUserDAO()
+	{
+		return timedUserDAO;
+	}
+
+	/**
+	 * Obtain the Account Data Access Object
+	 */
+	public AccountDAO getAccountDAO()
+	{
+		return timedAccountDAO;
+	}
+
+	/**
+	 * Obtain the idempotency key Data Access Object
+	 */
+	public IdempotencyDAO getIdempotencyDAO()
+	{
+		return idempotencyDAO;
+	}
+
+	/**
+	 * Restore the data from the journal, and start journaling.
+	 *
+	 * @return - true if the journal held data, false if it was empty or
+	 *         journaling is disabled.
+	 */
+	@Override
+	public boolean recover()
+	{
+		// Nothing is persisted.
+		if (journal == null)
+		{
+			return false;
+		}
+
+		synchronized (MemoryDAOFactory.class)
+		{
+			try
+			{
+				log.info("Recovering User and Account data from the journal ..... ");
+
+				userDAO.clear();
+				accountDAO.clear();
+
+				boolean recovered = journal.replay(journalAdapter);
+
+				startJournal();
+
+				return recovered;
+			}
+			// Catch journal read failure.
+			catch (IOException e)
+			{
+				log.error("recover(): Error replaying journal ", e);
+
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Replace the data with the account and user test data.
+	 *
+	 * The test script is run against a private scratch database and its rows
+	 * are copied into memory, so both factories load the same data.
+	 */
+	@Override
+	public void populateTestData()
+	{
+		log.info("Populating Test User and Account data in memory ..... ");
+
+		Connection conn = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+
+		// Run the script against the scratch database and copy the rows.
+		try
+		{
+			DbUtils.loadDriver("org.h2.Driver");
+
+			conn = DriverManager.getConnection(SCRIPT_DB_URL);
+			RunScript.execute(conn, new FileReader(
+							"src/test/resources/demo.sql"));
+
+			userDAO.clear();
+			accountDAO.clear();
+			idempotencyDAO.clear();
+
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery("SELECT * FROM User ORDER BY UserId");
+
+			while (rs.next())
+			{
+				userDAO.restoreUser(new User(rs.getLong("UserId"),
+								rs.getString("UserName"),
+								rs.getString("EmailAddress")));
+			}
+
+			DbUtils.closeQuietly(rs);
+			rs = stmt.executeQuery("SELECT * FROM Account ORDER BY AccountId");
+
+			while (rs.next())
+			{
+				accountDAO.restoreAccount(new Account(rs.getLong("AccountId"),
+								rs.getString("UserName"),
+								rs.getBigDecimal("Balance"),
+								rs.getString("CurrencyCode")));
+			}
+
+			// Persist the test data in place of the journaled data.
+			if (journal != null)
+			{
+				synchronized (MemoryDAOFactory.class)
+				{
+					startJournal();
+					journal.checkpoint(journalAdapter);
+				}
+			}
+		}
+		// Catch SQL Exception
+		catch (SQLException e)
+		{
+			log.error("populateTestData(): Error populating user data: ", e);
+
+			throw new RuntimeException(e);
+		}
+		// Catch File Not Found Exception.
+		catch (FileNotFoundException e)
+		{
+			log.error("populateTestData(): Error finding test script file ", e);
+
+			throw new RuntimeException(e);
+		}
+		// Catch journal write failure.
+		catch (IOException e)
+		{
+			log.error("populateTestData(): Error writing journal snapshot ", e);
+
+			throw new RuntimeException(e);
+		}
+		// Catch rows breaking the unique indexes.
+		catch (CustomException e)
+		{
+			log.error("populateTestData(): Error loading test data ", e);
+
+			throw new RuntimeException(e);
+		}
+		// Close the scratch database, which drops it.
+		finally
+		{
+			DbUtils.closeQuietly(conn, stmt, rs);
+		}
+	}
+
+	/**
+	 * Start the journal, attach it to the DAOs and schedule snapshots, once
+	 * only. Called holding the class lock.
+	 */
+	private static void startJournal() throws IOException
+	{
+		journal.start();
+
+		userDAO.setJournal(journal);
+		accountDAO.setJournal(journal);
+
+		// Already scheduled.
+		if (snapshotExecutor != null)
+		{
+			return;
+		}
+
+		snapshotExecutor = Executors
+						.newSingleThreadScheduledExecutor(new ThreadFactory()
+						{
+							public Thread newThread( Runnable runnable )
+							{
+								Thread thread = new Thread(runnable,
+												"journal-snapshot");
+								thread.setDaemon(true);
+
+								return thread;
+							}
+						});
+
+		int interval = Utils.getIntegerProperty(JOURNAL_SNAPSHOT_INTERVAL_MS,
+						60000);
+
+		// Snapshots keep replay short and the journal small.
+		if (interval > 0)
+		{
+			snapshotExecutor.scheduleWithFixedDelay(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						journal.checkpoint(journalAdapter);
+					}
+					// Retry on the next run.
+					catch (IOException e)
+					{
+						log.error("Error writing journal snapshot ", e);
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		// Force the last records to disk on shutdown.
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					journal.close();
+				}
+				// Catch close failure.
+				catch (IOException e)
+				{
+					log.error("Error closing journal ", e);
+				}
+			}
+		}, "journal-shutdown"));
+	}
+}
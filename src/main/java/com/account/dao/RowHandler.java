@@ -0,0 +1,21 @@
+package com.account.dao;
+
+import java.io.IOException;
+
+/**
+ * Callback receiving rows one at a time as they are read from the database,
+ * so that callers can process a large table without holding it in memory.
+ *
+ * @param <T> - row type.
+ */
+public interface RowHandler<T>
+{
+	/**
+	 * Handle one row.
+	 *
+	 * @param row - row read from the database.
+	 * @throws IOException - if the row cannot be written out, which stops
+	 *             the read.
+	 */
+	void handle( T row ) throws IOException;
+}
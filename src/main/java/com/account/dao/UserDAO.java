@@ -1,6 +1,7 @@
 package com.account.dao;
 
 import com.account.exception.CustomException;
+import com.account.exception.DuplicateEntryException;
 import com.account.model.User;
 
 import java.util.List;
@@ -21,6 +22,31 @@ public interface UserDAO
 	 */
 	List<User> getAllUsers() throws CustomException;
 
+	/**
+	 * Retrieve a page of users in user id order, starting after the given
+	 * user id.
+	 * 
+	 * @param afterUserId - last user id of the previous page, 0 for the first
+	 *            page.
+	 * @param limit - maximum number of users to return.
+	 * @return - users with an id greater than afterUserId.
+	 * @throws CustomException
+	 */
+	List<User> getUsers( long afterUserId, int limit ) throws CustomException;
+
+	/**
+	 * Pass users in user id order to a handler as they are read, starting
+	 * after the given user id.
+	 * 
+	 * @param afterUserId - user id to start after, 0 for all users.
+	 * @param limit - maximum number of users to read, 0 for no limit.
+	 * @param handler - handler receiving each user.
+	 * @throws CustomException - if the users cannot be read or the handler
+	 *             fails.
+	 */
+	void streamUsers( long afterUserId, int limit, RowHandler<User> handler )
+					throws CustomException;
+
 	/**
 	 * Retrieve the user details by the User Id.
 	 * 
@@ -44,6 +70,7 @@ public interface UserDAO
 	 * 
 	 * @param user - user to be created
 	 * @return userId generated from insertion. return -1 on error
+	 * @throws DuplicateEntryException - if the user name is already taken.
 	 */
 	long insertUser( User user ) throws CustomException;
 
@@ -53,6 +80,8 @@ public interface UserDAO
 	 * @param userId - user id
 	 * @param user - user data object
 	 * @return - confirmation of user update.
+	 * @throws DuplicateEntryException - if the new user name is already
+	 *             taken by another user.
 	 * @throws CustomException
 	 */
 	int updateUser( Long userId, User user ) throws CustomException;
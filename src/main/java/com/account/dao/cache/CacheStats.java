@@ -0,0 +1,88 @@
+package com.account.dao.cache;
+
+/**
+ * Point in time snapshot of cache counters.
+ */
+public class CacheStats
+{
+	private final long size;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long expirationCount;
+
+	/**
+	 * Cache statistics constructor.
+	 */
+	CacheStats( long size, long hitCount, long missCount, long evictionCount,
+					long expirationCount )
+	{
+		this.size = size;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.expirationCount = expirationCount;
+	}
+
+	/**
+	 * @return - number of cached entries.
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return - lookups served from the cache.
+	 */
+	public long getHitCount()
+	{
+		return hitCount;
+	}
+
+	/**
+	 * @return - lookups not found or expired.
+	 */
+	public long getMissCount()
+	{
+		return missCount;
+	}
+
+	/**
+	 * @return - entries removed to stay within the size bound.
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount;
+	}
+
+	/**
+	 * @return - entries removed because they outlived the time to live.
+	 */
+	public long getExpirationCount()
+	{
+		return expirationCount;
+	}
+
+	/**
+	 * @return - fraction of lookups served from the cache.
+	 */
+	public double getHitRate()
+	{
+		long total = hitCount + missCount;
+
+		return (total == 0) ? 0.0 : (double) hitCount / total;
+	}
+
+	/**
+	 * Print cache statistics.
+	 */
+	@Override
+	public String toString()
+	{
+		return "CacheStats{" + "size=" + size + ", hits=" + hitCount
+						+ ", misses=" + missCount + ", evictions="
+						+ evictionCount + ", expirations=" + expirationCount
+						+ ", hitRate=" + getHitRate() + '}';
+	}
+}
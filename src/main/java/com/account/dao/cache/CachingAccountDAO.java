@@ -0,0 +1,255 @@
+package com.account.dao.cache;
+
+import com.account.dao.AccountDAO;
+import com.account.dao.RowHandler;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.TransferResult;
+import com.account.model.UserTransaction;
+import com.account.utils.Log;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Account Data Access Object decorator that serves getAccountById from a
+ * bounded, time evicting cache.
+ *
+ * Writes that return the resulting account replace the cached entry, other
+ * writes remove the accounts they touched so the next read loads the
+ * committed state. Writes made to the Account table outside this decorator
+ * are only seen once the cached entry expires.
+ */
+public class CachingAccountDAO implements AccountDAO
+{
+	private static Log log = Log.getLog(CachingAccountDAO.class);
+
+	private final AccountDAO delegate;
+	private final ExpiringLruCache<Long, Account> cache;
+
+	/**
+	 * Caching account DAO constructor.
+	 *
+	 * @param delegate - underlying account DAO.
+	 * @param maxSize - maximum number of cached accounts.
+	 * @param ttlMillis - time an account stays cached.
+	 */
+	public CachingAccountDAO( AccountDAO delegate, int maxSize, long ttlMillis )
+	{
+		this.delegate = delegate;
+		this.cache = new ExpiringLruCache<Long, Account>(maxSize, ttlMillis);
+	}
+
+	/**
+	 * Retrieve all accounts, always from the underlying DAO.
+	 */
+	public List<Account> getAllAccounts() throws CustomException
+	{
+		return delegate.getAllAccounts();
+	}
+
+	/**
+	 * Retrieve a page of accounts, always from the underlying DAO.
+	 */
+	public List<Account> getAccounts( long afterAccountId, int limit )
+					throws CustomException
+	{
+		return delegate.getAccounts(afterAccountId, limit);
+	}
+
+	/**
+	 * Retrieve an account's ledger legs, always from the underlying DAO.
+	 */
+	public List<LedgerEntry> getAccountHistory( long accountId,
+					long afterLedgerId, int limit ) throws CustomException
+	{
+		return delegate.getAccountHistory(accountId, afterLedgerId, limit);
+	}
+
+	/**
+	 * Stream accounts, always from the underlying DAO.
+	 */
+	public void streamAccounts( long afterAccountId, int limit,
+					RowHandler<Account> handler ) throws CustomException
+	{
+		delegate.streamAccounts(afterAccountId, limit, handler);
+	}
+
+	/**
+	 * Retrieve the account details by id, from the cache if present.
+	 */
+	public Account getAccountById( long accountId ) throws CustomException
+	{
+		Account account = cache.get(accountId);
+
+		// Cache hit.
+		if (account != null)
+		{
+			return account;
+		}
+
+		// Load and cache unless written while loading.
+		long stamp = cache.getWriteStamp(accountId);
+
+		account = delegate.getAccountById(accountId);
+
+		if (account != null)
+		{
+			cache.putIfUnchanged(accountId, account, stamp);
+		}
+
+		return account;
+	}
+
+	/**
+	 * Create account and cache the created account.
+	 */
+	public Account createAccount( Account account ) throws CustomException
+	{
+		Account created = delegate.createAccount(account);
+		
+		cache.put(created.getAccountId(), created);
+		
+		return created;
+	}
+
+	/**
+	 * Delete account by id and drop it from the cache.
+	 */
+	public int deleteAccountById( long accountId ) throws CustomException
+	{
+		try
+		{
+			return delegate.deleteAccountById(accountId);
+		}
+		finally
+		{
+			cache.invalidate(accountId);
+		}
+	}
+
+	/**
+	 * Update account balance and cache the updated account.
+	 */
+	public Account updateAccountBalance( long accountId, BigDecimal deltaAmount )
+					throws CustomException
+	{
+		// Invalidate before writing, the stamp then detects other writers.
+		cache.invalidate(accountId);
+		
+		long stamp = cache.getWriteStamp(accountId);
+		
+		Account updated = null;
+		
+		try
+		{
+			updated = delegate.updateAccountBalance(accountId, deltaAmount);
+			
+			return updated;
+		}
+		finally
+		{
+			// Cache the result only if no other write overlapped with ours,
+			// otherwise the order of the results is unknown.
+			if ((updated == null)
+							|| !cache.putIfUnchanged(accountId, updated, stamp))
+			{
+				cache.invalidate(accountId);
+			}
+		}
+	}
+
+	/**
+	 * Set the balance slots and drop the account from the cache.
+	 */
+	public Account setBalanceSlots( long accountId, int slotCount )
+					throws CustomException
+	{
+		try
+		{
+			return delegate.setBalanceSlots(accountId, slotCount);
+		}
+		finally
+		{
+			cache.invalidate(accountId);
+		}
+	}
+
+	/**
+	 * Transfer balance and drop both accounts from the cache.
+	 */
+	public int transferAccountBalance( UserTransaction userTransaction )
+					throws CustomException
+	{
+		try
+		{
+			return delegate.transferAccountBalance(userTransaction);
+		}
+		finally
+		{
+			invalidate(userTransaction);
+		}
+	}
+
+	/**
+	 * Transfer a batch of balances and drop every account involved from the
+	 * cache.
+	 */
+	public List<TransferResult> transferAccountBalances(
+					List<UserTransaction> userTransactions )
+					throws CustomException
+	{
+		try
+		{
+			return delegate.transferAccountBalances(userTransactions);
+		}
+		finally
+		{
+			for ( UserTransaction userTransaction : userTransactions )
+			{
+				invalidate(userTransaction);
+			}
+		}
+	}
+
+	/**
+	 * Drop every cached account, used when the underlying data is reloaded.
+	 */
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Retrieve the cache statistics.
+	 *
+	 * @return - statistics snapshot.
+	 */
+	public CacheStats getStats()
+	{
+		return cache.getStats();
+	}
+
+	/**
+	 * Drop both accounts of a transaction from the cache.
+	 */
+	private void invalidate( UserTransaction userTransaction )
+	{
+		// If debug is enabled, output log message.
+		if (log.isDebugEnabled())
+		{
+			log.debug("invalidate(): {}", userTransaction);
+		}
+
+		if (userTransaction.getFromAccountId() != null)
+		{
+			cache.invalidate(userTransaction.getFromAccountId());
+		}
+
+		if (userTransaction.getToAccountId() != null)
+		{
+			cache.invalidate(userTransaction.getToAccountId());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.account.dao.cache;
+
+import com.account.dao.IdempotencyDAO;
+import com.account.exception.CustomException;
+import com.account.model.IdempotencyRecord;
+
+/**
+ * Idempotency key Data Access Object decorator that answers retries of
+ * completed requests from a bounded, time evicting cache.
+ *
+ * Only completed records are cached, as they never change until they
+ * expire. A key that is not cached, or still in progress, is claimed
+ * through the underlying DAO, which decides between concurrent requests.
+ */
+public class CachingIdempotencyDAO implements IdempotencyDAO
+{
+	private final IdempotencyDAO delegate;
+	private final ExpiringLruCache<String, IdempotencyRecord> cache;
+	private final long ttlMillis;
+
+	/**
+	 * Caching idempotency key DAO constructor.
+	 *
+	 * @param delegate - underlying idempotency key DAO.
+	 * @param maxSize - maximum number of cached keys.
+	 * @param ttlMillis - time to live of a key.
+	 */
+	public CachingIdempotencyDAO( IdempotencyDAO delegate, int maxSize,
+					long ttlMillis )
+	{
+		this.delegate = delegate;
+		this.cache = new ExpiringLruCache<String, IdempotencyRecord>(maxSize,
+						ttlMillis);
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Return the cached outcome of a completed request, otherwise claim the
+	 * key through the underlying DAO.
+	 */
+	public IdempotencyRecord claimKey( String key, String fingerprint )
+					throws CustomException
+	{
+		IdempotencyRecord cached = cache.get(key);
+
+		// Completed and still live, replay it.
+		if ((cached != null)
+						&& !cached.isExpired(ttlMillis,
+										System.currentTimeMillis()))
+		{
+			return cached;
+		}
+
+		IdempotencyRecord existing = delegate.claimKey(key, fingerprint);
+
+		// Cache the outcome of a request completed by another instance.
+		if ((existing != null) && existing.isCompleted())
+		{
+			cache.put(key, existing);
+		}
+
+		return existing;
+	}
+
+	/**
+	 * Record the outcome, then cache it.
+	 */
+	public void completeKey( IdempotencyRecord record ) throws CustomException
+	{
+		delegate.completeKey(record);
+		cache.put(record.getKey(), record);
+	}
+
+	/**
+	 * Release the key through the underlying DAO.
+	 */
+	public void releaseKey( String key ) throws CustomException
+	{
+		cache.invalidate(key);
+		delegate.releaseKey(key);
+	}
+
+	/**
+	 * Remove every cached key.
+	 */
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Retrieve the current cache statistics.
+	 *
+	 * @return - statistics snapshot.
+	 */
+	public CacheStats getStats()
+	{
+		return cache.getStats();
+	}
+}
@@ -0,0 +1,411 @@
+package com.account.dao.cache;
+
+import com.account.dao.RowHandler;
+import com.account.dao.UserDAO;
+import com.account.exception.CustomException;
+import com.account.model.User;
+import com.account.utils.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User Data Access Object decorator that serves getUserById and
+ * getUserByName from bounded, time evicting caches, one per index.
+ *
+ * Lookups that find no user are remembered for a shorter time, so repeated
+ * lookups of a missing user name do not reach the database either. Every write removes the user id
+ * and both its old and new user names from both indexes, before and after
+ * writing. A user loaded while any write was running is not cached, so the
+ * two indexes never disagree with each other for longer than a write.
+ * Writes made to the User table outside this decorator are only seen once
+ * the cached entries expire.
+ */
+public class CachingUserDAO implements UserDAO
+{
+	private static Log log = Log.getLog(CachingUserDAO.class);
+
+	private final UserDAO delegate;
+
+	// Users by id and by name, and the ids and names found missing.
+	private final ExpiringLruCache<Long, User> usersById;
+	private final ExpiringLruCache<String, User> usersByName;
+	private final ExpiringLruCache<Long, Boolean> missingIds;
+	private final ExpiringLruCache<String, Boolean> missingNames;
+
+	// Lookups answered from the cache, with or without a user, and loaded.
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder negativeHitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+
+	// Incremented by every write, guarded by this.
+	private long writeVersion;
+
+	/**
+	 * Caching user DAO constructor.
+	 *
+	 * @param delegate - underlying user DAO.
+	 * @param maxSize - maximum number of users cached in each index.
+	 * @param ttlMillis - time a user stays cached.
+	 * @param negativeTtlMillis - time a missing user stays cached, 0 to not
+	 *            cache missing users.
+	 */
+	public CachingUserDAO( UserDAO delegate, int maxSize, long ttlMillis,
+					long negativeTtlMillis )
+	{
+		this.delegate = delegate;
+		this.usersById = new ExpiringLruCache<Long, User>(maxSize, ttlMillis);
+		this.usersByName = new ExpiringLruCache<String, User>(maxSize,
+						ttlMillis);
+
+		// Missing users are cached only with a time to live.
+		if (negativeTtlMillis > 0)
+		{
+			this.missingIds = new ExpiringLruCache<Long, Boolean>(maxSize,
+							negativeTtlMillis);
+			this.missingNames = new ExpiringLruCache<String, Boolean>(maxSize,
+							negativeTtlMillis);
+		}
+		else
+		{
+			this.missingIds = null;
+			this.missingNames = null;
+		}
+	}
+
+	/**
+	 * Retrieve all users, always from the underlying DAO.
+	 */
+	public List<User> getAllUsers() throws CustomException
+	{
+		return delegate.getAllUsers();
+	}
+
+	/**
+	 * Retrieve a page of users, always from the underlying DAO.
+	 */
+	public List<User> getUsers( long afterUserId, int limit )
+					throws CustomException
+	{
+		return delegate.getUsers(afterUserId, limit);
+	}
+
+	/**
+	 * Stream users, always from the underlying DAO.
+	 */
+	public void streamUsers( long afterUserId, int limit,
+					RowHandler<User> handler ) throws CustomException
+	{
+		delegate.streamUsers(afterUserId, limit, handler);
+	}
+
+	/**
+	 * Retrieve the user details by id, from the cache if present.
+	 */
+	public User getUserById( long userId ) throws CustomException
+	{
+		User user = usersById.get(userId);
+
+		// Cache hit.
+		if (user != null)
+		{
+			hitCount.increment();
+
+			return user;
+		}
+
+		// Known to be missing.
+		if ((missingIds != null) && (missingIds.get(userId) != null))
+		{
+			negativeHitCount.increment();
+
+			return null;
+		}
+
+		missCount.increment();
+
+		// Load and cache unless written while loading.
+		long version = getWriteVersion();
+
+		user = delegate.getUserById(userId);
+
+		cacheLoaded(user, userId, null, version);
+
+		return user;
+	}
+
+	/**
+	 * Retrieve the user details by name, from the cache if present.
+	 */
+	public User getUserByName( String userName ) throws CustomException
+	{
+		// Nothing to index.
+		if (userName == null)
+		{
+			return delegate.getUserByName(userName);
+		}
+
+		User user = usersByName.get(userName);
+
+		// Cache hit.
+		if (user != null)
+		{
+			hitCount.increment();
+
+			return user;
+		}
+
+		// Known to be missing.
+		if ((missingNames != null) && (missingNames.get(userName) != null))
+		{
+			negativeHitCount.increment();
+
+			return null;
+		}
+
+		missCount.increment();
+
+		// Load and cache unless written while loading.
+		long version = getWriteVersion();
+
+		user = delegate.getUserByName(userName);
+
+		cacheLoaded(user, null, userName, version);
+
+		return user;
+	}
+
+	/**
+	 * Insert the user and cache the created user.
+	 */
+	public long insertUser( User user ) throws CustomException
+	{
+		// The name may be cached as missing.
+		invalidate(null, user.getUserName());
+
+		long userId = -1;
+
+		try
+		{
+			userId = delegate.insertUser(user);
+
+			return userId;
+		}
+		finally
+		{
+			invalidate((userId > 0) ? userId : null, user.getUserName());
+
+			if (userId > 0)
+			{
+				cacheWritten(new User(userId, user.getUserName(),
+								user.getEmailAddress()));
+			}
+		}
+	}
+
+	/**
+	 * Update the user and drop it, under its old and new names, from the
+	 * cache.
+	 */
+	public int updateUser( Long userId, User user ) throws CustomException
+	{
+		// Nothing to index.
+		if (userId == null)
+		{
+			return delegate.updateUser(userId, user);
+		}
+
+		String oldName = getUserName(userId);
+
+		invalidate(userId, oldName, user.getUserName());
+
+		try
+		{
+			return delegate.updateUser(userId, user);
+		}
+		finally
+		{
+			invalidate(userId, oldName, user.getUserName());
+		}
+	}
+
+	/**
+	 * Delete the user and drop it from the cache.
+	 */
+	public int deleteUser( long userId ) throws CustomException
+	{
+		String oldName = getUserName(userId);
+
+		invalidate(userId, oldName);
+
+		try
+		{
+			return delegate.deleteUser(userId);
+		}
+		finally
+		{
+			invalidate(userId, oldName);
+		}
+	}
+
+	/**
+	 * Drop every cached user, used when the underlying data is reloaded.
+	 */
+	public synchronized void clear()
+	{
+		writeVersion++;
+
+		usersById.clear();
+		usersByName.clear();
+
+		if (missingIds != null)
+		{
+			missingIds.clear();
+			missingNames.clear();
+		}
+	}
+
+	/**
+	 * Retrieve the cache statistics. Hits include lookups answered with a
+	 * cached missing user, the size is the number of users cached by id.
+	 *
+	 * @return - statistics snapshot.
+	 */
+	public CacheStats getStats()
+	{
+		CacheStats byId = usersById.getStats();
+		CacheStats byName = usersByName.getStats();
+
+		long evictions = byId.getEvictionCount() + byName.getEvictionCount();
+		long expirations = byId.getExpirationCount()
+						+ byName.getExpirationCount();
+
+		if (missingIds != null)
+		{
+			CacheStats missingById = missingIds.getStats();
+			CacheStats missingByName = missingNames.getStats();
+
+			evictions += missingById.getEvictionCount()
+							+ missingByName.getEvictionCount();
+			expirations += missingById.getExpirationCount()
+							+ missingByName.getExpirationCount();
+		}
+
+		return new CacheStats(byId.getSize(), hitCount.sum()
+						+ negativeHitCount.sum(), missCount.sum(), evictions,
+						expirations);
+	}
+
+	/**
+	 * Retrieve the number of lookups answered with a cached missing user.
+	 *
+	 * @return - negative hit count.
+	 */
+	public long getNegativeHitCount()
+	{
+		return negativeHitCount.sum();
+	}
+
+	/**
+	 * Retrieve the current name of a user before writing it.
+	 */
+	private String getUserName( long userId ) throws CustomException
+	{
+		User user = getUserById(userId);
+
+		return (user != null) ? user.getUserName() : null;
+	}
+
+	/**
+	 * Retrieve the write version to pass to cacheLoaded. Take it before
+	 * reading from the database.
+	 */
+	private synchronized long getWriteVersion()
+	{
+		return writeVersion;
+	}
+
+	/**
+	 * Cache a loaded user, or the id or name found missing, unless a write
+	 * started since the version was taken.
+	 */
+	private synchronized void cacheLoaded( User user, Long userId,
+					String userName, long version )
+	{
+		// A write raced with the load, the result may be stale.
+		if (version != writeVersion)
+		{
+			return;
+		}
+
+		if (user != null)
+		{
+			cacheWritten(user);
+		}
+		else if (missingIds != null)
+		{
+			if (userId != null)
+			{
+				missingIds.put(userId, Boolean.TRUE);
+			}
+
+			if (userName != null)
+			{
+				missingNames.put(userName, Boolean.TRUE);
+			}
+		}
+	}
+
+	/**
+	 * Cache a user just written.
+	 */
+	private synchronized void cacheWritten( User user )
+	{
+		usersById.put(user.getUserId(), user);
+
+		if (user.getUserName() != null)
+		{
+			usersByName.put(user.getUserName(), user);
+		}
+	}
+
+	/**
+	 * Drop a user id and names from both indexes, and stop caching loads
+	 * already running.
+	 */
+	private synchronized void invalidate( Long userId, String... userNames )
+	{
+		// If debug is enabled, output log message.
+		if (log.isDebugEnabled())
+		{
+			log.debug("invalidate(): {}", userId);
+		}
+
+		writeVersion++;
+
+		if (userId != null)
+		{
+			usersById.invalidate(userId);
+
+			if (missingIds != null)
+			{
+				missingIds.invalidate(userId);
+			}
+		}
+
+		for ( String userName : userNames )
+		{
+			if (userName == null)
+			{
+				continue;
+			}
+
+			usersByName.invalidate(userName);
+
+			if (missingNames != null)
+			{
+				missingNames.invalidate(userName);
+			}
+		}
+	}
+}
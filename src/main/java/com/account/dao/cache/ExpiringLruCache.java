@@ -0,0 +1,278 @@
+package com.account.dao.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache that evicts the least recently used entry once
+ * full and drops entries older than a time to live.
+ *
+ * Keys are spread across independently locked segments so that lookups of
+ * different keys rarely contend. Each segment counts its invalidations,
+ * which lets a caller that loaded a value from the database discard it if
+ * the key was written in the meantime (see {@link #getWriteStamp}).
+ *
+ * @param <K> - key type.
+ * @param <V> - value type.
+ */
+public class ExpiringLruCache<K, V>
+{
+	// Segments used once the cache holds more than a handful of entries.
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment<K, V>[] segments;
+	private final long ttlNanos;
+
+	// Statistics.
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private final LongAdder expirationCount = new LongAdder();
+
+	/**
+	 * Cache constructor.
+	 *
+	 * @param maxSize - maximum number of entries.
+	 * @param ttlMillis - time to live of an entry, 0 for no expiry.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public ExpiringLruCache( int maxSize, long ttlMillis )
+	{
+		// Sanity check the size.
+		if (maxSize < 1)
+		{
+			throw new IllegalArgumentException("Invalid cache size " + maxSize);
+		}
+
+		int segmentCount = (maxSize < MAX_SEGMENTS) ? 1 : MAX_SEGMENTS;
+		int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+
+		this.segments = new Segment[segmentCount];
+		this.ttlNanos = ttlMillis * 1000000L;
+
+		for ( int i = 0; i < segmentCount; i++ )
+		{
+			segments[i] = new Segment<K, V>(segmentSize, evictionCount);
+		}
+	}
+
+	/**
+	 * Look up a value.
+	 *
+	 * @param key - cache key.
+	 * @return - cached value, or null if absent or expired.
+	 */
+	public V get( K key )
+	{
+		Segment<K, V> segment = segmentFor(key);
+		long now = System.nanoTime();
+
+		synchronized (segment)
+		{
+			Entry<V> entry = segment.get(key);
+
+			// Not cached.
+			if (entry == null)
+			{
+				missCount.increment();
+				return null;
+			}
+
+			// Cached but too old.
+			if (isExpired(entry, now))
+			{
+				segment.remove(key);
+				expirationCount.increment();
+				missCount.increment();
+				return null;
+			}
+
+			hitCount.increment();
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Retrieve a stamp to pass to {@link #putIfUnchanged} after loading the
+	 * value for a key. Take it before reading from the database.
+	 *
+	 * @param key - cache key.
+	 * @return - current write stamp for the key.
+	 */
+	public long getWriteStamp( K key )
+	{
+		Segment<K, V> segment = segmentFor(key);
+
+		synchronized (segment)
+		{
+			return segment.invalidations;
+		}
+	}
+
+	/**
+	 * Store a value.
+	 *
+	 * @param key - cache key.
+	 * @param value - value to store.
+	 */
+	public void put( K key, V value )
+	{
+		Segment<K, V> segment = segmentFor(key);
+
+		synchronized (segment)
+		{
+			segment.put(key, new Entry<V>(value, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Store a value loaded from the database, unless the key may have been
+	 * written since the stamp was taken.
+	 *
+	 * @param key - cache key.
+	 * @param value - value to store.
+	 * @param stamp - stamp from {@link #getWriteStamp}.
+	 * @return - true if the value was stored.
+	 */
+	public boolean putIfUnchanged( K key, V value, long stamp )
+	{
+		Segment<K, V> segment = segmentFor(key);
+
+		synchronized (segment)
+		{
+			// A write raced with the load, the value may be stale.
+			if (segment.invalidations != stamp)
+			{
+				return false;
+			}
+
+			segment.put(key, new Entry<V>(value, System.nanoTime()));
+
+			return true;
+		}
+	}
+
+	/**
+	 * Remove a key after it has been written.
+	 *
+	 * @param key - cache key.
+	 */
+	public void invalidate( K key )
+	{
+		Segment<K, V> segment = segmentFor(key);
+
+		synchronized (segment)
+		{
+			segment.invalidations++;
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Remove every entry.
+	 */
+	public void clear()
+	{
+		for ( Segment<K, V> segment : segments )
+		{
+			synchronized (segment)
+			{
+				segment.invalidations++;
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the current cache statistics.
+	 *
+	 * @return - statistics snapshot.
+	 */
+	public CacheStats getStats()
+	{
+		long size = 0;
+
+		for ( Segment<K, V> segment : segments )
+		{
+			synchronized (segment)
+			{
+				size += segment.size();
+			}
+		}
+
+		return new CacheStats(size, hitCount.sum(), missCount.sum(),
+						evictionCount.sum(), expirationCount.sum());
+	}
+
+	/**
+	 * Find the segment holding a key.
+	 */
+	private Segment<K, V> segmentFor( K key )
+	{
+		int h = key.hashCode();
+
+		// Spread the hash bits before picking a segment.
+		h ^= (h >>> 16);
+
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * Check whether an entry has outlived the time to live.
+	 */
+	private boolean isExpired( Entry<V> entry, long now )
+	{
+		return (ttlNanos > 0) && ((now - entry.createdNanos) > ttlNanos);
+	}
+
+	/**
+	 * Cached value with its creation time.
+	 */
+	private static final class Entry<V>
+	{
+		final V value;
+		final long createdNanos;
+
+		Entry( V value, long createdNanos )
+		{
+			this.value = value;
+			this.createdNanos = createdNanos;
+		}
+	}
+
+	/**
+	 * Access ordered map holding one share of the entries.
+	 */
+	private static final class Segment<SK, SV> extends
+					LinkedHashMap<SK, Entry<SV>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+		private final LongAdder evictionCount;
+
+		// Number of writes seen by the segment.
+		long invalidations = 0;
+
+		Segment( int capacity, LongAdder evictionCount )
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+			this.evictionCount = evictionCount;
+		}
+
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<SK, Entry<SV>> eldest )
+		{
+			// Evict the least recently used entry once over capacity.
+			if (size() > capacity)
+			{
+				evictionCount.increment();
+				return true;
+			}
+
+			return false;
+		}
+	}
+}
@@ -2,23 +2,42 @@ package com.account.dao.impl;
 
 import com.account.dao.AccountDAO;
 import com.account.dao.DataDAOFactory;
+import com.account.dao.RowHandler;
 import com.account.exception.CustomException;
+import com.account.exception.TransferException;
+import com.account.metrics.BalancePhases;
+import com.account.metrics.BalancePhases.Phase;
+import com.account.metrics.ContendedAccounts;
 import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.Money;
 import com.account.model.MoneyUtil;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
 import com.account.model.UserTransaction;
+import com.account.utils.Log;
+import com.account.utils.Utils;
 
 import org.apache.commons.dbutils.DbUtils;
-import org.apache.log4j.Logger;
 
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Implementation of the Account Data Acces Object.
@@ -28,15 +47,44 @@ import java.util.List;
 @Repository
 public class AccountDAOImpl implements AccountDAO
 {
-	private static Logger log = Logger.getLogger(AccountDAOImpl.class);
+	private static Log log = Log.getLog(AccountDAOImpl.class);
+	
+	// SQL state of a lock not acquired within the lock timeout.
+	private final static String LOCK_TIMEOUT_STATE = "HYT00";
 	
 	// SQL Statements
-	private final static String SQL_GET_ACC_BY_ID = "SELECT * FROM Account WHERE AccountId = ? ";
+	private final static String SQL_ACC_COLUMNS = "SELECT a.AccountId, a.UserName, a.Balance, a.CurrencyCode FROM Account a ";
+	private final static String SQL_HOT_ACC_COLUMNS = "SELECT a.AccountId, a.UserName, a.Balance + COALESCE((SELECT SUM(s.Balance) FROM AccountSlot s WHERE s.AccountId = a.AccountId), 0) AS Balance, a.CurrencyCode FROM Account a ";
+	private final static String SQL_GET_ACC_BY_ID = SQL_ACC_COLUMNS + "WHERE a.AccountId = ? ";
+	private final static String SQL_GET_HOT_ACC_BY_ID = SQL_HOT_ACC_COLUMNS + "WHERE a.AccountId = ? ";
 	private final static String SQL_LOCK_ACC_BY_ID = "SELECT * FROM Account WHERE AccountId = ? FOR UPDATE";
 	private final static String SQL_CREATE_ACC = "INSERT INTO Account (UserName, Balance, CurrencyCode) VALUES (?, ?, ?)";
 	private final static String SQL_UPDATE_ACC_BALANCE = "UPDATE Account SET Balance = ? WHERE AccountId = ? ";
-	private final static String SQL_GET_ALL_ACC = "SELECT * FROM Account";
+	private final static String SQL_UPDATE_ACC_BALANCE_BY_DELTA = "UPDATE Account SET Balance = Balance + ? WHERE AccountId = ? AND Balance + ? >= 0";
+	private final static String SQL_GET_ALL_ACC = SQL_ACC_COLUMNS;
+	private final static String SQL_GET_ALL_HOT_ACC = SQL_HOT_ACC_COLUMNS;
+	private final static String SQL_GET_ACC_AFTER_ID = SQL_ACC_COLUMNS + "WHERE a.AccountId > ? ORDER BY a.AccountId";
+	private final static String SQL_GET_HOT_ACC_AFTER_ID = SQL_HOT_ACC_COLUMNS + "WHERE a.AccountId > ? ORDER BY a.AccountId";
+	private final static String SQL_GET_ACC_PAGE_AFTER_ID = SQL_ACC_COLUMNS + "WHERE a.AccountId > ? ORDER BY a.AccountId LIMIT ?";
+	private final static String SQL_GET_HOT_ACC_PAGE_AFTER_ID = SQL_HOT_ACC_COLUMNS + "WHERE a.AccountId > ? ORDER BY a.AccountId LIMIT ?";
 	private final static String SQL_DELETE_ACC_BY_ID = "DELETE FROM Account WHERE AccountId = ?";
+	private final static String SQL_INSERT_LEDGER = "INSERT INTO Ledger (AccountId, CounterAccountId, Amount, Balance, CurrencyCode) VALUES (?, ?, ?, ?, ?)";
+	private final static String SQL_GET_LEDGER_AFTER_ID = "SELECT LedgerId, AccountId, CounterAccountId, Amount, Balance, CurrencyCode, CreatedAt FROM Ledger WHERE AccountId = ? AND LedgerId > ? ORDER BY LedgerId";
+	private final static String SQL_GET_LEDGER_PAGE_AFTER_ID = "SELECT LedgerId, AccountId, CounterAccountId, Amount, Balance, CurrencyCode, CreatedAt FROM Ledger WHERE AccountId = ? AND LedgerId > ? ORDER BY LedgerId LIMIT ?";
+
+	// Maximum number of transfers applied in one database transaction.
+	private final static int TRANSFER_BATCH_SIZE = Utils.getIntegerProperty(
+					"transfer_batch_size", 500);
+
+	// Rows fetched from the database per round trip when streaming.
+	private final static int FETCH_SIZE = Utils.getIntegerProperty(
+					"data_fetch_size", 500);
+
+	// Time spent in each phase of balance updates and transfers.
+	private final static BalancePhases UPDATE_PHASES = new BalancePhases("update");
+	private final static BalancePhases TRANSFER_PHASES = new BalancePhases("transfer");
+	private final static BalancePhases BATCH_PHASES = new BalancePhases("batch");
+	private final static BalancePhases GROUP_COMMIT_PHASES = new BalancePhases("group_commit");
 
 	/**
 	 * Retrieve all the accounts from the ACCOUNTS data table.
@@ -54,7 +102,10 @@ public class AccountDAOImpl implements AccountDAO
 		try
 		{
 			conn = DataDAOFactory.getConnection();
-			stmt = conn.prepareStatement(SQL_GET_ALL_ACC);
+			
+			// Slot balances are only summed while any account is hot.
+			stmt = conn.prepareStatement(BalanceSlots.anyHot(conn) ? SQL_GET_ALL_HOT_ACC
+							: SQL_GET_ALL_ACC);
 			rs = stmt.executeQuery();
 			
 			// Process the retrieved data.
@@ -65,11 +116,7 @@ public class AccountDAOImpl implements AccountDAO
 								rs.getBigDecimal("Balance"),
 								rs.getString("CurrencyCode"));
 				
-				// Output debug if enabled.
-				if (log.isDebugEnabled())
-				{
-					log.debug("getAllAccounts(): Get  Account " + acc);
-				}
+				log.debug("getAllAccounts(): Get  Account {}", acc);
 				
 				// Add account details to account list
 				allAccounts.add(acc);
@@ -90,6 +137,159 @@ public class AccountDAOImpl implements AccountDAO
 		}
 	}
 
+	/**
+	 * Retrieve a page of accounts in account id order.
+	 */
+	public List<Account> getAccounts( long afterAccountId, int limit )
+					throws CustomException
+	{
+		final List<Account> accounts = new ArrayList<Account>();
+		
+		// Collect the page.
+		streamAccounts(afterAccountId, limit, new RowHandler<Account>()
+		{
+			public void handle( Account account )
+			{
+				accounts.add(account);
+			}
+		});
+		
+		return accounts;
+	}
+
+	/**
+	 * Pass accounts in account id order to a handler as they are read.
+	 */
+	public void streamAccounts( long afterAccountId, int limit,
+					RowHandler<Account> handler ) throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		
+		// Connect to database and execute the query.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			
+			boolean anyHot = BalanceSlots.anyHot(conn);
+			
+			// Limit the rows read, if requested.
+			if (limit > 0)
+			{
+				stmt = conn.prepareStatement(anyHot ? SQL_GET_HOT_ACC_PAGE_AFTER_ID
+								: SQL_GET_ACC_PAGE_AFTER_ID);
+				stmt.setLong(1, afterAccountId);
+				stmt.setInt(2, limit);
+			}
+			else
+			{
+				stmt = conn.prepareStatement(anyHot ? SQL_GET_HOT_ACC_AFTER_ID
+								: SQL_GET_ACC_AFTER_ID);
+				stmt.setLong(1, afterAccountId);
+			}
+			
+			stmt.setFetchSize(FETCH_SIZE);
+			rs = stmt.executeQuery();
+			
+			// Hand over each account as it is read.
+			while (rs.next())
+			{
+				handler.handle(toAccount(rs));
+			}
+		}
+		// Catch SQL Exception
+		catch (SQLException e)
+		{
+			throw new CustomException(
+							"streamAccounts(): Error reading account data", e);
+		}
+		// Catch handler failure.
+		catch (IOException e)
+		{
+			throw new CustomException(
+							"streamAccounts(): Error writing account data", e);
+		}
+		// Finally close the database.
+		finally
+		{
+			DbUtils.closeQuietly(conn, stmt, rs);
+		}
+	}
+
+	/**
+	 * Retrieve a page of an account's ledger legs in ledger id order.
+	 * 
+	 * The page is read from the range of idx_ledger_acc starting after the
+	 * given id, so its cost does not grow with the length of the history.
+	 */
+	public List<LedgerEntry> getAccountHistory( long accountId,
+					long afterLedgerId, int limit ) throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		
+		List<LedgerEntry> entries = new ArrayList<LedgerEntry>();
+		
+		// Connect to database and execute the query.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			
+			// Limit the rows read, if requested.
+			if (limit > 0)
+			{
+				stmt = conn.prepareStatement(SQL_GET_LEDGER_PAGE_AFTER_ID);
+				stmt.setLong(1, accountId);
+				stmt.setLong(2, afterLedgerId);
+				stmt.setInt(3, limit);
+			}
+			else
+			{
+				stmt = conn.prepareStatement(SQL_GET_LEDGER_AFTER_ID);
+				stmt.setLong(1, accountId);
+				stmt.setLong(2, afterLedgerId);
+			}
+			
+			stmt.setFetchSize(FETCH_SIZE);
+			rs = stmt.executeQuery();
+			
+			while (rs.next())
+			{
+				// No counter account for a deposit or withdrawal.
+				Long counterAccountId = rs.getLong("CounterAccountId");
+				
+				if (rs.wasNull())
+				{
+					counterAccountId = null;
+				}
+				
+				entries.add(new LedgerEntry(rs.getLong("LedgerId"),
+								rs.getLong("AccountId"), counterAccountId,
+								rs.getBigDecimal("Amount"),
+								rs.getBigDecimal("Balance"),
+								rs.getString("CurrencyCode"),
+								rs.getTimestamp("CreatedAt")));
+			}
+			
+			return entries;
+		}
+		// Catch SQL Exception
+		catch (SQLException e)
+		{
+			throw new CustomException(
+							"getAccountHistory(): Error reading ledger data", e);
+		}
+		// Finally close the database.
+		finally
+		{
+			DbUtils.closeQuietly(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 * Retrieve the account details by id
 	 */
@@ -106,7 +306,7 @@ public class AccountDAOImpl implements AccountDAO
 		try
 		{
 			conn = DataDAOFactory.getConnection();
-			stmt = conn.prepareStatement(SQL_GET_ACC_BY_ID);
+			stmt = conn.prepareStatement(accountByIdSql(conn, accountId));
 			stmt.setLong(1, accountId);
 			rs = stmt.executeQuery();
 			
@@ -118,11 +318,7 @@ public class AccountDAOImpl implements AccountDAO
 								rs.getBigDecimal("Balance"),
 								rs.getString("CurrencyCode"));
 				
-				// Output message is debug is enabled
-				if (log.isDebugEnabled())
-				{
-					log.debug("Retrieve Account By Id: " + acc);
-				}
+				log.debug("Retrieve Account By Id: {}", acc);
 			}
 			
 			return acc;
@@ -143,23 +339,36 @@ public class AccountDAOImpl implements AccountDAO
 
 	/**
 	 * Create account
+	 * 
+	 * The balance is stored at scale 4, the created account is built from the
+	 * generated id and the inserted values rather than read back. An opening
+	 * balance is written to the ledger in the same transaction.
 	 */
-	public long createAccount( Account account ) throws CustomException
+	public Account createAccount( Account account ) throws CustomException
 	{
 		// Initialise connection parameters.
 		Connection conn = null;
 		PreparedStatement stmt = null;
+		PreparedStatement ledgerStmt = null;
 		ResultSet generatedKeys = null;
 		
 		// Connect to database. Set the values for the account creation.
 		// Execute the sql statement.
 		try
 		{
+			// Store the balance at the column scale.
+			BigDecimal balance = (account.getBalance() == null) ? null
+							: account.getBalance().setScale(4,
+											RoundingMode.HALF_EVEN);
+			
 			conn = DataDAOFactory.getConnection();
-			stmt = conn.prepareStatement(SQL_CREATE_ACC);
+			conn.setAutoCommit(false);
+			
+			stmt = conn.prepareStatement(SQL_CREATE_ACC,
+							Statement.RETURN_GENERATED_KEYS);
 			
 			stmt.setString(1, account.getUserName());
-			stmt.setBigDecimal(2, account.getBalance());
+			stmt.setBigDecimal(2, balance);
 			stmt.setString(3, account.getCurrencyCode());
 			
 			int affectedRows = stmt.executeUpdate();
@@ -177,7 +386,25 @@ public class AccountDAOImpl implements AccountDAO
 			// Check key created.
 			if (generatedKeys.next())
 			{
-				return generatedKeys.getLong(1);
+				Account created = new Account(generatedKeys.getLong(1),
+								account.getUserName(), balance,
+								account.getCurrencyCode());
+				
+				// Record the opening balance.
+				if (balance != null)
+				{
+					ledgerStmt = conn.prepareStatement(SQL_INSERT_LEDGER);
+					
+					addLeg(ledgerStmt, new Leg(created.getAccountId(), null,
+									Money.toMinorUnits(balance),
+									Money.toMinorUnits(balance),
+									created.getCurrencyCode()));
+					ledgerStmt.executeBatch();
+				}
+				
+				conn.commit();
+				
+				return created;
 			}
 			// Otherwise, account creation failed.
 			else
@@ -190,14 +417,22 @@ public class AccountDAOImpl implements AccountDAO
 		// Catch SQL Exception
 		catch (SQLException e)
 		{
-			log.error("Error Inserting Account  " + account);
+			log.error("Error Inserting Account  {}", account);
 			throw new CustomException(
 							"createAccount(): Error creating user account "
 											+ account, e);
 		}
+		// Balance out of range, the pool rolls back on release.
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException(
+							"createAccount(): Error creating user account "
+											+ account, ae);
+		}
 		// Finally, close database.
 		finally
 		{
+			DbUtils.closeQuietly(ledgerStmt);
 			DbUtils.closeQuietly(conn, stmt, generatedKeys);
 		}
 	}
@@ -215,19 +450,45 @@ public class AccountDAOImpl implements AccountDAO
 		try
 		{
 			conn = DataDAOFactory.getConnection();
+			conn.setAutoCommit(false);
+			
 			stmt = conn.prepareStatement(SQL_DELETE_ACC_BY_ID);
 			stmt.setLong(1, accountId);
 			
 			int returnDelete = stmt.executeUpdate();
 			
-			// Commit change.
+			// Remove the balance slots of a hot account with it.
+			BalanceSlots.delete(conn, accountId);
+			
+			// Commit both deletes together.
 			conn.commit();
 			
+			// Cold once its slots are gone.
+			BalanceSlots.setCount(accountId, 0);
+			
 			return returnDelete;
 		}
 		// Catch SQL Exception.
 		catch (SQLException e)
 		{
+			log.error("deleteAccountById(): Transaction Failed, rollback initiated for: {}",
+							accountId, e);
+			
+			// If connection is not null, rollback commit if error.
+			try
+			{
+				// Connection is not null, rollback commit.
+				if (conn != null)
+				{
+					conn.rollback();
+				}
+			}
+			// Catch SQL Exception
+			catch (SQLException re)
+			{
+				throw new CustomException("Fail to rollback transaction", re);
+			}
+			
 			throw new CustomException(
 							"deleteAccountById(): Error deleting user account Id "
 											+ accountId, e);
@@ -240,20 +501,29 @@ public class AccountDAOImpl implements AccountDAO
 	}
 
 	/**
-	 * Update account balance
+	 * Set the balance slots of an account.
+	 * 
+	 * The account row and its current slots are locked, the slots are folded
+	 * into the row and replaced by empty ones. The balance is unchanged, so
+	 * nothing is written to the ledger.
 	 */
-	public int updateAccountBalance( long accountId, BigDecimal deltaAmount )
+	public Account setBalanceSlots( long accountId, int slotCount )
 					throws CustomException
 	{
-		// Initialise connection parameters. 
+		// Sanity check the slot count.
+		if (slotCount < 0)
+		{
+			throw new CustomException(
+							"setBalanceSlots(): Invalid slot count " + slotCount);
+		}
+		
+		// Initialise connection parameters.
 		Connection conn = null;
 		PreparedStatement lockStmt = null;
 		PreparedStatement updateStmt = null;
 		
-		ResultSet rs = null;
-		Account targetAccount = null;
-		
-		int updateCount = -1;
+		// Slot count restored if the new slots are not committed.
+		int restoreCount = -1;
 		
 		// Connect to database and execute.
 		try
@@ -261,68 +531,71 @@ public class AccountDAOImpl implements AccountDAO
 			conn = DataDAOFactory.getConnection();
 			conn.setAutoCommit(false);
 			
-			// lock account for writing:
+			// Account row first, then its slots.
 			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
-			lockStmt.setLong(1, accountId);
+			Account account = lockAccount(lockStmt, accountId);
 			
-			rs = lockStmt.executeQuery();
-			
-			// Process query result.
-			if (rs.next())
-			{
-				targetAccount = new Account(rs.getLong("AccountId"),
-								rs.getString("UserName"),
-								rs.getBigDecimal("Balance"),
-								rs.getString("CurrencyCode"));
-				
-				// If debug is enabled, output log message.
-				if (log.isDebugEnabled())
-				{
-					log.debug("updateAccountBalance from Account: "
-									+ targetAccount);
-				}
-			}
-
-			// If the returned account is null, unable to process.
-			if (targetAccount == null)
+			// If the account does not exist, unable to process.
+			if (account == null)
 			{
 				throw new CustomException(
-								"updateAccountBalance(): fail to lock account : "
+								"setBalanceSlots(): account not found : "
 												+ accountId);
 			}
 			
-			// update account upon success locking
-			BigDecimal balance = targetAccount.getBalance().add(deltaAmount);
+			int previousCount = BalanceSlots.count(conn, accountId);
+			
+			Long slotBalance = BalanceSlots.lock(conn, accountId);
+			BigDecimal balance = account.getBalance();
 			
-			// If the balance is in debt, can not process
-			if (balance.compareTo(MoneyUtil.zeroAmount) < 0)
+			// Fold the current slots into the row.
+			if (slotBalance != null)
 			{
-				throw new CustomException("Not sufficient Fund for account: "
-								+ accountId);
+				balance = Money.toBigDecimal(Money.add(toMinorUnits(balance),
+								slotBalance));
+				
+				updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
+				updateStmt.setBigDecimal(1, balance);
+				updateStmt.setLong(2, accountId);
+				updateStmt.executeUpdate();
+				
+				BalanceSlots.delete(conn, accountId);
+			}
+			
+			// Credits are then spread over the new slots.
+			if (slotCount > 0)
+			{
+				BalanceSlots.create(conn, accountId, slotCount);
+				
+				// Hot before the slots are committed, so none is missed.
+				restoreCount = previousCount;
+				BalanceSlots.setCount(accountId, slotCount);
 			}
-
-			// Prepare the update statement and execute.
-			updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
-			updateStmt.setBigDecimal(1, balance);
-			updateStmt.setLong(2, accountId);
-			updateCount = updateStmt.executeUpdate();
 			
 			conn.commit();
+			restoreCount = -1;
+			
+			// Cold only once the removal of its slots is committed.
+			if (slotCount == 0)
+			{
+				BalanceSlots.setCount(accountId, 0);
+			}
 			
 			// If debug is enabled, output log message.
 			if (log.isDebugEnabled())
 			{
-				log.debug("New Balance after Update: " + targetAccount);
+				log.debug("setBalanceSlots(): account {} has {} slots",
+								accountId, slotCount);
 			}
 			
-			return updateCount;
+			return new Account(accountId, account.getUserName(), balance,
+							account.getCurrencyCode());
 		}
 		// SQL Exception
 		catch (SQLException se)
 		{
-			// rollback transaction if exception occurs
-			log.error("updateAccountBalance(): User Transaction Failed, rollback initiated for: "
-							+ accountId, se);
+			log.error("setBalanceSlots(): Transaction Failed, rollback initiated for: {}",
+							accountId, se);
 			
 			// If connection is not null, rollback commit if error.
 			try
@@ -338,158 +611,499 @@ public class AccountDAOImpl implements AccountDAO
 			{
 				throw new CustomException("Fail to rollback transaction", re);
 			}
+			
+			throw new CustomException(
+							"setBalanceSlots(): Error setting balance slots of account "
+											+ accountId, se);
+		}
+		// Balance out of range, the pool rolls back on release.
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException(
+							"setBalanceSlots(): Error setting balance slots of account "
+											+ accountId, ae);
 		}
 		// Perform following regardless.
 		finally
 		{
 			DbUtils.closeQuietly(conn);
-			DbUtils.closeQuietly(rs);
 			DbUtils.closeQuietly(lockStmt);
 			DbUtils.closeQuietly(updateStmt);
+			
+			// The new slots were not committed, and are rolled back by now.
+			if (restoreCount >= 0)
+			{
+				BalanceSlots.setCount(accountId, restoreCount);
+			}
 		}
-		
-		return updateCount;
 	}
 
 	/**
-	 * Transfer balance between two accounts.
+	 * Update account balance
+	 * 
+	 * The delta is applied by a single guarded UPDATE, so the row is only
+	 * locked until the updated row has been read back in the same
+	 * transaction. The read back also tells a missing account from
+	 * insufficient funds when no row is updated, and gives the balance
+	 * written to the ledger with the delta.
+	 * 
+	 * A deposit to a hot account goes to one of its balance slots instead of
+	 * the Account row. A withdrawal the Account row cannot cover folds the
+	 * slots into it first.
+	 * 
+	 * The guarded UPDATE waits for the row lock and applies the delta in one
+	 * statement, so its time is recorded as the lock phase, the read back as
+	 * validation and the ledger insert as the update.
 	 */
-	@SuppressWarnings( "resource" )
-	public int transferAccountBalance( UserTransaction userTransaction )
+	public Account updateAccountBalance( long accountId, BigDecimal deltaAmount )
 					throws CustomException
 	{
-		// Initialise connection parameters.
-
+		// Initialise connection parameters. 
 		Connection conn = null;
-		PreparedStatement lockStmt = null;
 		PreparedStatement updateStmt = null;
+		PreparedStatement readStmt = null;
+		PreparedStatement ledgerStmt = null;
 		
 		ResultSet rs = null;
-		Account fromAccount = null;
-		Account toAccount = null;
+		Account account = null;
 		
-		int result = -1;
-
-		// Connext to DAO Factory source.
+		long phaseStart = System.nanoTime();
+		
+		// Connect to database and execute.
 		try
 		{
 			conn = DataDAOFactory.getConnection();
+			phaseStart = UPDATE_PHASES.record(Phase.CONNECT, phaseStart);
 			conn.setAutoCommit(false);
 			
-			// lock the credit and debit account for writing:
-			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
-			lockStmt.setLong(1, userTransaction.getFromAccountId());
+			long delta = Money.toMinorUnits(deltaAmount);
+			long slotCount = BalanceSlots.count(conn, accountId);
+			int updateCount = 0;
 			
-			rs = lockStmt.executeQuery();
+			// Unlocked slots of a hot account may be credited meanwhile.
+			boolean balanceKnown = (slotCount == 0);
 			
-			// Process returned resultset. Set fromAccount details.
-			if (rs.next())
+			// Credit a hot account through one of its slots.
+			if ((slotCount > 0) && (delta > Money.ZERO)
+							&& BalanceSlots.credit(conn, accountId, slotCount, delta))
 			{
-				fromAccount = new Account(rs.getLong("AccountId"),
-								rs.getString("UserName"),
-								rs.getBigDecimal("Balance"),
-								rs.getString("CurrencyCode"));
+				updateCount = 1;
+			}
+			// Otherwise apply the delta only if the balance stays positive.
+			else
+			{
+				updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE_BY_DELTA);
+				updateStmt.setBigDecimal(1, deltaAmount);
+				updateStmt.setLong(2, accountId);
+				updateStmt.setBigDecimal(3, deltaAmount);
+				
+				// Time the row lock taken by the guarded update alone.
+				long lockStart = System.nanoTime();
+				
+				updateCount = updateStmt.executeUpdate();
+				
+				ContendedAccounts.getInstance().record(accountId,
+								UPDATE_PHASES.record(Phase.LOCK, lockStart)
+												- lockStart);
 				
-				// If debug is enabled, output log message.
-				if (log.isDebugEnabled())
+				// The slots of a hot account may cover the rest.
+				if ((updateCount == 0) && (slotCount > 0))
 				{
-					log.debug("transferAccountBalance from Account: "
-									+ fromAccount);
+					updateCount = foldSlotsAndUpdate(conn, accountId, delta);
+					
+					// Folded slots stay locked until commit.
+					balanceKnown = (updateCount > 0);
 				}
 			}
 			
-			// Prepare SQL Statement and execute.
-			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
-			lockStmt.setLong(1, userTransaction.getToAccountId());
+			phaseStart = System.nanoTime();
 			
-			rs = lockStmt.executeQuery();
+			// Read the resulting account state.
+			readStmt = conn.prepareStatement((slotCount > 0) ? SQL_GET_HOT_ACC_BY_ID
+							: SQL_GET_ACC_BY_ID);
+			readStmt.setLong(1, accountId);
+			rs = readStmt.executeQuery();
 			
-			// Process returned result set.
 			if (rs.next())
 			{
-				toAccount = new Account(rs.getLong("AccountId"),
-								rs.getString("UserName"),
-								rs.getBigDecimal("Balance"),
-								rs.getString("CurrencyCode"));
-				
-				// If debug is enabled, output log message.
-				if (log.isDebugEnabled())
-				{
-					log.debug("transferAccountBalance to Account: " + toAccount);
-				}
-				
-			}
-
-			// Check locking status
-			if ((fromAccount == null) || (toAccount == null))
-			{
-				throw new CustomException(
-								"Fail to lock both accounts for write");
-			}
-
-			// check transaction currency
-			if (!fromAccount.getCurrencyCode().equals(
-							userTransaction.getCurrencyCode()))
-			{
-				throw new CustomException(
-								"Fail to transfer Fund, transaction ccy are different from source/destination");
-			}
-
-			// Check currency code is the same for both accounts
-			if (!fromAccount.getCurrencyCode().equals(
-							toAccount.getCurrencyCode()))
-			{
-				throw new CustomException(
-								"Fail to transfer Fund, the source and destination account are in different currency");
+				account = toAccount(rs);
 			}
-
-			// check enough fund in source account
-			BigDecimal fromAccountLeftOver = fromAccount.getBalance().subtract(
-							userTransaction.getAmount());
 			
-			// Ensure the the "fromAccount" has sufficient funds.
-			if (fromAccountLeftOver.compareTo(MoneyUtil.zeroAmount) < 0)
+			phaseStart = UPDATE_PHASES.record(Phase.VALIDATE, phaseStart);
+			
+			// Record the change in the ledger.
+			if ((account != null) && (updateCount > 0))
 			{
-				throw new CustomException(
-								"Not enough Fund from source Account ");
+				ledgerStmt = conn.prepareStatement(SQL_INSERT_LEDGER);
+				
+				addLeg(ledgerStmt, new Leg(accountId, null, delta,
+								balanceKnown ? Long.valueOf(Money.toMinorUnits(account
+												.getBalance())) : null,
+								account.getCurrencyCode()));
+				ledgerStmt.executeBatch();
 			}
 			
-			// Proceed with update
-			updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
-			updateStmt.setBigDecimal(1, fromAccountLeftOver);
-			updateStmt.setLong(2, userTransaction.getFromAccountId());
-			updateStmt.addBatch();
-			updateStmt.setBigDecimal(
-							1,
-							toAccount.getBalance().add(
-											userTransaction.getAmount()));
-			updateStmt.setLong(2, userTransaction.getToAccountId());
-			updateStmt.addBatch();
+			phaseStart = UPDATE_PHASES.record(Phase.UPDATE, phaseStart);
 			
-			int[] rowsUpdated = updateStmt.executeBatch();
-			result = rowsUpdated[0] + rowsUpdated[1];
+			conn.commit();
+			
+			UPDATE_PHASES.record(Phase.COMMIT, phaseStart);
 			
 			// If debug is enabled, output log message.
 			if (log.isDebugEnabled())
 			{
-				log.debug("Number of rows updated for the transfer : " + result);
+				log.debug("updateAccountBalance(): delta {} rows updated {} new balance {}",
+								deltaAmount, updateCount, account);
 			}
 			
-			// If there is no error, commit the transaction
-			conn.commit();
+			// If the account does not exist, unable to process.
+			if (account == null)
+			{
+				throw new CustomException(
+								"updateAccountBalance(): account not found : "
+												+ accountId);
+			}
 			
-			// Close instantiations.
+			// If nothing was updated the balance would be in debt.
+			if (updateCount == 0)
+			{
+				throw new CustomException("Not sufficient Fund for account: "
+								+ accountId);
+			}
+			
+			return account;
+		}
+		// SQL Exception
+		catch (SQLException se)
+		{
+			// rollback transaction if exception occurs
+			log.error("updateAccountBalance(): User Transaction Failed, rollback initiated for: {}",
+							accountId, se);
+			
+			// If connection is not null, rollback commit if error.
+			try
+			{
+				// Connection is not null, rollback commit.
+				if (conn != null)
+				{
+					long rollbackStart = System.nanoTime();
+					
+					conn.rollback();
+					UPDATE_PHASES.record(Phase.ROLLBACK, rollbackStart);
+				}
+			}
+			// Catch SQL Exception
+			catch (SQLException re)
+			{
+				throw new CustomException("Fail to rollback transaction", re);
+			}
+			
+			throw new CustomException(
+							"updateAccountBalance(): Error updating account balance "
+											+ accountId, se);
+		}
+		// Balance out of range, the pool rolls back on release.
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException(
+							"updateAccountBalance(): Error updating account balance "
+											+ accountId, ae);
+		}
+		// Perform following regardless.
+		finally
+		{
 			DbUtils.closeQuietly(conn);
 			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(updateStmt);
+			DbUtils.closeQuietly(readStmt);
+			DbUtils.closeQuietly(ledgerStmt);
+		}
+	}
+
+	/**
+	 * Lock a hot account and its slots, fold the slots into the Account row,
+	 * then apply a delta to it.
+	 * 
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @param delta - amount added to the balance, in minor units.
+	 * @return - 1 if applied, 0 if the account is missing or the balance would
+	 *         be in debt.
+	 * @throws SQLException
+	 */
+	private int foldSlotsAndUpdate( Connection conn, long accountId, long delta )
+					throws SQLException
+	{
+		PreparedStatement lockStmt = null;
+		PreparedStatement updateStmt = null;
+		
+		try
+		{
+			// Account row first, then its slots.
+			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
+			Account account = lockAccount(lockStmt, accountId);
+			Long slotBalance = BalanceSlots.lock(conn, accountId);
+			
+			// Missing, or no longer hot.
+			if ((account == null) || (slotBalance == null))
+			{
+				return 0;
+			}
+			
+			long newBalance = Money.add(Money.add(
+							Money.toMinorUnits(account.getBalance()), slotBalance),
+							delta);
+			
+			// The balance would still be in debt.
+			if (newBalance < Money.ZERO)
+			{
+				return 0;
+			}
+			
+			updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
+			updateStmt.setBigDecimal(1, Money.toBigDecimal(newBalance));
+			updateStmt.setLong(2, accountId);
+			updateStmt.executeUpdate();
+			
+			BalanceSlots.clear(conn, accountId);
+			
+			return 1;
+		}
+		finally
+		{
+			DbUtils.closeQuietly(lockStmt);
+			DbUtils.closeQuietly(updateStmt);
+		}
+	}
+
+	/**
+	 * Transfer balance between two accounts.
+	 * 
+	 * Both account rows are locked in ascending account id order, whatever
+	 * the direction of the transfer, so opposing transfers between the same
+	 * pair of accounts queue on the same row rather than deadlocking. The
+	 * debit and credit legs are written to the ledger in the same
+	 * transaction, with one JDBC batch.
+	 * 
+	 * A hot destination account is credited through one of its balance slots
+	 * without locking its row, so transfers into it from different sources
+	 * do not queue on one lock. A hot source account is debited from its row,
+	 * folding its slots into the row when the row alone is short.
+	 * 
+	 * Each row lock acquired is timed on its own, and waits on it counted
+	 * towards the most contended accounts.
+	 */
+	public int transferAccountBalance( UserTransaction userTransaction )
+					throws CustomException
+	{
+		// Initialise connection parameters.
+
+		Connection conn = null;
+		PreparedStatement lockStmt = null;
+		PreparedStatement updateStmt = null;
+		PreparedStatement ledgerStmt = null;
+		
+		Account fromAccount = null;
+		Account toAccount = null;
+		
+		int result = -1;
+
+		final long fromAccountId = userTransaction.getFromAccountId();
+		final long toAccountId = userTransaction.getToAccountId();
+		
+		// A transfer to the same account would lock and update one row twice.
+		if (fromAccountId == toAccountId)
+		{
+			throw new TransferException(TransferStatus.INVALID_REQUEST,
+							"Fail to transfer Fund, the source and destination account are the same");
+		}
+		
+		final long amount = toMinorUnits(userTransaction.getAmount());
+		
+		// A non positive amount would move funds the wrong way.
+		if (amount <= Money.ZERO)
+		{
+			throw new TransferException(TransferStatus.INVALID_REQUEST,
+							"Fail to transfer Fund, transfer amount must be positive");
+		}
+
+		long phaseStart = System.nanoTime();
+		
+		// Connext to DAO Factory source.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			TRANSFER_PHASES.record(Phase.CONNECT, phaseStart);
+			conn.setAutoCommit(false);
+			
+			// Slot counts of each account, 0 unless hot.
+			long fromSlotCount = BalanceSlots.count(conn, fromAccountId);
+			long toSlotCount = BalanceSlots.count(conn, toAccountId);
+			
+			// A hot destination is credited through a slot, its row is not
+			// locked.
+			boolean creditSlot = toSlotCount > 0;
+			
+			// lock the credit and debit account for writing, lowest id first.
+			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
+			
+			// Only the source account row is locked.
+			if (creditSlot)
+			{
+				fromAccount = lockAccount(lockStmt, fromAccountId,
+								TRANSFER_PHASES);
+				toAccount = readAccount(conn, toAccountId);
+			}
+			// Lower account id locked first.
+			else if (fromAccountId < toAccountId)
+			{
+				fromAccount = lockAccount(lockStmt, fromAccountId,
+								TRANSFER_PHASES);
+				toAccount = lockAccount(lockStmt, toAccountId, TRANSFER_PHASES);
+			}
+			// Otherwise the destination account has the lower id.
+			else
+			{
+				toAccount = lockAccount(lockStmt, toAccountId, TRANSFER_PHASES);
+				fromAccount = lockAccount(lockStmt, fromAccountId,
+								TRANSFER_PHASES);
+			}
+			
+			phaseStart = System.nanoTime();
+			
+			log.debug("transferAccountBalance from Account: {} to Account: {}",
+							fromAccount, toAccount);
+
+			// Check locking status
+			if ((fromAccount == null) || (toAccount == null))
+			{
+				throw new TransferException(TransferStatus.ACCOUNT_NOT_FOUND,
+								"Fail to lock both accounts for write");
+			}
+
+			// check transaction currency
+			if (!fromAccount.getCurrencyCode().equals(
+							userTransaction.getCurrencyCode()))
+			{
+				throw new TransferException(TransferStatus.CURRENCY_MISMATCH,
+								"Fail to transfer Fund, transaction ccy are different from source/destination");
+			}
+
+			// Check currency code is the same for both accounts
+			if (!fromAccount.getCurrencyCode().equals(
+							toAccount.getCurrencyCode()))
+			{
+				throw new TransferException(TransferStatus.CURRENCY_MISMATCH,
+								"Fail to transfer Fund, the source and destination account are in different currency");
+			}
+
+			// Slot locks are taken in account id order too, so a slot of a
+			// lower destination id is credited before the source is folded.
+			if (creditSlot && (toAccountId < fromAccountId))
+			{
+				creditSlot(conn, toAccountId, toSlotCount, amount);
+			}
+			
+			// check enough fund in source account
+			long fromAccountLeftOver = Money.subtract(
+							toMinorUnits(fromAccount.getBalance()), amount);
+			
+			// Unlocked slots of a hot source may be credited meanwhile.
+			boolean fromBalanceKnown = (fromSlotCount == 0);
+			
+			// The source row alone is short, fold in its slots if hot.
+			if ((fromAccountLeftOver < Money.ZERO) && (fromSlotCount > 0))
+			{
+				Long slotBalance = BalanceSlots.lock(conn, fromAccountId);
+				
+				// Still hot once locked.
+				if (slotBalance != null)
+				{
+					fromAccountLeftOver = Money.add(fromAccountLeftOver,
+									slotBalance);
+					fromBalanceKnown = true;
+					
+					BalanceSlots.clear(conn, fromAccountId);
+				}
+			}
+			
+			// Ensure the the "fromAccount" has sufficient funds.
+			if (fromAccountLeftOver < Money.ZERO)
+			{
+				throw new TransferException(TransferStatus.INSUFFICIENT_FUNDS,
+								"Not enough Fund from source Account ");
+			}
+			
+			phaseStart = TRANSFER_PHASES.record(Phase.VALIDATE, phaseStart);
+			
+			// Proceed with update
+			updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
+			updateStmt.setBigDecimal(1, Money.toBigDecimal(fromAccountLeftOver));
+			updateStmt.setLong(2, userTransaction.getFromAccountId());
+			updateStmt.addBatch();
+			
+			// Balance of the destination, not known if credited through a slot.
+			Long toAccountBalance = null;
+			
+			// The destination row is left alone.
+			if (creditSlot)
+			{
+				// Higher destination id, its slot comes after the source.
+				if (toAccountId > fromAccountId)
+				{
+					creditSlot(conn, toAccountId, toSlotCount, amount);
+				}
+			}
+			else
+			{
+				toAccountBalance = Money.add(
+								toMinorUnits(toAccount.getBalance()), amount);
+				
+				updateStmt.setBigDecimal(1, Money.toBigDecimal(toAccountBalance));
+				updateStmt.setLong(2, userTransaction.getToAccountId());
+				updateStmt.addBatch();
+			}
+			
+			int[] rowsUpdated = updateStmt.executeBatch();
+			result = creditSlot ? rowsUpdated[0] + 1 : rowsUpdated[0]
+							+ rowsUpdated[1];
+			
+			// Record the debit and credit legs, with the balances known under
+			// the locks held: not those of hot accounts whose slots are not
+			// locked.
+			ledgerStmt = conn.prepareStatement(SQL_INSERT_LEDGER);
+			addLeg(ledgerStmt, new Leg(fromAccountId, toAccountId, -amount,
+							fromBalanceKnown ? Long.valueOf(fromAccountLeftOver)
+											: null, fromAccount.getCurrencyCode()));
+			addLeg(ledgerStmt, new Leg(toAccountId, fromAccountId, amount,
+							toAccountBalance, toAccount.getCurrencyCode()));
+			ledgerStmt.executeBatch();
+			
+			phaseStart = TRANSFER_PHASES.record(Phase.UPDATE, phaseStart);
+			
+			// If debug is enabled, output log message.
+			if (log.isDebugEnabled())
+			{
+				log.debug("Number of rows updated for the transfer : {}", result);
+			}
+			
+			// If there is no error, commit the transaction
+			conn.commit();
+			
+			TRANSFER_PHASES.record(Phase.COMMIT, phaseStart);
+			
+			// Close instantiations.
+			DbUtils.closeQuietly(conn);
 			DbUtils.closeQuietly(lockStmt);
 			DbUtils.closeQuietly(updateStmt);
+			DbUtils.closeQuietly(ledgerStmt);
 		}
 		// SQL Exception.
 		catch (SQLException se)
 		{
 
-			log.error("transferAccountBalance(): User Transaction Failed, rollback initiated for: "
-							+ userTransaction, se);
+			log.error("transferAccountBalance(): User Transaction Failed, rollback initiated for: {}",
+							userTransaction, se);
 			
 			// Rollback transaction if exception occurs
 			try
@@ -497,24 +1111,943 @@ public class AccountDAOImpl implements AccountDAO
 				// If connection is not null, perform rollack.
 				if (conn != null)
 				{
+					long rollbackStart = System.nanoTime();
+					
 					conn.rollback();
+					TRANSFER_PHASES.record(Phase.ROLLBACK, rollbackStart);
 				}
 			}
 			catch (SQLException re)
 			{
 				throw new CustomException("Fail to rollback transaction", re);
 			}
+			
+			// Account locked by another transaction for too long.
+			if (isLockTimeout(se))
+			{
+				throw new TransferException(TransferStatus.LOCK_FAIL,
+								"Fail to lock both accounts for write", se);
+			}
+		}
+		// Balance out of range, the pool rolls back on release.
+		catch (ArithmeticException ae)
+		{
+			throw new TransferException(TransferStatus.INVALID_REQUEST,
+							"Fail to transfer Fund, balance out of range", ae);
 		}
 		// Execute regardless.
 		finally
 		{
 			DbUtils.closeQuietly(conn);
-			DbUtils.closeQuietly(rs);
 			DbUtils.closeQuietly(lockStmt);
 			DbUtils.closeQuietly(updateStmt);
+			DbUtils.closeQuietly(ledgerStmt);
 		}
 		
 		return result;
 	}
 
+	/**
+	 * Transfer balances for a batch of transactions, in groups of at most
+	 * TRANSFER_BATCH_SIZE per database transaction.
+	 */
+	public List<TransferResult> transferAccountBalances(
+					List<UserTransaction> userTransactions )
+					throws CustomException
+	{
+		List<TransferResult> results = new ArrayList<TransferResult>(
+						userTransactions.size());
+		
+		// Apply each group in its own transaction.
+		for ( int start = 0; start < userTransactions.size(); start += TRANSFER_BATCH_SIZE )
+		{
+			int end = Math.min(userTransactions.size(), start
+							+ TRANSFER_BATCH_SIZE);
+			
+			results.addAll(transferGroup(userTransactions.subList(start, end)));
+		}
+		
+		return results;
+	}
+
+	/**
+	 * Check whether a database failure is a lock not acquired in time, as
+	 * opposed to an error that would recur.
+	 * 
+	 * @param se - database failure.
+	 * @return - true for a lock timeout.
+	 */
+	private static boolean isLockTimeout( SQLException se )
+	{
+		return LOCK_TIMEOUT_STATE.equals(se.getSQLState());
+	}
+
+	/**
+	 * Apply a group of transfers in one database transaction.
+	 * 
+	 * Every account the group touches is locked up front in ascending
+	 * account id order, the transfers are applied to the locked balances in
+	 * request order, and the final balances are written with one JDBC batch,
+	 * followed by the ledger legs of the applied transfers in another.
+	 * 
+	 * @param group - transfers to apply.
+	 * @return - outcome of each transfer, in the same order.
+	 * @throws CustomException
+	 */
+	private List<TransferResult> transferGroup( List<UserTransaction> group )
+					throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement lockStmt = null;
+		
+		List<TransferResult> results = new ArrayList<TransferResult>(
+						group.size());
+		
+		// Accounts touched by the group, in locking order.
+		Set<Long> accountIds = new TreeSet<Long>();
+		
+		for ( UserTransaction transaction : group )
+		{
+			// Skip incomplete transactions, they are rejected below.
+			if ((transaction.getFromAccountId() != null)
+							&& (transaction.getToAccountId() != null))
+			{
+				accountIds.add(transaction.getFromAccountId());
+				accountIds.add(transaction.getToAccountId());
+			}
+		}
+		
+		long phaseStart = System.nanoTime();
+		
+		// Connect to database and execute.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			BATCH_PHASES.record(Phase.CONNECT, phaseStart);
+			conn.setAutoCommit(false);
+			
+			// Lock every account in the group, lowest id first.
+			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
+			
+			Map<Long, Account> accounts = new HashMap<Long, Account>();
+			
+			for ( Long accountId : accountIds )
+			{
+				Account account = lockAccount(lockStmt, accountId,
+								BATCH_PHASES);
+				
+				// Missing accounts are reported per transfer.
+				if (account != null)
+				{
+					accounts.put(accountId, account);
+				}
+			}
+			
+			phaseStart = System.nanoTime();
+			
+			// Then the slots of hot accounts, folded into their balance.
+			Set<Long> hotAccountIds = foldSlots(conn, accountIds, accounts);
+			
+			// Balances changed by the group, and the legs of each transfer.
+			Map<Long, Balance> balances = new TreeMap<Long, Balance>();
+			List<Leg> legs = new ArrayList<Leg>();
+			
+			for ( UserTransaction transaction : group )
+			{
+				results.add(applyTransfer(transaction, accounts, balances, legs));
+			}
+			
+			phaseStart = BATCH_PHASES.record(Phase.VALIDATE, phaseStart);
+			
+			writeGroup(conn, balances, legs, hotAccountIds);
+			
+			phaseStart = BATCH_PHASES.record(Phase.UPDATE, phaseStart);
+			
+			conn.commit();
+			
+			BATCH_PHASES.record(Phase.COMMIT, phaseStart);
+			
+			// If debug is enabled, output log message.
+			if (log.isDebugEnabled())
+			{
+				log.debug("transferGroup(): applied {} transfers, updated {} accounts",
+								group.size(), balances.size());
+			}
+			
+			return results;
+		}
+		// SQL Exception.
+		catch (SQLException se)
+		{
+			log.error("transferGroup(): Batch Transaction Failed, rollback initiated for {} transfers",
+							group.size(), se);
+			
+			// Rollback transaction if exception occurs
+			try
+			{
+				// If connection is not null, perform rollack.
+				if (conn != null)
+				{
+					long rollbackStart = System.nanoTime();
+					
+					conn.rollback();
+					BATCH_PHASES.record(Phase.ROLLBACK, rollbackStart);
+				}
+			}
+			catch (SQLException re)
+			{
+				throw new CustomException("Fail to rollback transaction", re);
+			}
+			
+			// Nothing in the group was applied.
+			results.clear();
+			
+			TransferStatus status = isLockTimeout(se) ? TransferStatus.LOCK_FAIL
+							: TransferStatus.FAILED;
+			
+			for ( UserTransaction transaction : group )
+			{
+				results.add(new TransferResult(transaction, status,
+								"Transaction rolled back: " + se.getMessage()));
+			}
+			
+			return results;
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(conn);
+			DbUtils.closeQuietly(lockStmt);
+		}
+	}
+
+	/**
+	 * Apply a group of balance updates and transfers in one database
+	 * transaction, then complete the future of each.
+	 * 
+	 * As with transferGroup, every account the group touches is locked up
+	 * front in ascending account id order and the mutations are applied to
+	 * the locked balances in order. A mutation that fails, for instance for
+	 * insufficient funds, leaves the running balances untouched and fails
+	 * alone. The futures are completed once the group has committed; if it
+	 * rolls back, every mutation fails.
+	 * 
+	 * @param group - mutations to apply.
+	 */
+	void applyMutations( List<BalanceMutation> group )
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement lockStmt = null;
+		
+		// Outcome of each mutation, an account or a failure.
+		Account[] updated = new Account[group.size()];
+		CustomException[] failures = new CustomException[group.size()];
+		
+		// Accounts touched by the group, in locking order.
+		Set<Long> accountIds = new TreeSet<Long>();
+		
+		for ( BalanceMutation mutation : group )
+		{
+			// Balance update.
+			if (!mutation.isTransfer())
+			{
+				accountIds.add(mutation.accountId);
+			}
+			// Skip incomplete transactions, they are rejected below.
+			else if ((mutation.transaction.getFromAccountId() != null)
+							&& (mutation.transaction.getToAccountId() != null))
+			{
+				accountIds.add(mutation.transaction.getFromAccountId());
+				accountIds.add(mutation.transaction.getToAccountId());
+			}
+		}
+		
+		long phaseStart = System.nanoTime();
+		
+		// Connect to database and execute.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			GROUP_COMMIT_PHASES.record(Phase.CONNECT, phaseStart);
+			conn.setAutoCommit(false);
+			
+			// Lock every account in the group, lowest id first.
+			lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
+			
+			Map<Long, Account> accounts = new HashMap<Long, Account>();
+			
+			for ( Long accountId : accountIds )
+			{
+				Account account = lockAccount(lockStmt, accountId,
+								GROUP_COMMIT_PHASES);
+				
+				// Missing accounts are reported per mutation.
+				if (account != null)
+				{
+					accounts.put(accountId, account);
+				}
+			}
+			
+			phaseStart = System.nanoTime();
+			
+			// Then the slots of hot accounts, folded into their balance.
+			Set<Long> hotAccountIds = foldSlots(conn, accountIds, accounts);
+			
+			// Balances changed by the group, and the legs of each mutation.
+			Map<Long, Balance> balances = new TreeMap<Long, Balance>();
+			List<Leg> legs = new ArrayList<Leg>();
+			
+			for ( int i = 0; i < group.size(); i++ )
+			{
+				BalanceMutation mutation = group.get(i);
+				
+				// Apply the mutation, failures leave the balances unchanged.
+				try
+				{
+					updated[i] = mutation.isTransfer() ? applyGroupTransfer(
+									mutation.transaction, accounts, balances,
+									legs) : applyUpdate(mutation.accountId,
+									mutation.deltaAmount, accounts, balances,
+									legs);
+				}
+				catch (CustomException e)
+				{
+					failures[i] = e;
+				}
+			}
+			
+			phaseStart = GROUP_COMMIT_PHASES.record(Phase.VALIDATE, phaseStart);
+			
+			writeGroup(conn, balances, legs, hotAccountIds);
+			
+			phaseStart = GROUP_COMMIT_PHASES.record(Phase.UPDATE, phaseStart);
+			
+			conn.commit();
+			
+			GROUP_COMMIT_PHASES.record(Phase.COMMIT, phaseStart);
+			
+			// If debug is enabled, output log message.
+			if (log.isDebugEnabled())
+			{
+				log.debug("applyMutations(): applied {} mutations, updated {} accounts",
+								group.size(), balances.size());
+			}
+		}
+		// SQL Exception.
+		catch (SQLException se)
+		{
+			log.error("applyMutations(): Group Commit Failed, rollback initiated for {} mutations",
+							group.size(), se);
+			
+			// Rollback transaction if exception occurs
+			try
+			{
+				// If connection is not null, perform rollack.
+				if (conn != null)
+				{
+					long rollbackStart = System.nanoTime();
+					
+					conn.rollback();
+					GROUP_COMMIT_PHASES.record(Phase.ROLLBACK, rollbackStart);
+				}
+			}
+			catch (SQLException re)
+			{
+				log.error("applyMutations(): Fail to rollback transaction", re);
+			}
+			
+			// Nothing in the group was applied.
+			for ( int i = 0; i < group.size(); i++ )
+			{
+				// A transfer fails as transferAccountBalance would.
+				if (group.get(i).isTransfer() && isLockTimeout(se))
+				{
+					failures[i] = new TransferException(TransferStatus.LOCK_FAIL,
+									"Fail to lock both accounts for write", se);
+				}
+				else
+				{
+					failures[i] = new CustomException(
+									"Fail to update balance, transaction rolled back",
+									se);
+				}
+			}
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(conn);
+			DbUtils.closeQuietly(lockStmt);
+		}
+		
+		// Release the callers.
+		for ( int i = 0; i < group.size(); i++ )
+		{
+			// Failed on its own, or with the group.
+			if (failures[i] != null)
+			{
+				group.get(i).future.completeExceptionally(failures[i]);
+			}
+			else
+			{
+				group.get(i).future.complete(updated[i]);
+			}
+		}
+	}
+
+	/**
+	 * Lock the slots of the hot accounts of a group, after all their rows,
+	 * and fold each account's slots into its locked balance.
+	 * 
+	 * @param conn - connection holding the group's transaction.
+	 * @param accountIds - accounts of the group, in locking order.
+	 * @param accounts - locked accounts by id, updated in place.
+	 * @return - ids of the hot accounts.
+	 * @throws SQLException
+	 */
+	private Set<Long> foldSlots( Connection conn, Set<Long> accountIds,
+					Map<Long, Account> accounts ) throws SQLException
+	{
+		Set<Long> hotAccountIds = new TreeSet<Long>();
+		
+		for ( Long accountId : accountIds )
+		{
+			Account account = accounts.get(accountId);
+			
+			// Missing or not hot, the row holds the whole balance.
+			if ((account == null) || (BalanceSlots.count(conn, accountId) == 0))
+			{
+				continue;
+			}
+			
+			Long slotBalance = BalanceSlots.lock(conn, accountId);
+			
+			// No longer hot once locked.
+			if (slotBalance == null)
+			{
+				continue;
+			}
+			
+			hotAccountIds.add(accountId);
+			accounts.put(accountId, new Account(accountId,
+							account.getUserName(), Money.toBigDecimal(Money.add(
+											Money.toMinorUnits(account.getBalance()),
+											slotBalance)), account.getCurrencyCode()));
+		}
+		
+		return hotAccountIds;
+	}
+
+	/**
+	 * Apply one balance update to the locked balances of a group.
+	 * 
+	 * @param accountId - account id.
+	 * @param deltaAmount - amount added to the balance.
+	 * @param accounts - locked accounts by id.
+	 * @param balances - balances changed so far by the group, updated in place.
+	 * @param legs - ledger legs of the group, added to if applied.
+	 * @return - updated account details.
+	 * @throws CustomException - if the account does not exist or has
+	 *             insufficient funds.
+	 */
+	private Account applyUpdate( long accountId, BigDecimal deltaAmount,
+					Map<Long, Account> accounts, Map<Long, Balance> balances,
+					List<Leg> legs ) throws CustomException
+	{
+		Account account = accounts.get(accountId);
+		
+		// If the account does not exist, unable to process.
+		if (account == null)
+		{
+			throw new CustomException(
+							"updateAccountBalance(): account not found : "
+											+ accountId);
+		}
+		
+		Balance balance = balanceOf(account, balances);
+		long delta;
+		long newBalance;
+		
+		// Amount or resulting balance out of range.
+		try
+		{
+			delta = Money.toMinorUnits(deltaAmount);
+			newBalance = Money.add(balance.minorUnits, delta);
+		}
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException(
+							"updateAccountBalance(): Error updating account balance "
+											+ accountId, ae);
+		}
+		
+		// The balance would be in debt.
+		if (newBalance < Money.ZERO)
+		{
+			throw new CustomException("Not sufficient Fund for account: "
+							+ accountId);
+		}
+		
+		balance.minorUnits = newBalance;
+		
+		legs.add(new Leg(accountId, null, delta, newBalance,
+						account.getCurrencyCode()));
+		
+		return new Account(accountId, account.getUserName(),
+						Money.toBigDecimal(newBalance), account.getCurrencyCode());
+	}
+
+	/**
+	 * Apply one transfer to the locked balances of a group, failing as
+	 * transferAccountBalance would.
+	 * 
+	 * @return - null once applied.
+	 * @throws CustomException - if the transfer is rejected.
+	 */
+	private Account applyGroupTransfer( UserTransaction transaction,
+					Map<Long, Account> accounts, Map<Long, Balance> balances,
+					List<Leg> legs ) throws CustomException
+	{
+		TransferResult result = applyTransfer(transaction, accounts, balances,
+						legs);
+		
+		// Rejected, nothing was applied.
+		if (result.getStatus() != TransferStatus.OK)
+		{
+			throw new TransferException(result.getStatus(),
+							"Fail to transfer Fund, " + result.getMessage());
+		}
+		
+		return null;
+	}
+
+	/**
+	 * Write the final balances of a group with one JDBC batch, and its
+	 * ledger legs with another. The folded slots of hot accounts whose
+	 * balance changed are emptied.
+	 * 
+	 * @param conn - connection holding the group's transaction.
+	 * @param balances - balances changed by the group, by account id.
+	 * @param legs - ledger legs of the group.
+	 * @param hotAccountIds - accounts whose slots were folded.
+	 * @throws SQLException
+	 */
+	private void writeGroup( Connection conn, Map<Long, Balance> balances,
+					List<Leg> legs, Set<Long> hotAccountIds ) throws SQLException
+	{
+		PreparedStatement updateStmt = null;
+		PreparedStatement ledgerStmt = null;
+		
+		try
+		{
+			// Write the final balances in one batch.
+			if (!balances.isEmpty())
+			{
+				updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
+				
+				for ( Map.Entry<Long, Balance> entry : balances.entrySet() )
+				{
+					updateStmt.setBigDecimal(1,
+									Money.toBigDecimal(entry.getValue().minorUnits));
+					updateStmt.setLong(2, entry.getKey());
+					updateStmt.addBatch();
+				}
+				
+				updateStmt.executeBatch();
+			}
+			
+			// The slot balances are now in the Account rows.
+			for ( Long accountId : hotAccountIds )
+			{
+				if (balances.containsKey(accountId))
+				{
+					BalanceSlots.clear(conn, accountId);
+				}
+			}
+			
+			// Write the ledger legs in one batch.
+			if (!legs.isEmpty())
+			{
+				ledgerStmt = conn.prepareStatement(SQL_INSERT_LEDGER);
+				
+				for ( Leg leg : legs )
+				{
+					addLeg(ledgerStmt, leg);
+				}
+				
+				ledgerStmt.executeBatch();
+			}
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(updateStmt);
+			DbUtils.closeQuietly(ledgerStmt);
+		}
+	}
+
+	/**
+	 * Validate and apply one transfer to the locked balances of a group.
+	 * 
+	 * @param transaction - transfer to apply.
+	 * @param accounts - locked accounts by id.
+	 * @param balances - balances changed so far by the group, updated in place.
+	 * @param legs - ledger legs of the group, added to if applied.
+	 * @return - outcome of the transfer.
+	 */
+	private TransferResult applyTransfer( UserTransaction transaction,
+					Map<Long, Account> accounts, Map<Long, Balance> balances,
+					List<Leg> legs )
+	{
+		// Check the transaction is complete.
+		if ((transaction.getFromAccountId() == null)
+						|| (transaction.getToAccountId() == null)
+						|| (transaction.getAmount() == null)
+						|| (transaction.getCurrencyCode() == null))
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"Transaction details are incomplete");
+		}
+		
+		// Check the amount is positive.
+		if (transaction.getAmount().compareTo(MoneyUtil.zeroAmount) <= 0)
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"Transfer amount must be positive");
+		}
+		
+		// Check the accounts differ.
+		if (transaction.getFromAccountId().equals(transaction.getToAccountId()))
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"The source and destination account are the same");
+		}
+		
+		Account fromAccount = accounts.get(transaction.getFromAccountId());
+		Account toAccount = accounts.get(transaction.getToAccountId());
+		
+		// Check both accounts exist.
+		if ((fromAccount == null) || (toAccount == null))
+		{
+			return new TransferResult(transaction,
+							TransferStatus.ACCOUNT_NOT_FOUND,
+							"Source or destination account not found");
+		}
+		
+		// Check the currencies match.
+		if (!fromAccount.getCurrencyCode().equals(
+						transaction.getCurrencyCode())
+						|| !fromAccount.getCurrencyCode().equals(
+										toAccount.getCurrencyCode()))
+		{
+			return new TransferResult(transaction,
+							TransferStatus.CURRENCY_MISMATCH,
+							"Transaction ccy are different from source/destination");
+		}
+		
+		Balance fromBalance;
+		Balance toBalance;
+		long amount;
+		long fromAccountLeftOver;
+		long toAccountBalance;
+		
+		try
+		{
+			// Take earlier transfers in the group into account.
+			fromBalance = balanceOf(fromAccount, balances);
+			toBalance = balanceOf(toAccount, balances);
+			
+			amount = Money.toMinorUnits(transaction.getAmount());
+			
+			fromAccountLeftOver = Money.subtract(fromBalance.minorUnits, amount);
+			toAccountBalance = Money.add(toBalance.minorUnits, amount);
+		}
+		// Amount or resulting balance out of range.
+		catch (ArithmeticException ae)
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"Transfer amount out of range");
+		}
+		
+		// Ensure the the "fromAccount" has sufficient funds.
+		if (fromAccountLeftOver < Money.ZERO)
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INSUFFICIENT_FUNDS,
+							"Not enough Fund from source Account");
+		}
+		
+		fromBalance.minorUnits = fromAccountLeftOver;
+		toBalance.minorUnits = toAccountBalance;
+		
+		legs.add(new Leg(fromAccount.getAccountId(), toAccount.getAccountId(),
+						-amount, fromAccountLeftOver, fromAccount.getCurrencyCode()));
+		legs.add(new Leg(toAccount.getAccountId(), fromAccount.getAccountId(),
+						amount, toAccountBalance, toAccount.getCurrencyCode()));
+		
+		return new TransferResult(transaction, TransferStatus.OK, null);
+	}
+
+	/**
+	 * Find the running balance of a locked account, starting from its locked
+	 * balance the first time the group touches it.
+	 * 
+	 * @param account - locked account.
+	 * @param balances - balances changed by the group, by account id.
+	 * @return - running balance.
+	 */
+	private Balance balanceOf( Account account, Map<Long, Balance> balances )
+	{
+		Balance balance = balances.get(account.getAccountId());
+		
+		if (balance == null)
+		{
+			balance = new Balance(Money.toMinorUnits(account.getBalance()));
+			balances.put(account.getAccountId(), balance);
+		}
+		
+		return balance;
+	}
+
+	/**
+	 * Lock an account row for update and read its details.
+	 * 
+	 * @param lockStmt - prepared lock statement.
+	 * @param accountId - account id to lock.
+	 * @return - locked account details, or null if the account does not exist.
+	 * @throws SQLException
+	 */
+	private Account lockAccount( PreparedStatement lockStmt, long accountId )
+					throws SQLException
+	{
+		Account account = null;
+		
+		lockStmt.setLong(1, accountId);
+		
+		ResultSet rs = lockStmt.executeQuery();
+		
+		// Process returned result set.
+		try
+		{
+			if (rs.next())
+			{
+				account = toAccount(rs);
+			}
+		}
+		finally
+		{
+			DbUtils.closeQuietly(rs);
+		}
+		
+		return account;
+	}
+
+	/**
+	 * Lock an account row for update, timing the lock and counting a long
+	 * wait towards the most contended accounts.
+	 * 
+	 * @param lockStmt - prepared lock statement.
+	 * @param accountId - account id to lock.
+	 * @param phases - phases of the operation locking the account.
+	 * @return - locked account details, or null if the account does not exist.
+	 * @throws SQLException
+	 */
+	private Account lockAccount( PreparedStatement lockStmt, long accountId,
+					BalancePhases phases ) throws SQLException
+	{
+		long start = System.nanoTime();
+		Account account = lockAccount(lockStmt, accountId);
+		
+		ContendedAccounts.getInstance().record(accountId,
+						phases.record(Phase.LOCK, start) - start);
+		
+		return account;
+	}
+
+	/**
+	 * Read an account without locking it.
+	 * 
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @return - account details, or null if the account does not exist.
+	 * @throws SQLException
+	 */
+	private Account readAccount( Connection conn, long accountId )
+					throws SQLException
+	{
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		
+		try
+		{
+			stmt = conn.prepareStatement(accountByIdSql(conn, accountId));
+			stmt.setLong(1, accountId);
+			rs = stmt.executeQuery();
+			
+			return rs.next() ? toAccount(rs) : null;
+		}
+		finally
+		{
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Choose the query reading an account, adding its slots only if hot.
+	 * 
+	 * @param conn - connection used to load the slot counts.
+	 * @param accountId - account id.
+	 * @return - account query by id.
+	 * @throws SQLException
+	 */
+	private String accountByIdSql( Connection conn, long accountId )
+					throws SQLException
+	{
+		return (BalanceSlots.count(conn, accountId) > 0) ? SQL_GET_HOT_ACC_BY_ID
+						: SQL_GET_ACC_BY_ID;
+	}
+
+	/**
+	 * Forget the slot counts of the hot accounts, once the AccountSlot table
+	 * has been recreated. They are reloaded on next use.
+	 */
+	public static void reloadBalanceSlots()
+	{
+		BalanceSlots.reload();
+	}
+
+	/**
+	 * Credit a hot account through one of its balance slots.
+	 * 
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @param slotCount - number of slots read for the account.
+	 * @param amount - amount credited, in minor units.
+	 * @throws SQLException
+	 * @throws CustomException - if the slots changed since they were read.
+	 */
+	private void creditSlot( Connection conn, long accountId, long slotCount,
+					long amount ) throws SQLException, CustomException
+	{
+		// Slots removed or resized meanwhile, the pool rolls back on release.
+		if (!BalanceSlots.credit(conn, accountId, slotCount, amount))
+		{
+			throw new CustomException(
+							"Fail to transfer Fund, balance slots of account "
+											+ accountId + " changed");
+		}
+	}
+
+	/**
+	 * Add a ledger leg to the batch of a prepared ledger insert.
+	 * 
+	 * @param ledgerStmt - prepared ledger insert.
+	 * @param leg - leg to write.
+	 * @throws SQLException
+	 */
+	private void addLeg( PreparedStatement ledgerStmt, Leg leg )
+					throws SQLException
+	{
+		ledgerStmt.setLong(1, leg.accountId);
+		
+		// No counter account for a deposit or withdrawal.
+		if (leg.counterAccountId == null)
+		{
+			ledgerStmt.setNull(2, Types.BIGINT);
+		}
+		else
+		{
+			ledgerStmt.setLong(2, leg.counterAccountId);
+		}
+		
+		ledgerStmt.setBigDecimal(3, Money.toBigDecimal(leg.amount));
+		
+		// Balance not known.
+		if (leg.balance == null)
+		{
+			ledgerStmt.setNull(4, Types.DECIMAL);
+		}
+		else
+		{
+			ledgerStmt.setBigDecimal(4, Money.toBigDecimal(leg.balance));
+		}
+		
+		ledgerStmt.setString(5, leg.currencyCode);
+		ledgerStmt.addBatch();
+	}
+
+	/**
+	 * Build account details from the current result set row.
+	 * 
+	 * @param rs - result set positioned on an account row.
+	 * @return - account details.
+	 * @throws SQLException
+	 */
+	private Account toAccount( ResultSet rs ) throws SQLException
+	{
+		return new Account(rs.getLong("AccountId"), rs.getString("UserName"),
+						rs.getBigDecimal("Balance"), rs.getString("CurrencyCode"));
+	}
+
+	/**
+	 * Convert an amount to minor units, rejecting amounts out of range.
+	 * 
+	 * @param amount - amount to convert.
+	 * @return - amount in minor units.
+	 * @throws CustomException
+	 */
+	private static long toMinorUnits( BigDecimal amount ) throws CustomException
+	{
+		try
+		{
+			return Money.toMinorUnits(amount);
+		}
+		// Amount does not fit in a long.
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException("Amount out of range: " + amount, ae);
+		}
+	}
+
+	/**
+	 * Ledger leg waiting to be written, amounts in minor units.
+	 */
+	private static final class Leg
+	{
+		final long accountId;
+		final Long counterAccountId;
+		final long amount;
+		final Long balance;
+		final String currencyCode;
+		
+		Leg( long accountId, Long counterAccountId, long amount, Long balance,
+						String currencyCode )
+		{
+			this.accountId = accountId;
+			this.counterAccountId = counterAccountId;
+			this.amount = amount;
+			this.balance = balance;
+			this.currencyCode = currencyCode;
+		}
+	}
+
+	/**
+	 * Running balance of a locked account, in minor units.
+	 */
+	private static final class Balance
+	{
+		long minorUnits;
+		
+		Balance( long minorUnits )
+		{
+			this.minorUnits = minorUnits;
+		}
+	}
 }
@@ -0,0 +1,71 @@
+package com.account.dao.impl;
+
+import com.account.model.Account;
+import com.account.model.UserTransaction;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Balance update or transfer waiting for a group commit.
+ *
+ * The future completes once the group holding the mutation has committed:
+ * with the updated account for a balance update, with null for a transfer,
+ * or exceptionally with the CustomException the single call would have
+ * thrown.
+ */
+final class BalanceMutation
+{
+	// Account of a balance update.
+	final long accountId;
+
+	// Amount added to the balance, negative to withdraw.
+	final BigDecimal deltaAmount;
+
+	// Transfer, null for a balance update.
+	final UserTransaction transaction;
+
+	// Outcome, completed by the committer.
+	final CompletableFuture<Account> future = new CompletableFuture<Account>();
+
+	private BalanceMutation( long accountId, BigDecimal deltaAmount,
+					UserTransaction transaction )
+	{
+		this.accountId = accountId;
+		this.deltaAmount = deltaAmount;
+		this.transaction = transaction;
+	}
+
+	/**
+	 * Create a balance update.
+	 *
+	 * @param accountId - account id.
+	 * @param deltaAmount - amount added to the balance.
+	 * @return - pending balance update.
+	 */
+	static BalanceMutation update( long accountId, BigDecimal deltaAmount )
+	{
+		return new BalanceMutation(accountId, deltaAmount, null);
+	}
+
+	/**
+	 * Create a transfer.
+	 *
+	 * @param transaction - transfer to apply.
+	 * @return - pending transfer.
+	 */
+	static BalanceMutation transfer( UserTransaction transaction )
+	{
+		return new BalanceMutation(0, null, transaction);
+	}
+
+	/**
+	 * Check whether the mutation is a transfer.
+	 *
+	 * @return - true for a transfer, false for a balance update.
+	 */
+	boolean isTransfer()
+	{
+		return transaction != null;
+	}
+}
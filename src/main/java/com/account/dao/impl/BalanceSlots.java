@@ -0,0 +1,302 @@
+package com.account.dao.impl;
+
+import com.account.model.Money;
+
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Balance slots of hot accounts, in the AccountSlot table.
+ *
+ * A credit to a hot account is added to one of its slots, picked by the
+ * crediting thread, rather than to the Account row, so concurrent credits
+ * lock different rows. Debits still come from the Account row, and fold the
+ * slots into it when it alone cannot cover them. Slot rows are always locked
+ * after every Account row a transaction needs, in ascending account id
+ * order, so slot locks cannot deadlock with account locks.
+ *
+ * The slot count of each hot account is also held in memory, loaded from
+ * the AccountSlot table on first use, so accounts without slots never
+ * query it. An account is counted as hot before its slots are committed
+ * and as cold only once their removal is, so the count errs only towards
+ * slots that do not exist, which credit and lock detect. The AccountSlot
+ * table must therefore only be changed through this class.
+ */
+final class BalanceSlots
+{
+	// SQL Statements
+	private final static String SQL_CREDIT_SLOT = "UPDATE AccountSlot SET Balance = Balance + ? WHERE AccountId = ? AND SlotId = ?";
+	private final static String SQL_LOCK_SLOTS = "SELECT Balance FROM AccountSlot WHERE AccountId = ? FOR UPDATE";
+	private final static String SQL_CLEAR_SLOTS = "UPDATE AccountSlot SET Balance = 0 WHERE AccountId = ?";
+	private final static String SQL_DELETE_SLOTS = "DELETE FROM AccountSlot WHERE AccountId = ?";
+	private final static String SQL_INSERT_SLOT = "INSERT INTO AccountSlot (AccountId, SlotId, Balance) VALUES (?, ?, 0)";
+	private final static String SQL_GET_SLOT_COUNTS = "SELECT AccountId, COUNT(*) FROM AccountSlot GROUP BY AccountId";
+
+	// Slot count of each hot account.
+	private static final ConcurrentMap<Long, Integer> slotCounts = new ConcurrentHashMap<Long, Integer>();
+
+	// True once the slot counts are loaded from the AccountSlot table.
+	private static volatile boolean loaded;
+
+	/**
+	 * Utility class, not instantiated.
+	 */
+	private BalanceSlots()
+	{
+	}
+
+	/**
+	 * Find the number of slots of an account, without querying the database
+	 * once the slot counts are loaded.
+	 *
+	 * @param conn - connection used to load the slot counts.
+	 * @param accountId - account id.
+	 * @return - slot count, 0 if the account is not hot.
+	 * @throws SQLException
+	 */
+	static int count( Connection conn, long accountId ) throws SQLException
+	{
+		load(conn);
+
+		Integer count = slotCounts.get(accountId);
+
+		return (count == null) ? 0 : count;
+	}
+
+	/**
+	 * @param conn - connection used to load the slot counts.
+	 * @return - true if any account is hot.
+	 * @throws SQLException
+	 */
+	static boolean anyHot( Connection conn ) throws SQLException
+	{
+		load(conn);
+
+		return !slotCounts.isEmpty();
+	}
+
+	/**
+	 * Count an account as hot, before its slots are committed.
+	 *
+	 * @param accountId - account id.
+	 * @param slotCount - number of slots, 0 to count it as cold.
+	 */
+	static void setCount( long accountId, int slotCount )
+	{
+		// Cold once its slots are removed.
+		if (slotCount == 0)
+		{
+			slotCounts.remove(accountId);
+		}
+		else
+		{
+			slotCounts.put(accountId, slotCount);
+		}
+	}
+
+	/**
+	 * Forget the slot counts, reloaded on next use, once the AccountSlot
+	 * table is recreated.
+	 */
+	static void reload()
+	{
+		synchronized (slotCounts)
+		{
+			slotCounts.clear();
+			loaded = false;
+		}
+	}
+
+	/**
+	 * Load the slot counts from the AccountSlot table, once.
+	 */
+	private static void load( Connection conn ) throws SQLException
+	{
+		// Already loaded.
+		if (loaded)
+		{
+			return;
+		}
+
+		synchronized (slotCounts)
+		{
+			if (loaded)
+			{
+				return;
+			}
+
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+
+			try
+			{
+				stmt = conn.prepareStatement(SQL_GET_SLOT_COUNTS);
+				rs = stmt.executeQuery();
+
+				// Counts set meanwhile are newer than the committed ones.
+				while (rs.next())
+				{
+					slotCounts.putIfAbsent(rs.getLong(1), rs.getInt(2));
+				}
+
+				loaded = true;
+			}
+			finally
+			{
+				DbUtils.closeQuietly(rs);
+				DbUtils.closeQuietly(stmt);
+			}
+		}
+	}
+
+	/**
+	 * Add a credit to the slot of the current thread.
+	 *
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @param slotCount - number of slots of the account.
+	 * @param amount - amount credited, in minor units.
+	 * @return - true if credited, false if the slot no longer exists.
+	 * @throws SQLException
+	 */
+	static boolean credit( Connection conn, long accountId, long slotCount,
+					long amount ) throws SQLException
+	{
+		PreparedStatement stmt = null;
+
+		try
+		{
+			stmt = conn.prepareStatement(SQL_CREDIT_SLOT);
+			stmt.setBigDecimal(1, Money.toBigDecimal(amount));
+			stmt.setLong(2, accountId);
+			stmt.setInt(3, (int) (Thread.currentThread().getId() % slotCount));
+
+			return stmt.executeUpdate() > 0;
+		}
+		finally
+		{
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Lock every slot of an account and total their balance.
+	 *
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @return - slot balance in minor units, null if the account has no
+	 *         slots.
+	 * @throws SQLException
+	 */
+	static Long lock( Connection conn, long accountId ) throws SQLException
+	{
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		try
+		{
+			stmt = conn.prepareStatement(SQL_LOCK_SLOTS);
+			stmt.setLong(1, accountId);
+			rs = stmt.executeQuery();
+
+			Long total = null;
+
+			while (rs.next())
+			{
+				long balance = Money.toMinorUnits(rs.getBigDecimal(1));
+
+				total = (total == null) ? balance : Money.add(total, balance);
+			}
+
+			return total;
+		}
+		finally
+		{
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Empty the locked slots of an account, once their balance has been
+	 * folded into the Account row.
+	 *
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @throws SQLException
+	 */
+	static void clear( Connection conn, long accountId ) throws SQLException
+	{
+		execute(conn, SQL_CLEAR_SLOTS, accountId);
+	}
+
+	/**
+	 * Remove every slot of an account.
+	 *
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @throws SQLException
+	 */
+	static void delete( Connection conn, long accountId ) throws SQLException
+	{
+		execute(conn, SQL_DELETE_SLOTS, accountId);
+	}
+
+	/**
+	 * Create empty slots for an account.
+	 *
+	 * @param conn - connection of the transaction.
+	 * @param accountId - account id.
+	 * @param slotCount - number of slots.
+	 * @throws SQLException
+	 */
+	static void create( Connection conn, long accountId, int slotCount )
+					throws SQLException
+	{
+		PreparedStatement stmt = null;
+
+		try
+		{
+			stmt = conn.prepareStatement(SQL_INSERT_SLOT);
+
+			for ( int slotId = 0; slotId < slotCount; slotId++ )
+			{
+				stmt.setLong(1, accountId);
+				stmt.setInt(2, slotId);
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+		}
+		finally
+		{
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Execute a statement taking only an account id.
+	 */
+	private static void execute( Connection conn, String sql, long accountId )
+					throws SQLException
+	{
+		PreparedStatement stmt = null;
+
+		try
+		{
+			stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, accountId);
+			stmt.executeUpdate();
+		}
+		finally
+		{
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package com.account.dao.impl;
+
+import com.account.dao.AccountDAO;
+import com.account.dao.RowHandler;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.TransferResult;
+import com.account.model.UserTransaction;
+import com.account.utils.Log;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Account Data Access Object decorator that commits concurrent balance
+ * updates and transfers together.
+ *
+ * Callers of updateAccountBalance and transferAccountBalance queue their
+ * mutation and wait. A committer thread takes the first mutation queued,
+ * collects those arriving behind it until the maximum delay has passed or
+ * the batch is full, and applies the batch in one database transaction. A
+ * mutation rejected on its own, for instance for insufficient funds, fails
+ * alone; the rest of the batch commits. Each caller then gets the outcome it
+ * would have had from the underlying DAO. Other calls go straight to the
+ * underlying DAO.
+ *
+ * A caller waits at most the commit timeout for its batch. Past it the
+ * caller fails, although the mutation may still be applied, rather than
+ * hold its thread for as long as the committer is stuck.
+ */
+public class GroupCommitAccountDAO implements AccountDAO
+{
+	private static Log log = Log.getLog(GroupCommitAccountDAO.class);
+
+	private final AccountDAOImpl delegate;
+	private final long maxDelayNanos;
+	private final int maxBatchSize;
+	private final long commitTimeoutMillis;
+
+	// Mutations waiting for the committer.
+	private final BlockingQueue<BalanceMutation> queue = new LinkedBlockingQueue<BalanceMutation>();
+
+	// Batches collected, and the mutations they held.
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder mutations = new LongAdder();
+
+	/**
+	 * Group commit account DAO constructor, starting the committer thread.
+	 *
+	 * @param delegate - account DAO applying the batches.
+	 * @param maxDelayMicros - time a batch waits for more mutations after its
+	 *            first.
+	 * @param maxBatchSize - maximum mutations committed together.
+	 * @param commitTimeoutMillis - time a caller waits for its batch to
+	 *            commit.
+	 */
+	public GroupCommitAccountDAO( AccountDAOImpl delegate, long maxDelayMicros,
+					int maxBatchSize, long commitTimeoutMillis )
+	{
+		// Sanity check the batch size.
+		if (maxBatchSize < 1)
+		{
+			throw new IllegalArgumentException("Invalid batch size "
+							+ maxBatchSize);
+		}
+
+		this.delegate = delegate;
+		this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		this.maxBatchSize = maxBatchSize;
+		this.commitTimeoutMillis = commitTimeoutMillis;
+
+		Thread committer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				commitLoop();
+			}
+		}, "group-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Retrieve all accounts from the underlying DAO.
+	 */
+	public List<Account> getAllAccounts() throws CustomException
+	{
+		return delegate.getAllAccounts();
+	}
+
+	/**
+	 * Retrieve a page of accounts from the underlying DAO.
+	 */
+	public List<Account> getAccounts( long afterAccountId, int limit )
+					throws CustomException
+	{
+		return delegate.getAccounts(afterAccountId, limit);
+	}
+
+	/**
+	 * Stream accounts from the underlying DAO.
+	 */
+	public void streamAccounts( long afterAccountId, int limit,
+					RowHandler<Account> handler ) throws CustomException
+	{
+		delegate.streamAccounts(afterAccountId, limit, handler);
+	}
+
+	/**
+	 * Retrieve an account from the underlying DAO.
+	 */
+	public Account getAccountById( long accountId ) throws CustomException
+	{
+		return delegate.getAccountById(accountId);
+	}
+
+	/**
+	 * Retrieve an account's ledger legs from the underlying DAO.
+	 */
+	public List<LedgerEntry> getAccountHistory( long accountId,
+					long afterLedgerId, int limit ) throws CustomException
+	{
+		return delegate.getAccountHistory(accountId, afterLedgerId, limit);
+	}
+
+	/**
+	 * Create an account through the underlying DAO.
+	 */
+	public Account createAccount( Account account ) throws CustomException
+	{
+		return delegate.createAccount(account);
+	}
+
+	/**
+	 * Delete an account through the underlying DAO.
+	 */
+	public int deleteAccountById( long accountId ) throws CustomException
+	{
+		return delegate.deleteAccountById(accountId);
+	}
+
+	/**
+	 * Set the balance slots through the underlying DAO.
+	 */
+	public Account setBalanceSlots( long accountId, int slotCount )
+					throws CustomException
+	{
+		return delegate.setBalanceSlots(accountId, slotCount);
+	}
+
+	/**
+	 * Queue the update and wait for its batch to commit.
+	 */
+	public Account updateAccountBalance( long accountId, BigDecimal deltaAmount )
+					throws CustomException
+	{
+		return await(BalanceMutation.update(accountId, deltaAmount));
+	}
+
+	/**
+	 * Queue the transfer and wait for its batch to commit.
+	 */
+	public int transferAccountBalance( UserTransaction userTransaction )
+					throws CustomException
+	{
+		await(BalanceMutation.transfer(userTransaction));
+
+		// Both account rows were updated.
+		return 2;
+	}
+
+	/**
+	 * Apply a batch of transfers through the underlying DAO, which already
+	 * commits them together.
+	 */
+	public List<TransferResult> transferAccountBalances(
+					List<UserTransaction> transactions ) throws CustomException
+	{
+		return delegate.transferAccountBalances(transactions);
+	}
+
+	/**
+	 * Retrieve the number of batches collected.
+	 *
+	 * @return - batch count.
+	 */
+	public long getBatchCount()
+	{
+		return batches.sum();
+	}
+
+	/**
+	 * Retrieve the number of mutations collected in batches.
+	 *
+	 * @return - mutation count.
+	 */
+	public long getMutationCount()
+	{
+		return mutations.sum();
+	}
+
+	/**
+	 * Queue a mutation and wait for its outcome, up to the commit timeout.
+	 */
+	private Account await( BalanceMutation mutation ) throws CustomException
+	{
+		queue.add(mutation);
+
+		// Wait for the committer.
+		try
+		{
+			return mutation.future.get(commitTimeoutMillis,
+							TimeUnit.MILLISECONDS);
+		}
+		// Failed alone or with its batch.
+		catch (ExecutionException e)
+		{
+			// Rethrow as the underlying DAO would have.
+			if (e.getCause() instanceof CustomException)
+			{
+				throw (CustomException) e.getCause();
+			}
+
+			throw new CustomException("Fail to update balance", e.getCause());
+		}
+		// Caller interrupted, the mutation may still be applied.
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new CustomException(
+							"Interrupted waiting for balance update to commit", e);
+		}
+		// Committer stuck, the mutation may still be applied.
+		catch (TimeoutException e)
+		{
+			log.error("await(): Balance update not committed in {} ms, queued {}",
+							commitTimeoutMillis, queue.size());
+
+			throw new CustomException(
+							"Timed out waiting for balance update to commit", e);
+		}
+	}
+
+	/**
+	 * Collect and commit batches until the thread is stopped.
+	 */
+	private void commitLoop()
+	{
+		List<BalanceMutation> batch = new ArrayList<BalanceMutation>(
+						maxBatchSize);
+
+		while (!Thread.currentThread().isInterrupted())
+		{
+			// Wait for a mutation, then for more up to the delay.
+			try
+			{
+				batch.add(queue.take());
+
+				long deadline = System.nanoTime() + maxDelayNanos;
+
+				while (batch.size() < maxBatchSize)
+				{
+					// Take whatever is already queued first.
+					if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0)
+					{
+						continue;
+					}
+
+					long remaining = deadline - System.nanoTime();
+
+					// Delay passed.
+					if (remaining <= 0)
+					{
+						break;
+					}
+
+					BalanceMutation next = queue.poll(remaining,
+									TimeUnit.NANOSECONDS);
+
+					// Nothing more arrived in time.
+					if (next == null)
+					{
+						break;
+					}
+
+					batch.add(next);
+				}
+			}
+			// Committer stopped.
+			catch (InterruptedException e)
+			{
+				failAll(batch, new CustomException("Group commit stopped"));
+
+				return;
+			}
+
+			commit(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Commit a batch, releasing its callers whatever happens.
+	 */
+	private void commit( List<BalanceMutation> batch )
+	{
+		// Count the batch before its callers are released.
+		batches.increment();
+		mutations.add(batch.size());
+
+		// Apply the batch, the underlying DAO completes the futures.
+		try
+		{
+			delegate.applyMutations(batch);
+		}
+		// Keep the committer running whatever went wrong, errors included.
+		catch (Throwable e)
+		{
+			log.error("commit(): Unexpected error committing balance updates ",
+							e);
+
+			failAll(batch, new CustomException("Fail to update balance", e));
+		}
+	}
+
+	/**
+	 * Fail every mutation of a batch not already completed.
+	 */
+	private void failAll( List<BalanceMutation> batch, CustomException e )
+	{
+		for ( BalanceMutation mutation : batch )
+		{
+			mutation.future.completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package com.account.dao.impl;
+
+import com.account.dao.DataDAOFactory;
+import com.account.dao.IdempotencyDAO;
+import com.account.exception.CustomException;
+import com.account.model.IdempotencyRecord;
+import com.account.utils.Log;
+
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation of the idempotency key Data Access Object, holding the keys
+ * in the IdempotencyKey table.
+ *
+ * The primary key on the table decides which request claims a key. Expired
+ * keys are deleted at most once per purge interval, by the request that
+ * finds the interval has passed.
+ */
+public class IdempotencyDAOImpl implements IdempotencyDAO
+{
+	private static Log log = Log.getLog(IdempotencyDAOImpl.class);
+
+	private final static String SQL_INSERT_KEY = "INSERT INTO IdempotencyKey (IdempotencyKey, Fingerprint, Status, Message, CreatedAt) VALUES (?, ?, ?, ?, ?)";
+	private final static String SQL_GET_KEY = "SELECT * FROM IdempotencyKey WHERE IdempotencyKey = ? ";
+	private final static String SQL_COMPLETE_KEY = "UPDATE IdempotencyKey SET Status = ?, Message = ? WHERE IdempotencyKey = ? ";
+	private final static String SQL_DELETE_PENDING_KEY = "DELETE FROM IdempotencyKey WHERE IdempotencyKey = ? AND Status = 0 ";
+	private final static String SQL_DELETE_EXPIRED_KEY = "DELETE FROM IdempotencyKey WHERE IdempotencyKey = ? AND CreatedAt = ? ";
+	private final static String SQL_DELETE_EXPIRED_KEYS = "DELETE FROM IdempotencyKey WHERE CreatedAt < ? ";
+
+	// SQL state of a primary key violation.
+	private final static String DUPLICATE_KEY_STATE = "23505";
+
+	// Minimum time between deletions of expired keys.
+	private final static long PURGE_INTERVAL_MS = 60000;
+
+	private final long ttlMillis;
+
+	// Earliest time of the next deletion of expired keys.
+	private final AtomicLong nextPurge = new AtomicLong();
+
+	/**
+	 * Idempotency key DAO constructor.
+	 *
+	 * @param ttlMillis - time to live of a key, in milliseconds.
+	 */
+	public IdempotencyDAOImpl( long ttlMillis )
+	{
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Claim a key by inserting it. A key already present is returned, unless
+	 * it has expired, in which case it is deleted and the insert retried.
+	 */
+	public IdempotencyRecord claimKey( String key, String fingerprint )
+					throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+
+		IdempotencyRecord pending = IdempotencyRecord.pending(key, fingerprint);
+
+		// Connect to database and claim the key.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+
+			purgeExpired(conn, pending.getCreatedAt());
+
+			// Once to claim the key, and once more if it had expired.
+			for ( int attempt = 0; attempt < 2; attempt++ )
+			{
+				// Claimed, the caller runs the request.
+				if (insertKey(conn, pending))
+				{
+					return null;
+				}
+
+				IdempotencyRecord existing = getKey(conn, key);
+
+				// Deleted since the insert, try again.
+				if (existing == null)
+				{
+					continue;
+				}
+
+				// Still in use, the caller replays it.
+				if (!existing.isExpired(ttlMillis, pending.getCreatedAt()))
+				{
+					return existing;
+				}
+
+				deleteExpiredKey(conn, existing);
+			}
+
+			throw new CustomException("Idempotency key cannot be claimed");
+		}
+		// SQL Exception.
+		catch (SQLException e)
+		{
+			log.error("claimKey(): Error claiming idempotency key {}", key, e);
+
+			throw new CustomException("Error claiming idempotency key", e);
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * Record the outcome of a request.
+	 */
+	public void completeKey( IdempotencyRecord record ) throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement stmt = null;
+
+		// Connect to database and establish SQL statement. Execute SQL.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			stmt = conn.prepareStatement(SQL_COMPLETE_KEY);
+			stmt.setInt(1, record.getStatus());
+			stmt.setString(2, record.getMessage());
+			stmt.setString(3, record.getKey());
+
+			stmt.executeUpdate();
+		}
+		// SQL Exception.
+		catch (SQLException e)
+		{
+			log.error("completeKey(): Error completing idempotency key {}",
+							record, e);
+
+			throw new CustomException("Error completing idempotency key", e);
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(conn, stmt, null);
+		}
+	}
+
+	/**
+	 * Delete a key still in progress.
+	 */
+	public void releaseKey( String key ) throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement stmt = null;
+
+		// Connect to database and establish SQL statement. Execute SQL.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			stmt = conn.prepareStatement(SQL_DELETE_PENDING_KEY);
+			stmt.setString(1, key);
+
+			stmt.executeUpdate();
+		}
+		// SQL Exception.
+		catch (SQLException e)
+		{
+			log.error("releaseKey(): Error releasing idempotency key {}", key, e);
+
+			throw new CustomException("Error releasing idempotency key", e);
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(conn, stmt, null);
+		}
+	}
+
+	/**
+	 * Insert a pending key.
+	 *
+	 * @return - true if inserted, false if the key is already present.
+	 */
+	private boolean insertKey( Connection conn, IdempotencyRecord pending )
+					throws SQLException
+	{
+		PreparedStatement stmt = null;
+
+		// Insert the key, the primary key rejects a duplicate.
+		try
+		{
+			stmt = conn.prepareStatement(SQL_INSERT_KEY);
+			stmt.setString(1, pending.getKey());
+			stmt.setString(2, pending.getFingerprint());
+			stmt.setInt(3, pending.getStatus());
+			stmt.setString(4, pending.getMessage());
+			stmt.setTimestamp(5, new Timestamp(pending.getCreatedAt()));
+
+			stmt.executeUpdate();
+
+			return true;
+		}
+		// Key already present.
+		catch (SQLException e)
+		{
+			// Any other failure is an error.
+			if (!DUPLICATE_KEY_STATE.equals(e.getSQLState()))
+			{
+				throw e;
+			}
+
+			return false;
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Read a key.
+	 *
+	 * @return - record of the key, null if absent.
+	 */
+	private IdempotencyRecord getKey( Connection conn, String key )
+					throws SQLException
+	{
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		// Establish SQL statement. Execute SQL.
+		try
+		{
+			stmt = conn.prepareStatement(SQL_GET_KEY);
+			stmt.setString(1, key);
+
+			rs = stmt.executeQuery();
+
+			// Key not present.
+			if (!rs.next())
+			{
+				return null;
+			}
+
+			return new IdempotencyRecord(rs.getString("IdempotencyKey"),
+							rs.getString("Fingerprint"), rs.getInt("Status"),
+							rs.getString("Message"), rs.getTimestamp(
+											"CreatedAt").getTime());
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(null, stmt, rs);
+		}
+	}
+
+	/**
+	 * Delete an expired key, unless it has been claimed again since it was
+	 * read.
+	 */
+	private void deleteExpiredKey( Connection conn, IdempotencyRecord expired )
+					throws SQLException
+	{
+		PreparedStatement stmt = null;
+
+		// Establish SQL statement. Execute SQL.
+		try
+		{
+			stmt = conn.prepareStatement(SQL_DELETE_EXPIRED_KEY);
+			stmt.setString(1, expired.getKey());
+			stmt.setTimestamp(2, new Timestamp(expired.getCreatedAt()));
+
+			stmt.executeUpdate();
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Delete the expired keys if the purge interval has passed.
+	 */
+	private void purgeExpired( Connection conn, long now ) throws SQLException
+	{
+		long next = nextPurge.get();
+
+		// Not due, or another request is purging.
+		if ((now < next)
+						|| !nextPurge.compareAndSet(next, now
+										+ PURGE_INTERVAL_MS))
+		{
+			return;
+		}
+
+		PreparedStatement stmt = null;
+
+		// Establish SQL statement. Execute SQL.
+		try
+		{
+			stmt = conn.prepareStatement(SQL_DELETE_EXPIRED_KEYS);
+			stmt.setTimestamp(1, new Timestamp(now - ttlMillis));
+
+			int deleted = stmt.executeUpdate();
+
+			// If debug is enabled, output log message.
+			if (log.isDebugEnabled())
+			{
+				log.debug("purgeExpired(): Deleted expired idempotency keys: {}",
+								deleted);
+			}
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.account.dao.impl;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Database trigger rejecting any update or delete of a Ledger row, so legs
+ * can only be appended.
+ */
+public class LedgerImmutableTrigger implements Trigger
+{
+	/**
+	 * Initialise the trigger, nothing to prepare.
+	 */
+	public void init( Connection conn, String schemaName, String triggerName,
+					String tableName, boolean before, int type )
+	{
+	}
+
+	/**
+	 * Reject the change.
+	 */
+	public void fire( Connection conn, Object[] oldRow, Object[] newRow )
+					throws SQLException
+	{
+		throw new SQLException("Ledger rows cannot be changed", "42000");
+	}
+
+	public void close()
+	{
+	}
+
+	public void remove()
+	{
+	}
+}
@@ -1,15 +1,19 @@
 package com.account.dao.impl;
 
 import com.account.dao.DataDAOFactory;
+import com.account.dao.RowHandler;
 import com.account.dao.UserDAO;
 import com.account.exception.CustomException;
+import com.account.exception.DuplicateEntryException;
 import com.account.model.User;
+import com.account.utils.Log;
+import com.account.utils.Utils;
 
 import org.apache.commons.dbutils.DbUtils;
-import org.apache.log4j.Logger;
 
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,15 +26,24 @@ import java.util.List;
 @Repository
 public class UserDAOImpl implements UserDAO
 {
-	private static Logger log = Logger.getLogger(UserDAOImpl.class);
+	private static Log log = Log.getLog(UserDAOImpl.class);
 	
 	private final static String SQL_GET_USER_BY_ID = "SELECT * FROM User WHERE UserId = ? ";
 	private final static String SQL_GET_ALL_USERS = "SELECT * FROM User";
+	private final static String SQL_GET_USERS_AFTER_ID = "SELECT * FROM User WHERE UserId > ? ORDER BY UserId";
+	private final static String SQL_GET_USER_PAGE_AFTER_ID = "SELECT * FROM User WHERE UserId > ? ORDER BY UserId LIMIT ?";
 	private final static String SQL_GET_USER_BY_NAME = "SELECT * FROM User WHERE UserName = ? ";
 	private final static String SQL_INSERT_USER = "INSERT INTO User (UserName, EmailAddress) VALUES (?, ?)";
 	private final static String SQL_UPDATE_USER = "UPDATE User SET UserName = ?, EmailAddress = ? WHERE UserId = ? ";
 	private final static String SQL_DELETE_USER_BY_ID = "DELETE FROM User WHERE UserId = ? ";
 
+	// SQL state of a unique index violation.
+	private final static String DUPLICATE_KEY_STATE = "23505";
+
+	// Rows fetched from the database per round trip when streaming.
+	private final static int FETCH_SIZE = Utils.getIntegerProperty(
+					"data_fetch_size", 500);
+
 	/**
 	 * Find all users
 	 */
@@ -61,11 +74,7 @@ public class UserDAOImpl implements UserDAO
 				// Add details to list
 				users.add(u);
 				
-				// Output debug message if enabled.
-				if (log.isDebugEnabled())
-				{
-					log.debug("getAllUsers() Retrieve User: " + u);
-				}
+				log.debug("getAllUsers() Retrieve User: {}", u);
 			}
 			
 			return users;
@@ -83,6 +92,83 @@ public class UserDAOImpl implements UserDAO
 		
 	}
 
+	/**
+	 * Find a page of users in user id order.
+	 */
+	public List<User> getUsers( long afterUserId, int limit )
+					throws CustomException
+	{
+		final List<User> users = new ArrayList<User>();
+		
+		// Collect the page.
+		streamUsers(afterUserId, limit, new RowHandler<User>()
+		{
+			public void handle( User user )
+			{
+				users.add(user);
+			}
+		});
+		
+		return users;
+	}
+
+	/**
+	 * Pass users in user id order to a handler as they are read.
+	 */
+	public void streamUsers( long afterUserId, int limit,
+					RowHandler<User> handler ) throws CustomException
+	{
+		// Initialise connection parameters.
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		
+		// Connect to database and establish SQL statement. Execute SQL.
+		try
+		{
+			conn = DataDAOFactory.getConnection();
+			
+			// Limit the rows read, if requested.
+			if (limit > 0)
+			{
+				stmt = conn.prepareStatement(SQL_GET_USER_PAGE_AFTER_ID);
+				stmt.setLong(1, afterUserId);
+				stmt.setInt(2, limit);
+			}
+			else
+			{
+				stmt = conn.prepareStatement(SQL_GET_USERS_AFTER_ID);
+				stmt.setLong(1, afterUserId);
+			}
+			
+			stmt.setFetchSize(FETCH_SIZE);
+			rs = stmt.executeQuery();
+			
+			// Hand over each user as it is read.
+			while (rs.next())
+			{
+				handler.handle(new User(rs.getLong("UserId"),
+								rs.getString("UserName"),
+								rs.getString("EmailAddress")));
+			}
+		}
+		// SQL Exception.
+		catch (SQLException e)
+		{
+			throw new CustomException("Error reading user data", e);
+		}
+		// Handler failure.
+		catch (IOException e)
+		{
+			throw new CustomException("Error writing user data", e);
+		}
+		// Execute regardless.
+		finally
+		{
+			DbUtils.closeQuietly(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 * Find user by userId
 	 */
@@ -110,11 +196,7 @@ public class UserDAOImpl implements UserDAO
 				u = new User(rs.getLong("UserId"), rs.getString("UserName"),
 								rs.getString("EmailAddress"));
 				
-				// Output debug message if enabled.
-				if (log.isDebugEnabled())
-				{
-					log.debug("getUserById(): Retrieve User: " + u);
-				}
+				log.debug("getUserById(): Retrieve User: {}", u);
 			}
 			
 			return u;
@@ -158,11 +240,7 @@ public class UserDAOImpl implements UserDAO
 				u = new User(rs.getLong("UserId"), rs.getString("UserName"),
 								rs.getString("EmailAddress"));
 				
-				// Output debug message if enabled.
-				if (log.isDebugEnabled())
-				{
-					log.debug("Retrieve User: " + u);
-				}
+				log.debug("Retrieve User: {}", u);
 				
 			}
 			
@@ -205,8 +283,8 @@ public class UserDAOImpl implements UserDAO
 			// If the number of rows is zero, have error.
 			if (affectedRows == 0)
 			{
-				log.error("insertUser(): Creating user failed, no rows affected."
-								+ user);
+				log.error("insertUser(): Creating user failed, no rows affected.{}",
+								user);
 				
 				throw new CustomException("Users Cannot be created");
 			}
@@ -222,8 +300,8 @@ public class UserDAOImpl implements UserDAO
 			// Otherwise, no key, log error message.
 			else
 			{
-				log.error("insertUser():  Creating user failed, no ID obtained."
-								+ user);
+				log.error("insertUser():  Creating user failed, no ID obtained.{}",
+								user);
 				
 				throw new CustomException("Users Cannot be created");
 			}
@@ -231,7 +309,13 @@ public class UserDAOImpl implements UserDAO
 		// SQL Exception.
 		catch (SQLException e)
 		{
-			log.error("Error Inserting User :" + user);
+			// User name already taken.
+			if (DUPLICATE_KEY_STATE.equals(e.getSQLState()))
+			{
+				throw new DuplicateEntryException("User name already exist", e);
+			}
+			
+			log.error("Error Inserting User :{}", user);
 			
 			throw new CustomException("Error creating user data", e);
 		}
@@ -272,7 +356,13 @@ public class UserDAOImpl implements UserDAO
 		// SQL Exception.
 		catch (SQLException e)
 		{
-			log.error("Error Updating User :" + user);
+			// User name already taken.
+			if (DUPLICATE_KEY_STATE.equals(e.getSQLState()))
+			{
+				throw new DuplicateEntryException("User name already exist", e);
+			}
+			
+			log.error("Error Updating User :{}", user);
 			
 			throw new CustomException("Error update user data", e);
 		}
@@ -310,7 +400,7 @@ public class UserDAOImpl implements UserDAO
 		// SQL Exception.
 		catch (SQLException e)
 		{
-			log.error("Error Deleting User :" + userId);
+			log.error("Error Deleting User :{}", userId);
 			
 			throw new CustomException("Error Deleting User ID:" + userId, e);
 		}
@@ -0,0 +1,56 @@
+package com.account.dao.memory;
+
+import com.account.model.Account;
+import com.account.model.Money;
+
+/**
+ * Account row held by the in-memory account DAO.
+ *
+ * The balance is in long minor units. It and the deleted flag are written
+ * only while holding the account's lock, and are volatile so that reads
+ * need no lock.
+ */
+final class AccountEntry
+{
+	final long accountId;
+	final String userName;
+	final String currencyCode;
+
+	// Balance in minor units.
+	volatile long balance;
+
+	// Set once the account has been deleted.
+	volatile boolean deleted;
+
+	// Amount held by transfers between engine shards, in minor units.
+	// Guarded by the account's lock.
+	long reserved;
+
+	/**
+	 * Account entry constructor.
+	 *
+	 * @param accountId - account id.
+	 * @param userName - account user name.
+	 * @param balance - balance in minor units.
+	 * @param currencyCode - account currency code.
+	 */
+	AccountEntry( long accountId, String userName, long balance,
+					String currencyCode )
+	{
+		this.accountId = accountId;
+		this.userName = userName;
+		this.balance = balance;
+		this.currencyCode = currencyCode;
+	}
+
+	/**
+	 * Build the account details for the current balance.
+	 *
+	 * @return - account details.
+	 */
+	Account toAccount()
+	{
+		return new Account(accountId, userName, Money.toBigDecimal(balance),
+						currencyCode);
+	}
+}
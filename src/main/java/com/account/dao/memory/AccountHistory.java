@@ -0,0 +1,68 @@
+package com.account.dao.memory;
+
+import com.account.model.LedgerEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ledger legs of one account held by the in-memory account DAO, in ledger
+ * id order. Legs are only appended, and are kept after the account is
+ * deleted.
+ */
+final class AccountHistory
+{
+	private LedgerEntry[] entries = new LedgerEntry[8];
+	private int size;
+
+	/**
+	 * Append a leg. Ledger ids must increase, which holds as legs of one
+	 * account are written under its lock.
+	 *
+	 * @param entry - leg to append.
+	 */
+	synchronized void append( LedgerEntry entry )
+	{
+		// Grow the array, doubling its length.
+		if (size == entries.length)
+		{
+			entries = Arrays.copyOf(entries, size * 2);
+		}
+
+		entries[size++] = entry;
+	}
+
+	/**
+	 * Retrieve a page of legs.
+	 *
+	 * @param afterLedgerId - ledger id to start after.
+	 * @param limit - maximum number of legs, 0 for no limit.
+	 * @return - legs with a greater ledger id, in order.
+	 */
+	synchronized List<LedgerEntry> page( long afterLedgerId, int limit )
+	{
+		int low = 0;
+		int high = size;
+
+		// Find the first leg after the given id.
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+
+			if (entries[mid].getLedgerId() <= afterLedgerId)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+
+		int end = ((limit > 0) && (limit < (size - low))) ? low + limit : size;
+
+		return new ArrayList<LedgerEntry>(Arrays.asList(entries).subList(low,
+						end));
+	}
+}
@@ -0,0 +1,1087 @@
+package com.account.dao.memory;
+
+import com.account.utils.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes made to the in-memory data, with
+ * snapshots, so the data survives a restart.
+ *
+ * Changes are appended to memory-mapped segment files. A writer gets back
+ * a sequence number and, if sync on commit is enabled, waits in
+ * {@link #awaitDurable} until a background thread has forced its record to
+ * disk. One force covers every record appended before it, so concurrent
+ * writers share the cost of the sync (group commit).
+ *
+ * A checkpoint starts a new segment, writes a snapshot of every row and
+ * deletes the older segments and snapshots. The snapshot is taken while
+ * changes continue, but every change carries absolute values and is
+ * appended while its rows are locked, so replaying the segments from the
+ * snapshot onwards brings each row to its latest state.
+ *
+ * Each record is framed as: length (int), type (byte), payload, CRC32 of
+ * type and payload (int). Replay of a file stops at the first zero length
+ * or checksum mismatch, which is where a crash cut the file short.
+ */
+public class Journal implements Closeable
+{
+	private static Log log = Log.getLog(Journal.class);
+
+	// Record types.
+	private static final byte PUT_ACCOUNT = 1;
+	private static final byte SET_BALANCE = 2;
+	private static final byte SET_BALANCES = 3;
+	private static final byte REMOVE_ACCOUNT = 4;
+	private static final byte PUT_USER = 5;
+	private static final byte REMOVE_USER = 6;
+
+	// Bytes of a record besides its payload: length, type and checksum.
+	private static final int FRAMING_BYTES = 4 + 1 + 4;
+
+	// File names, followed by the segment sequence number.
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	// Snapshot write buffer size.
+	private static final int SNAPSHOT_BUFFER_BYTES = 64 * 1024;
+
+	private final File directory;
+	private final int segmentBytes;
+	private final boolean syncOnCommit;
+	private final long flushIntervalMillis;
+
+	// Current segment and append position, guarded by this.
+	private final SegmentWriter writer = new SegmentWriter();
+	private long segmentSeq;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private long appendedLsn;
+	private boolean started;
+
+	// Durability, guarded by flushLock.
+	private final Object flushLock = new Object();
+	private long durableLsn;
+	private boolean flushRequested;
+	private Thread flusher;
+
+	// Forces failed since the journal started, and the last failure, guarded
+	// by flushLock.
+	private long failedFlushes;
+	private Throwable flushFailure;
+
+	private volatile boolean closed;
+
+	// Serialises checkpoints.
+	private final Object checkpointLock = new Object();
+
+	/**
+	 * Source of the rows written to a snapshot.
+	 */
+	public interface Snapshot
+	{
+		/**
+		 * Pass every user and account to the handler.
+		 *
+		 * @param handler - snapshot writer.
+		 * @throws IOException
+		 */
+		void writeTo( MutationHandler handler ) throws IOException;
+	}
+
+	/**
+	 * Journal constructor. Nothing is read or written until {@link #replay}
+	 * or {@link #start} is called.
+	 *
+	 * @param directory - directory holding the journal files.
+	 * @param segmentBytes - size of each segment file.
+	 * @param syncOnCommit - whether writers wait for their records to reach
+	 *            the disk.
+	 * @param flushIntervalMillis - longest time between forces when no
+	 *            writer is waiting.
+	 */
+	public Journal( File directory, int segmentBytes, boolean syncOnCommit,
+					long flushIntervalMillis )
+	{
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.syncOnCommit = syncOnCommit;
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	/**
+	 * Replay the latest snapshot and the segments written after it.
+	 *
+	 * @param handler - handler applying each change.
+	 * @return - true if there was anything to replay.
+	 * @throws IOException
+	 */
+	public synchronized boolean replay( MutationHandler handler )
+					throws IOException
+	{
+		// Replay only before appending.
+		if (started)
+		{
+			throw new IllegalStateException("Journal already started");
+		}
+
+		List<Long> snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		List<Long> segments = sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+
+		long snapshotSeq = snapshots.isEmpty() ? 0 : snapshots.get(snapshots
+						.size() - 1);
+		boolean replayed = false;
+
+		// Start from the latest snapshot.
+		if (!snapshots.isEmpty())
+		{
+			replayFile(file(SNAPSHOT_PREFIX, snapshotSeq, SNAPSHOT_SUFFIX),
+							handler);
+			replayed = true;
+		}
+
+		// Then the changes made since.
+		for ( Long seq : segments )
+		{
+			if (seq >= snapshotSeq)
+			{
+				replayFile(file(SEGMENT_PREFIX, seq, SEGMENT_SUFFIX), handler);
+				replayed = true;
+			}
+		}
+
+		return replayed;
+	}
+
+	/**
+	 * Open a new segment for appending and start the flush thread.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException
+	{
+		// Already appending.
+		if (started)
+		{
+			return;
+		}
+
+		// Create the directory on first use.
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			throw new IOException("Cannot create journal directory "
+							+ directory);
+		}
+
+		// Continue after every existing file.
+		List<Long> snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		List<Long> segments = sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+
+		if (!snapshots.isEmpty())
+		{
+			segmentSeq = Math.max(segmentSeq, snapshots.get(snapshots.size() - 1));
+		}
+
+		if (!segments.isEmpty())
+		{
+			segmentSeq = Math.max(segmentSeq, segments.get(segments.size() - 1));
+		}
+
+		rotate();
+		started = true;
+
+		flusher = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				runFlusher();
+			}
+		}, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+
+		log.info("start(): journal open at segment {} in {}", segmentSeq,
+						directory);
+	}
+
+	/**
+	 * Append an account creation.
+	 *
+	 * @return - sequence number to pass to {@link #awaitDurable}.
+	 * @throws IOException
+	 */
+	public synchronized long putAccount( long accountId, String userName,
+					long balance, String currencyCode ) throws IOException
+	{
+		checkOpen();
+		writer.putAccount(accountId, userName, balance, currencyCode);
+
+		return ++appendedLsn;
+	}
+
+	/**
+	 * Append a balance change.
+	 *
+	 * @return - sequence number to pass to {@link #awaitDurable}.
+	 * @throws IOException
+	 */
+	public synchronized long setBalance( long accountId, long balance )
+					throws IOException
+	{
+		checkOpen();
+		writer.setBalance(accountId, balance);
+
+		return ++appendedLsn;
+	}
+
+	/**
+	 * Append the balance changes of a transfer.
+	 *
+	 * @return - sequence number to pass to {@link #awaitDurable}.
+	 * @throws IOException
+	 */
+	public synchronized long setBalances( long fromAccountId,
+					long fromBalance, long toAccountId, long toBalance )
+					throws IOException
+	{
+		checkOpen();
+		writer.setBalances(fromAccountId, fromBalance, toAccountId, toBalance);
+
+		return ++appendedLsn;
+	}
+
+	/**
+	 * Append an account deletion.
+	 *
+	 * @return - sequence number to pass to {@link #awaitDurable}.
+	 * @throws IOException
+	 */
+	public synchronized long removeAccount( long accountId ) throws IOException
+	{
+		checkOpen();
+		writer.removeAccount(accountId);
+
+		return ++appendedLsn;
+	}
+
+	/**
+	 * Append a user creation or update.
+	 *
+	 * @return - sequence number to pass to {@link #awaitDurable}.
+	 * @throws IOException
+	 */
+	public synchronized long putUser( long userId, String userName,
+					String emailAddress ) throws IOException
+	{
+		checkOpen();
+		writer.putUser(userId, userName, emailAddress);
+
+		return ++appendedLsn;
+	}
+
+	/**
+	 * Append a user deletion.
+	 *
+	 * @return - sequence number to pass to {@link #awaitDurable}.
+	 * @throws IOException
+	 */
+	public synchronized long removeUser( long userId ) throws IOException
+	{
+		checkOpen();
+		writer.removeUser(userId);
+
+		return ++appendedLsn;
+	}
+
+	/**
+	 * Wait until a record has been forced to disk. Returns at once if sync
+	 * on commit is disabled.
+	 *
+	 * @param lsn - sequence number returned when the record was appended.
+	 * @throws IOException - if a force failed while waiting, the record may
+	 *             not be on disk.
+	 */
+	public void awaitDurable( long lsn ) throws IOException
+	{
+		// Nothing to wait for.
+		if (!syncOnCommit || (lsn <= 0))
+		{
+			return;
+		}
+
+		synchronized (flushLock)
+		{
+			long failures = failedFlushes;
+
+			while ((durableLsn < lsn) && !closed)
+			{
+				// A force failed since this writer started waiting.
+				if (failedFlushes != failures)
+				{
+					throw new IOException("Fail to force journal to disk",
+									flushFailure);
+				}
+
+				// Wake the flush thread rather than wait for its interval.
+				flushRequested = true;
+				flushLock.notifyAll();
+
+				try
+				{
+					flushLock.wait();
+				}
+				// Give up waiting, the record is still written in order.
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a snapshot and delete the files it replaces.
+	 *
+	 * @param snapshot - source of the rows.
+	 * @throws IOException
+	 */
+	public void checkpoint( Snapshot snapshot ) throws IOException
+	{
+		synchronized (checkpointLock)
+		{
+			long seq;
+
+			// Changes from here on go to a new segment.
+			synchronized (this)
+			{
+				checkOpen();
+				rotate();
+				seq = segmentSeq;
+			}
+
+			File temp = file(SNAPSHOT_PREFIX, seq, SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+			FileChannel out = FileChannel.open(temp.toPath(),
+							StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING,
+							StandardOpenOption.WRITE);
+
+			// Write and sync the snapshot under a temporary name.
+			try
+			{
+				SnapshotWriter snapshotWriter = new SnapshotWriter(out);
+
+				snapshot.writeTo(snapshotWriter);
+				snapshotWriter.finish();
+
+				out.force(true);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			Files.move(temp.toPath(), file(SNAPSHOT_PREFIX, seq,
+							SNAPSHOT_SUFFIX).toPath(),
+							StandardCopyOption.ATOMIC_MOVE);
+			syncDirectory();
+
+			// Drop the files the snapshot replaces.
+			for ( Long old : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX) )
+			{
+				if (old < seq)
+				{
+					delete(file(SEGMENT_PREFIX, old, SEGMENT_SUFFIX));
+				}
+			}
+
+			for ( Long old : sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) )
+			{
+				if (old < seq)
+				{
+					delete(file(SNAPSHOT_PREFIX, old, SNAPSHOT_SUFFIX));
+				}
+			}
+
+			log.info("checkpoint(): snapshot written at segment {}", seq);
+		}
+	}
+
+	/**
+	 * Force the remaining records to disk and stop the flush thread.
+	 */
+	public void close() throws IOException
+	{
+		closed = true;
+
+		// Wake the flush thread and any waiting writer.
+		synchronized (flushLock)
+		{
+			flushLock.notifyAll();
+		}
+
+		if (flusher != null)
+		{
+			try
+			{
+				flusher.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		synchronized (this)
+		{
+			// Sync and release the current segment.
+			if (channel != null)
+			{
+				force(buffer);
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	/**
+	 * Flush thread: force the current segment when a writer asks, or every
+	 * flush interval if records are waiting.
+	 */
+	private void runFlusher()
+	{
+		while (!closed)
+		{
+			synchronized (flushLock)
+			{
+				// Wait for a writer, or the interval.
+				if (!flushRequested)
+				{
+					try
+					{
+						flushLock.wait(flushIntervalMillis);
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+
+				flushRequested = false;
+			}
+
+			// Keep flushing after any error, including the undeclared
+			// IOException of force(), or writers would wait forever.
+			try
+			{
+				flush();
+			}
+			catch (Throwable e)
+			{
+				flushFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Record a failed force and fail the writers waiting for it. Only the
+	 * first failure of a run is logged, not one per flush interval.
+	 */
+	private void flushFailed( Throwable e )
+	{
+		boolean first;
+
+		synchronized (flushLock)
+		{
+			first = (flushFailure == null);
+			flushFailure = e;
+			failedFlushes++;
+			flushLock.notifyAll();
+		}
+
+		if (first)
+		{
+			log.error("runFlusher(): Error forcing journal to disk, retrying", e);
+		}
+	}
+
+	/**
+	 * Force a segment to disk. On JDK 8 a failed msync is thrown as an
+	 * IOException although force() does not declare it.
+	 *
+	 * @param segment - mapped segment.
+	 * @throws IOException
+	 */
+	protected void force( MappedByteBuffer segment ) throws IOException
+	{
+		segment.force();
+	}
+
+	/**
+	 * Force every record appended so far to disk.
+	 */
+	private void flush() throws IOException
+	{
+		MappedByteBuffer current;
+		long lsn;
+
+		synchronized (this)
+		{
+			current = buffer;
+			lsn = appendedLsn;
+		}
+
+		synchronized (flushLock)
+		{
+			// Already durable.
+			if ((current == null) || (lsn <= durableLsn))
+			{
+				return;
+			}
+		}
+
+		force(current);
+		markDurable(lsn);
+	}
+
+	/**
+	 * Record that every record up to a sequence number is on disk and wake
+	 * the writers waiting for it.
+	 */
+	private void markDurable( long lsn )
+	{
+		boolean recovered;
+		long failures;
+
+		synchronized (flushLock)
+		{
+			if (lsn > durableLsn)
+			{
+				durableLsn = lsn;
+			}
+
+			recovered = (flushFailure != null);
+			failures = failedFlushes;
+			flushFailure = null;
+			flushLock.notifyAll();
+		}
+
+		if (recovered)
+		{
+			log.info("runFlusher(): journal forced to disk again, failed forces since start: {}",
+							failures);
+		}
+	}
+
+	/**
+	 * Sync the current segment and open the next one. Called holding this.
+	 */
+	private void rotate() throws IOException
+	{
+		// Sync and release the current segment.
+		if (channel != null)
+		{
+			force(buffer);
+			channel.close();
+			markDurable(appendedLsn);
+		}
+
+		segmentSeq++;
+
+		channel = FileChannel.open(file(SEGMENT_PREFIX, segmentSeq,
+						SEGMENT_SUFFIX).toPath(), StandardOpenOption.CREATE_NEW,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+
+		syncDirectory();
+	}
+
+	/**
+	 * Check the journal accepts records. Called holding this.
+	 */
+	private void checkOpen() throws IOException
+	{
+		if (!started || closed)
+		{
+			throw new IOException("Journal is not open");
+		}
+	}
+
+	/**
+	 * Make file creation and renames in the directory durable, where the
+	 * platform allows it.
+	 */
+	private void syncDirectory()
+	{
+		try
+		{
+			FileChannel dir = FileChannel.open(directory.toPath(),
+							StandardOpenOption.READ);
+
+			try
+			{
+				dir.force(true);
+			}
+			finally
+			{
+				dir.close();
+			}
+		}
+		// Not supported on every platform.
+		catch (IOException e)
+		{
+			if (log.isDebugEnabled())
+			{
+				log.debug("syncDirectory(): directory sync not supported", e);
+			}
+		}
+	}
+
+	/**
+	 * Build the name of a journal file.
+	 */
+	private File file( String prefix, long seq, String suffix )
+	{
+		return new File(directory, String.format("%s%020d%s", prefix, seq,
+						suffix));
+	}
+
+	/**
+	 * List the sequence numbers of the journal files of one kind, in
+	 * ascending order.
+	 */
+	private List<Long> sequences( String prefix, String suffix )
+	{
+		List<Long> seqs = new ArrayList<Long>();
+		String[] names = directory.list();
+
+		// No directory yet.
+		if (names == null)
+		{
+			return seqs;
+		}
+
+		for ( String name : names )
+		{
+			if (name.startsWith(prefix) && name.endsWith(suffix))
+			{
+				try
+				{
+					seqs.add(Long.parseLong(name.substring(prefix.length(),
+									name.length() - suffix.length())));
+				}
+				// Not a journal file.
+				catch (NumberFormatException e)
+				{
+					log.warn("sequences(): ignoring file {}", name);
+				}
+			}
+		}
+
+		Collections.sort(seqs);
+
+		return seqs;
+	}
+
+	/**
+	 * Delete a file the latest snapshot replaces.
+	 */
+	private void delete( File file )
+	{
+		if (!file.delete())
+		{
+			log.warn("delete(): cannot delete journal file {}", file);
+		}
+	}
+
+	/**
+	 * Replay one journal or snapshot file.
+	 */
+	private static void replayFile( File file, MutationHandler handler )
+					throws IOException
+	{
+		FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try
+		{
+			int count = replay(in.map(FileChannel.MapMode.READ_ONLY, 0,
+							in.size()), handler);
+
+			log.info("replayFile(): replayed {} records from {}", count, file);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Replay the records in a buffer, up to the end of the valid records.
+	 *
+	 * @param records - buffer of records.
+	 * @param handler - handler applying each change.
+	 * @return - number of records replayed.
+	 * @throws IOException - if a valid record has an unknown type.
+	 */
+	static int replay( ByteBuffer records, MutationHandler handler )
+					throws IOException
+	{
+		CRC32 crc = new CRC32();
+		int count = 0;
+
+		while (records.remaining() >= FRAMING_BYTES)
+		{
+			int start = records.position();
+			int length = records.getInt(start);
+
+			// End of the written records.
+			if ((length <= 0) || (length > (records.remaining() - 8)))
+			{
+				break;
+			}
+
+			ByteBuffer record = records.duplicate();
+			record.position(start + 4);
+			record.limit(start + 4 + length);
+
+			crc.reset();
+			crc.update(record);
+
+			// Record cut short by a crash.
+			if ((int) crc.getValue() != records.getInt(start + 4 + length))
+			{
+				log.warn("replay(): ignoring incomplete record at offset {}",
+								start);
+				break;
+			}
+
+			records.position(start + 4);
+			apply(records, handler);
+			records.position(start + 4 + length + 4);
+
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Decode one record and pass it to the handler.
+	 */
+	private static void apply( ByteBuffer record, MutationHandler handler )
+					throws IOException
+	{
+		byte type = record.get();
+
+		switch (type)
+		{
+			case PUT_ACCOUNT:
+			{
+				long accountId = record.getLong();
+				long balance = record.getLong();
+				String userName = getString(record);
+				String currencyCode = getString(record);
+
+				handler.putAccount(accountId, userName, balance, currencyCode);
+				break;
+			}
+			case SET_BALANCE:
+			{
+				handler.setBalance(record.getLong(), record.getLong());
+				break;
+			}
+			case SET_BALANCES:
+			{
+				handler.setBalances(record.getLong(), record.getLong(),
+								record.getLong(), record.getLong());
+				break;
+			}
+			case REMOVE_ACCOUNT:
+			{
+				handler.removeAccount(record.getLong());
+				break;
+			}
+			case PUT_USER:
+			{
+				long userId = record.getLong();
+				String userName = getString(record);
+				String emailAddress = getString(record);
+
+				handler.putUser(userId, userName, emailAddress);
+				break;
+			}
+			case REMOVE_USER:
+			{
+				handler.removeUser(record.getLong());
+				break;
+			}
+			default:
+			{
+				throw new IOException("Unknown journal record type " + type);
+			}
+		}
+	}
+
+	/**
+	 * Decode a string written by RecordWriter.
+	 */
+	private static String getString( ByteBuffer record )
+	{
+		short length = record.getShort();
+
+		// Null value.
+		if (length < 0)
+		{
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encoder of framed records into a buffer supplied by the subclass.
+	 */
+	private abstract static class RecordWriter implements MutationHandler
+	{
+		private final CRC32 crc = new CRC32();
+
+		private ByteBuffer target;
+		private int start;
+
+		/**
+		 * Retrieve a buffer with room for a record.
+		 *
+		 * @param recordBytes - size of the record, including framing.
+		 * @return - buffer to write the record to at its position.
+		 * @throws IOException
+		 */
+		protected abstract ByteBuffer reserve( int recordBytes )
+						throws IOException;
+
+		public void putAccount( long accountId, String userName,
+						long balance, String currencyCode ) throws IOException
+		{
+			byte[] user = encode(userName);
+			byte[] ccy = encode(currencyCode);
+
+			begin(PUT_ACCOUNT, 16 + sizeOf(user) + sizeOf(ccy));
+			target.putLong(accountId);
+			target.putLong(balance);
+			putString(user);
+			putString(ccy);
+			end();
+		}
+
+		public void setBalance( long accountId, long balance )
+						throws IOException
+		{
+			begin(SET_BALANCE, 16);
+			target.putLong(accountId);
+			target.putLong(balance);
+			end();
+		}
+
+		public void setBalances( long fromAccountId, long fromBalance,
+						long toAccountId, long toBalance ) throws IOException
+		{
+			begin(SET_BALANCES, 32);
+			target.putLong(fromAccountId);
+			target.putLong(fromBalance);
+			target.putLong(toAccountId);
+			target.putLong(toBalance);
+			end();
+		}
+
+		public void removeAccount( long accountId ) throws IOException
+		{
+			begin(REMOVE_ACCOUNT, 8);
+			target.putLong(accountId);
+			end();
+		}
+
+		public void putUser( long userId, String userName, String emailAddress )
+						throws IOException
+		{
+			byte[] user = encode(userName);
+			byte[] email = encode(emailAddress);
+
+			begin(PUT_USER, 8 + sizeOf(user) + sizeOf(email));
+			target.putLong(userId);
+			putString(user);
+			putString(email);
+			end();
+		}
+
+		public void removeUser( long userId ) throws IOException
+		{
+			begin(REMOVE_USER, 8);
+			target.putLong(userId);
+			end();
+		}
+
+		/**
+		 * Start a record: reserve room, write its length and type.
+		 */
+		private void begin( byte type, int payloadBytes ) throws IOException
+		{
+			target = reserve(FRAMING_BYTES + payloadBytes);
+			start = target.position();
+
+			target.putInt(1 + payloadBytes);
+			target.put(type);
+		}
+
+		/**
+		 * End a record: write the checksum of its type and payload.
+		 */
+		private void end()
+		{
+			ByteBuffer record = target.duplicate();
+			record.position(start + 4);
+			record.limit(target.position());
+
+			crc.reset();
+			crc.update(record);
+
+			target.putInt((int) crc.getValue());
+		}
+
+		/**
+		 * Write an encoded string, prefixed by its length.
+		 */
+		private void putString( byte[] bytes )
+		{
+			// Null value.
+			if (bytes == null)
+			{
+				target.putShort((short) -1);
+				return;
+			}
+
+			target.putShort((short) bytes.length);
+			target.put(bytes);
+		}
+
+		/**
+		 * Encode a string as UTF-8.
+		 */
+		private static byte[] encode( String value ) throws IOException
+		{
+			// Null value.
+			if (value == null)
+			{
+				return null;
+			}
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+			// Length must fit the short prefix.
+			if (bytes.length > Short.MAX_VALUE)
+			{
+				throw new IOException("Value too long for the journal");
+			}
+
+			return bytes;
+		}
+
+		/**
+		 * Size of an encoded string with its length prefix.
+		 */
+		private static int sizeOf( byte[] bytes )
+		{
+			return 2 + ((bytes == null) ? 0 : bytes.length);
+		}
+	}
+
+	/**
+	 * Record writer appending to the current memory-mapped segment. Used
+	 * holding the journal monitor.
+	 */
+	private final class SegmentWriter extends RecordWriter
+	{
+		protected ByteBuffer reserve( int recordBytes ) throws IOException
+		{
+			// Record larger than a segment.
+			if (recordBytes > segmentBytes)
+			{
+				throw new IOException("Journal record of " + recordBytes
+								+ " bytes exceeds the segment size");
+			}
+
+			// Segment full, continue in the next one.
+			if (buffer.remaining() < recordBytes)
+			{
+				rotate();
+			}
+
+			return buffer;
+		}
+	}
+
+	/**
+	 * Record writer buffering a snapshot file.
+	 */
+	private static final class SnapshotWriter extends RecordWriter
+	{
+		private final FileChannel out;
+		private final ByteBuffer pending = ByteBuffer
+						.allocate(SNAPSHOT_BUFFER_BYTES);
+
+		SnapshotWriter( FileChannel out )
+		{
+			this.out = out;
+		}
+
+		protected ByteBuffer reserve( int recordBytes ) throws IOException
+		{
+			// Record larger than the buffer.
+			if (recordBytes > pending.capacity())
+			{
+				throw new IOException("Snapshot record of " + recordBytes
+								+ " bytes exceeds the buffer size");
+			}
+
+			// Buffer full, write it out.
+			if (pending.remaining() < recordBytes)
+			{
+				finish();
+			}
+
+			return pending;
+		}
+
+		/**
+		 * Write out the buffered records.
+		 */
+		void finish() throws IOException
+		{
+			pending.flip();
+
+			while (pending.hasRemaining())
+			{
+				out.write(pending);
+			}
+
+			pending.clear();
+		}
+	}
+}
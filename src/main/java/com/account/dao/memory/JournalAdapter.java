@@ -0,0 +1,69 @@
+package com.account.dao.memory;
+
+import com.account.model.User;
+
+import java.io.IOException;
+
+/**
+ * Connects the in-memory DAOs to the journal: applies replayed changes to
+ * them, and passes their rows to the journal when a snapshot is written.
+ */
+public class JournalAdapter implements MutationHandler, Journal.Snapshot
+{
+	private final MemoryUserDAO userDAO;
+	private final MemoryAccountDAO accountDAO;
+
+	/**
+	 * Journal adapter constructor.
+	 *
+	 * @param userDAO - in-memory user DAO.
+	 * @param accountDAO - in-memory account DAO.
+	 */
+	public JournalAdapter( MemoryUserDAO userDAO, MemoryAccountDAO accountDAO )
+	{
+		this.userDAO = userDAO;
+		this.accountDAO = accountDAO;
+	}
+
+	/**
+	 * Write users then accounts to the snapshot.
+	 */
+	public void writeTo( MutationHandler handler ) throws IOException
+	{
+		userDAO.writeSnapshot(handler);
+		accountDAO.writeSnapshot(handler);
+	}
+
+	public void putAccount( long accountId, String userName, long balance,
+					String currencyCode )
+	{
+		accountDAO.replayAccount(accountId, userName, balance, currencyCode);
+	}
+
+	public void setBalance( long accountId, long balance )
+	{
+		accountDAO.replayBalance(accountId, balance);
+	}
+
+	public void setBalances( long fromAccountId, long fromBalance,
+					long toAccountId, long toBalance )
+	{
+		accountDAO.replayBalance(fromAccountId, fromBalance);
+		accountDAO.replayBalance(toAccountId, toBalance);
+	}
+
+	public void removeAccount( long accountId )
+	{
+		accountDAO.replayAccountRemoved(accountId);
+	}
+
+	public void putUser( long userId, String userName, String emailAddress )
+	{
+		userDAO.replayUser(new User(userId, userName, emailAddress));
+	}
+
+	public void removeUser( long userId )
+	{
+		userDAO.replayUserRemoved(userId);
+	}
+}
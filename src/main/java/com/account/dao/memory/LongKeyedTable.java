@@ -0,0 +1,192 @@
+package com.account.dao.memory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of rows keyed by a generated long id, playing the part of an auto
+ * increment primary key.
+ *
+ * Ids are handed out in sequence from 1, so rows are held in fixed size
+ * pages indexed directly by id rather than in a hash map: a lookup is two
+ * array reads with no boxing of the key, and scanning in id order is a walk
+ * over the pages. Reads are lock free; callers serialise writes to the same
+ * id themselves.
+ *
+ * @param <V> - row type.
+ */
+public class LongKeyedTable<V>
+{
+	// Rows per page, a power of two.
+	private static final int PAGE_BITS = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// Last id handed out.
+	private final AtomicLong sequence = new AtomicLong();
+
+	// Pages of rows, replaced by a larger copy when full.
+	private volatile AtomicReferenceArray<V>[] pages = newPages(16);
+
+	/**
+	 * Generate the next id.
+	 *
+	 * @return - id not used before in this table.
+	 */
+	public long nextId()
+	{
+		return sequence.incrementAndGet();
+	}
+
+	/**
+	 * Retrieve the highest id handed out so far.
+	 *
+	 * @return - highest id, 0 if none.
+	 */
+	public long maxId()
+	{
+		return sequence.get();
+	}
+
+	/**
+	 * Look up a row.
+	 *
+	 * @param id - row id.
+	 * @return - row, or null if absent.
+	 */
+	public V get( long id )
+	{
+		// Ids start at 1.
+		if (id <= 0)
+		{
+			return null;
+		}
+
+		AtomicReferenceArray<V>[] current = pages;
+		long pageIndex = id >>> PAGE_BITS;
+
+		// Beyond the allocated pages.
+		if (pageIndex >= current.length)
+		{
+			return null;
+		}
+
+		AtomicReferenceArray<V> page = current[(int) pageIndex];
+
+		return (page == null) ? null : page.get((int) (id & PAGE_MASK));
+	}
+
+	/**
+	 * Store a row, advancing the id sequence past its id if needed.
+	 *
+	 * @param id - row id, 1 or more.
+	 * @param row - row to store.
+	 */
+	public void put( long id, V row )
+	{
+		// Ids start at 1.
+		if (id <= 0)
+		{
+			throw new IllegalArgumentException("Invalid id " + id);
+		}
+
+		pageFor(id).set((int) (id & PAGE_MASK), row);
+
+		// Keep generated ids clear of stored ones.
+		long last = sequence.get();
+
+		while ((last < id) && !sequence.compareAndSet(last, id))
+		{
+			last = sequence.get();
+		}
+	}
+
+	/**
+	 * Remove a row.
+	 *
+	 * @param id - row id.
+	 * @return - removed row, or null if absent.
+	 */
+	public V remove( long id )
+	{
+		// Nothing stored at this id.
+		if (get(id) == null)
+		{
+			return null;
+		}
+
+		return pages[(int) (id >>> PAGE_BITS)].getAndSet(
+						(int) (id & PAGE_MASK), null);
+	}
+
+	/**
+	 * Remove every row and restart the id sequence.
+	 */
+	public synchronized void clear()
+	{
+		pages = newPages(16);
+		sequence.set(0);
+	}
+
+	/**
+	 * Find the page holding an id, allocating it if needed.
+	 */
+	private AtomicReferenceArray<V> pageFor( long id )
+	{
+		long pageIndex = id >>> PAGE_BITS;
+
+		// Too many rows for an array of pages.
+		if (pageIndex >= Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Id out of range " + id);
+		}
+
+		AtomicReferenceArray<V>[] current = pages;
+
+		// Page already allocated.
+		if ((pageIndex < current.length) && (current[(int) pageIndex] != null))
+		{
+			return current[(int) pageIndex];
+		}
+
+		synchronized (this)
+		{
+			current = pages;
+
+			// Grow the page array, doubling its length.
+			if (pageIndex >= current.length)
+			{
+				int length = current.length;
+
+				while (length <= pageIndex)
+				{
+					length = (int) Math.min(2L * length, Integer.MAX_VALUE);
+				}
+
+				AtomicReferenceArray<V>[] grown = newPages(length);
+				System.arraycopy(current, 0, grown, 0, current.length);
+
+				current = grown;
+			}
+
+			// Allocate the page.
+			if (current[(int) pageIndex] == null)
+			{
+				current[(int) pageIndex] = new AtomicReferenceArray<V>(PAGE_SIZE);
+			}
+
+			pages = current;
+
+			return current[(int) pageIndex];
+		}
+	}
+
+	/**
+	 * Create an empty page array.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static <T> AtomicReferenceArray<T>[] newPages( int length )
+	{
+		return new AtomicReferenceArray[length];
+	}
+}
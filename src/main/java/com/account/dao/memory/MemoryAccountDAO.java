@@ -0,0 +1,1209 @@
+package com.account.dao.memory;
+
+import com.account.dao.AccountDAO;
+import com.account.dao.RowHandler;
+import com.account.exception.CustomException;
+import com.account.exception.TransferException;
+import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.Money;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
+import com.account.model.UserTransaction;
+import com.account.utils.Log;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Account Data Access Object holding every account in memory.
+ *
+ * Behaves as AccountDAOImpl does against the Account table: ids are
+ * generated in sequence, (UserName, CurrencyCode) is unique, and the
+ * validation and error messages match. Each account is guarded by one of
+ * a fixed set of striped locks; a transfer takes the locks of both accounts
+ * in ascending stripe order, so opposing transfers cannot deadlock. Reads
+ * take no lock. Transfers may instead run on a TransferEngine, whose shards
+ * reserve funds on the source account before committing across shards.
+ *
+ * When a journal is attached, each change is appended to it while the
+ * account locks are held, before the change is applied, and the caller
+ * waits for the record to reach the disk after the locks are released.
+ */
+public class MemoryAccountDAO implements AccountDAO
+{
+	private static Log log = Log.getLog(MemoryAccountDAO.class);
+
+	// Accounts by account id.
+	private final LongKeyedTable<AccountEntry> accounts = new LongKeyedTable<AccountEntry>();
+
+	// Ledger legs by account id, kept after the account is deleted.
+	private final LongKeyedTable<AccountHistory> histories = new LongKeyedTable<AccountHistory>();
+
+	// Last ledger id handed out.
+	private final AtomicLong ledgerSequence = new AtomicLong();
+
+	// Account ids by user name and currency code, the unique index.
+	private final ConcurrentHashMap<String, Long> accountKeys = new ConcurrentHashMap<String, Long>();
+
+	// Striped account locks.
+	private final Object[] locks;
+	private final int lockMask;
+
+	// Journal of changes, null when the data is not persisted.
+	private volatile Journal journal;
+
+	// Shards running the transfers, null to run them on the calling thread.
+	private final TransferEngine transferEngine;
+
+	/**
+	 * In-memory account DAO constructor.
+	 *
+	 * @param lockStripes - number of account locks, rounded up to a power of
+	 *            two.
+	 */
+	public MemoryAccountDAO( int lockStripes )
+	{
+		this(lockStripes, 0);
+	}
+
+	/**
+	 * In-memory account DAO constructor, running transfers on a transfer
+	 * engine.
+	 *
+	 * @param lockStripes - number of account locks, rounded up to a power of
+	 *            two.
+	 * @param transferShards - number of transfer engine shards, rounded up
+	 *            to a power of two and at most the number of locks, or 0 to
+	 *            run transfers on the calling thread.
+	 */
+	public MemoryAccountDAO( int lockStripes, int transferShards )
+	{
+		int stripes = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+
+		this.locks = new Object[stripes];
+		this.lockMask = stripes - 1;
+
+		for ( int i = 0; i < stripes; i++ )
+		{
+			locks[i] = new Object();
+		}
+
+		// Each shard owns whole lock stripes.
+		if (transferShards > 0)
+		{
+			int shards = Integer.highestOneBit(Math.max(1, transferShards - 1)) << 1;
+
+			this.transferEngine = new TransferEngine(this, Math.min(shards,
+							stripes));
+		}
+		else
+		{
+			this.transferEngine = null;
+		}
+	}
+
+	/**
+	 * Retrieve all the accounts.
+	 */
+	public List<Account> getAllAccounts() throws CustomException
+	{
+		return getAccounts(0, 0);
+	}
+
+	/**
+	 * Retrieve a page of accounts in account id order.
+	 */
+	public List<Account> getAccounts( long afterAccountId, int limit )
+					throws CustomException
+	{
+		final List<Account> page = new ArrayList<Account>();
+
+		// Collect the page.
+		streamAccounts(afterAccountId, limit, new RowHandler<Account>()
+		{
+			public void handle( Account account )
+			{
+				page.add(account);
+			}
+		});
+
+		return page;
+	}
+
+	/**
+	 * Pass accounts in account id order to a handler.
+	 */
+	public void streamAccounts( long afterAccountId, int limit,
+					RowHandler<Account> handler ) throws CustomException
+	{
+		long maxId = accounts.maxId();
+		int count = 0;
+
+		try
+		{
+			// Walk the ids, skipping deleted accounts.
+			for ( long id = Math.max(afterAccountId, 0) + 1; id <= maxId; id++ )
+			{
+				AccountEntry entry = accounts.get(id);
+
+				if (entry != null)
+				{
+					handler.handle(entry.toAccount());
+
+					// Stop once the limit is reached.
+					if ((limit > 0) && (++count == limit))
+					{
+						return;
+					}
+				}
+			}
+		}
+		// Catch handler failure.
+		catch (IOException e)
+		{
+			throw new CustomException(
+							"streamAccounts(): Error writing account data", e);
+		}
+	}
+
+	/**
+	 * Retrieve the account details by id.
+	 */
+	public Account getAccountById( long accountId ) throws CustomException
+	{
+		AccountEntry entry = accounts.get(accountId);
+
+		return (entry == null) ? null : entry.toAccount();
+	}
+
+	/**
+	 * Retrieve a page of an account's ledger legs in ledger id order.
+	 */
+	public List<LedgerEntry> getAccountHistory( long accountId,
+					long afterLedgerId, int limit ) throws CustomException
+	{
+		AccountHistory history = histories.get(accountId);
+
+		return (history == null) ? new ArrayList<LedgerEntry>() : history
+						.page(afterLedgerId, limit);
+	}
+
+	/**
+	 * Create account.
+	 */
+	public Account createAccount( Account account ) throws CustomException
+	{
+		// The balance is required to hold it in minor units.
+		if (account.getBalance() == null)
+		{
+			throw new CustomException(
+							"createAccount(): Error creating user account "
+											+ account);
+		}
+
+		long balance = toMinorUnits(account.getBalance());
+		long accountId = accounts.nextId();
+
+		// Claim the user name and currency, as the unique index does.
+		String key = accountKey(account.getUserName(), account.getCurrencyCode());
+
+		if ((key != null) && (accountKeys.putIfAbsent(key, accountId) != null))
+		{
+			log.debug("Error Inserting Account {}, user name and currency taken",
+							account);
+
+			throw new CustomException(
+							"createAccount(): Error creating user account "
+											+ account);
+		}
+
+		AccountEntry entry = new AccountEntry(accountId, account.getUserName(),
+						balance, account.getCurrencyCode());
+		long lsn;
+
+		synchronized (lockFor(accountId))
+		{
+			// Journal the account before it becomes visible.
+			try
+			{
+				lsn = journalPut(entry);
+			}
+			// Catch journal failure, releasing the unique index entry.
+			catch (IOException e)
+			{
+				if (key != null)
+				{
+					accountKeys.remove(key, accountId);
+				}
+
+				log.error("Error Journaling Account {}", account, e);
+
+				throw new CustomException(
+								"createAccount(): Error creating user account "
+												+ account, e);
+			}
+
+			// Record the opening balance.
+			histories.put(accountId, new AccountHistory());
+			recordLeg(accountId, null, balance, balance, entry.currencyCode);
+
+			accounts.put(accountId, entry);
+		}
+
+		awaitDurable(lsn);
+
+		return entry.toAccount();
+	}
+
+	/**
+	 * Delete account by id.
+	 */
+	public int deleteAccountById( long accountId ) throws CustomException
+	{
+		AccountEntry entry = accounts.get(accountId);
+
+		// Account does not exist.
+		if (entry == null)
+		{
+			return 0;
+		}
+
+		long lsn;
+
+		synchronized (lockFor(accountId))
+		{
+			// Deleted by a concurrent request.
+			if (entry.deleted)
+			{
+				return 0;
+			}
+
+			// Journal the deletion before applying it.
+			try
+			{
+				lsn = journalRemove(accountId);
+			}
+			// Catch journal failure.
+			catch (IOException e)
+			{
+				throw new CustomException(
+								"deleteAccountById(): Error deleting account : "
+												+ accountId, e);
+			}
+
+			entry.deleted = true;
+			accounts.remove(accountId);
+		}
+
+		String key = accountKey(entry.userName, entry.currencyCode);
+
+		if (key != null)
+		{
+			accountKeys.remove(key, accountId);
+		}
+
+		awaitDurable(lsn);
+
+		return 1;
+	}
+
+	/**
+	 * Check the account exists. The in-memory store keeps a single balance
+	 * per account, its lock being held only while the balance is updated and
+	 * journaled, so the slot count is not used.
+	 */
+	public Account setBalanceSlots( long accountId, int slotCount )
+					throws CustomException
+	{
+		AccountEntry entry = accounts.get(accountId);
+
+		// Account does not exist.
+		if (entry == null)
+		{
+			throw new CustomException(
+							"setBalanceSlots(): account not found : " + accountId);
+		}
+
+		return entry.toAccount();
+	}
+
+	/**
+	 * Update account balance by a delta, unless the account would go
+	 * negative.
+	 */
+	public Account updateAccountBalance( long accountId, BigDecimal deltaAmount )
+					throws CustomException
+	{
+		long delta = toMinorUnits(deltaAmount);
+		AccountEntry entry = accounts.get(accountId);
+
+		// Account does not exist.
+		if (entry == null)
+		{
+			throw new CustomException(
+							"updateAccountBalance(): account not found : "
+											+ accountId);
+		}
+
+		Account updated;
+		long lsn;
+
+		synchronized (lockFor(accountId))
+		{
+			// Deleted since the lookup.
+			if (entry.deleted)
+			{
+				throw new CustomException(
+								"updateAccountBalance(): account not found : "
+												+ accountId);
+			}
+
+			long balance = add(entry.balance, delta);
+
+			// Ensure the account has sufficient funds, leaving amounts
+			// reserved by transfers in progress.
+			if (balance < entry.reserved)
+			{
+				throw new CustomException("Not sufficient Fund for account: "
+								+ accountId);
+			}
+
+			// Journal the balance before applying it.
+			try
+			{
+				lsn = journalBalance(accountId, balance);
+			}
+			// Catch journal failure.
+			catch (IOException e)
+			{
+				throw new CustomException(
+								"updateAccountBalance(): Error updating account : "
+												+ accountId, e);
+			}
+
+			entry.balance = balance;
+			recordLeg(accountId, null, delta, balance, entry.currencyCode);
+
+			updated = entry.toAccount();
+		}
+
+		awaitDurable(lsn);
+
+		return updated;
+	}
+
+	/**
+	 * Transfer balance between two accounts.
+	 */
+	public int transferAccountBalance( UserTransaction userTransaction )
+					throws CustomException
+	{
+		final long fromAccountId = userTransaction.getFromAccountId();
+		final long toAccountId = userTransaction.getToAccountId();
+
+		// A transfer to the same account would update one account twice.
+		if (fromAccountId == toAccountId)
+		{
+			throw new TransferException(TransferStatus.INVALID_REQUEST,
+							"Fail to transfer Fund, the source and destination account are the same");
+		}
+
+		final long amount = toMinorUnits(userTransaction.getAmount());
+
+		// A non positive amount would move funds the wrong way.
+		if (amount <= Money.ZERO)
+		{
+			throw new TransferException(TransferStatus.INVALID_REQUEST,
+							"Fail to transfer Fund, transfer amount must be positive");
+		}
+
+		AccountEntry fromAccount = accounts.get(fromAccountId);
+		AccountEntry toAccount = accounts.get(toAccountId);
+
+		// Check both accounts exist.
+		if ((fromAccount == null) || (toAccount == null))
+		{
+			throw new TransferException(TransferStatus.ACCOUNT_NOT_FOUND,
+							"Fail to lock both accounts for write");
+		}
+
+		TransferStatus status = transfer(fromAccount, toAccount,
+						userTransaction.getCurrencyCode(), amount);
+
+		// Report failures as the database DAO does.
+		switch (status)
+		{
+			case OK:
+			{
+				return 2;
+			}
+			case ACCOUNT_NOT_FOUND:
+			{
+				throw new TransferException(status,
+								"Fail to lock both accounts for write");
+			}
+			case INVALID_CURRENCY:
+			{
+				throw new TransferException(status,
+								"Fail to transfer Fund, transaction ccy are different from source/destination");
+			}
+			case CURRENCY_MISMATCH:
+			{
+				throw new TransferException(status,
+								"Fail to transfer Fund, the source and destination account are in different currency");
+			}
+			case INSUFFICIENT_FUNDS:
+			{
+				throw new TransferException(status,
+								"Not enough Fund from source Account ");
+			}
+			case FAILED:
+			{
+				throw new TransferException(status,
+								"Fail to transfer Fund, journal write failed");
+			}
+			default:
+			{
+				throw new TransferException(status,
+								"Fail to transfer Fund, balance out of range");
+			}
+		}
+	}
+
+	/**
+	 * Transfer balances for a batch of transactions, each on its own.
+	 * Outcomes are in the order of the transactions.
+	 */
+	public List<TransferResult> transferAccountBalances(
+					List<UserTransaction> userTransactions )
+					throws CustomException
+	{
+		int size = userTransactions.size();
+		List<TransferResult> results = new ArrayList<TransferResult>(size);
+		List<PendingTransfer> transfers = new ArrayList<PendingTransfer>(size);
+
+		// Start every valid transfer, so the engine shards work on them
+		// together.
+		for ( UserTransaction transaction : userTransactions )
+		{
+			TransferResult rejected = checkTransfer(transaction);
+			PendingTransfer transfer = null;
+
+			if (rejected == null)
+			{
+				AccountEntry fromAccount = accounts.get(transaction
+								.getFromAccountId());
+				AccountEntry toAccount = accounts.get(transaction
+								.getToAccountId());
+
+				// Check both accounts exist.
+				if ((fromAccount == null) || (toAccount == null))
+				{
+					rejected = describeTransfer(transaction,
+									TransferStatus.ACCOUNT_NOT_FOUND);
+				}
+				else
+				{
+					transfer = start(new PendingTransfer(fromAccount,
+									toAccount, transaction.getCurrencyCode(),
+									Money.toMinorUnits(transaction.getAmount())));
+				}
+			}
+
+			results.add(rejected);
+			transfers.add(transfer);
+		}
+
+		// Collect the outcomes in order.
+		for ( int i = 0; i < size; i++ )
+		{
+			PendingTransfer transfer = transfers.get(i);
+
+			if (transfer != null)
+			{
+				results.set(i, describeTransfer(userTransactions.get(i),
+								finish(transfer)));
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Remove every account, used when the test data is reloaded.
+	 */
+	public void clear()
+	{
+		accounts.clear();
+		accountKeys.clear();
+		histories.clear();
+		ledgerSequence.set(0);
+	}
+
+	/**
+	 * Attach the journal that changes are written to.
+	 *
+	 * @param journal - started journal, or null to stop journaling.
+	 */
+	public void setJournal( Journal journal )
+	{
+		this.journal = journal;
+	}
+
+	/**
+	 * Apply a replayed account, replacing any account with its id.
+	 *
+	 * @param accountId - account id.
+	 * @param userName - account user name.
+	 * @param balance - balance in minor units.
+	 * @param currencyCode - account currency code.
+	 */
+	public void replayAccount( long accountId, String userName, long balance,
+					String currencyCode )
+	{
+		replayAccountRemoved(accountId);
+
+		String key = accountKey(userName, currencyCode);
+
+		if (key != null)
+		{
+			accountKeys.put(key, accountId);
+		}
+
+		// History is not journaled, it restarts with the replayed account.
+		if (histories.get(accountId) == null)
+		{
+			histories.put(accountId, new AccountHistory());
+		}
+
+		accounts.put(accountId, new AccountEntry(accountId, userName, balance,
+						currencyCode));
+	}
+
+	/**
+	 * Apply a replayed balance change.
+	 *
+	 * @param accountId - account id.
+	 * @param balance - new balance in minor units.
+	 */
+	public void replayBalance( long accountId, long balance )
+	{
+		AccountEntry entry = accounts.get(accountId);
+
+		// Account deleted later in the journal.
+		if (entry != null)
+		{
+			entry.balance = balance;
+		}
+	}
+
+	/**
+	 * Apply a replayed account deletion.
+	 *
+	 * @param accountId - account id.
+	 */
+	public void replayAccountRemoved( long accountId )
+	{
+		AccountEntry entry = accounts.remove(accountId);
+
+		// Account already absent.
+		if (entry == null)
+		{
+			return;
+		}
+
+		entry.deleted = true;
+
+		String key = accountKey(entry.userName, entry.currencyCode);
+
+		if (key != null)
+		{
+			accountKeys.remove(key, accountId);
+		}
+	}
+
+	/**
+	 * Pass every account to a snapshot writer. Each account is read under
+	 * its lock, so none is caught between its journal record and its
+	 * update.
+	 *
+	 * @param handler - snapshot writer.
+	 * @throws IOException
+	 */
+	public void writeSnapshot( MutationHandler handler ) throws IOException
+	{
+		long maxId = accounts.maxId();
+
+		for ( long id = 1; id <= maxId; id++ )
+		{
+			synchronized (lockFor(id))
+			{
+				AccountEntry entry = accounts.get(id);
+
+				if ((entry != null) && !entry.deleted)
+				{
+					handler.putAccount(entry.accountId, entry.userName,
+									entry.balance, entry.currencyCode);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store an account with a known id, used to load the test data.
+	 *
+	 * @param account - account details, including the id.
+	 * @throws CustomException - if the account id or user name and currency
+	 *             are taken, or the balance is missing.
+	 */
+	public void restoreAccount( Account account ) throws CustomException
+	{
+		String key = accountKey(account.getUserName(), account.getCurrencyCode());
+
+		// Keep the unique index.
+		if ((account.getBalance() == null)
+						|| (accounts.get(account.getAccountId()) != null)
+						|| ((key != null) && (accountKeys.putIfAbsent(key,
+										account.getAccountId()) != null)))
+		{
+			throw new CustomException("Account Cannot be restored " + account);
+		}
+
+		long balance = toMinorUnits(account.getBalance());
+
+		accounts.put(account.getAccountId(), new AccountEntry(
+						account.getAccountId(), account.getUserName(), balance,
+						account.getCurrencyCode()));
+
+		// Record the opening balance, as the ledger script does.
+		histories.put(account.getAccountId(), new AccountHistory());
+		recordLeg(account.getAccountId(), null, balance, balance,
+						account.getCurrencyCode());
+	}
+
+	/**
+	 * Validate one transfer of a batch, before its accounts are looked up.
+	 *
+	 * @param transaction - transfer to check.
+	 * @return - rejection, or null if the transfer can go ahead.
+	 */
+	private static TransferResult checkTransfer( UserTransaction transaction )
+	{
+		// Check the transaction is complete.
+		if ((transaction.getFromAccountId() == null)
+						|| (transaction.getToAccountId() == null)
+						|| (transaction.getAmount() == null)
+						|| (transaction.getCurrencyCode() == null))
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"Transaction details are incomplete");
+		}
+
+		long amount;
+
+		try
+		{
+			amount = Money.toMinorUnits(transaction.getAmount());
+		}
+		// Amount out of range.
+		catch (ArithmeticException ae)
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"Transfer amount out of range");
+		}
+
+		// Check the amount is positive.
+		if (amount <= Money.ZERO)
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"Transfer amount must be positive");
+		}
+
+		// Check the accounts differ.
+		if (transaction.getFromAccountId().equals(transaction.getToAccountId()))
+		{
+			return new TransferResult(transaction,
+							TransferStatus.INVALID_REQUEST,
+							"The source and destination account are the same");
+		}
+
+		return null;
+	}
+
+	/**
+	 * Describe the outcome of one transfer of a batch as the database DAO
+	 * does.
+	 *
+	 * @param transaction - transfer applied.
+	 * @param status - outcome of the transfer.
+	 * @return - transfer result.
+	 */
+	private static TransferResult describeTransfer(
+					UserTransaction transaction, TransferStatus status )
+	{
+		switch (status)
+		{
+			case OK:
+			{
+				return new TransferResult(transaction, TransferStatus.OK, null);
+			}
+			case ACCOUNT_NOT_FOUND:
+			{
+				return new TransferResult(transaction,
+								TransferStatus.ACCOUNT_NOT_FOUND,
+								"Source or destination account not found");
+			}
+			case INVALID_CURRENCY:
+			case CURRENCY_MISMATCH:
+			{
+				return new TransferResult(transaction,
+								TransferStatus.CURRENCY_MISMATCH,
+								"Transaction ccy are different from source/destination");
+			}
+			case INSUFFICIENT_FUNDS:
+			{
+				return new TransferResult(transaction,
+								TransferStatus.INSUFFICIENT_FUNDS,
+								"Not enough Fund from source Account");
+			}
+			case FAILED:
+			{
+				return new TransferResult(transaction, TransferStatus.FAILED,
+								"Journal write failed");
+			}
+			default:
+			{
+				return new TransferResult(transaction,
+								TransferStatus.INVALID_REQUEST,
+								"Transfer amount out of range");
+			}
+		}
+	}
+
+	/**
+	 * Move an amount between two accounts, on the transfer engine if there
+	 * is one.
+	 *
+	 * @param fromAccount - source account.
+	 * @param toAccount - destination account.
+	 * @param currencyCode - transaction currency code.
+	 * @param amount - amount in minor units, greater than 0.
+	 * @return - outcome of the transfer, as returned by execute().
+	 */
+	private TransferStatus transfer( AccountEntry fromAccount,
+					AccountEntry toAccount, String currencyCode, long amount )
+					throws CustomException
+	{
+		return finish(start(new PendingTransfer(fromAccount, toAccount,
+						currencyCode, amount)));
+	}
+
+	/**
+	 * Start a transfer: queue it on the engine, or apply it on the calling
+	 * thread.
+	 *
+	 * @param transfer - transfer to apply.
+	 * @return - the transfer, to pass to finish().
+	 */
+	private PendingTransfer start( PendingTransfer transfer )
+	{
+		if (transferEngine != null)
+		{
+			transferEngine.submit(transfer);
+		}
+		else
+		{
+			transfer.status = execute(transfer);
+		}
+
+		return transfer;
+	}
+
+	/**
+	 * Finish a transfer: wait for its outcome, then for its journal record to
+	 * reach the disk.
+	 *
+	 * @param transfer - transfer returned by start().
+	 * @return - outcome of the transfer.
+	 * @throws CustomException - if its journal record could not be forced
+	 *             to disk.
+	 */
+	private TransferStatus finish( PendingTransfer transfer )
+					throws CustomException
+	{
+		TransferStatus status = (transferEngine != null) ? transferEngine
+						.await(transfer) : transfer.status;
+
+		awaitDurable(transfer.lsn);
+
+		return status;
+	}
+
+	/**
+	 * Move an amount between two accounts in one step, holding both of their
+	 * locks.
+	 *
+	 * @param transfer - transfer to apply.
+	 * @return - OK, ACCOUNT_NOT_FOUND if either account was deleted,
+	 *         INVALID_CURRENCY if the transaction currency differs from the
+	 *         source, CURRENCY_MISMATCH if the accounts' currencies differ,
+	 *         INSUFFICIENT_FUNDS, INVALID_REQUEST if a balance would
+	 *         overflow, or FAILED if the journal cannot be written.
+	 */
+	TransferStatus execute( PendingTransfer transfer )
+	{
+		AccountEntry fromAccount = transfer.fromAccount;
+		AccountEntry toAccount = transfer.toAccount;
+		long amount = transfer.amount;
+
+		int fromStripe = stripeFor(fromAccount.accountId);
+		int toStripe = stripeFor(toAccount.accountId);
+
+		// Lower stripe locked first, once only if both share it.
+		Object first = locks[Math.min(fromStripe, toStripe)];
+		Object second = locks[Math.max(fromStripe, toStripe)];
+
+		synchronized (first)
+		{
+			synchronized (second)
+			{
+				TransferStatus status = checkAccounts(transfer);
+
+				// Either account deleted, or currencies differ.
+				if (status != TransferStatus.OK)
+				{
+					return status;
+				}
+
+				long fromBalance = fromAccount.balance - amount;
+
+				// Ensure the the "fromAccount" has sufficient funds, leaving
+				// amounts reserved by transfers in progress.
+				if (fromBalance < fromAccount.reserved)
+				{
+					return TransferStatus.INSUFFICIENT_FUNDS;
+				}
+
+				return apply(transfer, fromBalance);
+			}
+		}
+	}
+
+	/**
+	 * First phase of a transfer across engine shards: reserve the amount on
+	 * the source account, holding its lock.
+	 *
+	 * @param transfer - transfer to reserve.
+	 * @return - OK if reserved, otherwise the outcome as for execute().
+	 */
+	TransferStatus reserve( PendingTransfer transfer )
+	{
+		AccountEntry fromAccount = transfer.fromAccount;
+
+		synchronized (lockFor(fromAccount.accountId))
+		{
+			TransferStatus status = checkAccounts(transfer);
+
+			// Either account deleted, or currencies differ.
+			if (status != TransferStatus.OK)
+			{
+				return status;
+			}
+
+			// Ensure the funds are not already reserved.
+			if ((fromAccount.balance - fromAccount.reserved) < transfer.amount)
+			{
+				return TransferStatus.INSUFFICIENT_FUNDS;
+			}
+
+			fromAccount.reserved += transfer.amount;
+			transfer.reserved = true;
+
+			return TransferStatus.OK;
+		}
+	}
+
+	/**
+	 * Second phase of a transfer across engine shards: release the
+	 * reservation and, unless an account has gone, move the amount, holding
+	 * both account locks.
+	 *
+	 * @param transfer - transfer reserved by reserve().
+	 * @return - outcome as for execute().
+	 */
+	TransferStatus commitReserved( PendingTransfer transfer )
+	{
+		AccountEntry fromAccount = transfer.fromAccount;
+
+		int fromStripe = stripeFor(fromAccount.accountId);
+		int toStripe = stripeFor(transfer.toAccount.accountId);
+
+		// Lower stripe locked first, as for execute().
+		Object first = locks[Math.min(fromStripe, toStripe)];
+		Object second = locks[Math.max(fromStripe, toStripe)];
+
+		synchronized (first)
+		{
+			synchronized (second)
+			{
+				fromAccount.reserved -= transfer.amount;
+
+				// Either account deleted since the reservation.
+				if (fromAccount.deleted || transfer.toAccount.deleted)
+				{
+					return TransferStatus.ACCOUNT_NOT_FOUND;
+				}
+
+				// The reservation keeps the funds available.
+				return apply(transfer, fromAccount.balance - transfer.amount);
+			}
+		}
+	}
+
+	/**
+	 * Check the accounts of a transfer. Called holding the source lock.
+	 *
+	 * @return - OK, ACCOUNT_NOT_FOUND, INVALID_CURRENCY or CURRENCY_MISMATCH.
+	 */
+	private static TransferStatus checkAccounts( PendingTransfer transfer )
+	{
+		// Either account deleted since the lookup.
+		if (transfer.fromAccount.deleted || transfer.toAccount.deleted)
+		{
+			return TransferStatus.ACCOUNT_NOT_FOUND;
+		}
+
+		// check transaction currency
+		if (!transfer.fromAccount.currencyCode.equals(transfer.currencyCode))
+		{
+			return TransferStatus.INVALID_CURRENCY;
+		}
+
+		// Check currency code is the same for both accounts
+		if (!transfer.fromAccount.currencyCode
+						.equals(transfer.toAccount.currencyCode))
+		{
+			return TransferStatus.CURRENCY_MISMATCH;
+		}
+
+		return TransferStatus.OK;
+	}
+
+	/**
+	 * Credit the destination and set the new source balance. Called holding
+	 * both account locks.
+	 *
+	 * @param transfer - transfer to apply.
+	 * @param fromBalance - new source balance, already checked.
+	 * @return - OK, INVALID_REQUEST if the destination would overflow, or
+	 *         FAILED if the journal cannot be written.
+	 */
+	private TransferStatus apply( PendingTransfer transfer, long fromBalance )
+	{
+		AccountEntry fromAccount = transfer.fromAccount;
+		AccountEntry toAccount = transfer.toAccount;
+
+		long toBalance = toAccount.balance + transfer.amount;
+
+		// Destination balance would overflow.
+		if (toBalance < toAccount.balance)
+		{
+			return TransferStatus.INVALID_REQUEST;
+		}
+
+		// Journal both balances before applying them.
+		try
+		{
+			transfer.lsn = journalBalances(fromAccount.accountId, fromBalance,
+							toAccount.accountId, toBalance);
+		}
+		// Catch journal failure, leaving both balances unchanged.
+		catch (IOException e)
+		{
+			log.error("apply(): Error writing journal", e);
+
+			return TransferStatus.FAILED;
+		}
+
+		fromAccount.balance = fromBalance;
+		toAccount.balance = toBalance;
+
+		recordLeg(fromAccount.accountId, toAccount.accountId, -transfer.amount,
+						fromBalance, fromAccount.currencyCode);
+		recordLeg(toAccount.accountId, fromAccount.accountId, transfer.amount,
+						toBalance, toAccount.currencyCode);
+
+		return TransferStatus.OK;
+	}
+
+	/**
+	 * Append a ledger leg to an account's history. Called holding the
+	 * account's lock, so its ledger ids increase.
+	 *
+	 * @param accountId - account the leg applies to.
+	 * @param counterAccountId - other account of a transfer, or null.
+	 * @param amount - amount in minor units, negative for a debit.
+	 * @param balance - balance after the leg in minor units.
+	 * @param currencyCode - account currency code.
+	 */
+	private void recordLeg( long accountId, Long counterAccountId,
+					long amount, long balance, String currencyCode )
+	{
+		histories.get(accountId).append(new LedgerEntry(ledgerSequence
+						.incrementAndGet(), accountId, counterAccountId, Money
+						.toBigDecimal(amount), Money.toBigDecimal(balance),
+						currencyCode, new Date()));
+	}
+
+	/**
+	 * Journal an account creation.
+	 *
+	 * @return - journal sequence number, 0 without a journal.
+	 */
+	private long journalPut( AccountEntry entry ) throws IOException
+	{
+		Journal current = journal;
+
+		return (current == null) ? 0 : current.putAccount(entry.accountId,
+						entry.userName, entry.balance, entry.currencyCode);
+	}
+
+	/**
+	 * Journal a balance change.
+	 *
+	 * @return - journal sequence number, 0 without a journal.
+	 */
+	private long journalBalance( long accountId, long balance )
+					throws IOException
+	{
+		Journal current = journal;
+
+		return (current == null) ? 0 : current.setBalance(accountId, balance);
+	}
+
+	/**
+	 * Journal the balance changes of a transfer.
+	 *
+	 * @return - journal sequence number, 0 without a journal.
+	 */
+	private long journalBalances( long fromAccountId, long fromBalance,
+					long toAccountId, long toBalance ) throws IOException
+	{
+		Journal current = journal;
+
+		return (current == null) ? 0 : current.setBalances(fromAccountId,
+						fromBalance, toAccountId, toBalance);
+	}
+
+	/**
+	 * Journal an account deletion.
+	 *
+	 * @return - journal sequence number, 0 without a journal.
+	 */
+	private long journalRemove( long accountId ) throws IOException
+	{
+		Journal current = journal;
+
+		return (current == null) ? 0 : current.removeAccount(accountId);
+	}
+
+	/**
+	 * Wait for a journal record to reach the disk.
+	 *
+	 * @param lsn - journal sequence number, 0 for none.
+	 * @throws CustomException - if the record could not be forced to disk.
+	 */
+	private void awaitDurable( long lsn ) throws CustomException
+	{
+		Journal current = journal;
+
+		if ((current != null) && (lsn > 0))
+		{
+			// Applied in memory, but may not survive a restart.
+			try
+			{
+				current.awaitDurable(lsn);
+			}
+			catch (IOException e)
+			{
+				throw new CustomException(
+								"Change applied but not written to disk", e);
+			}
+		}
+	}
+
+	/**
+	 * Find the lock guarding an account.
+	 */
+	private Object lockFor( long accountId )
+	{
+		return locks[stripeFor(accountId)];
+	}
+
+	/**
+	 * Find the lock stripe of an account. Sequential ids fall on different
+	 * stripes.
+	 */
+	private int stripeFor( long accountId )
+	{
+		return (int) (accountId & lockMask);
+	}
+
+	/**
+	 * Build the unique index key of an account.
+	 *
+	 * @return - key, or null if either part is missing, as NULL values do
+	 *         not collide in a unique index.
+	 */
+	private static String accountKey( String userName, String currencyCode )
+	{
+		// Missing values are not indexed.
+		if ((userName == null) || (currencyCode == null))
+		{
+			return null;
+		}
+
+		return userName + '\u0000' + currencyCode;
+	}
+
+	/**
+	 * Add a delta to a balance, rejecting overflow.
+	 */
+	private static long add( long balance, long delta ) throws CustomException
+	{
+		try
+		{
+			return Money.add(balance, delta);
+		}
+		// Balance out of range.
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException("Amount out of range: " + delta, ae);
+		}
+	}
+
+	/**
+	 * Convert an amount to minor units, rejecting amounts out of range.
+	 */
+	private static long toMinorUnits( BigDecimal amount ) throws CustomException
+	{
+		try
+		{
+			return Money.toMinorUnits(amount);
+		}
+		// Amount does not fit in a long.
+		catch (ArithmeticException ae)
+		{
+			throw new CustomException("Amount out of range: " + amount, ae);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.account.dao.memory;
+
+import com.account.dao.IdempotencyDAO;
+import com.account.exception.CustomException;
+import com.account.model.IdempotencyRecord;
+import com.account.utils.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Idempotency key Data Access Object holding the keys in memory.
+ *
+ * Keys are kept in the order they were claimed, which is also the order
+ * they expire in, so expired keys and, once full, the oldest keys are
+ * evicted from the head. Access is serialised on the DAO.
+ *
+ * Duplicate protection is therefore bounded: once more than maxSize keys
+ * are claimed within the TTL, the oldest keys are evicted while still live,
+ * and keys are not journaled, so none survive a restart. A retry with a
+ * key evicted or lost this way runs the transfer again. Each key evicted
+ * before its TTL is logged as a warning.
+ */
+public class MemoryIdempotencyDAO implements IdempotencyDAO
+{
+	private static final Log log = Log.getLog(MemoryIdempotencyDAO.class);
+
+	private final int maxSize;
+	private final long ttlMillis;
+
+	// Records by key, in claim order, guarded by this.
+	private final LinkedHashMap<String, IdempotencyRecord> records = new LinkedHashMap<String, IdempotencyRecord>();
+
+	/**
+	 * In-memory idempotency key DAO constructor.
+	 *
+	 * @param maxSize - maximum number of keys held.
+	 * @param ttlMillis - time to live of a key.
+	 */
+	public MemoryIdempotencyDAO( int maxSize, long ttlMillis )
+	{
+		// Sanity check the size.
+		if (maxSize < 1)
+		{
+			throw new IllegalArgumentException("Invalid key count " + maxSize);
+		}
+
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Claim a key, unless a live record holds it.
+	 */
+	public synchronized IdempotencyRecord claimKey( String key,
+					String fingerprint ) throws CustomException
+	{
+		IdempotencyRecord pending = IdempotencyRecord.pending(key, fingerprint);
+
+		evict(pending.getCreatedAt(), maxSize + 1);
+
+		IdempotencyRecord existing = records.get(key);
+
+		// Already claimed.
+		if (existing != null)
+		{
+			return existing;
+		}
+
+		evict(pending.getCreatedAt(), maxSize);
+		records.put(key, pending);
+
+		return null;
+	}
+
+	/**
+	 * Record the outcome, keeping the key's place in claim order.
+	 */
+	public synchronized void completeKey( IdempotencyRecord record )
+					throws CustomException
+	{
+		// Evicted while in progress, nothing to complete.
+		if (records.containsKey(record.getKey()))
+		{
+			records.put(record.getKey(), record);
+		}
+	}
+
+	/**
+	 * Remove a key still in progress.
+	 */
+	public synchronized void releaseKey( String key ) throws CustomException
+	{
+		IdempotencyRecord existing = records.get(key);
+
+		// Only a pending key is released.
+		if ((existing != null) && !existing.isCompleted())
+		{
+			records.remove(key);
+		}
+	}
+
+	/**
+	 * Remove every key.
+	 */
+	public synchronized void clear()
+	{
+		records.clear();
+	}
+
+	/**
+	 * Retrieve the number of keys held.
+	 *
+	 * @return - key count.
+	 */
+	public synchronized int size()
+	{
+		return records.size();
+	}
+
+	/**
+	 * Evict expired keys, and the oldest keys while at the given size.
+	 * Called holding the DAO lock.
+	 */
+	private void evict( long now, int size )
+	{
+		Iterator<IdempotencyRecord> it = records.values().iterator();
+
+		while (it.hasNext())
+		{
+			IdempotencyRecord oldest = it.next();
+
+			// Live, and below the size.
+			if (!oldest.isExpired(ttlMillis, now) && (records.size() < size))
+			{
+				return;
+			}
+
+			// Still live, a retry with it is no longer detected.
+			if (!oldest.isExpired(ttlMillis, now))
+			{
+				log.warn("evict(): idempotency key {} evicted before its TTL, key count {} reached",
+								oldest.getKey(), maxSize);
+			}
+
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,454 @@
+package com.account.dao.memory;
+
+import com.account.dao.RowHandler;
+import com.account.dao.UserDAO;
+import com.account.exception.CustomException;
+import com.account.exception.DuplicateEntryException;
+import com.account.model.User;
+import com.account.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * User Data Access Object holding every user in memory.
+ *
+ * Behaves as UserDAOImpl does against the User table: ids are generated in
+ * sequence, user name and email address are required and user names are
+ * unique. Users restored from older data may share a name, a lookup by name
+ * then finds the user with the lowest id. Writes are serialised on the DAO;
+ * lookups by id take no lock.
+ *
+ * When a journal is attached, each change is appended to it under the DAO
+ * lock before it is applied, and the caller waits for the record to reach
+ * the disk after the lock is released.
+ */
+public class MemoryUserDAO implements UserDAO
+{
+	private static Log log = Log.getLog(MemoryUserDAO.class);
+
+	// Users by user id.
+	private final LongKeyedTable<User> users = new LongKeyedTable<User>();
+
+	// User ids by user name, guarded by this.
+	private final Map<String, TreeSet<Long>> userIdsByName = new HashMap<String, TreeSet<Long>>();
+
+	// User name and email address pairs, the unique index, guarded by this.
+	private final Set<String> userKeys = new HashSet<String>();
+
+	// Journal of changes, null when the data is not persisted.
+	private volatile Journal journal;
+
+	/**
+	 * Find all users.
+	 */
+	public List<User> getAllUsers() throws CustomException
+	{
+		return getUsers(0, 0);
+	}
+
+	/**
+	 * Find a page of users in user id order.
+	 */
+	public List<User> getUsers( long afterUserId, int limit )
+					throws CustomException
+	{
+		final List<User> page = new ArrayList<User>();
+
+		// Collect the page.
+		streamUsers(afterUserId, limit, new RowHandler<User>()
+		{
+			public void handle( User user )
+			{
+				page.add(user);
+			}
+		});
+
+		return page;
+	}
+
+	/**
+	 * Pass users in user id order to a handler.
+	 */
+	public void streamUsers( long afterUserId, int limit,
+					RowHandler<User> handler ) throws CustomException
+	{
+		long maxId = users.maxId();
+		int count = 0;
+
+		try
+		{
+			// Walk the ids, skipping deleted users.
+			for ( long id = Math.max(afterUserId, 0) + 1; id <= maxId; id++ )
+			{
+				User user = users.get(id);
+
+				if (user != null)
+				{
+					handler.handle(user);
+
+					// Stop once the limit is reached.
+					if ((limit > 0) && (++count == limit))
+					{
+						return;
+					}
+				}
+			}
+		}
+		// Handler failure.
+		catch (IOException e)
+		{
+			throw new CustomException("Error writing user data", e);
+		}
+	}
+
+	/**
+	 * Find user by userId.
+	 */
+	public User getUserById( long userId ) throws CustomException
+	{
+		return users.get(userId);
+	}
+
+	/**
+	 * Find user by userName.
+	 */
+	public synchronized User getUserByName( String userName )
+					throws CustomException
+	{
+		TreeSet<Long> userIds = userIdsByName.get(userName);
+
+		return (userIds == null) ? null : users.get(userIds.first());
+	}
+
+	/**
+	 * Save User.
+	 */
+	public long insertUser( User user ) throws CustomException
+	{
+		long userId;
+		long lsn;
+
+		synchronized (this)
+		{
+			String key = userKey(user);
+
+			// Name and email are required.
+			if (key == null)
+			{
+				log.debug("Error Inserting User :{}", user);
+
+				throw new CustomException("Error creating user data");
+			}
+
+			// User name already taken.
+			if (userIdsByName.containsKey(user.getUserName()))
+			{
+				throw new DuplicateEntryException("User name already exist");
+			}
+
+			userId = users.nextId();
+
+			User created = new User(userId, user.getUserName(),
+							user.getEmailAddress());
+
+			lsn = journalPut(created, "Error creating user data");
+			store(created, key);
+		}
+
+		awaitDurable(lsn);
+
+		return userId;
+	}
+
+	/**
+	 * Update User.
+	 */
+	public int updateUser( Long userId, User user ) throws CustomException
+	{
+		long lsn;
+
+		synchronized (this)
+		{
+			User existing = users.get(userId);
+
+			// User does not exist.
+			if (existing == null)
+			{
+				return 0;
+			}
+
+			String key = userKey(user);
+			String existingKey = userKey(existing);
+
+			// Name and email are required and unique together.
+			if ((key == null)
+							|| (!key.equals(existingKey) && userKeys.contains(key)))
+			{
+				log.error("Error Updating User :{}", user);
+
+				throw new CustomException("Error update user data");
+			}
+
+			// User name already taken by another user.
+			if (!user.getUserName().equals(existing.getUserName())
+							&& userIdsByName.containsKey(user.getUserName()))
+			{
+				throw new DuplicateEntryException("User name already exist");
+			}
+
+			User updated = new User(userId, user.getUserName(),
+							user.getEmailAddress());
+
+			lsn = journalPut(updated, "Error update user data");
+			unstore(existing, existingKey);
+			store(updated, key);
+		}
+
+		awaitDurable(lsn);
+
+		return 1;
+	}
+
+	/**
+	 * Delete User.
+	 */
+	public int deleteUser( long userId ) throws CustomException
+	{
+		long lsn;
+
+		synchronized (this)
+		{
+			User existing = users.get(userId);
+
+			// User does not exist.
+			if (existing == null)
+			{
+				return 0;
+			}
+
+			// Journal the deletion before applying it.
+			try
+			{
+				Journal current = journal;
+
+				lsn = (current == null) ? 0 : current.removeUser(userId);
+			}
+			// Catch journal failure.
+			catch (IOException e)
+			{
+				throw new CustomException("Error deleting user data", e);
+			}
+
+			unstore(existing, userKey(existing));
+		}
+
+		awaitDurable(lsn);
+
+		return 1;
+	}
+
+	/**
+	 * Remove every user, used when the test data is reloaded.
+	 */
+	public synchronized void clear()
+	{
+		users.clear();
+		userIdsByName.clear();
+		userKeys.clear();
+	}
+
+	/**
+	 * Attach the journal that changes are written to.
+	 *
+	 * @param journal - started journal, or null to stop journaling.
+	 */
+	public void setJournal( Journal journal )
+	{
+		this.journal = journal;
+	}
+
+	/**
+	 * Apply a replayed user, replacing any user with its id.
+	 *
+	 * @param user - user details, including the id.
+	 */
+	public synchronized void replayUser( User user )
+	{
+		replayUserRemoved(user.getUserId());
+
+		store(user, userKey(user));
+	}
+
+	/**
+	 * Apply a replayed user deletion.
+	 *
+	 * @param userId - user id.
+	 */
+	public synchronized void replayUserRemoved( long userId )
+	{
+		User existing = users.get(userId);
+
+		// User already absent.
+		if (existing != null)
+		{
+			unstore(existing, userKey(existing));
+		}
+	}
+
+	/**
+	 * Pass every user to a snapshot writer, holding the DAO lock so no user
+	 * is caught between its journal record and its update.
+	 *
+	 * @param handler - snapshot writer.
+	 * @throws IOException
+	 */
+	public synchronized void writeSnapshot( MutationHandler handler )
+					throws IOException
+	{
+		long maxId = users.maxId();
+
+		for ( long id = 1; id <= maxId; id++ )
+		{
+			User user = users.get(id);
+
+			if (user != null)
+			{
+				handler.putUser(id, user.getUserName(), user.getEmailAddress());
+			}
+		}
+	}
+
+	/**
+	 * Store a user with a known id, used to load the test data.
+	 *
+	 * @param user - user details, including the id.
+	 * @throws CustomException - if the user id or name and email are taken.
+	 */
+	public synchronized void restoreUser( User user ) throws CustomException
+	{
+		String key = userKey(user);
+
+		// Keep the unique index.
+		if ((key == null) || userKeys.contains(key)
+						|| (users.get(user.getUserId()) != null))
+		{
+			throw new CustomException("User Cannot be restored " + user);
+		}
+
+		store(user, key);
+	}
+
+	/**
+	 * Journal a user creation or update. Called holding this.
+	 *
+	 * @param user - user details, including the id.
+	 * @param message - error message if the journal cannot be written.
+	 * @return - journal sequence number, 0 without a journal.
+	 */
+	private long journalPut( User user, String message ) throws CustomException
+	{
+		Journal current = journal;
+
+		// Not persisted.
+		if (current == null)
+		{
+			return 0;
+		}
+
+		try
+		{
+			return current.putUser(user.getUserId(), user.getUserName(),
+							user.getEmailAddress());
+		}
+		// Catch journal failure.
+		catch (IOException e)
+		{
+			throw new CustomException(message, e);
+		}
+	}
+
+	/**
+	 * Wait for a journal record to reach the disk.
+	 *
+	 * @param lsn - journal sequence number, 0 for none.
+	 * @throws CustomException - if the record could not be forced to disk.
+	 */
+	private void awaitDurable( long lsn ) throws CustomException
+	{
+		Journal current = journal;
+
+		if ((current != null) && (lsn > 0))
+		{
+			// Applied in memory, but may not survive a restart.
+			try
+			{
+				current.awaitDurable(lsn);
+			}
+			catch (IOException e)
+			{
+				throw new CustomException(
+								"Change applied but not written to disk", e);
+			}
+		}
+	}
+
+	/**
+	 * Add a user and its index entries.
+	 */
+	private void store( User user, String key )
+	{
+		users.put(user.getUserId(), user);
+		userKeys.add(key);
+
+		TreeSet<Long> userIds = userIdsByName.get(user.getUserName());
+
+		if (userIds == null)
+		{
+			userIds = new TreeSet<Long>();
+			userIdsByName.put(user.getUserName(), userIds);
+		}
+
+		userIds.add(user.getUserId());
+	}
+
+	/**
+	 * Remove a user and its index entries.
+	 */
+	private void unstore( User user, String key )
+	{
+		users.remove(user.getUserId());
+		userKeys.remove(key);
+
+		TreeSet<Long> userIds = userIdsByName.get(user.getUserName());
+
+		userIds.remove(user.getUserId());
+
+		if (userIds.isEmpty())
+		{
+			userIdsByName.remove(user.getUserName());
+		}
+	}
+
+	/**
+	 * Build the unique index key of a user.
+	 *
+	 * @return - key, or null if the name or email is missing.
+	 */
+	private static String userKey( User user )
+	{
+		// Both values are required.
+		if ((user.getUserName() == null) || (user.getEmailAddress() == null))
+		{
+			return null;
+		}
+
+		return user.getUserName() + '\u0000' + user.getEmailAddress();
+	}
+}
@@ -0,0 +1,73 @@
+package com.account.dao.memory;
+
+import java.io.IOException;
+
+/**
+ * Receiver of the changes made to the in-memory data, as written to and
+ * replayed from the journal.
+ *
+ * Every change carries absolute values rather than deltas, so applying the
+ * same change twice leaves the same state.
+ */
+public interface MutationHandler
+{
+	/**
+	 * Account created, or restored from a snapshot.
+	 *
+	 * @param accountId - account id.
+	 * @param userName - account user name.
+	 * @param balance - balance in minor units.
+	 * @param currencyCode - account currency code.
+	 * @throws IOException
+	 */
+	void putAccount( long accountId, String userName, long balance,
+					String currencyCode ) throws IOException;
+
+	/**
+	 * Account balance changed.
+	 *
+	 * @param accountId - account id.
+	 * @param balance - new balance in minor units.
+	 * @throws IOException
+	 */
+	void setBalance( long accountId, long balance ) throws IOException;
+
+	/**
+	 * Balances of both accounts of a transfer changed together.
+	 *
+	 * @param fromAccountId - source account id.
+	 * @param fromBalance - new source balance in minor units.
+	 * @param toAccountId - destination account id.
+	 * @param toBalance - new destination balance in minor units.
+	 * @throws IOException
+	 */
+	void setBalances( long fromAccountId, long fromBalance, long toAccountId,
+					long toBalance ) throws IOException;
+
+	/**
+	 * Account deleted.
+	 *
+	 * @param accountId - account id.
+	 * @throws IOException
+	 */
+	void removeAccount( long accountId ) throws IOException;
+
+	/**
+	 * User created or updated, or restored from a snapshot.
+	 *
+	 * @param userId - user id.
+	 * @param userName - user name.
+	 * @param emailAddress - email address.
+	 * @throws IOException
+	 */
+	void putUser( long userId, String userName, String emailAddress )
+					throws IOException;
+
+	/**
+	 * User deleted.
+	 *
+	 * @param userId - user id.
+	 * @throws IOException
+	 */
+	void removeUser( long userId ) throws IOException;
+}
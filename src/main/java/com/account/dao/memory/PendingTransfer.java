@@ -0,0 +1,46 @@
+package com.account.dao.memory;
+
+import com.account.model.TransferStatus;
+
+/**
+ * Transfer being applied by the in-memory account DAO, either on the calling
+ * thread or handed between the shards of the transfer engine.
+ */
+final class PendingTransfer
+{
+	final AccountEntry fromAccount;
+	final AccountEntry toAccount;
+	final String currencyCode;
+
+	// Amount in minor units, greater than 0.
+	final long amount;
+
+	// Set once the amount is reserved on the source account.
+	boolean reserved;
+
+	// Journal sequence number of the transfer, 0 if not journaled.
+	long lsn;
+
+	// Thread waiting for the outcome, when run by the engine.
+	Thread waiter;
+
+	// Outcome, null until the transfer completes.
+	volatile TransferStatus status;
+
+	/**
+	 * Pending transfer constructor.
+	 *
+	 * @param fromAccount - source account.
+	 * @param toAccount - destination account.
+	 * @param currencyCode - transaction currency code.
+	 * @param amount - amount in minor units, greater than 0.
+	 */
+	PendingTransfer( AccountEntry fromAccount, AccountEntry toAccount,
+					String currencyCode, long amount )
+	{
+		this.fromAccount = fromAccount;
+		this.toAccount = toAccount;
+		this.currencyCode = currencyCode;
+		this.amount = amount;
+	}
+}
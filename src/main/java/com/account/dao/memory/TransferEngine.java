@@ -0,0 +1,204 @@
+package com.account.dao.memory;
+
+import com.account.model.TransferStatus;
+import com.account.utils.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the transfers of the in-memory account DAO on a fixed set of shard
+ * threads rather than on the request threads.
+ *
+ * Accounts are partitioned across the shards by id, and each shard takes
+ * work from its own lock-free queue on a single thread. A transfer between
+ * two accounts of one shard is applied there in one step, so transfers on
+ * different shards never wait for each other. A transfer across shards runs
+ * in two phases: the source shard reserves the amount on the source
+ * account, then the destination shard commits both balances, releasing the
+ * reservation whatever the outcome.
+ *
+ * The shards still take the account locks, which every other writer and
+ * the journal snapshot rely on, but as each shard maps to its own set of
+ * lock stripes they are uncontended apart from the commit of a cross-shard
+ * transfer.
+ */
+final class TransferEngine
+{
+	private static Log log = Log.getLog(TransferEngine.class);
+
+	private final MemoryAccountDAO accountDAO;
+	private final Shard[] shards;
+	private final int shardMask;
+
+	/**
+	 * Transfer engine constructor, starting the shard threads.
+	 *
+	 * @param accountDAO - DAO applying each phase under the account locks.
+	 * @param shardCount - number of shards, a power of two.
+	 */
+	TransferEngine( MemoryAccountDAO accountDAO, int shardCount )
+	{
+		this.accountDAO = accountDAO;
+		this.shards = new Shard[shardCount];
+		this.shardMask = shardCount - 1;
+
+		for ( int i = 0; i < shardCount; i++ )
+		{
+			shards[i] = new Shard(i);
+		}
+
+		for ( Shard shard : shards )
+		{
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * Queue a transfer on the shard of its source account.
+	 *
+	 * @param transfer - transfer to apply.
+	 */
+	void submit( PendingTransfer transfer )
+	{
+		transfer.waiter = Thread.currentThread();
+
+		shardFor(transfer.fromAccount).offer(transfer);
+	}
+
+	/**
+	 * Wait for a submitted transfer to complete.
+	 *
+	 * @param transfer - transfer submitted by the calling thread.
+	 * @return - outcome of the transfer.
+	 */
+	TransferStatus await( PendingTransfer transfer )
+	{
+		boolean interrupted = false;
+
+		// The shard always completes the transfer, so wait it out.
+		while (transfer.status == null)
+		{
+			LockSupport.park(transfer);
+
+			if (Thread.interrupted())
+			{
+				interrupted = true;
+			}
+		}
+
+		// Restore the interrupt for the caller.
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		return transfer.status;
+	}
+
+	/**
+	 * Find the shard owning an account. Shards split the lock stripes, so
+	 * an account's stripe is only taken by its own shard.
+	 */
+	private Shard shardFor( AccountEntry account )
+	{
+		return shards[(int) (account.accountId & shardMask)];
+	}
+
+	/**
+	 * Record the outcome of a transfer and wake its waiter.
+	 */
+	private static void complete( PendingTransfer transfer,
+					TransferStatus status )
+	{
+		transfer.status = status;
+
+		LockSupport.unpark(transfer.waiter);
+	}
+
+	/**
+	 * Single-threaded shard working through its queue.
+	 */
+	private final class Shard implements Runnable
+	{
+		private final ConcurrentLinkedQueue<PendingTransfer> queue = new ConcurrentLinkedQueue<PendingTransfer>();
+		private final Thread thread;
+
+		Shard( int index )
+		{
+			thread = new Thread(this, "transfer-shard-" + index);
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * Queue a transfer and wake the shard thread.
+		 */
+		void offer( PendingTransfer transfer )
+		{
+			queue.offer(transfer);
+
+			LockSupport.unpark(thread);
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				PendingTransfer transfer = queue.poll();
+
+				// Sleep until a transfer is queued.
+				if (transfer == null)
+				{
+					LockSupport.park(this);
+					continue;
+				}
+
+				// Keep the shard running whatever one transfer does.
+				try
+				{
+					process(transfer);
+				}
+				catch (RuntimeException e)
+				{
+					log.error("run(): Error applying transfer", e);
+
+					complete(transfer, TransferStatus.FAILED);
+				}
+			}
+		}
+
+		/**
+		 * Apply the next phase of a transfer.
+		 */
+		private void process( PendingTransfer transfer )
+		{
+			// Second phase, on the destination shard.
+			if (transfer.reserved)
+			{
+				complete(transfer, accountDAO.commitReserved(transfer));
+				return;
+			}
+
+			Shard destination = shardFor(transfer.toAccount);
+
+			// Both accounts on this shard, apply in one step.
+			if (destination == this)
+			{
+				complete(transfer, accountDAO.execute(transfer));
+				return;
+			}
+
+			TransferStatus status = accountDAO.reserve(transfer);
+
+			// Reserved, hand over to the destination shard.
+			if (status == TransferStatus.OK)
+			{
+				destination.offer(transfer);
+			}
+			else
+			{
+				complete(transfer, status);
+			}
+		}
+	}
+}
@@ -0,0 +1,425 @@
+package com.account.dao.pool;
+
+import com.account.utils.Log;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded JDBC connection pool.
+ *
+ * Physical connections are opened lazily up to the maximum size, the
+ * minimum size is opened up front. Idle connections are validated before
+ * being handed out again, and connections held longer than the leak
+ * detection threshold are reported with the stack of the caller that
+ * acquired them. Each connection keeps its own cache of prepared
+ * statements.
+ */
+public class ConnectionPool
+{
+	private static Log log = Log.getLog(ConnectionPool.class);
+
+	// Connection details.
+	private final String url;
+	private final String user;
+	private final String password;
+
+	// Pool configuration.
+	private final int minSize;
+	private final int maxSize;
+	private final long acquireTimeoutMillis;
+	private final long validationIntervalNanos;
+	private final int validationTimeoutSeconds;
+	private final long leakThresholdMillis;
+	private final int statementCacheSize;
+
+	// Permits bound the number of connections handed out at any one time.
+	private final Semaphore permits;
+
+	// Idle connections, most recently used first.
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+	// Connections currently handed out.
+	private final Set<PooledConnection> borrowed = ConcurrentHashMap
+					.newKeySet();
+
+	private final AtomicInteger totalConnections = new AtomicInteger();
+
+	// Statistics.
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong destroyedCount = new AtomicLong();
+	private final AtomicLong acquiredCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong validationFailureCount = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+	private final AtomicLong totalAcquireNanos = new AtomicLong();
+	private final AtomicLong maxAcquireNanos = new AtomicLong();
+	private final AtomicLong statementCacheHitCount = new AtomicLong();
+	private final AtomicLong statementCacheMissCount = new AtomicLong();
+
+	private final ScheduledExecutorService leakDetector;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Connection pool constructor.
+	 *
+	 * @param url - JDBC connection url.
+	 * @param user - database user.
+	 * @param password - database password.
+	 * @param minSize - connections opened up front.
+	 * @param maxSize - maximum connections open at once.
+	 * @param acquireTimeoutMillis - maximum wait for a free connection.
+	 * @param validationIntervalMillis - idle time after which a connection
+	 *            is validated before reuse.
+	 * @param validationTimeoutSeconds - driver validation timeout.
+	 * @param leakThresholdMillis - checkout time after which a connection is
+	 *            reported as leaked, 0 to disable.
+	 * @param statementCacheSize - prepared statements cached per connection,
+	 *            0 to disable.
+	 */
+	public ConnectionPool( String url, String user, String password,
+					int minSize, int maxSize, long acquireTimeoutMillis,
+					long validationIntervalMillis, int validationTimeoutSeconds,
+					long leakThresholdMillis, int statementCacheSize )
+	{
+		// Sanity check the bounds.
+		if ((maxSize < 1) || (minSize < 0) || (minSize > maxSize))
+		{
+			throw new IllegalArgumentException("Invalid pool size min="
+							+ minSize + " max=" + maxSize);
+		}
+
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.validationIntervalNanos = TimeUnit.MILLISECONDS
+						.toNanos(validationIntervalMillis);
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(maxSize, true);
+
+		// Open the minimum number of connections.
+		for ( int i = 0; i < minSize; i++ )
+		{
+			try
+			{
+				idle.offerLast(openConnection());
+			}
+			catch (SQLException e)
+			{
+				log.warn("ConnectionPool(): unable to pre-open connection", e);
+				break;
+			}
+		}
+
+		// Schedule leak detection if enabled.
+		if (leakThresholdMillis > 0)
+		{
+			long period = Math.max(leakThresholdMillis / 2, 100);
+
+			leakDetector = Executors
+							.newSingleThreadScheduledExecutor(new ThreadFactory()
+							{
+								public Thread newThread( Runnable r )
+								{
+									Thread t = new Thread(r, "connection-leak-detector");
+									t.setDaemon(true);
+									return t;
+								}
+							});
+			leakDetector.scheduleWithFixedDelay(new Runnable()
+			{
+				public void run()
+				{
+					detectLeaks();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+		else
+		{
+			leakDetector = null;
+		}
+
+		log.info("ConnectionPool(): started with min={} max={} acquireTimeoutMs={} statementCacheSize={}",
+						minSize, maxSize, acquireTimeoutMillis,
+						statementCacheSize);
+	}
+
+	/**
+	 * Acquire a connection, waiting up to the acquire timeout for one to
+	 * become free. Closing the returned connection gives it back to the pool.
+	 *
+	 * @return - pooled connection.
+	 * @throws SQLException - on timeout or if a connection cannot be opened.
+	 */
+	public Connection getConnection() throws SQLException
+	{
+		// Refuse new work once closed.
+		if (closed)
+		{
+			throw new SQLException("Connection pool is closed");
+		}
+
+		long start = System.nanoTime();
+
+		// Wait for a free slot.
+		try
+		{
+			if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS))
+			{
+				timeoutCount.incrementAndGet();
+
+				throw new SQLTimeoutException(
+								"Timed out waiting for a database connection after "
+												+ acquireTimeoutMillis + "ms, "
+												+ getStats());
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new SQLException(
+							"Interrupted waiting for a database connection", e);
+		}
+
+		// Reuse an idle connection or open a new one.
+		try
+		{
+			PooledConnection pooled = takeIdle();
+
+			// No usable idle connection, open a new one.
+			if (pooled == null)
+			{
+				pooled = openConnection();
+			}
+
+			borrowed.add(pooled);
+
+			recordAcquire(System.nanoTime() - start);
+
+			return pooled.borrow(leakThresholdMillis > 0);
+		}
+		catch (SQLException e)
+		{
+			permits.release();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a connection to the pool. Called when the caller closes its
+	 * handle.
+	 *
+	 * @param pooled - connection being returned.
+	 */
+	void release( PooledConnection pooled )
+	{
+		borrowed.remove(pooled);
+
+		// Clean the connection up, discarding it if it is broken.
+		try
+		{
+			pooled.reset();
+
+			// Pool shut down while the connection was out.
+			if (closed)
+			{
+				destroy(pooled);
+			}
+			else
+			{
+				idle.offerFirst(pooled);
+			}
+		}
+		catch (SQLException e)
+		{
+			log.warn("release(): discarding broken connection", e);
+
+			destroy(pooled);
+		}
+		finally
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Retrieve the current pool statistics.
+	 *
+	 * @return - statistics snapshot.
+	 */
+	public PoolStats getStats()
+	{
+		int active = borrowed.size();
+
+		return new PoolStats(minSize, maxSize, totalConnections.get(),
+						idle.size(), active, permits.getQueueLength(),
+						createdCount.get(), destroyedCount.get(),
+						acquiredCount.get(), timeoutCount.get(),
+						validationFailureCount.get(), leakCount.get(),
+						totalAcquireNanos.get(), maxAcquireNanos.get(),
+						statementCacheSize, statementCacheHitCount.get(),
+						statementCacheMissCount.get());
+	}
+
+	/**
+	 * Close all idle connections and stop handing out new ones. Connections
+	 * currently in use are closed when they are returned.
+	 */
+	public void close()
+	{
+		closed = true;
+
+		// Stop the leak detector.
+		if (leakDetector != null)
+		{
+			leakDetector.shutdownNow();
+		}
+
+		PooledConnection pooled;
+
+		// Drain and close idle connections.
+		while ((pooled = idle.pollFirst()) != null)
+		{
+			destroy(pooled);
+		}
+	}
+
+	/**
+	 * Take the most recently used idle connection, validating it if it has
+	 * been idle longer than the validation interval.
+	 *
+	 * @return - a usable idle connection, or null if none.
+	 */
+	private PooledConnection takeIdle()
+	{
+		PooledConnection pooled;
+
+		// Discard idle connections that fail validation.
+		while ((pooled = idle.pollFirst()) != null)
+		{
+			long idleNanos = System.nanoTime() - pooled.getIdleSinceNanos();
+
+			// Recently used, assume valid.
+			if ((idleNanos < validationIntervalNanos)
+							|| pooled.isValid(validationTimeoutSeconds))
+			{
+				return pooled;
+			}
+
+			validationFailureCount.incrementAndGet();
+
+			log.warn("takeIdle(): discarding connection that failed validation");
+
+			destroy(pooled);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Open a new physical connection.
+	 */
+	private PooledConnection openConnection() throws SQLException
+	{
+		Connection physical = DriverManager.getConnection(url, user, password);
+
+		totalConnections.incrementAndGet();
+		createdCount.incrementAndGet();
+
+		return new PooledConnection(this, physical, statementCacheSize);
+	}
+
+	/**
+	 * Close a physical connection and drop it from the pool.
+	 */
+	private void destroy( PooledConnection pooled )
+	{
+		pooled.closePhysical();
+
+		totalConnections.decrementAndGet();
+		destroyedCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a prepared statement served from a connection's cache.
+	 */
+	void recordStatementCacheHit()
+	{
+		statementCacheHitCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a prepared statement the driver had to prepare.
+	 */
+	void recordStatementCacheMiss()
+	{
+		statementCacheMissCount.incrementAndGet();
+	}
+
+	/**
+	 * Record acquisition statistics.
+	 */
+	private void recordAcquire( long waitNanos )
+	{
+		acquiredCount.incrementAndGet();
+		totalAcquireNanos.addAndGet(waitNanos);
+
+		long max;
+
+		// Update the maximum wait.
+		while (waitNanos > (max = maxAcquireNanos.get()))
+		{
+			if (maxAcquireNanos.compareAndSet(max, waitNanos))
+			{
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Report connections held longer than the leak threshold.
+	 */
+	private void detectLeaks()
+	{
+		long now = System.currentTimeMillis();
+
+		for ( PooledConnection pooled : borrowed )
+		{
+			long heldMillis = now - pooled.getBorrowedAtMillis();
+
+			// Report each leaked checkout once.
+			if ((heldMillis > leakThresholdMillis) && !pooled.isLeakReported())
+			{
+				pooled.setLeakReported(true);
+				leakCount.incrementAndGet();
+
+				log.warn("detectLeaks(): connection held for {}ms, possible leak",
+								heldMillis, pooled.getBorrowStack());
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.account.dao.pool;
+
+/**
+ * Point in time snapshot of the connection pool counters, used for sizing
+ * the pool.
+ */
+public class PoolStats
+{
+	// Configured bounds.
+	private final int minSize;
+	private final int maxSize;
+
+	// Current occupancy.
+	private final int totalConnections;
+	private final int idleConnections;
+	private final int activeConnections;
+	private final int waitingThreads;
+
+	// Cumulative counters.
+	private final long createdCount;
+	private final long destroyedCount;
+	private final long acquiredCount;
+	private final long timeoutCount;
+	private final long validationFailureCount;
+	private final long leakCount;
+	private final long totalAcquireNanos;
+	private final long maxAcquireNanos;
+
+	// Prepared statement cache.
+	private final int statementCacheSize;
+	private final long statementCacheHitCount;
+	private final long statementCacheMissCount;
+
+	/**
+	 * Pool statistics constructor.
+	 */
+	PoolStats( int minSize, int maxSize, int totalConnections,
+					int idleConnections, int activeConnections, int waitingThreads,
+					long createdCount, long destroyedCount, long acquiredCount,
+					long timeoutCount, long validationFailureCount, long leakCount,
+					long totalAcquireNanos, long maxAcquireNanos,
+					int statementCacheSize, long statementCacheHitCount,
+					long statementCacheMissCount )
+	{
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.totalConnections = totalConnections;
+		this.idleConnections = idleConnections;
+		this.activeConnections = activeConnections;
+		this.waitingThreads = waitingThreads;
+		this.createdCount = createdCount;
+		this.destroyedCount = destroyedCount;
+		this.acquiredCount = acquiredCount;
+		this.timeoutCount = timeoutCount;
+		this.validationFailureCount = validationFailureCount;
+		this.leakCount = leakCount;
+		this.totalAcquireNanos = totalAcquireNanos;
+		this.maxAcquireNanos = maxAcquireNanos;
+		this.statementCacheSize = statementCacheSize;
+		this.statementCacheHitCount = statementCacheHitCount;
+		this.statementCacheMissCount = statementCacheMissCount;
+	}
+
+	/**
+	 * @return - configured minimum number of connections.
+	 */
+	public int getMinSize()
+	{
+		return minSize;
+	}
+
+	/**
+	 * @return - configured maximum number of connections.
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return - physical connections currently open.
+	 */
+	public int getTotalConnections()
+	{
+		return totalConnections;
+	}
+
+	/**
+	 * @return - connections sitting idle in the pool.
+	 */
+	public int getIdleConnections()
+	{
+		return idleConnections;
+	}
+
+	/**
+	 * @return - connections currently handed out.
+	 */
+	public int getActiveConnections()
+	{
+		return activeConnections;
+	}
+
+	/**
+	 * @return - threads blocked waiting for a connection.
+	 */
+	public int getWaitingThreads()
+	{
+		return waitingThreads;
+	}
+
+	/**
+	 * @return - physical connections opened since start.
+	 */
+	public long getCreatedCount()
+	{
+		return createdCount;
+	}
+
+	/**
+	 * @return - physical connections closed since start.
+	 */
+	public long getDestroyedCount()
+	{
+		return destroyedCount;
+	}
+
+	/**
+	 * @return - successful acquisitions since start.
+	 */
+	public long getAcquiredCount()
+	{
+		return acquiredCount;
+	}
+
+	/**
+	 * @return - acquisitions that gave up after the acquire timeout.
+	 */
+	public long getTimeoutCount()
+	{
+		return timeoutCount;
+	}
+
+	/**
+	 * @return - idle connections discarded because validation failed.
+	 */
+	public long getValidationFailureCount()
+	{
+		return validationFailureCount;
+	}
+
+	/**
+	 * @return - connections reported as leaked.
+	 */
+	public long getLeakCount()
+	{
+		return leakCount;
+	}
+
+	/**
+	 * @return - mean time spent waiting for a connection, in microseconds.
+	 */
+	public long getAverageAcquireMicros()
+	{
+		return (acquiredCount == 0) ? 0 : (totalAcquireNanos / acquiredCount) / 1000;
+	}
+
+	/**
+	 * @return - longest time spent waiting for a connection, in microseconds.
+	 */
+	public long getMaxAcquireMicros()
+	{
+		return maxAcquireNanos / 1000;
+	}
+
+	/**
+	 * @return - configured prepared statements cached per connection.
+	 */
+	public int getStatementCacheSize()
+	{
+		return statementCacheSize;
+	}
+
+	/**
+	 * @return - prepared statements served from a connection's cache.
+	 */
+	public long getStatementCacheHitCount()
+	{
+		return statementCacheHitCount;
+	}
+
+	/**
+	 * @return - prepared statements the driver had to prepare.
+	 */
+	public long getStatementCacheMissCount()
+	{
+		return statementCacheMissCount;
+	}
+
+	/**
+	 * @return - share of prepared statements served from the cache.
+	 */
+	public double getStatementCacheHitRatio()
+	{
+		long requests = statementCacheHitCount + statementCacheMissCount;
+
+		return (requests == 0) ? 0 : (double) statementCacheHitCount / requests;
+	}
+
+	/**
+	 * Print pool statistics.
+	 */
+	@Override
+	public String toString()
+	{
+		return "PoolStats{" + "minSize=" + minSize + ", maxSize=" + maxSize
+						+ ", total=" + totalConnections + ", idle="
+						+ idleConnections + ", active=" + activeConnections
+						+ ", waiting=" + waitingThreads + ", created="
+						+ createdCount + ", destroyed=" + destroyedCount
+						+ ", acquired=" + acquiredCount + ", timeouts="
+						+ timeoutCount + ", validationFailures="
+						+ validationFailureCount + ", leaks=" + leakCount
+						+ ", avgAcquireMicros=" + getAverageAcquireMicros()
+						+ ", maxAcquireMicros=" + getMaxAcquireMicros()
+						+ ", statementCacheSize=" + statementCacheSize
+						+ ", statementCacheHits=" + statementCacheHitCount
+						+ ", statementCacheMisses=" + statementCacheMissCount + '}';
+	}
+}
@@ -0,0 +1,555 @@
+package com.account.dao.pool;
+
+import com.account.utils.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A physical database connection owned by the {@link ConnectionPool}.
+ *
+ * Callers never see this object directly; each checkout hands out a proxy
+ * whose close() returns the physical connection to the pool instead of
+ * closing it.
+ *
+ * Prepared statements are cached on the connection by SQL text, least
+ * recently used first out, so they are parsed once per connection rather
+ * than once per call. A cached statement is handed out as a new proxy each
+ * time, whose close() clears its parameters and returns it to the cache; a
+ * proxy closed late, after the connection went back to the pool, no longer
+ * reaches the statement. A statement already handed out is not shared:
+ * preparing the same SQL again before closing it gives an uncached
+ * statement.
+ */
+class PooledConnection
+{
+	private static Log log = Log.getLog(PooledConnection.class);
+
+	private final ConnectionPool pool;
+	private final Connection physical;
+
+	// Statements opened through the current checkout, closed on release.
+	private final List<Statement> openStatements = new ArrayList<Statement>();
+
+	// Prepared statements by SQL text, eldest first, null if disabled.
+	// Guarded by itself.
+	private final LinkedHashMap<String, CachedStatement> statementCache;
+
+	// Time the connection was last returned to the pool.
+	private volatile long idleSinceNanos = System.nanoTime();
+
+	// Checkout details used by leak detection.
+	private volatile long borrowedAtMillis;
+	private volatile Throwable borrowStack;
+	private volatile boolean leakReported;
+
+	/**
+	 * Pooled connection constructor.
+	 *
+	 * @param pool - owning pool.
+	 * @param physical - underlying driver connection.
+	 * @param statementCacheSize - maximum prepared statements cached, 0 to
+	 *            disable the cache.
+	 */
+	PooledConnection( ConnectionPool pool, Connection physical,
+					final int statementCacheSize )
+	{
+		this.pool = pool;
+		this.physical = physical;
+		this.statementCache = (statementCacheSize <= 0) ? null
+						: new LinkedHashMap<String, CachedStatement>(16, 0.75f,
+										true)
+						{
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							protected boolean removeEldestEntry(
+											Map.Entry<String, CachedStatement> eldest )
+							{
+								// Over the size, drop the least recently used.
+								if (size() > statementCacheSize)
+								{
+									eldest.getValue().evict();
+
+									return true;
+								}
+
+								return false;
+							}
+						};
+	}
+
+	/**
+	 * Mark the connection as checked out and build the caller's handle.
+	 *
+	 * @param captureStack - record the caller stack for leak reports.
+	 * @return - logical connection handed to the caller.
+	 */
+	Connection borrow( boolean captureStack )
+	{
+		borrowedAtMillis = System.currentTimeMillis();
+		borrowStack = captureStack ? new Throwable("Connection acquired here")
+						: null;
+		leakReported = false;
+
+		return (Connection) Proxy.newProxyInstance(
+						Connection.class.getClassLoader(),
+						new Class<?>[] { Connection.class }, new Handle());
+	}
+
+	/**
+	 * Return the connection to a clean state so the next caller gets a
+	 * connection in auto-commit mode with no open statements or locks.
+	 *
+	 * @throws SQLException - if the connection can no longer be used.
+	 */
+	void reset() throws SQLException
+	{
+		// Close any statements the caller left behind.
+		synchronized (openStatements)
+		{
+			for ( Statement stmt : openStatements )
+			{
+				try
+				{
+					stmt.close();
+				}
+				catch (SQLException e)
+				{
+					log.debug("reset(): error closing statement", e);
+				}
+			}
+			openStatements.clear();
+		}
+
+		// Take back cached statements the caller did not close.
+		if (statementCache != null)
+		{
+			List<CachedStatement> inUse = new ArrayList<CachedStatement>();
+
+			synchronized (statementCache)
+			{
+				for ( CachedStatement cached : statementCache.values() )
+				{
+					if (cached.inUse)
+					{
+						inUse.add(cached);
+					}
+				}
+			}
+
+			for ( CachedStatement cached : inUse )
+			{
+				cached.giveBack();
+			}
+		}
+
+		// Roll back and release any row locks still held.
+		if (!physical.getAutoCommit())
+		{
+			physical.rollback();
+			physical.setAutoCommit(true);
+		}
+
+		borrowStack = null;
+		idleSinceNanos = System.nanoTime();
+	}
+
+	/**
+	 * Check the connection is still usable.
+	 *
+	 * @param timeoutSeconds - driver validation timeout.
+	 * @return - true if the connection is valid.
+	 */
+	boolean isValid( int timeoutSeconds )
+	{
+		try
+		{
+			return !physical.isClosed() && physical.isValid(timeoutSeconds);
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Close the physical connection.
+	 */
+	void closePhysical()
+	{
+		// Close the cached statements first.
+		if (statementCache != null)
+		{
+			synchronized (statementCache)
+			{
+				for ( CachedStatement cached : statementCache.values() )
+				{
+					cached.evict();
+				}
+				statementCache.clear();
+			}
+		}
+
+		try
+		{
+			physical.close();
+		}
+		catch (SQLException e)
+		{
+			log.debug("closePhysical(): error closing connection", e);
+		}
+	}
+
+	/**
+	 * Prepare a statement through the cache.
+	 *
+	 * @param sql - statement SQL.
+	 * @param autoGeneratedKeys - generated keys flag, null if not given.
+	 * @return - cached statement proxy, or an uncached statement if the
+	 *         cached one is already handed out.
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareCached( String sql,
+					Integer autoGeneratedKeys ) throws SQLException
+	{
+		String key = (autoGeneratedKeys == null) ? sql : autoGeneratedKeys
+						+ ":" + sql;
+
+		CachedStatement cached;
+
+		// Reuse the cached statement if free.
+		synchronized (statementCache)
+		{
+			cached = statementCache.get(key);
+
+			if ((cached != null) && !cached.inUse)
+			{
+				pool.recordStatementCacheHit();
+
+				return cached.lease();
+			}
+		}
+
+		pool.recordStatementCacheMiss();
+
+		PreparedStatement stmt = (autoGeneratedKeys == null) ? physical
+						.prepareStatement(sql) : physical.prepareStatement(sql,
+						autoGeneratedKeys);
+
+		// Already handed out, this one is closed on release.
+		if (cached != null)
+		{
+			synchronized (openStatements)
+			{
+				openStatements.add(stmt);
+			}
+
+			return stmt;
+		}
+
+		cached = new CachedStatement(stmt);
+
+		synchronized (statementCache)
+		{
+			statementCache.put(key, cached);
+
+			return cached.lease();
+		}
+	}
+
+	long getIdleSinceNanos()
+	{
+		return idleSinceNanos;
+	}
+
+	long getBorrowedAtMillis()
+	{
+		return borrowedAtMillis;
+	}
+
+	Throwable getBorrowStack()
+	{
+		return borrowStack;
+	}
+
+	boolean isLeakReported()
+	{
+		return leakReported;
+	}
+
+	void setLeakReported( boolean leakReported )
+	{
+		this.leakReported = leakReported;
+	}
+
+	/**
+	 * Logical connection handed to a single caller. Closing it returns the
+	 * physical connection to the pool exactly once.
+	 */
+	private class Handle implements InvocationHandler
+	{
+		private boolean closed = false;
+
+		public Object invoke( Object proxy, Method method, Object[] args )
+						throws Throwable
+		{
+			String name = method.getName();
+
+			// Object methods work on the handle identity.
+			if ("equals".equals(name))
+			{
+				return proxy == args[0];
+			}
+			else if ("hashCode".equals(name))
+			{
+				return System.identityHashCode(proxy);
+			}
+			else if ("toString".equals(name))
+			{
+				return "PooledConnection[" + physical + "]";
+			}
+			else if ("close".equals(name))
+			{
+				// Return to the pool once only.
+				if (!closed)
+				{
+					closed = true;
+					pool.release(PooledConnection.this);
+				}
+				return null;
+			}
+			else if ("isClosed".equals(name))
+			{
+				return closed || physical.isClosed();
+			}
+
+			// Any other use after close is a caller bug.
+			if (closed)
+			{
+				throw new SQLException(
+								"Connection has already been returned to the pool");
+			}
+
+			// Prepare through the statement cache, by SQL alone or with the
+			// generated keys flag.
+			if ((statementCache != null) && "prepareStatement".equals(name))
+			{
+				if (args.length == 1)
+				{
+					return prepareCached((String) args[0], null);
+				}
+				else if ((args.length == 2) && (args[1] instanceof Integer))
+				{
+					return prepareCached((String) args[0], (Integer) args[1]);
+				}
+			}
+
+			// Delegate to the physical connection.
+			try
+			{
+				Object result = method.invoke(physical, args);
+
+				// Track statements so they can be closed on release.
+				if (result instanceof Statement)
+				{
+					synchronized (openStatements)
+					{
+						openStatements.add((Statement) result);
+					}
+				}
+
+				return result;
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Prepared statement held by the statement cache.
+	 */
+	private class CachedStatement
+	{
+		final PreparedStatement statement;
+
+		// Handed out to the current caller, changed holding the cache lock.
+		volatile boolean inUse = false;
+
+		// Proxy of the current caller, null when not in use.
+		private volatile Lease current;
+
+		// Dropped from the cache, closed once given back.
+		private boolean evicted = false;
+
+		CachedStatement( PreparedStatement statement )
+		{
+			this.statement = statement;
+		}
+
+		/**
+		 * Hand the statement out to a new caller. Called holding the cache
+		 * lock.
+		 *
+		 * @return - proxy for the caller.
+		 */
+		PreparedStatement lease()
+		{
+			inUse = true;
+			current = new Lease();
+
+			return (PreparedStatement) Proxy.newProxyInstance(
+							PreparedStatement.class.getClassLoader(),
+							new Class<?>[] { PreparedStatement.class }, current);
+		}
+
+		/**
+		 * Give the statement back to the cache, clearing its parameters, or
+		 * close it if it was evicted meanwhile.
+		 */
+		void giveBack()
+		{
+			giveBack(null);
+		}
+
+		/**
+		 * Give the statement back if the lease is still current, any lease
+		 * if null.
+		 */
+		private void giveBack( Lease lease )
+		{
+			boolean close;
+
+			synchronized (statementCache)
+			{
+				// Given back already, or leased again since.
+				if (!inUse || ((lease != null) && (lease != current)))
+				{
+					return;
+				}
+
+				inUse = false;
+				current = null;
+				close = evicted;
+			}
+
+			// Clear the statement for the next caller.
+			if (!close)
+			{
+				try
+				{
+					statement.clearParameters();
+					statement.clearBatch();
+				}
+				catch (SQLException e)
+				{
+					log.debug("giveBack(): discarding statement", e);
+
+					synchronized (statementCache)
+					{
+						evicted = true;
+						statementCache.values().remove(this);
+					}
+
+					close = true;
+				}
+			}
+
+			if (close)
+			{
+				closeStatement();
+			}
+		}
+
+		/**
+		 * Drop the statement from the cache, closing it now if it is not
+		 * handed out. Called holding the cache lock.
+		 */
+		void evict()
+		{
+			evicted = true;
+
+			if (!inUse)
+			{
+				closeStatement();
+			}
+		}
+
+		private void closeStatement()
+		{
+			try
+			{
+				statement.close();
+			}
+			catch (SQLException e)
+			{
+				log.debug("closeStatement(): error closing statement", e);
+			}
+		}
+
+		/**
+		 * Statement proxy handed to a single caller. Closing it gives the
+		 * statement back once; once given back, by the caller or on release
+		 * of the connection, the proxy can no longer be used.
+		 */
+		private class Lease implements InvocationHandler
+		{
+			public Object invoke( Object proxy, Method method, Object[] args )
+							throws Throwable
+			{
+				String name = method.getName();
+
+				// Object methods work on the proxy identity.
+				if ("equals".equals(name))
+				{
+					return proxy == args[0];
+				}
+				else if ("hashCode".equals(name))
+				{
+					return System.identityHashCode(proxy);
+				}
+				else if ("toString".equals(name))
+				{
+					return "CachedStatement[" + statement + "]";
+				}
+				else if ("close".equals(name))
+				{
+					giveBack(this);
+					return null;
+				}
+				else if ("isClosed".equals(name))
+				{
+					return (current != this) || statement.isClosed();
+				}
+
+				// Any other use after close is a caller bug.
+				if (current != this)
+				{
+					throw new SQLException("Statement has already been closed");
+				}
+
+				// Delegate to the driver statement.
+				try
+				{
+					return method.invoke(statement, args);
+				}
+				catch (InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			}
+		}
+	}
+}
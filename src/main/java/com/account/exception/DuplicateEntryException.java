@@ -0,0 +1,32 @@
+package com.account.exception;
+
+/**
+ * Exception for a write rejected by a unique index, such as a user name
+ * already taken.
+ */
+public class DuplicateEntryException extends CustomException
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Duplicate Entry Exception with message.
+	 * 
+	 * @param msg - message text
+	 */
+	public DuplicateEntryException( String msg )
+	{
+		super(msg);
+	}
+
+	/**
+	 * Duplicate Entry Exception with message and throw cause.
+	 * 
+	 * @param msg - message text
+	 * @param cause - throw cause.
+	 */
+	public DuplicateEntryException( String msg, Throwable cause )
+	{
+		super(msg, cause);
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.account.exception;
+
+import com.account.model.TransferStatus;
+
+/**
+ * Exception for a single transfer rejected by the account DAO, with the
+ * outcome a batch transfer would have reported for it.
+ */
+public class TransferException extends CustomException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final TransferStatus status;
+
+	/**
+	 * Transfer Exception with outcome and message.
+	 * 
+	 * @param status - outcome of the transfer.
+	 * @param msg - message text
+	 */
+	public TransferException( TransferStatus status, String msg )
+	{
+		super(msg);
+
+		this.status = status;
+	}
+
+	/**
+	 * Transfer Exception with outcome, message and throw cause.
+	 * 
+	 * @param status - outcome of the transfer.
+	 * @param msg - message text
+	 * @param cause - throw cause.
+	 */
+	public TransferException( TransferStatus status, String msg,
+					Throwable cause )
+	{
+		super(msg, cause);
+
+		this.status = status;
+	}
+
+	/**
+	 * @return - outcome of the transfer.
+	 */
+	public TransferStatus getStatus()
+	{
+		return status;
+	}
+
+}
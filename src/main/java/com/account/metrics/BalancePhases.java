@@ -0,0 +1,96 @@
+package com.account.metrics;
+
+/**
+ * Latency histograms of the phases of a balance changing operation of the
+ * account DAO, such as a transfer, so that the time spent waiting for row
+ * locks can be told from the time spent committing.
+ *
+ * Each phase is exported in balance_phase_duration_seconds, labelled with
+ * the operation and the phase. Nothing is recorded if metrics are
+ * disabled.
+ */
+public final class BalancePhases
+{
+	private static final String DURATION = "balance_phase_duration_seconds";
+	private static final String DURATION_HELP = "Time spent in each phase of account balance updates and transfers.";
+
+	/**
+	 * Phases of a balance changing operation.
+	 */
+	public enum Phase
+	{
+		/** Acquiring a pooled connection. */
+		CONNECT,
+		/** Acquiring the lock of one account row. */
+		LOCK,
+		/** Checking the accounts and balances once locked. */
+		VALIDATE,
+		/** Writing the balances and the ledger. */
+		UPDATE,
+		/** Committing the transaction. */
+		COMMIT,
+		/** Rolling back the transaction after a database failure. */
+		ROLLBACK
+	}
+
+	// Histogram of each phase, by ordinal, null if metrics are disabled.
+	private final LatencyHistogram[] durations;
+
+	/**
+	 * Balance phases constructor, registering the phase histograms.
+	 *
+	 * @param operation - operation label, such as transfer.
+	 */
+	public BalancePhases( String operation )
+	{
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+
+		// Metrics disabled, nothing to record.
+		if (!registry.isEnabled())
+		{
+			durations = null;
+
+			return;
+		}
+
+		durations = new LatencyHistogram[Phase.values().length];
+
+		for ( Phase phase : Phase.values() )
+		{
+			durations[phase.ordinal()] = registry.histogram(DURATION,
+							DURATION_HELP, MetricsRegistry.labels("operation",
+											operation, "phase",
+											phase.name().toLowerCase()));
+		}
+	}
+
+	/**
+	 * Record the time spent in a phase, up to now.
+	 *
+	 * @param phase - phase ending now.
+	 * @param startNanos - start of the phase, from System.nanoTime().
+	 * @return - current System.nanoTime(), the start of the next phase.
+	 */
+	public long record( Phase phase, long startNanos )
+	{
+		long now = System.nanoTime();
+
+		if (durations != null)
+		{
+			durations[phase.ordinal()].record(now - startNanos);
+		}
+
+		return now;
+	}
+
+	/**
+	 * Obtain the histogram of a phase.
+	 *
+	 * @param phase - phase.
+	 * @return - latency histogram, or null if metrics are disabled.
+	 */
+	public LatencyHistogram getHistogram( Phase phase )
+	{
+		return (durations == null) ? null : durations[phase.ordinal()];
+	}
+}
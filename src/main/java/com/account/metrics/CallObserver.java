@@ -0,0 +1,20 @@
+package com.account.metrics;
+
+import java.lang.reflect.Method;
+
+/**
+ * Observer of the calls made through a TimedProxy, for metrics that depend
+ * on the outcome of particular methods.
+ */
+public interface CallObserver
+{
+	/**
+	 * Observe a completed call.
+	 *
+	 * @param method - interface method called.
+	 * @param args - call arguments, null if none.
+	 * @param result - returned value, null if the call failed.
+	 * @param error - exception thrown, null if the call returned.
+	 */
+	void observe( Method method, Object[] args, Object result, Throwable error );
+}
@@ -0,0 +1,19 @@
+package com.account.metrics;
+
+import java.util.Map;
+
+/**
+ * Source of a metric family whose series change over time, such as the
+ * most contended accounts, read by the metrics registry each time the
+ * metrics are exported.
+ */
+public interface Collector
+{
+	/**
+	 * Add the current series of the family.
+	 *
+	 * @param series - values to fill, by labels from
+	 *        {@link MetricsRegistry#labels}.
+	 */
+	void collect( Map<String, Double> series );
+}
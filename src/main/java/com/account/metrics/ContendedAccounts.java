@@ -0,0 +1,296 @@
+package com.account.metrics;
+
+import com.account.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-N list of the accounts whose row locks were waited on the longest,
+ * to find hot accounts.
+ *
+ * Only waits longer than a threshold are counted, so uncontended locks cost
+ * a comparison. The wait time of each account is kept by the Space-Saving
+ * algorithm in a fixed number of counters, a few times the size of the
+ * list: an account not counted yet replaces the one with the least wait
+ * time, inheriting its time as a possible overestimate. Accounts with the
+ * most wait time are kept however many accounts are seen, with their time
+ * exact or overestimated by at most the error reported.
+ *
+ * Exported in contended_account_lock_wait_seconds and
+ * contended_account_lock_waits, labelled with the account id, for the
+ * accounts of the list.
+ */
+public final class ContendedAccounts
+{
+	// Key-Value from application.properties.
+	private static final String TOP_SIZE = "contended_accounts_top_size";
+	private static final String THRESHOLD = "lock_contention_threshold_us";
+
+	// Counters kept per account listed.
+	private static final int COUNTERS_PER_ENTRY = 4;
+
+	private static final ContendedAccounts instance = createInstance();
+
+	private final int topSize;
+	private final int capacity;
+	private final long thresholdNanos;
+
+	// Counter of each account tracked, at most capacity.
+	private final Map<Long, Contention> counters = new HashMap<Long, Contention>();
+
+	/**
+	 * Contended accounts constructor.
+	 *
+	 * @param topSize - number of accounts listed.
+	 * @param thresholdNanos - shortest lock wait counted, in nanoseconds.
+	 */
+	public ContendedAccounts( int topSize, long thresholdNanos )
+	{
+		if (topSize < 1)
+		{
+			throw new IllegalArgumentException(
+							"Contended accounts top size must be positive");
+		}
+
+		this.topSize = topSize;
+		this.capacity = topSize * COUNTERS_PER_ENTRY;
+		this.thresholdNanos = thresholdNanos;
+	}
+
+	/**
+	 * Obtain the list fed by the account DAO, exported with the metrics
+	 * unless they are disabled.
+	 *
+	 * @return - contended accounts.
+	 */
+	public static ContendedAccounts getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * Create the list fed by the account DAO, sized by application.properties.
+	 */
+	private static ContendedAccounts createInstance()
+	{
+		ContendedAccounts accounts = new ContendedAccounts(
+						Utils.getIntegerProperty(TOP_SIZE, 10),
+						TimeUnit.MICROSECONDS.toNanos(Utils.getIntegerProperty(
+										THRESHOLD, 1000)));
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+
+		// Exported with the other metrics.
+		if (registry.isEnabled())
+		{
+			accounts.register(registry);
+		}
+
+		return accounts;
+	}
+
+	/**
+	 * Count a lock wait, if longer than the threshold.
+	 *
+	 * @param accountId - id of the account locked.
+	 * @param waitNanos - time spent acquiring the lock, in nanoseconds.
+	 */
+	public void record( long accountId, long waitNanos )
+	{
+		// Uncontended lock.
+		if (waitNanos < thresholdNanos)
+		{
+			return;
+		}
+
+		synchronized (counters)
+		{
+			Contention counter = counters.get(accountId);
+
+			// Not tracked, take a free counter or the least waited on.
+			if (counter == null)
+			{
+				long error = 0;
+
+				if (counters.size() >= capacity)
+				{
+					Contention least = null;
+
+					for ( Contention tracked : counters.values() )
+					{
+						if ((least == null)
+										|| (tracked.waitNanos < least.waitNanos))
+						{
+							least = tracked;
+						}
+					}
+
+					counters.remove(least.accountId);
+					error = least.waitNanos;
+				}
+
+				counter = new Contention(accountId, error);
+				counters.put(accountId, counter);
+			}
+
+			counter.waitNanos += waitNanos;
+			counter.waits++;
+		}
+	}
+
+	/**
+	 * List the accounts waited on the longest.
+	 *
+	 * @return - copies of their counters, longest wait time first.
+	 */
+	public List<Contention> getTop()
+	{
+		List<Contention> top = new ArrayList<Contention>();
+
+		synchronized (counters)
+		{
+			for ( Contention counter : counters.values() )
+			{
+				top.add(counter.copy());
+			}
+		}
+
+		Collections.sort(top, new Comparator<Contention>()
+		{
+			public int compare( Contention a, Contention b )
+			{
+				return Long.compare(b.waitNanos, a.waitNanos);
+			}
+		});
+
+		return (top.size() > topSize) ? top.subList(0, topSize) : top;
+	}
+
+	/**
+	 * Forget every account counted.
+	 */
+	public void clear()
+	{
+		synchronized (counters)
+		{
+			counters.clear();
+		}
+	}
+
+	/**
+	 * Export the list with the metrics.
+	 *
+	 * @param registry - metrics registry.
+	 */
+	public void register( MetricsRegistry registry )
+	{
+		registry.gaugeCollector("contended_account_lock_wait_seconds",
+						"Time spent waiting for the row lock of the most contended accounts.",
+						new Collector()
+						{
+							public void collect( Map<String, Double> series )
+							{
+								for ( Contention counter : getTop() )
+								{
+									series.put(labelsOf(counter),
+													(double) counter.waitNanos
+																	/ TimeUnit.SECONDS.toNanos(1));
+								}
+							}
+						});
+		registry.gaugeCollector("contended_account_lock_waits",
+						"Contended row lock acquisitions of the most contended accounts.",
+						new Collector()
+						{
+							public void collect( Map<String, Double> series )
+							{
+								for ( Contention counter : getTop() )
+								{
+									series.put(labelsOf(counter),
+													(double) counter.waits);
+								}
+							}
+						});
+	}
+
+	/**
+	 * Labels of an account listed.
+	 */
+	private static String labelsOf( Contention counter )
+	{
+		return MetricsRegistry.labels("account_id",
+						String.valueOf(counter.accountId));
+	}
+
+	/**
+	 * Lock waits counted for one account.
+	 */
+	public static final class Contention
+	{
+		private final long accountId;
+		private final long errorNanos;
+		private long waitNanos;
+		private long waits;
+
+		private Contention( long accountId, long errorNanos )
+		{
+			this.accountId = accountId;
+			this.errorNanos = errorNanos;
+			this.waitNanos = errorNanos;
+		}
+
+		/**
+		 * Copy of the counter, read under the lock.
+		 */
+		private Contention copy()
+		{
+			Contention copy = new Contention(accountId, errorNanos);
+
+			copy.waitNanos = waitNanos;
+			copy.waits = waits;
+
+			return copy;
+		}
+
+		/**
+		 * @return - account id.
+		 */
+		public long getAccountId()
+		{
+			return accountId;
+		}
+
+		/**
+		 * @return - time spent waiting for the lock, in nanoseconds, at most
+		 *         the error above the real time.
+		 */
+		public long getWaitNanos()
+		{
+			return waitNanos;
+		}
+
+		/**
+		 * @return - contended lock acquisitions counted since the account is
+		 *         tracked.
+		 */
+		public long getWaits()
+		{
+			return waits;
+		}
+
+		/**
+		 * @return - wait time inherited from the account replaced, in
+		 *         nanoseconds.
+		 */
+		public long getErrorNanos()
+		{
+			return errorNanos;
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package com.account.metrics;
+
+/**
+ * Value read by the metrics registry each time the metrics are exported,
+ * for statistics kept elsewhere such as the connection pool counters.
+ */
+public interface Gauge
+{
+	/**
+	 * Read the current value.
+	 *
+	 * @return - current value.
+	 */
+	double getValue();
+}
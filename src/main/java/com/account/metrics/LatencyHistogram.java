@@ -0,0 +1,183 @@
+package com.account.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets.
+ *
+ * Each power of two range of nanoseconds is split into SUB_BUCKETS linear
+ * buckets, so a recorded value is kept to within about 6% whatever its
+ * magnitude, from single nanoseconds up to about 18 minutes; longer values
+ * are counted in the last bucket. Recording is a few atomic increments and
+ * never blocks, so it can be done on every request. Quantiles are read from
+ * a copy of the buckets that is not synchronised with recording, and may
+ * be off by the values recorded while it is taken.
+ */
+public class LatencyHistogram
+{
+	// Linear buckets per power of two, as a bit count.
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Largest value with its own bucket, 2^40 nanoseconds.
+	private static final int MAX_EXPONENT = 40;
+	private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1)
+					* SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos - duration in nanoseconds, negative values count as 0.
+	 */
+	public void record( long nanos )
+	{
+		long value = Math.max(nanos, 0);
+
+		buckets.incrementAndGet(bucketOf(Math.min(value, MAX_VALUE)));
+		count.increment();
+		totalNanos.add(value);
+
+		// Raise the maximum, retrying only while it is still lower.
+		long max = maxNanos.get();
+
+		while ((value > max) && !maxNanos.compareAndSet(max, value))
+		{
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Record the time elapsed since a start time.
+	 *
+	 * @param startNanos - start time from System.nanoTime().
+	 */
+	public void recordSince( long startNanos )
+	{
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return - number of durations recorded.
+	 */
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	/**
+	 * @return - sum of the durations recorded, in seconds.
+	 */
+	public double getSumSeconds()
+	{
+		return toSeconds(totalNanos.sum());
+	}
+
+	/**
+	 * @return - longest duration recorded, in seconds.
+	 */
+	public double getMaxSeconds()
+	{
+		return toSeconds(maxNanos.get());
+	}
+
+	/**
+	 * Estimate quantiles of the durations recorded.
+	 *
+	 * @param quantiles - quantiles between 0 and 1, in ascending order.
+	 * @return - upper bound of the bucket holding each quantile, in seconds,
+	 *         0 for each if nothing was recorded.
+	 */
+	public double[] getQuantileSeconds( double... quantiles )
+	{
+		double[] values = new double[quantiles.length];
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+
+		for ( int i = 0; i < BUCKET_COUNT; i++ )
+		{
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+
+		// Nothing recorded.
+		if (total == 0)
+		{
+			return values;
+		}
+
+		long max = maxNanos.get();
+		long seen = 0;
+		int bucket = 0;
+
+		for ( int q = 0; q < quantiles.length; q++ )
+		{
+			// Rank of the quantile, at least the first value.
+			long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+
+			while ((bucket < BUCKET_COUNT - 1) && (seen + snapshot[bucket] < rank))
+			{
+				seen += snapshot[bucket];
+				bucket++;
+			}
+
+			// No bucket bound is above the longest value.
+			values[q] = toSeconds(Math.min(upperBoundOf(bucket), max));
+		}
+
+		return values;
+	}
+
+	/**
+	 * Find the bucket of a value.
+	 */
+	static int bucketOf( long value )
+	{
+		// Values below SUB_BUCKETS have a bucket each.
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+						& (SUB_BUCKETS - 1);
+
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS)
+						+ subBucket;
+	}
+
+	/**
+	 * Find the largest value held by a bucket.
+	 */
+	static long upperBoundOf( int bucket )
+	{
+		// Values below SUB_BUCKETS have a bucket each.
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+
+		int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = bucket & (SUB_BUCKETS - 1);
+
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Convert nanoseconds to seconds.
+	 */
+	private static double toSeconds( long nanos )
+	{
+		return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+	}
+}
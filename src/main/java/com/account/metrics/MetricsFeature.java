@@ -0,0 +1,33 @@
+package com.account.metrics;
+
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Binds a MetricsFilter to every resource method, so each method has its
+ * own latency histogram and response counters without a lookup per
+ * request.
+ */
+@Provider
+public class MetricsFeature implements DynamicFeature
+{
+	/**
+	 * Bind the filter of a resource method, unless metrics are disabled.
+	 */
+	public void configure( ResourceInfo resourceInfo, FeatureContext context )
+	{
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+
+		// Metrics disabled, requests are not timed.
+		if (!registry.isEnabled())
+		{
+			return;
+		}
+
+		context.register(new MetricsFilter(registry, resourceInfo
+						.getResourceClass().getSimpleName(), resourceInfo
+						.getResourceMethod().getName()));
+	}
+}
@@ -0,0 +1,102 @@
+package com.account.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+/**
+ * Times the requests of one resource method and counts its responses by
+ * status class.
+ *
+ * The time runs from the request filter to the response filter, so a
+ * suspended method is timed until its response is resumed, including the
+ * time its work waited for the service executor.
+ */
+final class MetricsFilter implements ContainerRequestFilter,
+				ContainerResponseFilter
+{
+	private static final String DURATION = "http_request_duration_seconds";
+	private static final String DURATION_HELP = "Time from receiving a request to sending its response, by resource method.";
+	private static final String REQUESTS = "http_requests_total";
+	private static final String REQUESTS_HELP = "Responses sent, by resource method and status class.";
+
+	// Request property holding the start time.
+	private static final String START_NANOS = MetricsFilter.class.getName()
+					+ ".start";
+
+	private final MetricsRegistry registry;
+	private final String resource;
+	private final String method;
+	private final LatencyHistogram duration;
+
+	// Response counters by status / 100, created on first use.
+	private final AtomicReferenceArray<LongAdder> responses = new AtomicReferenceArray<LongAdder>(
+					6);
+
+	/**
+	 * Metrics filter constructor.
+	 *
+	 * @param registry - registry of the metrics.
+	 * @param resource - resource class name.
+	 * @param method - resource method name.
+	 */
+	MetricsFilter( MetricsRegistry registry, String resource, String method )
+	{
+		this.registry = registry;
+		this.resource = resource;
+		this.method = method;
+		this.duration = registry.histogram(DURATION, DURATION_HELP,
+						MetricsRegistry.labels("resource", resource, "method",
+										method));
+	}
+
+	/**
+	 * Record the start of a request.
+	 */
+	public void filter( ContainerRequestContext requestContext )
+	{
+		requestContext.setProperty(START_NANOS, System.nanoTime());
+	}
+
+	/**
+	 * Record the duration and status of a response.
+	 */
+	public void filter( ContainerRequestContext requestContext,
+					ContainerResponseContext responseContext )
+	{
+		Object start = requestContext.getProperty(START_NANOS);
+
+		// Rejected before the request filter ran.
+		if (start instanceof Long)
+		{
+			duration.recordSince((Long) start);
+		}
+
+		responsesOf(responseContext.getStatus() / 100).increment();
+	}
+
+	/**
+	 * Find the response counter of a status class.
+	 */
+	private LongAdder responsesOf( int statusClass )
+	{
+		int index = ((statusClass >= 1) && (statusClass <= 5)) ? statusClass : 0;
+		LongAdder counter = responses.get(index);
+
+		// The registry returns the same counter to racing callers.
+		if (counter == null)
+		{
+			counter = registry.counter(REQUESTS, REQUESTS_HELP, MetricsRegistry
+							.labels("resource", resource, "method", method,
+											"status", (index == 0) ? "other"
+															: index + "xx"));
+			responses.set(index, counter);
+		}
+
+		return counter;
+	}
+}
@@ -0,0 +1,366 @@
+package com.account.metrics;
+
+import com.account.utils.Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the application metrics, exported in the Prometheus text
+ * format by GET /metrics.
+ *
+ * Metrics are grouped in families sharing a name, each series of a family
+ * identified by its labels. Counters and latency histograms are created on
+ * first use and then updated without locking; callers on hot paths keep
+ * the instance returned rather than looking it up each time. Gauges and
+ * function counters read values kept elsewhere when the metrics are
+ * exported, and collectors the whole family, for series that come and go.
+ * Latency histograms are exported as summaries, in seconds.
+ */
+public final class MetricsRegistry
+{
+	// Key-Value from application.properties.
+	private static final String METRICS_ENABLED = "metrics_enabled";
+
+	private static final MetricsRegistry instance = new MetricsRegistry(
+					Utils.getBooleanProperty(METRICS_ENABLED, true));
+
+	// Quantiles exported for each latency histogram.
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * Prometheus metric types.
+	 */
+	private enum Type
+	{
+		COUNTER, GAUGE, SUMMARY
+	}
+
+	private final boolean enabled;
+
+	// Families by name, exported in name order.
+	private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+	/**
+	 * Metrics registry constructor.
+	 *
+	 * @param enabled - false if requests and DAO calls are not to be timed.
+	 */
+	MetricsRegistry( boolean enabled )
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Obtain the registry used by the application.
+	 *
+	 * @return - metrics registry.
+	 */
+	public static MetricsRegistry getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * @return - true if requests and DAO calls are timed, set by
+	 *         metrics_enabled in application.properties.
+	 */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Obtain a counter, creating it on first use.
+	 *
+	 * @param name - family name.
+	 * @param help - family description.
+	 * @param labels - series labels, from {@link #labels}.
+	 * @return - counter.
+	 */
+	public LongAdder counter( String name, String help, String labels )
+	{
+		return (LongAdder) family(name, help, Type.COUNTER).series(labels);
+	}
+
+	/**
+	 * Obtain a latency histogram, creating it on first use.
+	 *
+	 * @param name - family name, in seconds.
+	 * @param help - family description.
+	 * @param labels - series labels, from {@link #labels}.
+	 * @return - latency histogram.
+	 */
+	public LatencyHistogram histogram( String name, String help, String labels )
+	{
+		return (LatencyHistogram) family(name, help, Type.SUMMARY).series(
+						labels);
+	}
+
+	/**
+	 * Register a gauge, replacing any with the same name and labels.
+	 *
+	 * @param name - family name.
+	 * @param help - family description.
+	 * @param labels - series labels, from {@link #labels}.
+	 * @param gauge - current value.
+	 */
+	public void gauge( String name, String help, String labels, Gauge gauge )
+	{
+		family(name, help, Type.GAUGE).series.put(labels, gauge);
+	}
+
+	/**
+	 * Register a counter kept elsewhere, replacing any with the same name and
+	 * labels.
+	 *
+	 * @param name - family name.
+	 * @param help - family description.
+	 * @param labels - series labels, from {@link #labels}.
+	 * @param counter - current count.
+	 */
+	public void functionCounter( String name, String help, String labels,
+					Gauge counter )
+	{
+		family(name, help, Type.COUNTER).series.put(labels, counter);
+	}
+
+	/**
+	 * Register a collector of gauges, replacing any with the same name. Its
+	 * series are exported after any registered under the name otherwise.
+	 *
+	 * @param name - family name.
+	 * @param help - family description.
+	 * @param collector - current series.
+	 */
+	public void gaugeCollector( String name, String help, Collector collector )
+	{
+		family(name, help, Type.GAUGE).collector = collector;
+	}
+
+	/**
+	 * Build the labels of a series.
+	 *
+	 * @param namesAndValues - label names each followed by its value.
+	 * @return - labels in the Prometheus format, without braces.
+	 */
+	public static String labels( String... namesAndValues )
+	{
+		StringBuilder labels = new StringBuilder();
+
+		for ( int i = 0; i + 1 < namesAndValues.length; i += 2 )
+		{
+			if (labels.length() > 0)
+			{
+				labels.append(',');
+			}
+
+			labels.append(namesAndValues[i]).append("=\"");
+
+			// Escape the value.
+			String value = String.valueOf(namesAndValues[i + 1]);
+
+			for ( int c = 0; c < value.length(); c++ )
+			{
+				char ch = value.charAt(c);
+
+				if (ch == '\\' || ch == '"')
+				{
+					labels.append('\\').append(ch);
+				}
+				else if (ch == '\n')
+				{
+					labels.append("\\n");
+				}
+				else
+				{
+					labels.append(ch);
+				}
+			}
+
+			labels.append('"');
+		}
+
+		return labels.toString();
+	}
+
+	/**
+	 * Export every metric in the Prometheus text format, version 0.0.4.
+	 *
+	 * @return - metrics text.
+	 */
+	public String toPrometheus()
+	{
+		StringBuilder out = new StringBuilder(8192);
+
+		for ( Family family : families.values() )
+		{
+			Map<String, Double> collected = new LinkedHashMap<String, Double>();
+
+			// Series of the collector, read once.
+			if (family.collector != null)
+			{
+				family.collector.collect(collected);
+			}
+
+			// Nothing registered yet.
+			if (family.series.isEmpty() && collected.isEmpty())
+			{
+				continue;
+			}
+
+			out.append("# HELP ").append(family.name).append(' ')
+							.append(family.help).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ')
+							.append(family.type.name().toLowerCase()).append('\n');
+
+			for ( Map.Entry<String, Object> series : family.series.entrySet() )
+			{
+				write(out, family.name, series.getKey(), series.getValue());
+			}
+
+			for ( Map.Entry<String, Double> series : collected.entrySet() )
+			{
+				sample(out, family.name, series.getKey(), null, series.getValue());
+			}
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * Write one series.
+	 */
+	private static void write( StringBuilder out, String name, String labels,
+					Object metric )
+	{
+		// Counter updated in place.
+		if (metric instanceof LongAdder)
+		{
+			sample(out, name, labels, null, ((LongAdder) metric).sum());
+		}
+		// Gauge or counter kept elsewhere.
+		else if (metric instanceof Gauge)
+		{
+			sample(out, name, labels, null, ((Gauge) metric).getValue());
+		}
+		// Latency histogram, as a summary.
+		else
+		{
+			LatencyHistogram histogram = (LatencyHistogram) metric;
+
+			// Count first, so the quantiles cover at least the values counted.
+			long count = histogram.getCount();
+			double sum = histogram.getSumSeconds();
+			double[] values = histogram.getQuantileSeconds(QUANTILES);
+
+			for ( int q = 0; q < QUANTILES.length; q++ )
+			{
+				sample(out, name, labels, "quantile=\"" + QUANTILES[q] + "\"",
+								values[q]);
+			}
+
+			sample(out, name + "_sum", labels, null, sum);
+			sample(out, name + "_count", labels, null, count);
+		}
+	}
+
+	/**
+	 * Write one sample line.
+	 */
+	private static void sample( StringBuilder out, String name, String labels,
+					String extraLabel, Object value )
+	{
+		out.append(name);
+
+		if (!labels.isEmpty() || (extraLabel != null))
+		{
+			out.append('{').append(labels);
+
+			if (extraLabel != null)
+			{
+				out.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+			}
+
+			out.append('}');
+		}
+
+		out.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Find or create a family.
+	 */
+	private Family family( String name, String help, Type type )
+	{
+		Family family = families.get(name);
+
+		if (family == null)
+		{
+			Family created = new Family(name, help, type);
+
+			family = families.putIfAbsent(name, created);
+
+			if (family == null)
+			{
+				family = created;
+			}
+		}
+
+		// A name holds one type of metric only.
+		if (family.type != type)
+		{
+			throw new IllegalArgumentException("Metric " + name
+							+ " is already registered as " + family.type);
+		}
+
+		return family;
+	}
+
+	/**
+	 * Metrics sharing a name, by labels.
+	 */
+	private static final class Family
+	{
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final ConcurrentMap<String, Object> series = new ConcurrentSkipListMap<String, Object>();
+		private volatile Collector collector;
+
+		private Family( String name, String help, Type type )
+		{
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		/**
+		 * Find the series with the labels, creating a counter or histogram
+		 * for the family type if absent.
+		 */
+		private Object series( String labels )
+		{
+			Object existing = series.get(labels);
+
+			// Create once only.
+			if (existing == null)
+			{
+				Object created = (type == Type.SUMMARY) ? new LatencyHistogram()
+								: new LongAdder();
+
+				existing = series.putIfAbsent(labels, created);
+
+				if (existing == null)
+				{
+					existing = created;
+				}
+			}
+
+			return existing;
+		}
+	}
+}
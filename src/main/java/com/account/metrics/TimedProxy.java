@@ -0,0 +1,140 @@
+package com.account.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dynamic proxy timing every call made through an interface, such as a
+ * Data Access Object.
+ *
+ * Each interface method gets a latency histogram and an error counter,
+ * labelled with the interface and method names, created when the proxy is.
+ * Calls are passed to the target unchanged, and exceptions it throws are
+ * rethrown as they are.
+ */
+public final class TimedProxy implements InvocationHandler
+{
+	private static final String DURATION = "dao_call_duration_seconds";
+	private static final String DURATION_HELP = "Time spent in Data Access Object calls.";
+	private static final String ERRORS = "dao_call_errors_total";
+	private static final String ERRORS_HELP = "Data Access Object calls that threw an exception.";
+
+	private final Object target;
+	private final CallObserver observer;
+
+	// Metrics of each interface method, read only once built.
+	private final Map<Method, LatencyHistogram> durations = new HashMap<Method, LatencyHistogram>();
+	private final Map<Method, LongAdder> errors = new HashMap<Method, LongAdder>();
+
+	/**
+	 * Timed proxy handler constructor.
+	 */
+	private TimedProxy( Class<?> type, Object target, CallObserver observer,
+					MetricsRegistry registry )
+	{
+		this.target = target;
+		this.observer = observer;
+
+		for ( Method method : type.getMethods() )
+		{
+			String labels = MetricsRegistry.labels("dao", type.getSimpleName(),
+							"method", method.getName());
+
+			durations.put(method,
+							registry.histogram(DURATION, DURATION_HELP, labels));
+			errors.put(method, registry.counter(ERRORS, ERRORS_HELP, labels));
+		}
+	}
+
+	/**
+	 * Wrap an object so that calls through an interface are timed, unless
+	 * metrics are disabled.
+	 *
+	 * @param type - interface to time.
+	 * @param target - object implementing it.
+	 * @param observer - observer of every call, or null.
+	 * @return - timing proxy, or the target itself if metrics are disabled.
+	 */
+	public static <T> T wrap( Class<T> type, T target, CallObserver observer )
+	{
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+
+		// Metrics disabled, call the target directly.
+		if (!registry.isEnabled())
+		{
+			return target;
+		}
+
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+						new Class<?>[] { type }, new TimedProxy(type, target,
+										observer, registry)));
+	}
+
+	/**
+	 * Call the target, timing interface methods.
+	 */
+	public Object invoke( Object proxy, Method method, Object[] args )
+					throws Throwable
+	{
+		LatencyHistogram duration = durations.get(method);
+
+		// Object methods are not timed.
+		if (duration == null)
+		{
+			return call(method, args);
+		}
+
+		long start = System.nanoTime();
+		Object result = null;
+		Throwable error = null;
+
+		try
+		{
+			result = call(method, args);
+
+			return result;
+		}
+		// Count the failure and rethrow it.
+		catch (Throwable t)
+		{
+			error = t;
+
+			throw t;
+		}
+		finally
+		{
+			duration.recordSince(start);
+
+			if (error != null)
+			{
+				errors.get(method).increment();
+			}
+
+			if (observer != null)
+			{
+				observer.observe(method, args, result, error);
+			}
+		}
+	}
+
+	/**
+	 * Call the target, throwing what it throws.
+	 */
+	private Object call( Method method, Object[] args ) throws Throwable
+	{
+		try
+		{
+			return method.invoke(target, args);
+		}
+		// Unwrap the exception thrown by the target.
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.account.metrics;
+
+import com.account.exception.TransferException;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the outcomes of the transfers made through the account DAO, by
+ * observing its transferAccountBalance and transferAccountBalances calls.
+ *
+ * Outcomes are labelled ok, insufficient_funds, ccy_mismatch for a
+ * transaction currency that is invalid or does not match the accounts,
+ * account_not_found, lock_fail when an account stayed locked by another
+ * transaction for longer than the lock timeout, invalid_request, and
+ * failed for other database failures.
+ */
+public final class TransferMetrics implements CallObserver
+{
+	private static final String TRANSFERS = "transfers_total";
+	private static final String TRANSFERS_HELP = "Transfers made through the account DAO, by outcome.";
+
+	private static final String SINGLE_TRANSFER = "transferAccountBalance";
+	private static final String BATCH_TRANSFER = "transferAccountBalances";
+
+	// Counter of each outcome.
+	private final Map<TransferStatus, LongAdder> outcomes = new EnumMap<TransferStatus, LongAdder>(
+					TransferStatus.class);
+
+	/**
+	 * Transfer metrics constructor, registering the outcome counters.
+	 */
+	public TransferMetrics()
+	{
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+
+		for ( TransferStatus status : TransferStatus.values() )
+		{
+			// Queued transfers have no outcome yet.
+			if (status == TransferStatus.PENDING)
+			{
+				continue;
+			}
+
+			outcomes.put(status, registry.counter(TRANSFERS, TRANSFERS_HELP,
+							MetricsRegistry.labels("outcome", outcomeOf(status))));
+		}
+	}
+
+	/**
+	 * Count the outcome of the transfers of an account DAO call.
+	 */
+	public void observe( Method method, Object[] args, Object result,
+					Throwable error )
+	{
+		String name = method.getName();
+
+		// Single transfer, rejected with its outcome or applied.
+		if (SINGLE_TRANSFER.equals(name))
+		{
+			if (error instanceof TransferException)
+			{
+				record(((TransferException) error).getStatus(), 1);
+			}
+			// Applied once both account rows are updated.
+			else if ((error == null) && Integer.valueOf(2).equals(result))
+			{
+				record(TransferStatus.OK, 1);
+			}
+			else
+			{
+				record(TransferStatus.FAILED, 1);
+			}
+		}
+		// Batch, each transfer with its own outcome.
+		else if (BATCH_TRANSFER.equals(name))
+		{
+			if (error == null)
+			{
+				for ( Object transfer : (List<?>) result )
+				{
+					record(((TransferResult) transfer).getStatus(), 1);
+				}
+			}
+			// The whole batch failed.
+			else if (args[0] instanceof List)
+			{
+				record(TransferStatus.FAILED, ((List<?>) args[0]).size());
+			}
+		}
+	}
+
+	/**
+	 * Add to the counter of an outcome.
+	 */
+	private void record( TransferStatus status, int count )
+	{
+		LongAdder counter = outcomes.get(status);
+
+		if (counter != null)
+		{
+			counter.add(count);
+		}
+	}
+
+	/**
+	 * Label of a transfer outcome.
+	 *
+	 * @param status - transfer outcome.
+	 * @return - outcome label.
+	 */
+	static String outcomeOf( TransferStatus status )
+	{
+		switch (status)
+		{
+			case INVALID_CURRENCY:
+			case CURRENCY_MISMATCH:
+			{
+				return "ccy_mismatch";
+			}
+			default:
+			{
+				return status.name().toLowerCase();
+			}
+		}
+	}
+}
@@ -48,7 +48,7 @@ public class Account
 	{
 		this.userName = userName;
 		this.balance = balance;
-		this.currencyCode = currencyCode;
+		this.currencyCode = MoneyUtil.canonicalCcyCode(currencyCode);
 	}
 
 	/**
@@ -65,7 +65,7 @@ public class Account
 		this.accountId = accountId;
 		this.userName = userName;
 		this.balance = balance;
-		this.currencyCode = currencyCode;
+		this.currencyCode = MoneyUtil.canonicalCcyCode(currencyCode);
 	}
 
 	/**
@@ -107,6 +107,18 @@ public class Account
 	{
 		return currencyCode;
 	}
+
+	/**
+	 * Set the currency code when read from JSON, keeping the interned
+	 * instance of known codes.
+	 * 
+	 * @param currencyCode - currency code.
+	 */
+	@JsonProperty( "currencyCode" )
+	private void setCurrencyCode( String currencyCode )
+	{
+		this.currencyCode = MoneyUtil.canonicalCcyCode(currencyCode);
+	}
 	
 	/**
 	 * Override the meaning of equals in comparing account details.
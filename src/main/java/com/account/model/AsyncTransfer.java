@@ -0,0 +1,133 @@
+package com.account.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Data object for a transfer submitted to /transaction/async, pending until
+ * it is applied and then holding its outcome.
+ */
+public class AsyncTransfer
+{
+
+	// Transfer id, to poll the outcome with.
+	@JsonProperty( required = true )
+	private long transferId;
+
+	// From account id.
+	@JsonProperty( required = true )
+	private Long fromAccountId;
+
+	// To account id.
+	@JsonProperty( required = true )
+	private Long toAccountId;
+
+	// Transfer outcome, PENDING until applied.
+	@JsonProperty( required = true )
+	private TransferStatus status;
+
+	// Reason for failure, null when pending or successful.
+	@JsonProperty
+	private String message;
+
+	/**
+	 * Async transfer constructor.
+	 */
+	public AsyncTransfer()
+	{
+	}
+
+	/**
+	 * Async transfer constructor with details.
+	 * 
+	 * @param transferId - transfer id.
+	 * @param fromAccountId - from account id.
+	 * @param toAccountId - to account id.
+	 * @param status - transfer outcome.
+	 * @param message - reason for failure.
+	 */
+	public AsyncTransfer( long transferId, Long fromAccountId,
+					Long toAccountId, TransferStatus status, String message )
+	{
+		this.transferId = transferId;
+		this.fromAccountId = fromAccountId;
+		this.toAccountId = toAccountId;
+		this.status = status;
+		this.message = message;
+	}
+
+	/**
+	 * Create this transfer with its outcome.
+	 * 
+	 * @param status - transfer outcome.
+	 * @param message - reason for failure.
+	 * @return - completed transfer.
+	 */
+	public AsyncTransfer complete( TransferStatus status, String message )
+	{
+		return new AsyncTransfer(transferId, fromAccountId, toAccountId,
+						status, message);
+	}
+
+	/**
+	 * Retrieve the transfer id.
+	 * 
+	 * @return - transfer id.
+	 */
+	public long getTransferId()
+	{
+		return transferId;
+	}
+
+	/**
+	 * Retrieve from account id.
+	 * 
+	 * @return - from account id.
+	 */
+	public Long getFromAccountId()
+	{
+		return fromAccountId;
+	}
+
+	/**
+	 * Retrieve to account id.
+	 * 
+	 * @return - to account id.
+	 */
+	public Long getToAccountId()
+	{
+		return toAccountId;
+	}
+
+	/**
+	 * Retrieve the transfer outcome.
+	 * 
+	 * @return - transfer status, PENDING until applied.
+	 */
+	public TransferStatus getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Retrieve the failure reason.
+	 * 
+	 * @return - message, null when pending or successful.
+	 */
+	public String getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Print async transfer details.
+	 */
+	@Override
+	public String toString()
+	{
+		return "AsyncTransfer{" + "transferId=" + transferId
+						+ ", fromAccountId=" + fromAccountId + ", toAccountId="
+						+ toAccountId + ", status=" + status + ", message='"
+						+ message + '\'' + '}';
+	}
+
+}
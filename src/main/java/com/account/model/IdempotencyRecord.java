@@ -0,0 +1,156 @@
+package com.account.model;
+
+/**
+ * Data object for a request made with an idempotency key, and its outcome
+ * once the request has completed.
+ */
+public class IdempotencyRecord
+{
+	// Status of a request still in progress.
+	public static final int PENDING = 0;
+
+	// Key supplied by the client.
+	private final String key;
+
+	// Request parameters, compared with a retry using the same key.
+	private final String fingerprint;
+
+	// HTTP status of the response, PENDING while in progress.
+	private final int status;
+
+	// Reason for failure, null when successful.
+	private final String message;
+
+	// Time the key was first used, in milliseconds.
+	private final long createdAt;
+
+	/**
+	 * Idempotency record constructor.
+	 *
+	 * @param key - idempotency key.
+	 * @param fingerprint - request parameters.
+	 * @param status - HTTP status of the response, PENDING while in progress.
+	 * @param message - reason for failure.
+	 * @param createdAt - time the key was first used, in milliseconds.
+	 */
+	public IdempotencyRecord( String key, String fingerprint, int status,
+					String message, long createdAt )
+	{
+		this.key = key;
+		this.fingerprint = fingerprint;
+		this.status = status;
+		this.message = message;
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * Create the record of a request now in progress.
+	 *
+	 * @param key - idempotency key.
+	 * @param fingerprint - request parameters.
+	 * @return - pending record.
+	 */
+	public static IdempotencyRecord pending( String key, String fingerprint )
+	{
+		return new IdempotencyRecord(key, fingerprint, PENDING, null,
+						System.currentTimeMillis());
+	}
+
+	/**
+	 * Create the record of this request once completed.
+	 *
+	 * @param status - HTTP status of the response.
+	 * @param message - reason for failure, null when successful.
+	 * @return - completed record.
+	 */
+	public IdempotencyRecord complete( int status, String message )
+	{
+		return new IdempotencyRecord(key, fingerprint, status, message,
+						createdAt);
+	}
+
+	/**
+	 * Retrieve the idempotency key.
+	 *
+	 * @return - idempotency key.
+	 */
+	public String getKey()
+	{
+		return key;
+	}
+
+	/**
+	 * Retrieve the request parameters.
+	 *
+	 * @return - request fingerprint.
+	 */
+	public String getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	/**
+	 * Retrieve the HTTP status of the response.
+	 *
+	 * @return - status, PENDING while in progress.
+	 */
+	public int getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Retrieve the failure reason.
+	 *
+	 * @return - message, null when successful.
+	 */
+	public String getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Retrieve the time the key was first used.
+	 *
+	 * @return - creation time in milliseconds.
+	 */
+	public long getCreatedAt()
+	{
+		return createdAt;
+	}
+
+	/**
+	 * Check whether the request has completed.
+	 *
+	 * @return - true if the outcome is known.
+	 */
+	public boolean isCompleted()
+	{
+		return status != PENDING;
+	}
+
+	/**
+	 * Check whether the key has outlived its time to live.
+	 *
+	 * @param ttlMillis - time to live of a key, in milliseconds.
+	 * @param now - current time, in milliseconds.
+	 * @return - true if the key may be used again.
+	 */
+	public boolean isExpired( long ttlMillis, long now )
+	{
+		return (now - createdAt) > ttlMillis;
+	}
+
+	/**
+	 * Print idempotency record details.
+	 */
+	@Override
+	public String toString()
+	{
+		return "IdempotencyRecord{" + "key='" + key + '\'' + ", fingerprint='"
+						+ fingerprint + '\'' + ", status=" + status
+						+ ", message='" + message + '\'' + ", createdAt="
+						+ createdAt + '}';
+	}
+
+}
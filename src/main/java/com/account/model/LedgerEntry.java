@@ -0,0 +1,162 @@
+package com.account.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Data object for one leg of the account ledger.
+ *
+ * A transfer writes two legs, a debit of the source and a credit of the
+ * destination, each naming the other account. A deposit or withdrawal
+ * writes one leg with no counter account. Legs are never changed once
+ * written.
+ */
+public class LedgerEntry
+{
+	// Ledger id, in the order the legs were written.
+	@JsonProperty( required = true )
+	private long ledgerId;
+
+	// Account the leg applies to.
+	@JsonProperty( required = true )
+	private long accountId;
+
+	// Other account of a transfer, null for a deposit or withdrawal.
+	@JsonProperty
+	private Long counterAccountId;
+
+	// Amount credited (greater than 0) or debited (less than 0).
+	@JsonProperty( required = true )
+	private BigDecimal amount;
+
+	// Account balance after the leg, null if not known.
+	@JsonProperty
+	private BigDecimal balance;
+
+	// Account currency code.
+	@JsonProperty( required = true )
+	private String currencyCode;
+
+	// Time the leg was written.
+	@JsonProperty( required = true )
+	private Date createdAt;
+
+	/**
+	 * Ledger entry constructor.
+	 */
+	public LedgerEntry()
+	{
+	}
+
+	/**
+	 * Ledger entry constructor with details.
+	 *
+	 * @param ledgerId - ledger id.
+	 * @param accountId - account the leg applies to.
+	 * @param counterAccountId - other account of a transfer, or null.
+	 * @param amount - amount credited or debited.
+	 * @param balance - account balance after the leg, or null.
+	 * @param currencyCode - account currency code.
+	 * @param createdAt - time the leg was written.
+	 */
+	public LedgerEntry( long ledgerId, long accountId, Long counterAccountId,
+					BigDecimal amount, BigDecimal balance, String currencyCode,
+					Date createdAt )
+	{
+		this.ledgerId = ledgerId;
+		this.accountId = accountId;
+		this.counterAccountId = counterAccountId;
+		this.amount = amount;
+		this.balance = balance;
+		this.currencyCode = currencyCode;
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * Retrieve the ledger id.
+	 *
+	 * @return - ledger id.
+	 */
+	public long getLedgerId()
+	{
+		return ledgerId;
+	}
+
+	/**
+	 * Retrieve the account id.
+	 *
+	 * @return - account id.
+	 */
+	public long getAccountId()
+	{
+		return accountId;
+	}
+
+	/**
+	 * Retrieve the counter account id.
+	 *
+	 * @return - other account of a transfer, null for a deposit or
+	 *         withdrawal.
+	 */
+	public Long getCounterAccountId()
+	{
+		return counterAccountId;
+	}
+
+	/**
+	 * Retrieve the amount.
+	 *
+	 * @return - amount credited (greater than 0) or debited (less than 0).
+	 */
+	public BigDecimal getAmount()
+	{
+		return amount;
+	}
+
+	/**
+	 * Retrieve the balance after the leg.
+	 *
+	 * @return - account balance, null if not known, for a leg of a hot
+	 *         account whose concurrent credits were not counted.
+	 */
+	public BigDecimal getBalance()
+	{
+		return balance;
+	}
+
+	/**
+	 * Retrieve the currency code.
+	 *
+	 * @return - currency code.
+	 */
+	public String getCurrencyCode()
+	{
+		return currencyCode;
+	}
+
+	/**
+	 * Retrieve the time the leg was written.
+	 *
+	 * @return - creation time.
+	 */
+	public Date getCreatedAt()
+	{
+		return createdAt;
+	}
+
+	/**
+	 * Print ledger entry details.
+	 */
+	@Override
+	public String toString()
+	{
+		return "LedgerEntry{" + "ledgerId=" + ledgerId + ", accountId="
+						+ accountId + ", counterAccountId=" + counterAccountId
+						+ ", amount=" + amount + ", balance=" + balance
+						+ ", currencyCode='" + currencyCode + '\''
+						+ ", createdAt=" + createdAt + '}';
+	}
+
+}
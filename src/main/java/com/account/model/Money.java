@@ -0,0 +1,111 @@
+package com.account.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed point money arithmetic on long minor units.
+ *
+ * An amount is held as a long count of 1/10000ths of the currency unit,
+ * matching the DECIMAL(19,4) balance column, so 12.3456 is 123456. The
+ * arithmetic below works on plain longs and never allocates; conversion to
+ * and from BigDecimal happens only at the edges (JDBC and JSON). All
+ * operations throw ArithmeticException rather than silently overflow.
+ */
+public final class Money
+{
+	// Number of decimal places held.
+	public static final int SCALE = 4;
+
+	// Minor units in one currency unit.
+	public static final long UNITS_PER_MAJOR = 10000L;
+
+	// Zero amount.
+	public static final long ZERO = 0L;
+
+	/**
+	 * Utility class, not instantiated.
+	 */
+	private Money()
+	{
+	}
+
+	/**
+	 * Convert an amount to minor units, rounding to scale 4 with financial
+	 * rounding.
+	 *
+	 * @param amount - amount to convert.
+	 * @return - amount in minor units.
+	 * @throws ArithmeticException - if the amount does not fit in a long.
+	 */
+	public static long toMinorUnits( BigDecimal amount )
+	{
+		return amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue()
+						.longValueExact();
+	}
+
+	/**
+	 * Convert minor units to an amount with scale 4.
+	 *
+	 * @param minorUnits - amount in minor units.
+	 * @return - amount.
+	 */
+	public static BigDecimal toBigDecimal( long minorUnits )
+	{
+		return BigDecimal.valueOf(minorUnits, SCALE);
+	}
+
+	/**
+	 * Add two amounts.
+	 *
+	 * @throws ArithmeticException - on overflow.
+	 */
+	public static long add( long a, long b )
+	{
+		return Math.addExact(a, b);
+	}
+
+	/**
+	 * Subtract an amount from another.
+	 *
+	 * @throws ArithmeticException - on overflow.
+	 */
+	public static long subtract( long a, long b )
+	{
+		return Math.subtractExact(a, b);
+	}
+
+	/**
+	 * Negate an amount.
+	 *
+	 * @throws ArithmeticException - on overflow.
+	 */
+	public static long negate( long a )
+	{
+		return Math.negateExact(a);
+	}
+
+	/**
+	 * Check whether a balance can absorb a delta without going negative.
+	 *
+	 * @param balance - current balance.
+	 * @param delta - amount to be debit(less than 0)/credit(greater than 0).
+	 * @return - true if balance + delta is zero or more.
+	 * @throws ArithmeticException - on overflow.
+	 */
+	public static boolean canApply( long balance, long delta )
+	{
+		return add(balance, delta) >= ZERO;
+	}
+
+	/**
+	 * Format minor units as a plain decimal string, such as 12.3456.
+	 *
+	 * @param minorUnits - amount in minor units.
+	 * @return - formatted amount.
+	 */
+	public static String toString( long minorUnits )
+	{
+		return toBigDecimal(minorUnits).toPlainString();
+	}
+}
@@ -3,23 +3,34 @@ package com.account.model;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 
+import java.util.Collections;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.apache.log4j.Logger;
+import com.account.utils.Log;
+import com.account.utils.Utils;
 
 /**
  * Utilities class to operate on money
  */
-public enum MoneyUtil 
+public enum MoneyUtil
 {
 	INSTANCE;
 
-	static Logger log = Logger.getLogger(MoneyUtil.class);
+	static Log log = Log.getLog(MoneyUtil.class);
 
 	// Zero amount with scale 4 and financial rounding mode
 	public static final BigDecimal zeroAmount = new BigDecimal(0).setScale(4,
 					RoundingMode.HALF_EVEN);
 
+	// Comma separated currency codes accepted, all ISO codes if not set.
+	private static final String CURRENCY_ALLOW_LIST = Utils
+					.getStringProperty("currency_allow_list");
+
+	// Accepted currency codes, each mapped to its interned instance.
+	private static final Map<String, String> currencyCodes = loadCurrencyCodes();
+
 	/**
 	 * @param inputCcyCode - String Currency code to be validated
 	 * @return - true if currency code is valid ISO code, false otherwise
@@ -27,26 +38,85 @@ public enum MoneyUtil
 	public boolean validateCcyCode( String inputCcyCode )
 	{
 		// Validate currency code.
-		try
+		boolean valid = (inputCcyCode != null)
+						&& currencyCodes.containsKey(inputCcyCode);
+
+		// If validation failed, output message to log
+		if (!valid)
 		{
-			Currency instance = Currency.getInstance(inputCcyCode);
-			
-			// If debug is enabled, output message to log
-			if (log.isDebugEnabled())
-			{
-				log.debug("Validate Currency Code: " + instance.getSymbol());
-			}
-			
-			// Return valid currency code.			
-			return instance.getCurrencyCode().equals(inputCcyCode);
+			log.debug("Validate Currency Code, Validation Failed: {}",
+							inputCcyCode);
+		}
+
+		return valid;
+	}
+
+	/**
+	 * Retrieve the interned instance of a currency code, so that codes read
+	 * from the database and from requests usually compare by reference.
+	 *
+	 * @param inputCcyCode - currency code.
+	 * @return - interned currency code, or the input if it is not accepted.
+	 */
+	public static String canonicalCcyCode( String inputCcyCode )
+	{
+		// Nothing to look up.
+		if (inputCcyCode == null)
+		{
+			return null;
+		}
+
+		String code = currencyCodes.get(inputCcyCode);
+
+		return (code != null) ? code : inputCcyCode;
+	}
+
+	/**
+	 * Build the table of accepted currency codes, from the ISO codes known to
+	 * the JVM, restricted to the allow list if configured.
+	 *
+	 * @return - immutable map of each accepted code to its interned instance.
+	 */
+	private static Map<String, String> loadCurrencyCodes()
+	{
+		Map<String, String> isoCodes = new HashMap<String, String>();
+
+		for ( Currency currency : Currency.getAvailableCurrencies() )
+		{
+			String code = currency.getCurrencyCode().intern();
+
+			isoCodes.put(code, code);
+		}
+
+		// If no allow list is configured, accept every ISO code.
+		if ((CURRENCY_ALLOW_LIST == null)
+						|| CURRENCY_ALLOW_LIST.trim().isEmpty())
+		{
+			return Collections.unmodifiableMap(isoCodes);
 		}
-		// Currency code failure exception.
-		catch (Exception e)
+
+		Map<String, String> allowed = new HashMap<String, String>();
+
+		for ( String entry : CURRENCY_ALLOW_LIST.split(",") )
 		{
-			log.warn("Cannot parse the input Currency Code, Validation Failed: ", e);
+			String code = isoCodes.get(entry.trim());
+
+			// Codes that are not ISO codes are ignored.
+			if (code == null)
+			{
+				log.warn("loadCurrencyCodes(): ignoring unknown currency code in allow list: {}",
+								entry.trim());
+			}
+			else
+			{
+				allowed.put(code, code);
+			}
 		}
-		
-		return false;
+
+		log.info("loadCurrencyCodes(): accepted currency codes: {}",
+						allowed.keySet());
+
+		return Collections.unmodifiableMap(allowed);
 	}
 
 }
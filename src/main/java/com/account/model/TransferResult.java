@@ -0,0 +1,101 @@
+package com.account.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Data object for the outcome of one transfer within a batch.
+ */
+public class TransferResult
+{
+
+	// From account id.
+	@JsonProperty( required = true )
+	private Long fromAccountId;
+
+	// To account id.
+	@JsonProperty( required = true )
+	private Long toAccountId;
+
+	// Transfer outcome.
+	@JsonProperty( required = true )
+	private TransferStatus status;
+
+	// Reason for failure, null when successful.
+	@JsonProperty
+	private String message;
+
+	/**
+	 * Transfer result constructor.
+	 */
+	public TransferResult()
+	{
+	}
+
+	/**
+	 * Transfer result constructor with details.
+	 * 
+	 * @param transaction - transfer the result applies to.
+	 * @param status - transfer outcome.
+	 * @param message - reason for failure.
+	 */
+	public TransferResult( UserTransaction transaction, TransferStatus status,
+					String message )
+	{
+		this.fromAccountId = transaction.getFromAccountId();
+		this.toAccountId = transaction.getToAccountId();
+		this.status = status;
+		this.message = message;
+	}
+
+	/**
+	 * Retrieve from account id.
+	 * 
+	 * @return - from account id.
+	 */
+	public Long getFromAccountId()
+	{
+		return fromAccountId;
+	}
+
+	/**
+	 * Retrieve to account id.
+	 * 
+	 * @return - to account id.
+	 */
+	public Long getToAccountId()
+	{
+		return toAccountId;
+	}
+
+	/**
+	 * Retrieve the transfer outcome.
+	 * 
+	 * @return - transfer status.
+	 */
+	public TransferStatus getStatus()
+	{
+		return status;
+	}
+
+	/**
+	 * Retrieve the failure reason.
+	 * 
+	 * @return - message, null when successful.
+	 */
+	public String getMessage()
+	{
+		return message;
+	}
+
+	/**
+	 * Print transfer result details.
+	 */
+	@Override
+	public String toString()
+	{
+		return "TransferResult{" + "fromAccountId=" + fromAccountId
+						+ ", toAccountId=" + toAccountId + ", status=" + status
+						+ ", message='" + message + '\'' + '}';
+	}
+
+}
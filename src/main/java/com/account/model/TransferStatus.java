@@ -0,0 +1,35 @@
+package com.account.model;
+
+/**
+ * Outcome of a single transfer.
+ */
+public enum TransferStatus
+{
+	// Transfer applied.
+	OK,
+
+	// Source account balance would go negative.
+	INSUFFICIENT_FUNDS,
+
+	// Transaction currency is not a valid ISO currency code.
+	INVALID_CURRENCY,
+
+	// Source, destination and transaction currencies differ.
+	CURRENCY_MISMATCH,
+
+	// Source or destination account does not exist.
+	ACCOUNT_NOT_FOUND,
+
+	// Missing fields, non-positive amount, or source equals destination.
+	INVALID_REQUEST,
+
+	// Source or destination account locked by another transaction for
+	// longer than the lock timeout, the transfer was rolled back.
+	LOCK_FAIL,
+
+	// Database failure, the transfer was rolled back.
+	FAILED,
+
+	// Queued by /transaction/async, not yet applied.
+	PENDING
+}
@@ -41,7 +41,7 @@ public class UserTransaction
 	public UserTransaction( String currencyCode, BigDecimal amount,
 					Long fromAccountId, Long toAccountId )
 	{
-		this.currencyCode = currencyCode;
+		this.currencyCode = MoneyUtil.canonicalCcyCode(currencyCode);
 		this.amount = amount;
 		this.fromAccountId = fromAccountId;
 		this.toAccountId = toAccountId;
@@ -57,6 +57,18 @@ public class UserTransaction
 		return currencyCode;
 	}
 
+	/**
+	 * Set the currency code when read from JSON, keeping the interned
+	 * instance of known codes.
+	 * 
+	 * @param currencyCode - currency code.
+	 */
+	@JsonProperty( "currencyCode" )
+	private void setCurrencyCode( String currencyCode )
+	{
+		this.currencyCode = MoneyUtil.canonicalCcyCode(currencyCode);
+	}
+
 	/**
 	 * Retrieve account amount.
 	 * 
@@ -1,102 +1,245 @@
 package com.account.service;
 
+import com.account.dao.AccountDAO;
 import com.account.dao.DAOFactory;
+import com.account.dao.RowHandler;
 import com.account.exception.CustomException;
 import com.account.model.Account;
-import com.account.model.MoneyUtil;
-
-import org.apache.log4j.Logger;
+import com.account.model.LedgerEntry;
+import com.account.model.Money;
+import com.account.utils.Log;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Account Service
+ * 
+ * Resource methods are suspended, their work is run by ServiceExecutor.
  */
 @Path( "/account" )
 @Produces( MediaType.APPLICATION_JSON )
 public class AccountService
 {
-	private static Logger log = Logger.getLogger(AccountService.class);
+	private static Log log = Log.getLog(AccountService.class);
+	
+	// Most balance slots an account can have.
+	private static final int MAX_BALANCE_SLOTS = 256;
 	
-	private final DAOFactory daoFactory = DAOFactory.getDAOFactory(DAOFactory.DATA);
+	private final DAOFactory daoFactory = DAOFactory.getDAOFactory();
 
 	/**
-	 * Find all accounts
+	 * Find all accounts, or a page of accounts in account id order.
+	 * 
+	 * Without parameters every account is returned. With "after" or "limit"
+	 * a page is returned, and the X-Next-After header is set when more
+	 * accounts may follow. With "stream" the accounts are written as they are
+	 * read, "limit" then defaults to no limit.
 	 * 
-	 * @return - all account details
-	 * @throws CustomException
+	 * @param after - last account id of the previous page.
+	 * @param limit - maximum number of accounts to return.
+	 * @param stream - write accounts as they are read.
+	 * @param asyncResponse - resumed with the account details.
 	 */
 	@GET
 	@Path( "/all" )
-	public List<Account> getAllAccounts() throws CustomException
+	public void getAllAccounts(
+					@QueryParam( "after" ) @DefaultValue( "0" ) final long after,
+					@QueryParam( "limit" ) @DefaultValue( "0" ) final int limit,
+					@QueryParam( "stream" ) @DefaultValue( "false" ) final boolean stream,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		return daoFactory.getAccountDAO().getAllAccounts();
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
+		{
+			public Response call() throws CustomException
+			{
+				return getAllAccounts(after, limit, stream);
+			}
+		});
+	}
+
+	/**
+	 * Find all accounts, or a page of accounts.
+	 */
+	private Response getAllAccounts( final long after, final int limit,
+					boolean stream ) throws CustomException
+	{
+		Paging.check(after, limit);
+		
+		final AccountDAO accountDAO = daoFactory.getAccountDAO();
+		
+		// Write accounts as they are read.
+		if (stream)
+		{
+			return Response.ok(new JsonArrayOutput<Account>()
+			{
+				protected void stream( RowHandler<Account> handler )
+								throws CustomException
+				{
+					accountDAO.streamAccounts(after, limit, handler);
+				}
+			}).build();
+		}
+		
+		// No paging requested, return every account.
+		if ((after == 0) && (limit == 0))
+		{
+			return Response.ok(new GenericEntity<List<Account>>(
+							accountDAO.getAllAccounts())
+			{
+			}).build();
+		}
+		
+		int pageLimit = Paging.pageLimit(limit);
+		List<Account> accounts = accountDAO.getAccounts(after, pageLimit);
+		
+		Response.ResponseBuilder builder = Response
+						.ok(new GenericEntity<List<Account>>(accounts)
+						{
+						});
+		
+		// A full page, more accounts may follow.
+		if (accounts.size() == pageLimit)
+		{
+			builder.header(Paging.NEXT_AFTER_HEADER,
+							accounts.get(pageLimit - 1).getAccountId());
+		}
+		
+		return builder.build();
 	}
 
 	/**
 	 * Find by account id
 	 * 
 	 * @param accountId - account id
-	 * @return - account object details.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the account object details.
 	 */
 	@GET
 	@Path( "/{accountId}" )
-	public Account getAccount( @PathParam( "accountId" ) long accountId )
-					throws CustomException
+	public void getAccount( @PathParam( "accountId" ) final long accountId,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		return daoFactory.getAccountDAO().getAccountById(accountId);
+		ServiceExecutor.run(asyncResponse, new Callable<Account>()
+		{
+			public Account call() throws CustomException
+			{
+				return daoFactory.getAccountDAO().getAccountById(accountId);
+			}
+		});
 	}
 
 	/**
-	 * Find balance by account Id
+	 * Find a page of an account's ledger legs, oldest first.
+	 * 
+	 * The X-Next-After header is set to the ledger id of the last leg when
+	 * the page is full, to be passed as "after" for the next page.
 	 * 
 	 * @param accountId - account id
-	 * @return - account balance
-	 * @throws CustomException
+	 * @param after - last ledger id of the previous page.
+	 * @param limit - maximum number of legs to return.
+	 * @param asyncResponse - resumed with the ledger legs.
 	 */
 	@GET
-	@Path( "/{accountId}/balance" )
-	public BigDecimal getBalance( @PathParam( "accountId" ) long accountId )
-					throws CustomException
+	@Path( "/{accountId}/history" )
+	public void getHistory( @PathParam( "accountId" ) final long accountId,
+					@QueryParam( "after" ) @DefaultValue( "0" ) final long after,
+					@QueryParam( "limit" ) @DefaultValue( "0" ) final int limit,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		// Retrieve account details from account data table.
-		final Account account = daoFactory.getAccountDAO().getAccountById(
-						accountId);
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
+		{
+			public Response call() throws CustomException
+			{
+				return getHistory(accountId, after, limit);
+			}
+		});
+	}
 
-		// If account is null, throw exception.
-		if (account == null)
+	/**
+	 * Find a page of an account's ledger legs.
+	 */
+	private Response getHistory( long accountId, long after, int limit )
+					throws CustomException
+	{
+		Paging.check(after, limit);
+		
+		int pageLimit = Paging.pageLimit(limit);
+		List<LedgerEntry> entries = daoFactory.getAccountDAO()
+						.getAccountHistory(accountId, after, pageLimit);
+		
+		Response.ResponseBuilder builder = Response
+						.ok(new GenericEntity<List<LedgerEntry>>(entries)
+						{
+						});
+		
+		// A full page, more legs may follow.
+		if (entries.size() == pageLimit)
 		{
-			throw new WebApplicationException("Account not found",
-							Response.Status.NOT_FOUND);
+			builder.header(Paging.NEXT_AFTER_HEADER,
+							entries.get(pageLimit - 1).getLedgerId());
 		}
 		
-		// Return balance.
-		return account.getBalance();
+		return builder.build();
+	}
+
+	/**
+	 * Find balance by account Id
+	 * 
+	 * @param accountId - account id
+	 * @param asyncResponse - resumed with the account balance.
+	 */
+	@GET
+	@Path( "/{accountId}/balance" )
+	public void getBalance( @PathParam( "accountId" ) final long accountId,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<BigDecimal>()
+		{
+			public BigDecimal call() throws CustomException
+			{
+				// Retrieve account details from account data table.
+				final Account account = daoFactory.getAccountDAO()
+								.getAccountById(accountId);
+				
+				// If account is null, throw exception.
+				if (account == null)
+				{
+					throw new WebApplicationException("Account not found",
+									Response.Status.NOT_FOUND);
+				}
+				
+				// Return balance.
+				return account.getBalance();
+			}
+		});
 	}
 
 	/**
 	 * Create Account
 	 * 
 	 * @param account - account object details.
-	 * @return - new account details.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the new account details.
 	 */
 	@PUT
 	@Path( "/create" )
-	public Account createAccount( Account account ) throws CustomException
+	public void createAccount( final Account account,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		// Create account
-		final long accountId = daoFactory.getAccountDAO()
-						.createAccount(account);
-		
-		// Return account details.
-		return daoFactory.getAccountDAO().getAccountById(accountId);
+		ServiceExecutor.run(asyncResponse, new Callable<Account>()
+		{
+			public Account call() throws CustomException
+			{
+				// Create account and return the created account details.
+				return daoFactory.getAccountDAO().createAccount(account);
+			}
+		});
 	}
 
 	/**
@@ -104,29 +247,27 @@ public class AccountService
 	 * 
 	 * @param accountId - account id.
 	 * @param amount - account amount
-	 * @return - updated account details.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the updated account details.
 	 */
 	@PUT
 	@Path( "/{accountId}/deposit/{amount}" )
-	public Account deposit( @PathParam( "accountId" ) long accountId,
-					@PathParam( "amount" ) BigDecimal amount )
-					throws CustomException
+	public void deposit( @PathParam( "accountId" ) final long accountId,
+					@PathParam( "amount" ) final BigDecimal amount,
+					@Suspended AsyncResponse asyncResponse )
 	{
-
-		// If amount is not valid, have a web aplication exception.
-		if (amount.compareTo(MoneyUtil.zeroAmount) <= 0)
+		ServiceExecutor.run(asyncResponse, new Callable<Account>()
 		{
-			throw new WebApplicationException("Invalid Deposit amount",
-							Response.Status.BAD_REQUEST);
-		}
-
-		// Update the account amount.
-		daoFactory.getAccountDAO().updateAccountBalance(accountId,
-						amount.setScale(4, RoundingMode.HALF_EVEN));
-		
-		// Return the update account details.
-		return daoFactory.getAccountDAO().getAccountById(accountId);
+			public Account call() throws CustomException
+			{
+				// If amount is not valid, have a web aplication exception.
+				long units = toPositiveMinorUnits(amount);
+				
+				// Update the account amount and return the updated account
+				// details.
+				return daoFactory.getAccountDAO().updateAccountBalance(
+								accountId, Money.toBigDecimal(units));
+			}
+		});
 	}
 
 	/**
@@ -134,68 +275,151 @@ public class AccountService
 	 * 
 	 * @param accountId - account id
 	 * @param amount - amount to withdraw.
-	 * @return - updated account details.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the updated account details.
 	 */
 	@PUT
 	@Path( "/{accountId}/withdraw/{amount}" )
-	public Account withdraw( @PathParam( "accountId" ) long accountId,
-					@PathParam( "amount" ) BigDecimal amount )
+	public void withdraw( @PathParam( "accountId" ) final long accountId,
+					@PathParam( "amount" ) final BigDecimal amount,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<Account>()
+		{
+			public Account call() throws CustomException
+			{
+				return withdraw(accountId, amount);
+			}
+		});
+	}
+
+	/**
+	 * Withdraw amount by account Id.
+	 */
+	private Account withdraw( long accountId, BigDecimal amount )
 					throws CustomException
 	{
 
 		// If amount is invalid, throw exception.
-		if (amount.compareTo(MoneyUtil.zeroAmount) <= 0)
-		{
-			throw new WebApplicationException("Invalid Deposit amount",
-							Response.Status.BAD_REQUEST);
-		}
+		long units = toPositiveMinorUnits(amount);
 		
 		// Set withdrawal amount.
-		BigDecimal delta = amount.negate();
+		long delta = Money.negate(units);
 		
 		// If debug is enabled, output log message.
 		if (log.isDebugEnabled())
 		{
-			log.debug("Withdraw service: delta change to account  " + delta
-							+ " Account ID = " + accountId);
+			log.debug("Withdraw service: delta change to account {} Account ID = {}",
+							Money.toString(delta), accountId);
 		}
 		
-		// Update account balance.
-		daoFactory.getAccountDAO().updateAccountBalance(accountId,
-						delta.setScale(4, RoundingMode.HALF_EVEN));
-		
-		// Return updated account details.
-		return daoFactory.getAccountDAO().getAccountById(accountId);
+		// Update account balance and return updated account details.
+		return daoFactory.getAccountDAO().updateAccountBalance(accountId,
+						Money.toBigDecimal(delta));
+	}
+
+	/**
+	 * Spread the credits to an account over a number of balance slots, for a
+	 * hot account such as a fee or treasury account, or back to a single
+	 * balance with 0.
+	 * 
+	 * @param accountId - account id
+	 * @param slotCount - number of slots, 0 to MAX_BALANCE_SLOTS.
+	 * @param asyncResponse - resumed with the account details.
+	 */
+	@PUT
+	@Path( "/{accountId}/slots/{slotCount}" )
+	public void setBalanceSlots( @PathParam( "accountId" ) final long accountId,
+					@PathParam( "slotCount" ) final int slotCount,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<Account>()
+		{
+			public Account call() throws CustomException
+			{
+				// If slot count is not valid, have a web aplication exception.
+				if ((slotCount < 0) || (slotCount > MAX_BALANCE_SLOTS))
+				{
+					throw new WebApplicationException("Invalid slot count",
+									Response.Status.BAD_REQUEST);
+				}
+				
+				AccountDAO accountDAO = daoFactory.getAccountDAO();
+				
+				// Account must exist.
+				if (accountDAO.getAccountById(accountId) == null)
+				{
+					throw new WebApplicationException("Account not found",
+									Response.Status.NOT_FOUND);
+				}
+				
+				return accountDAO.setBalanceSlots(accountId, slotCount);
+			}
+		});
 	}
 
 	/**
 	 * Delete amount by account Id
 	 * 
 	 * @param accountId - account id
-	 * @param amount - amount to delete.
-	 * @return - account response
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the account response.
 	 */
 	@DELETE
 	@Path( "/{accountId}" )
-	public Response deleteAccount( @PathParam( "accountId" ) long accountId )
-					throws CustomException
+	public void deleteAccount( @PathParam( "accountId" ) final long accountId,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		// Retrieve account details by account id.
-		int deleteCount = daoFactory.getAccountDAO().deleteAccountById(
-						accountId);
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
+		{
+			public Response call() throws CustomException
+			{
+				// Retrieve account details by account id.
+				int deleteCount = daoFactory.getAccountDAO()
+								.deleteAccountById(accountId);
+				
+				// Compare for valid response for delete
+				if (deleteCount == 1)
+				{
+					return Response.status(Response.Status.OK).build();
+				}
+				// Otherwise details not found.
+				else
+				{
+					return Response.status(Response.Status.NOT_FOUND).build();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Convert a deposit or withdrawal amount to minor units, rounded to scale
+	 * 4.
+	 * 
+	 * @param amount - requested amount.
+	 * @return - amount in minor units.
+	 * @throws WebApplicationException - if the amount is not positive or out
+	 *         of range.
+	 */
+	private long toPositiveMinorUnits( BigDecimal amount )
+	{
+		long units = Money.ZERO;
 		
-		// Compare for valid response for delete
-		if (deleteCount == 1)
+		// Amount too large for a balance is invalid.
+		try
 		{
-			return Response.status(Response.Status.OK).build();
+			units = Money.toMinorUnits(amount);
 		}
-		// Otherwise details not found.
-		else
+		catch (ArithmeticException ae)
 		{
-			return Response.status(Response.Status.NOT_FOUND).build();
+			log.warn("Amount out of range: {}", amount);
 		}
+		
+		// Zero after rounding is invalid as well.
+		if (units <= Money.ZERO)
+		{
+			throw new WebApplicationException("Invalid Deposit amount",
+							Response.Status.BAD_REQUEST);
+		}
+		
+		return units;
 	}
-
 }
@@ -0,0 +1,70 @@
+package com.account.service;
+
+import com.account.dao.RowHandler;
+import com.account.exception.CustomException;
+import com.account.utils.Log;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response body writing rows as a JSON array while they are read from the
+ * database, so the whole result is never held in memory.
+ *
+ * The response status has been sent by the time rows are written, so a
+ * failure part way through ends the response early rather than turning it
+ * into an error response.
+ *
+ * @param <T> - row type.
+ */
+public abstract class JsonArrayOutput<T> implements StreamingOutput
+{
+	private static Log log = Log.getLog(JsonArrayOutput.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * Write the JSON array to the response.
+	 */
+	public void write( OutputStream output ) throws IOException
+	{
+		final JsonGenerator generator = mapper.getFactory().createGenerator(
+						output);
+
+		generator.writeStartArray();
+
+		// Write each row as it is read.
+		try
+		{
+			stream(new RowHandler<T>()
+			{
+				public void handle( T row ) throws IOException
+				{
+					generator.writeObject(row);
+				}
+			});
+		}
+		// Read failed part way, abort the response.
+		catch (CustomException e)
+		{
+			log.error("write(): Error streaming rows", e);
+
+			throw new IOException("Error streaming rows", e);
+		}
+
+		generator.writeEndArray();
+		generator.close();
+	}
+
+	/**
+	 * Read the rows, passing each to the handler.
+	 *
+	 * @param handler - handler writing each row.
+	 * @throws CustomException
+	 */
+	protected abstract void stream( RowHandler<T> handler )
+					throws CustomException;
+}
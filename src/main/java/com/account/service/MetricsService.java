@@ -0,0 +1,32 @@
+package com.account.service;
+
+import com.account.metrics.MetricsRegistry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * Metrics Service
+ * 
+ * Exports the request, DAO, transfer, connection pool and cache metrics in
+ * the Prometheus text format.
+ */
+@Path( "/metrics" )
+public class MetricsService
+{
+	// Content type of the Prometheus text format.
+	private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Export the metrics.
+	 * 
+	 * @return - metrics text.
+	 */
+	@GET
+	@Produces( PROMETHEUS_TEXT )
+	public String getMetrics()
+	{
+		return MetricsRegistry.getInstance().toPrometheus();
+	}
+}
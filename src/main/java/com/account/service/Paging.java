@@ -0,0 +1,59 @@
+package com.account.service;
+
+import com.account.utils.Utils;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Keyset pagination settings shared by the list services.
+ *
+ * A page holds the rows with an id greater than the "after" query
+ * parameter. When a page is full, the id of its last row is returned in the
+ * NEXT_AFTER_HEADER response header to be passed as "after" for the next
+ * page. Ids are not part of the JSON bodies, hence the header.
+ */
+final class Paging
+{
+	// Response header holding the "after" value of the next page.
+	static final String NEXT_AFTER_HEADER = "X-Next-After";
+
+	// Largest page returned, larger limits are reduced to it.
+	static final int MAX_LIMIT = Utils.getIntegerProperty("page_max_limit",
+					1000);
+
+	/**
+	 * Utility class, not instantiated.
+	 */
+	private Paging()
+	{
+	}
+
+	/**
+	 * Check the requested paging parameters.
+	 *
+	 * @param after - id to start after.
+	 * @param limit - requested number of rows.
+	 * @throws WebApplicationException - if either parameter is negative.
+	 */
+	static void check( long after, int limit )
+	{
+		// Negative values are invalid.
+		if ((after < 0) || (limit < 0))
+		{
+			throw new WebApplicationException("Invalid paging parameters",
+							Response.Status.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Retrieve the page size to use for a requested limit.
+	 *
+	 * @param limit - requested page size, 0 for the largest page.
+	 * @return - page size, no more than MAX_LIMIT.
+	 */
+	static int pageLimit( int limit )
+	{
+		return ((limit == 0) || (limit > MAX_LIMIT)) ? MAX_LIMIT : limit;
+	}
+}
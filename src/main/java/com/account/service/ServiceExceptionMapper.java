@@ -1,8 +1,9 @@
 package com.account.service;
 
-import org.apache.log4j.Logger;
 import com.account.exception.ErrorResponse;
 import com.account.exception.CustomException;
+import com.account.exception.DuplicateEntryException;
+import com.account.utils.Log;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
@@ -16,7 +17,7 @@ import javax.ws.rs.ext.Provider;
 @Provider
 public class ServiceExceptionMapper implements ExceptionMapper<CustomException>
 {
-	private static Logger log = Logger.getLogger(ServiceExceptionMapper.class);
+	private static Log log = Log.getLog(ServiceExceptionMapper.class);
 
 	/**
 	 * Constructor for the Service Exception Manager.
@@ -33,13 +34,21 @@ public class ServiceExceptionMapper implements ExceptionMapper<CustomException>
 		// If ddebug is enabled, write to log.
 		if (log.isDebugEnabled())
 		{
-			log.debug("Mapping exception to Response....");
+			log.debug("Mapping exception to Response: {}", daoException.getMessage());
 		}
 		
 		// Instantiate error response.
 		ErrorResponse errorResponse = new ErrorResponse();
 		errorResponse.setErrorCode(daoException.getMessage());
 
+		// return bad request for writes rejected by a unique index.
+		if (daoException instanceof DuplicateEntryException)
+		{
+			return Response.status(Response.Status.BAD_REQUEST)
+							.entity(errorResponse).type(MediaType.APPLICATION_JSON)
+							.build();
+		}
+		
 		// return internal server error for DAO exceptions
 		return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
 						.entity(errorResponse).type(MediaType.APPLICATION_JSON)
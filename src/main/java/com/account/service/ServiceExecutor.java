@@ -0,0 +1,236 @@
+package com.account.service;
+
+import com.account.utils.Log;
+import com.account.utils.Utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+/**
+ * Runs the work of the suspended resource methods and resumes their
+ * responses.
+ *
+ * With service_async_enabled set, the work runs on a dedicated executor so
+ * Jetty threads are not held while it blocks on the database: a virtual
+ * thread per request when the JDK has them, a bounded pool otherwise.
+ * Without it, the work runs on the request thread as before. Settings are
+ * read on first use.
+ *
+ * service_async_timeout_ms bounds the time a request waits for the executor.
+ * A request whose work has not started by then is answered 503 and its work
+ * dropped, so it never reaches a DAO; work already started is answered
+ * with its own outcome, however long it takes, so a transfer is never
+ * applied after its client was told 503.
+ */
+final class ServiceExecutor
+{
+	private static Log log = Log.getLog(ServiceExecutor.class);
+
+	// Key-Value from application.properties.
+	private static final String ASYNC_ENABLED = "service_async_enabled";
+	private static final String VIRTUAL_THREADS = "service_virtual_threads";
+	private static final String MAX_THREADS = "service_executor_max_threads";
+	private static final String QUEUE_CAPACITY = "service_executor_queue_capacity";
+	private static final String TIMEOUT = "service_async_timeout_ms";
+
+	// Executor running the work, null to run it on the request thread.
+	private static final ExecutorService executor = createExecutor();
+
+	// Time a suspended response waits for its work to start before 503, 0
+	// for no limit.
+	private static final int timeoutMillis = Utils.getIntegerProperty(
+					TIMEOUT, 30000);
+
+	// States of the work of a suspended response.
+	private static final int QUEUED = 0;
+	private static final int STARTED = 1;
+	private static final int TIMED_OUT = 2;
+
+	/**
+	 * Utility class, not instantiated.
+	 */
+	private ServiceExecutor()
+	{
+	}
+
+	/**
+	 * Run the work of a resource method and resume its response with the
+	 * result, or with the exception thrown, which is mapped as if the method
+	 * had thrown it.
+	 *
+	 * @param asyncResponse - suspended response.
+	 * @param work - work returning the response entity.
+	 */
+	static void run( final AsyncResponse asyncResponse,
+					final Callable<?> work )
+	{
+		// Run on the request thread.
+		if (executor == null)
+		{
+			resume(asyncResponse, work);
+			return;
+		}
+
+		final AtomicInteger state = new AtomicInteger(QUEUED);
+
+		// Answer 503 if the work is not started in time.
+		if (timeoutMillis > 0)
+		{
+			asyncResponse.setTimeoutHandler(new TimeoutHandler()
+			{
+				public void handleTimeout( AsyncResponse timedOut )
+				{
+					// Not started, drop the work.
+					if (state.compareAndSet(QUEUED, TIMED_OUT))
+					{
+						timedOut.resume(new WebApplicationException(
+										"Request timed out",
+										Response.Status.SERVICE_UNAVAILABLE));
+					}
+					// Started, wait for its outcome.
+					else
+					{
+						timedOut.setTimeout(timeoutMillis,
+										TimeUnit.MILLISECONDS);
+					}
+				}
+			});
+			asyncResponse.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+
+		// Hand the work to the executor.
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				public void run()
+				{
+					// Already answered 503.
+					if (!state.compareAndSet(QUEUED, STARTED))
+					{
+						return;
+					}
+
+					resume(asyncResponse, work);
+				}
+			});
+		}
+		// Executor saturated.
+		catch (RejectedExecutionException e)
+		{
+			asyncResponse.resume(new WebApplicationException(
+							"Server busy", Response.Status.SERVICE_UNAVAILABLE));
+		}
+	}
+
+	/**
+	 * Run the work and resume the response.
+	 */
+	private static void resume( AsyncResponse asyncResponse, Callable<?> work )
+	{
+		// Resume with the result.
+		try
+		{
+			asyncResponse.resume(work.call());
+		}
+		// Resume with the failure, for the exception mappers.
+		catch (Exception e)
+		{
+			asyncResponse.resume(e);
+		}
+	}
+
+	/**
+	 * Create the executor from the application.properties settings.
+	 */
+	private static ExecutorService createExecutor()
+	{
+		// Run on the request threads.
+		if (!Utils.getBooleanProperty(ASYNC_ENABLED, false))
+		{
+			return null;
+		}
+
+		// A virtual thread per request, if the JDK has them.
+		if (Utils.getBooleanProperty(VIRTUAL_THREADS, true))
+		{
+			ExecutorService virtual = createVirtualThreadExecutor();
+
+			if (virtual != null)
+			{
+				log.info("Resource methods run on virtual threads");
+
+				return virtual;
+			}
+		}
+
+		int maxThreads = Utils.getIntegerProperty(MAX_THREADS, 200);
+		final AtomicInteger threadCount = new AtomicInteger();
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads,
+						maxThreads, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(Utils.getIntegerProperty(
+										QUEUE_CAPACITY, 10000)),
+						new ThreadFactory()
+						{
+							public Thread newThread( Runnable runnable )
+							{
+								Thread thread = new Thread(runnable, "service-"
+												+ threadCount.incrementAndGet());
+								thread.setDaemon(true);
+
+								return thread;
+							}
+						});
+
+		// Idle threads end, the pool only grows to the load.
+		pool.allowCoreThreadTimeOut(true);
+
+		log.info("Resource methods run on a pool of {} threads", maxThreads);
+
+		return pool;
+	}
+
+	/**
+	 * Create an executor starting a virtual thread per task, looked up
+	 * reflectively so the code still runs on JDKs without them.
+	 *
+	 * @return - executor, null if virtual threads are not available.
+	 */
+	private static ExecutorService createVirtualThreadExecutor()
+	{
+		// Executors.newVirtualThreadPerTaskExecutor(), JDK 21 onwards.
+		try
+		{
+			Method factory = Executors.class
+							.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) factory.invoke(null);
+		}
+		// Not on this JDK.
+		catch (NoSuchMethodException e)
+		{
+			return null;
+		}
+		// Present but unusable, as with preview releases.
+		catch (Exception e)
+		{
+			log.warn("Virtual threads not available ", e);
+
+			return null;
+		}
+	}
+}
@@ -1,64 +1,435 @@
 package com.account.service;
 
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import com.account.dao.DAOFactory;
+import com.account.dao.IdempotencyDAO;
 import com.account.exception.CustomException;
+import com.account.exception.ErrorResponse;
+import com.account.exception.TransferException;
+import com.account.model.AsyncTransfer;
+import com.account.model.IdempotencyRecord;
 import com.account.model.MoneyUtil;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
 import com.account.model.UserTransaction;
 
+/**
+ * Transaction Service
+ * 
+ * Resource methods that reach the database are suspended, their work is
+ * run by ServiceExecutor.
+ */
 @Path( "/transaction" )
 @Produces( MediaType.APPLICATION_JSON )
 public class TransactionService
 {
 
-	private final DAOFactory daoFactory = DAOFactory.getDAOFactory(DAOFactory.DATA);
+	// Header carrying the client key of a transfer.
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	
+	// Header set on the answer to a retry.
+	static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+	
+	// Longest key held by the key table.
+	private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+	
+	// HTTP status of a key reused for another transfer.
+	private static final int UNPROCESSABLE_ENTITY = 422;
+	
+	private static final String TRANSACTION_FAILED = "Transaction failed";
+
+	private final DAOFactory daoFactory = DAOFactory.getDAOFactory();
 
 	/**
 	 * Transfer fund between two accounts.
 	 * 
+	 * A request with an Idempotency-Key header is run at most once per key.
+	 * A retry with the same key and parameters is answered with the outcome
+	 * of the first request, without touching the accounts; a retry with
+	 * other parameters, or while the first request is in progress, is
+	 * rejected.
+	 * 
+	 * Only outcomes decided by the accounts, a transfer applied or rejected
+	 * by the DAO, are recorded. If the transfer is rolled back by a database
+	 * failure the key is released, so that a retry runs it again.
+	 * 
+	 * @param idempotencyKey - client key of the request, or null.
 	 * @param transaction - user transaction
-	 * @return - transaction response.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the transaction response.
 	 */
 	@POST
-	public Response transferFund( UserTransaction transaction )
-					throws CustomException
+	public void transferFund(
+					@HeaderParam( IDEMPOTENCY_KEY_HEADER ) final String idempotencyKey,
+					final UserTransaction transaction,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
+		{
+			public Response call() throws CustomException
+			{
+				return transferFund(idempotencyKey, transaction);
+			}
+		});
+	}
+
+	/**
+	 * Transfer fund between two accounts, at most once per idempotency key.
+	 */
+	private Response transferFund( String idempotencyKey,
+					UserTransaction transaction ) throws CustomException
 	{
 		// Retrieve the currency code.
 		String currency = transaction.getCurrencyCode();
 		
-		// Ensure that the currency code is valid. Set update count.
-		if (MoneyUtil.INSTANCE.validateCcyCode(currency))
+		// Ensure that the currency code is valid.
+		if (!MoneyUtil.INSTANCE.validateCcyCode(currency))
 		{
-			int updateCount = daoFactory.getAccountDAO()
-							.transferAccountBalance(transaction);
+			throw new WebApplicationException("Currency Code Invalid ",
+							Response.Status.BAD_REQUEST);
+		}
+		
+		// No key, run the request every time.
+		if (idempotencyKey == null)
+		{
+			return respond(transfer(transaction), false);
+		}
+		
+		// Key must fit the key table.
+		if (idempotencyKey.isEmpty()
+						|| (idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH))
+		{
+			throw new WebApplicationException("Idempotency Key Invalid",
+							Response.Status.BAD_REQUEST);
+		}
+		
+		IdempotencyDAO idempotencyDAO = daoFactory.getIdempotencyDAO();
+		String fingerprint = fingerprint(transaction);
+		
+		IdempotencyRecord previous = idempotencyDAO.claimKey(idempotencyKey,
+						fingerprint);
+		
+		// Key already used, answer without running the request.
+		if (previous != null)
+		{
+			return replay(previous, fingerprint);
+		}
+		
+		boolean transferred = false;
+		boolean decided = false;
+		
+		// Run the request.
+		try
+		{
+			transferred = transfer(transaction);
+			decided = transferred;
+		}
+		// Rejected by the DAO, the same transfer would be rejected again.
+		catch ( TransferException e )
+		{
+			if (isDecided(e.getStatus()))
+			{
+				decided = true;
+				idempotencyDAO.completeKey(IdempotencyRecord.pending(
+								idempotencyKey, fingerprint).complete(
+								Response.Status.INTERNAL_SERVER_ERROR
+												.getStatusCode(), e.getMessage()));
+			}
 			
-			// If update count is valid, return response as okay.
-			if (updateCount == 2)
+			throw e;
+		}
+		// Rolled back or failed, nothing was transferred, so the client may
+		// retry with the key.
+		finally
+		{
+			if (!decided)
 			{
-				return Response.status(Response.Status.OK).build();
+				idempotencyDAO.releaseKey(idempotencyKey);
 			}
-			else
+		}
+		
+		// Record the outcome against the key.
+		if (transferred)
+		{
+			idempotencyDAO.completeKey(IdempotencyRecord.pending(
+							idempotencyKey, fingerprint).complete(
+							Response.Status.OK.getStatusCode(), null));
+		}
+		
+		return respond(transferred, false);
+	}
+
+	/**
+	 * Tell whether a rejected transfer would be rejected again if retried,
+	 * as opposed to a failure of the database.
+	 * 
+	 * @param status - outcome of the transfer.
+	 * @return - true if the outcome was decided by the accounts and request.
+	 */
+	private static boolean isDecided( TransferStatus status )
+	{
+		return (status != TransferStatus.FAILED)
+						&& (status != TransferStatus.LOCK_FAIL)
+						&& (status != TransferStatus.PENDING);
+	}
+
+	/**
+	 * Apply a transfer.
+	 * 
+	 * @param transaction - user transaction.
+	 * @return - true if both accounts were updated.
+	 * @throws CustomException
+	 */
+	private boolean transfer( UserTransaction transaction )
+					throws CustomException
+	{
+		int updateCount = daoFactory.getAccountDAO().transferAccountBalance(
+						transaction);
+		
+		return updateCount == 2;
+	}
+
+	/**
+	 * Build the response to a transfer.
+	 * 
+	 * @param transferred - true if the transfer was applied.
+	 * @param replayed - true if answering a retry.
+	 * @return - transaction response.
+	 */
+	private Response respond( boolean transferred, boolean replayed )
+	{
+		// Transaction failed.
+		if (!transferred)
+		{
+			throw new WebApplicationException(TRANSACTION_FAILED, Response
+							.status(Response.Status.BAD_REQUEST)
+							.header(IDEMPOTENT_REPLAYED_HEADER,
+											replayed ? "true" : null).build());
+		}
+		
+		return Response.status(Response.Status.OK)
+						.header(IDEMPOTENT_REPLAYED_HEADER,
+										replayed ? "true" : null).build();
+	}
+
+	/**
+	 * Answer a request whose key was already used.
+	 * 
+	 * @param previous - record of the request first made with the key.
+	 * @param fingerprint - parameters of this request.
+	 * @return - response of the first request.
+	 */
+	private Response replay( IdempotencyRecord previous, String fingerprint )
+	{
+		// Same key, different transfer.
+		if (!previous.getFingerprint().equals(fingerprint))
+		{
+			throw new WebApplicationException(
+							"Idempotency Key used with other parameters",
+							UNPROCESSABLE_ENTITY);
+		}
+		
+		// First request not finished yet.
+		if (!previous.isCompleted())
+		{
+			throw new WebApplicationException(
+							"Idempotency Key request in progress",
+							Response.Status.CONFLICT);
+		}
+		
+		// First request rejected by the DAO, answer as it was.
+		if (previous.getStatus() == Response.Status.INTERNAL_SERVER_ERROR
+						.getStatusCode())
+		{
+			ErrorResponse errorResponse = new ErrorResponse();
+			errorResponse.setErrorCode(previous.getMessage());
+			
+			throw new WebApplicationException(previous.getMessage(), Response
+							.status(previous.getStatus()).entity(errorResponse)
+							.type(MediaType.APPLICATION_JSON)
+							.header(IDEMPOTENT_REPLAYED_HEADER, "true").build());
+		}
+		
+		return respond(previous.getStatus() == Response.Status.OK
+						.getStatusCode(), true);
+	}
+
+	/**
+	 * Describe the parameters of a transfer, to compare a retry with the
+	 * request first made with its key.
+	 * 
+	 * @param transaction - user transaction.
+	 * @return - transfer parameters.
+	 */
+	private static String fingerprint( UserTransaction transaction )
+	{
+		BigDecimal amount = transaction.getAmount();
+		
+		return transaction.getFromAccountId()
+						+ ":"
+						+ transaction.getToAccountId()
+						+ ":"
+						+ ((amount == null) ? null : amount
+										.stripTrailingZeros().toPlainString())
+						+ ":" + transaction.getCurrencyCode();
+	}
+
+	/**
+	 * Transfer funds for a batch of transactions. Each transaction succeeds
+	 * or fails on its own and its outcome is returned in request order.
+	 * 
+	 * @param transactions - user transactions.
+	 * @param asyncResponse - resumed with the outcome of each transaction.
+	 */
+	@POST
+	@Path( "/batch" )
+	public void transferFunds( final List<UserTransaction> transactions,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
+		{
+			public Response call() throws CustomException
 			{
-				// transaction failed
-				throw new WebApplicationException("Transaction failed",
-								Response.Status.BAD_REQUEST);
+				return Response.ok(new GenericEntity<List<TransferResult>>(
+								transferFunds(transactions))
+				{
+				}).build();
 			}
+		});
+	}
 
+	/**
+	 * Transfer funds for a batch of transactions.
+	 */
+	private List<TransferResult> transferFunds(
+					List<UserTransaction> transactions ) throws CustomException
+	{
+		// Reject an empty batch.
+		if ((transactions == null) || transactions.isEmpty()
+						|| transactions.contains(null))
+		{
+			throw new WebApplicationException("No transactions to process",
+							Response.Status.BAD_REQUEST);
 		}
-		// Otherwise, have invalid currency code - response is invalid.
-		else
+		
+		TransferResult[] results = new TransferResult[transactions.size()];
+		
+		// Transactions with a valid currency code, and their positions.
+		List<UserTransaction> valid = new ArrayList<UserTransaction>();
+		List<Integer> positions = new ArrayList<Integer>();
+		
+		for ( int i = 0; i < transactions.size(); i++ )
+		{
+			UserTransaction transaction = transactions.get(i);
+			
+			// Ensure that the currency code is valid.
+			if (MoneyUtil.INSTANCE.validateCcyCode(transaction
+							.getCurrencyCode()))
+			{
+				valid.add(transaction);
+				positions.add(i);
+			}
+			// Otherwise, have invalid currency code.
+			else
+			{
+				results[i] = new TransferResult(transaction,
+								TransferStatus.INVALID_CURRENCY,
+								"Currency Code Invalid");
+			}
+		}
+		
+		// Apply the valid transactions.
+		if (!valid.isEmpty())
+		{
+			List<TransferResult> applied = daoFactory.getAccountDAO()
+							.transferAccountBalances(valid);
+			
+			for ( int i = 0; i < applied.size(); i++ )
+			{
+				results[positions.get(i)] = applied.get(i);
+			}
+		}
+		
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Queue a transfer, to be applied by the transfer queue workers rather
+	 * than the request thread. The response is sent at once, with the
+	 * pending transfer and its location for polling.
+	 * 
+	 * @param transaction - user transaction.
+	 * @return - 202 response holding the pending transfer.
+	 */
+	@POST
+	@Path( "/async" )
+	public Response submitTransfer( UserTransaction transaction )
+	{
+		// Ensure that the currency code is valid.
+		if ((transaction == null)
+						|| !MoneyUtil.INSTANCE.validateCcyCode(transaction
+										.getCurrencyCode()))
 		{
 			throw new WebApplicationException("Currency Code Invalid ",
 							Response.Status.BAD_REQUEST);
 		}
+		
+		AsyncTransfer transfer = TransferQueue.getInstance().submit(
+						transaction);
+		
+		// Queue full, the client should retry later.
+		if (transfer == null)
+		{
+			throw new WebApplicationException("Transfer queue full",
+							Response.Status.SERVICE_UNAVAILABLE);
+		}
+		
+		return Response.status(Response.Status.ACCEPTED)
+						.location(URI.create("transaction/"
+										+ transfer.getTransferId()))
+						.entity(transfer).build();
+	}
 
+	/**
+	 * Find a transfer queued by /transaction/async.
+	 * 
+	 * @param transferId - transfer id.
+	 * @return - transfer, PENDING until applied and then with its outcome.
+	 */
+	@GET
+	@Path( "/{transferId}" )
+	public AsyncTransfer getTransfer(
+					@PathParam( "transferId" ) long transferId )
+	{
+		AsyncTransfer transfer = TransferQueue.getInstance().getTransfer(
+						transferId);
+		
+		// Unknown, or no longer kept.
+		if (transfer == null)
+		{
+			throw new WebApplicationException("Transfer not found",
+							Response.Status.NOT_FOUND);
+		}
+		
+		return transfer;
 	}
 
 }
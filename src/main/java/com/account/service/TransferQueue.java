@@ -0,0 +1,284 @@
+package com.account.service;
+
+import com.account.dao.AccountDAO;
+import com.account.dao.DAOFactory;
+import com.account.dao.cache.ExpiringLruCache;
+import com.account.exception.CustomException;
+import com.account.model.AsyncTransfer;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
+import com.account.model.UserTransaction;
+import com.account.utils.Log;
+import com.account.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of transfers submitted to /transaction/async, applied by dedicated
+ * worker threads rather than the request threads.
+ *
+ * Each worker takes every transfer queued at that moment, up to the batch
+ * size, and applies them with one transferAccountBalances call, so a busy
+ * queue is committed in batches. Pending transfers are held until applied;
+ * outcomes are then kept for a time to live, up to a maximum count, for
+ * polling. Transfer ids and outcomes are not persisted.
+ */
+final class TransferQueue
+{
+	private static Log log = Log.getLog(TransferQueue.class);
+
+	// Key-Value from application.properties.
+	private static final String ASYNC_QUEUE_CAPACITY = "async_transfer_queue_capacity";
+	private static final String ASYNC_THREADS = "async_transfer_threads";
+	private static final String ASYNC_BATCH_SIZE = "async_transfer_batch_size";
+	private static final String ASYNC_MAX_RETAINED = "async_transfer_max_retained";
+	private static final String ASYNC_RETAINED_TTL = "async_transfer_ttl_ms";
+
+	// Queue used by the services, created on first use.
+	private static TransferQueue instance;
+
+	private final AccountDAO accountDAO;
+	private final BlockingQueue<Queued> queue;
+	private final int maxBatchSize;
+	private final ExecutorService workers;
+
+	// Transfer id sequence.
+	private final AtomicLong transferIds = new AtomicLong();
+
+	// Transfers queued or being applied, by transfer id.
+	private final ConcurrentHashMap<Long, AsyncTransfer> pending = new ConcurrentHashMap<Long, AsyncTransfer>();
+
+	// Applied transfers, by transfer id.
+	private final ExpiringLruCache<Long, AsyncTransfer> completed;
+
+	/**
+	 * Transfer queue constructor, starting the workers.
+	 *
+	 * @param accountDAO - account DAO applying the transfers.
+	 * @param capacity - maximum number of queued transfers.
+	 * @param threads - number of worker threads.
+	 * @param maxBatchSize - maximum transfers applied by one call.
+	 * @param maxRetained - maximum number of outcomes kept.
+	 * @param retainedMillis - time an outcome is kept.
+	 */
+	TransferQueue( AccountDAO accountDAO, int capacity, int threads,
+					int maxBatchSize, int maxRetained, long retainedMillis )
+	{
+		this.accountDAO = accountDAO;
+		this.queue = new ArrayBlockingQueue<Queued>(capacity);
+		this.maxBatchSize = maxBatchSize;
+		this.completed = new ExpiringLruCache<Long, AsyncTransfer>(
+						maxRetained, retainedMillis);
+
+		final AtomicInteger workerCount = new AtomicInteger();
+
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			public Thread newThread( Runnable runnable )
+			{
+				Thread thread = new Thread(runnable, "transfer-queue-"
+								+ workerCount.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		for ( int i = 0; i < threads; i++ )
+		{
+			workers.execute(new Runnable()
+			{
+				public void run()
+				{
+					drain();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Obtain the queue used by the services, created from the
+	 * application.properties settings on first use.
+	 *
+	 * @return - transfer queue.
+	 */
+	static synchronized TransferQueue getInstance()
+	{
+		// Create the queue once only.
+		if (instance == null)
+		{
+			instance = new TransferQueue(DAOFactory.getDAOFactory()
+							.getAccountDAO(), Utils.getIntegerProperty(
+							ASYNC_QUEUE_CAPACITY, 10000),
+							Utils.getIntegerProperty(ASYNC_THREADS, 1),
+							Utils.getIntegerProperty(ASYNC_BATCH_SIZE, 500),
+							Utils.getIntegerProperty(ASYNC_MAX_RETAINED, 100000),
+							Utils.getIntegerProperty(ASYNC_RETAINED_TTL, 600000));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Queue a transfer.
+	 *
+	 * @param transaction - transfer to apply.
+	 * @return - pending transfer, null if the queue is full.
+	 */
+	AsyncTransfer submit( UserTransaction transaction )
+	{
+		AsyncTransfer transfer = new AsyncTransfer(
+						transferIds.incrementAndGet(),
+						transaction.getFromAccountId(),
+						transaction.getToAccountId(), TransferStatus.PENDING,
+						null);
+
+		pending.put(transfer.getTransferId(), transfer);
+
+		// Queue full, the caller rejects the transfer.
+		if (!queue.offer(new Queued(transfer, transaction)))
+		{
+			pending.remove(transfer.getTransferId());
+
+			return null;
+		}
+
+		return transfer;
+	}
+
+	/**
+	 * Look up a transfer.
+	 *
+	 * @param transferId - transfer id.
+	 * @return - pending or applied transfer, null if unknown or no longer
+	 *         kept.
+	 */
+	AsyncTransfer getTransfer( long transferId )
+	{
+		AsyncTransfer transfer = pending.get(transferId);
+
+		// Applied, the outcome is moved to completed before leaving pending.
+		if (transfer == null)
+		{
+			transfer = completed.get(transferId);
+		}
+
+		return transfer;
+	}
+
+	/**
+	 * Apply queued transfers until the worker is stopped.
+	 */
+	private void drain()
+	{
+		List<Queued> batch = new ArrayList<Queued>(maxBatchSize);
+
+		while (!Thread.currentThread().isInterrupted())
+		{
+			// Wait for a transfer, then take any queued behind it.
+			try
+			{
+				batch.add(queue.take());
+			}
+			// Worker stopped.
+			catch (InterruptedException e)
+			{
+				return;
+			}
+
+			queue.drainTo(batch, maxBatchSize - 1);
+
+			apply(batch);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Apply a batch of transfers and publish their outcomes.
+	 */
+	private void apply( List<Queued> batch )
+	{
+		List<UserTransaction> transactions = new ArrayList<UserTransaction>(
+						batch.size());
+
+		for ( Queued queued : batch )
+		{
+			transactions.add(queued.transaction);
+		}
+
+		// Apply the batch, each transfer succeeds or fails on its own.
+		try
+		{
+			List<TransferResult> results = accountDAO
+							.transferAccountBalances(transactions);
+
+			for ( int i = 0; i < batch.size(); i++ )
+			{
+				complete(batch.get(i).transfer, results.get(i).getStatus(),
+								results.get(i).getMessage());
+			}
+		}
+		// Catch DAO failure, none of the batch is known to be applied.
+		catch (CustomException e)
+		{
+			log.error("apply(): Error applying {} queued transfers", batch.size(),
+							e);
+
+			failAll(batch, e.getMessage());
+		}
+		// Keep the worker running whatever went wrong.
+		catch (RuntimeException e)
+		{
+			log.error("apply(): Unexpected error applying {} queued transfers",
+							batch.size(), e);
+
+			failAll(batch, "Fail to transfer Fund");
+		}
+	}
+
+	/**
+	 * Mark every transfer of a batch as failed.
+	 */
+	private void failAll( List<Queued> batch, String message )
+	{
+		for ( Queued queued : batch )
+		{
+			complete(queued.transfer, TransferStatus.FAILED, message);
+		}
+	}
+
+	/**
+	 * Publish the outcome of a transfer.
+	 */
+	private void complete( AsyncTransfer transfer, TransferStatus status,
+					String message )
+	{
+		completed.put(transfer.getTransferId(),
+						transfer.complete(status, message));
+		pending.remove(transfer.getTransferId());
+	}
+
+	/**
+	 * Transfer waiting in the queue.
+	 */
+	private static final class Queued
+	{
+		final AsyncTransfer transfer;
+		final UserTransaction transaction;
+
+		Queued( AsyncTransfer transfer, UserTransaction transaction )
+		{
+			this.transfer = transfer;
+			this.transaction = transaction;
+		}
+	}
+}
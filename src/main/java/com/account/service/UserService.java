@@ -1,40 +1,64 @@
 package com.account.service;
 
 import com.account.dao.DAOFactory;
+import com.account.dao.RowHandler;
+import com.account.dao.UserDAO;
 import com.account.exception.CustomException;
+import com.account.exception.DuplicateEntryException;
 import com.account.model.User;
-
-import org.apache.log4j.Logger;
+import com.account.utils.Log;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+/**
+ * User Service
+ * 
+ * Resource methods are suspended, their work is run by ServiceExecutor.
+ */
 @Path( "/user" )
 @Produces( MediaType.APPLICATION_JSON )
 public class UserService
 {
-	private static Logger log = Logger.getLogger(UserService.class);
+	private static Log log = Log.getLog(UserService.class);
 
-	private final DAOFactory daoFactory = DAOFactory.getDAOFactory(DAOFactory.DATA);
+	private final DAOFactory daoFactory = DAOFactory.getDAOFactory();
 
 	/**
 	 * Find by userName
 	 * 
 	 * @param - userName
-	 * @return - user details
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the user details
 	 */
 	@GET
 	@Path( "/{userName}" )
-	public User getUserByName( @PathParam( "userName" ) String userName )
-					throws CustomException
+	public void getUserByName( @PathParam( "userName" ) final String userName,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<User>()
+		{
+			public User call() throws CustomException
+			{
+				return getUserByName(userName);
+			}
+		});
+	}
+
+	/**
+	 * Find by userName.
+	 */
+	private User getUserByName( String userName ) throws CustomException
 	{
 		// If debug is enabled, output message to kog.
 		if (log.isDebugEnabled())
 		{
-			log.debug("Request Received for get User by Name " + userName);
+			log.debug("Request Received for get User by Name {}", userName);
 		}
 		
 		// Retrieve user details.
@@ -50,42 +74,127 @@ public class UserService
 	}
 
 	/**
-	 * Find by all
+	 * Find all users, or a page of users in user id order.
+	 * 
+	 * Without parameters every user is returned. With "after" or "limit" a
+	 * page is returned, and the X-Next-After header is set when more users
+	 * may follow. With "stream" the users are written as they are read,
+	 * "limit" then defaults to no limit.
 	 * 
-	 * @param userName - user name.
-	 * @return - list of all users.
-	 * @throws CustomException
+	 * @param after - last user id of the previous page.
+	 * @param limit - maximum number of users to return.
+	 * @param stream - write users as they are read.
+	 * @param asyncResponse - resumed with the list of users.
 	 */
 	@GET
 	@Path( "/all" )
-	public List<User> getAllUsers() throws CustomException
+	public void getAllUsers(
+					@QueryParam( "after" ) @DefaultValue( "0" ) final long after,
+					@QueryParam( "limit" ) @DefaultValue( "0" ) final int limit,
+					@QueryParam( "stream" ) @DefaultValue( "false" ) final boolean stream,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		return daoFactory.getUserDAO().getAllUsers();
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
+		{
+			public Response call() throws CustomException
+			{
+				return getAllUsers(after, limit, stream);
+			}
+		});
+	}
+
+	/**
+	 * Find all users, or a page of users.
+	 */
+	private Response getAllUsers( final long after, final int limit,
+					boolean stream ) throws CustomException
+	{
+		Paging.check(after, limit);
+		
+		final UserDAO userDAO = daoFactory.getUserDAO();
+		
+		// Write users as they are read.
+		if (stream)
+		{
+			return Response.ok(new JsonArrayOutput<User>()
+			{
+				protected void stream( RowHandler<User> handler )
+								throws CustomException
+				{
+					userDAO.streamUsers(after, limit, handler);
+				}
+			}).build();
+		}
+		
+		// No paging requested, return every user.
+		if ((after == 0) && (limit == 0))
+		{
+			return Response.ok(new GenericEntity<List<User>>(
+							userDAO.getAllUsers())
+			{
+			}).build();
+		}
+		
+		int pageLimit = Paging.pageLimit(limit);
+		List<User> users = userDAO.getUsers(after, pageLimit);
+		
+		Response.ResponseBuilder builder = Response
+						.ok(new GenericEntity<List<User>>(users)
+						{
+						});
+		
+		// A full page, more users may follow.
+		if (users.size() == pageLimit)
+		{
+			builder.header(Paging.NEXT_AFTER_HEADER,
+							users.get(pageLimit - 1).getUserId());
+		}
+		
+		return builder.build();
 	}
 
 	/**
 	 * Create User
 	 * 
 	 * @param user - user details.
-	 * @return - returned user details.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the returned user details.
 	 */
 	@POST
 	@Path( "/create" )
-	public User createUser( User user ) throws CustomException
+	public void createUser( final User user,
+					@Suspended AsyncResponse asyncResponse )
+	{
+		ServiceExecutor.run(asyncResponse, new Callable<User>()
+		{
+			public User call() throws CustomException
+			{
+				return createUser(user);
+			}
+		});
+	}
+
+	/**
+	 * Create User in a single insert, the unique user name index rejects a
+	 * name already taken.
+	 */
+	private User createUser( User user ) throws CustomException
 	{
-		// If the user details is not return, throw exception.
-		if (daoFactory.getUserDAO().getUserByName(user.getUserName()) != null)
+		final long uId;
+		
+		// Insert user details on table and obtain user id
+		try
+		{
+			uId = daoFactory.getUserDAO().insertUser(user);
+		}
+		// User name already taken.
+		catch (DuplicateEntryException e)
 		{
 			throw new WebApplicationException("User name already exist",
 							Response.Status.BAD_REQUEST);
 		}
 		
-		// Insert user details on table and obtain user id
-		final long uId = daoFactory.getUserDAO().insertUser(user);
-		
-		// return User details.
-		return daoFactory.getUserDAO().getUserById(uId);
+		// return User details as inserted.
+		return new User(uId, user.getUserName(), user.getEmailAddress());
 	}
 
 	/**
@@ -93,55 +202,66 @@ public class UserService
 	 * 
 	 * @param userId - user id
 	 * @param user user details.
-	 * @return - update response.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the update response.
 	 */
 	@PUT
 	@Path( "/{userId}" )
-	public Response updateUser( @PathParam( "userId" ) long userId, User user )
-					throws CustomException
+	public void updateUser( @PathParam( "userId" ) final long userId,
+					final User user, @Suspended AsyncResponse asyncResponse )
 	{
-		// Get user data access object for update.
-		final int updateCount = daoFactory.getUserDAO()
-						.updateUser(userId, user);
-		
-		// Verify update response as OKAY
-		if (updateCount == 1)
-		{
-			return Response.status(Response.Status.OK).build();
-		}
-		// Otherwise, record is not found.
-		else
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
 		{
-			return Response.status(Response.Status.NOT_FOUND).build();
-		}
+			public Response call() throws CustomException
+			{
+				// Get user data access object for update.
+				final int updateCount = daoFactory.getUserDAO().updateUser(
+								userId, user);
+				
+				// Verify update response as OKAY
+				if (updateCount == 1)
+				{
+					return Response.status(Response.Status.OK).build();
+				}
+				// Otherwise, record is not found.
+				else
+				{
+					return Response.status(Response.Status.NOT_FOUND).build();
+				}
+			}
+		});
 	}
 
 	/**
 	 * Delete by User Id
 	 * 
 	 * @param userId - user id.
-	 * @return - delete response.
-	 * @throws CustomException
+	 * @param asyncResponse - resumed with the delete response.
 	 */
 	@DELETE
 	@Path( "/{userId}" )
-	public Response deleteUser( @PathParam( "userId" ) long userId )
-					throws CustomException
+	public void deleteUser( @PathParam( "userId" ) final long userId,
+					@Suspended AsyncResponse asyncResponse )
 	{
-		// Determine if user exists for deletion.
-		int deleteCount = daoFactory.getUserDAO().deleteUser(userId);
-		
-		// Determine if record exists fro deletion. Return the response code OKAY.
-		if (deleteCount == 1)
+		ServiceExecutor.run(asyncResponse, new Callable<Response>()
 		{
-			return Response.status(Response.Status.OK).build();
-		}
-		// Otherwise record is not found.
-		else
-		{
-			return Response.status(Response.Status.NOT_FOUND).build();
-		}
+			public Response call() throws CustomException
+			{
+				// Determine if user exists for deletion.
+				int deleteCount = daoFactory.getUserDAO().deleteUser(userId);
+				
+				// Determine if record exists fro deletion. Return the response
+				// code OKAY.
+				if (deleteCount == 1)
+				{
+					return Response.status(Response.Status.OK).build();
+				}
+				// Otherwise record is not found.
+				else
+				{
+					return Response.status(Response.Status.NOT_FOUND).build();
+				}
+			}
+		});
 	}
 
 }
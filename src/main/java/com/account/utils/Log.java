@@ -0,0 +1,298 @@
+package com.account.utils;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logger with parameterised messages and rate limited warnings and errors,
+ * for the request path.
+ *
+ * Messages are formatted only if their level is enabled, each {} of the
+ * message replaced by the next argument, so a disabled message costs a
+ * level check; the one to three argument forms do not allocate an argument
+ * array. A Throwable left after the arguments is logged with its stack
+ * trace.
+ *
+ * Warnings and errors are limited per message, to log_error_rate_limit in
+ * each log_error_rate_interval_ms, so that a failure storm does not become
+ * an I/O storm too. The number of messages dropped is added to the next one
+ * logged.
+ */
+public final class Log
+{
+	// Key-Value from application.properties.
+	private static final String ERROR_RATE_LIMIT = "log_error_rate_limit";
+	private static final String ERROR_RATE_INTERVAL = "log_error_rate_interval_ms";
+
+	private static final int RATE_LIMIT = Utils.getIntegerProperty(
+					ERROR_RATE_LIMIT, 10);
+	private static final long RATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS
+					.toNanos(Utils.getIntegerProperty(ERROR_RATE_INTERVAL, 1000));
+
+	// Calls through this class are located at their caller.
+	private static final String FQCN = Log.class.getName();
+
+	private static final String PLACEHOLDER = "{}";
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private final Logger logger;
+	private final int rateLimit;
+	private final long rateIntervalNanos;
+
+	// Rate of each warning and error message.
+	private final ConcurrentMap<String, Rate> rates = new ConcurrentHashMap<String, Rate>();
+
+	/**
+	 * Log constructor.
+	 *
+	 * @param logger - log4j logger written to.
+	 * @param rateLimit - warnings and errors logged per message and interval,
+	 *        0 for no limit.
+	 * @param rateIntervalNanos - rate limit interval, in nanoseconds.
+	 */
+	public Log( Logger logger, int rateLimit, long rateIntervalNanos )
+	{
+		this.logger = logger;
+		this.rateLimit = rateLimit;
+		this.rateIntervalNanos = rateIntervalNanos;
+	}
+
+	/**
+	 * Obtain the log of a class, rate limited by application.properties.
+	 *
+	 * @param type - class logging.
+	 * @return - log.
+	 */
+	public static Log getLog( Class<?> type )
+	{
+		return new Log(Logger.getLogger(type), RATE_LIMIT, RATE_INTERVAL_NANOS);
+	}
+
+	/**
+	 * @return - true if debug messages are logged.
+	 */
+	public boolean isDebugEnabled()
+	{
+		return logger.isDebugEnabled();
+	}
+
+	/**
+	 * Log a debug message with one argument.
+	 */
+	public void debug( String message, Object arg )
+	{
+		if (logger.isDebugEnabled())
+		{
+			write(Level.DEBUG, message, new Object[] { arg }, 0);
+		}
+	}
+
+	/**
+	 * Log a debug message with two arguments.
+	 */
+	public void debug( String message, Object arg1, Object arg2 )
+	{
+		if (logger.isDebugEnabled())
+		{
+			write(Level.DEBUG, message, new Object[] { arg1, arg2 }, 0);
+		}
+	}
+
+	/**
+	 * Log a debug message with three arguments.
+	 */
+	public void debug( String message, Object arg1, Object arg2, Object arg3 )
+	{
+		if (logger.isDebugEnabled())
+		{
+			write(Level.DEBUG, message, new Object[] { arg1, arg2, arg3 }, 0);
+		}
+	}
+
+	/**
+	 * Log an information message.
+	 */
+	public void info( String message, Object... args )
+	{
+		if (logger.isInfoEnabled())
+		{
+			write(Level.INFO, message, args, 0);
+		}
+	}
+
+	/**
+	 * Log a warning, unless the message is over its rate limit.
+	 */
+	public void warn( String message, Object... args )
+	{
+		limited(Level.WARN, message, args);
+	}
+
+	/**
+	 * Log an error, unless the message is over its rate limit.
+	 */
+	public void error( String message, Object... args )
+	{
+		limited(Level.ERROR, message, args);
+	}
+
+	/**
+	 * Log a warning or error within the rate limit of its message.
+	 */
+	private void limited( Level level, String message, Object[] args )
+	{
+		// Level disabled.
+		if (!logger.isEnabledFor(level))
+		{
+			return;
+		}
+
+		long dropped = 0;
+
+		// Unlimited if no rate is set.
+		if (rateLimit > 0)
+		{
+			Rate rate = rates.get(message);
+
+			if (rate == null)
+			{
+				Rate created = new Rate();
+
+				rate = rates.putIfAbsent(message, created);
+
+				if (rate == null)
+				{
+					rate = created;
+				}
+			}
+
+			dropped = rate.acquire(System.nanoTime(), rateLimit,
+							rateIntervalNanos);
+
+			// Over the limit of this interval.
+			if (dropped < 0)
+			{
+				return;
+			}
+		}
+
+		write(level, message, (args == null) ? NO_ARGS : args, dropped);
+	}
+
+	/**
+	 * Format and write a message.
+	 */
+	private void write( Level level, String message, Object[] args,
+					long dropped )
+	{
+		StringBuilder text = new StringBuilder(message.length() + 64);
+		int used = format(text, message, args);
+
+		// Messages dropped since the last one logged.
+		if (dropped > 0)
+		{
+			text.append(" (").append(dropped)
+							.append(" similar messages suppressed)");
+		}
+
+		Throwable error = null;
+
+		// An argument left over and throwable is logged as such.
+		if ((used < args.length) && (args[args.length - 1] instanceof Throwable))
+		{
+			error = (Throwable) args[args.length - 1];
+		}
+
+		logger.log(FQCN, level, text.toString(), error);
+	}
+
+	/**
+	 * Format a message, replacing each {} with the next argument.
+	 *
+	 * @param message - message with {} placeholders.
+	 * @param args - arguments.
+	 * @return - formatted message.
+	 */
+	public static String format( String message, Object... args )
+	{
+		StringBuilder text = new StringBuilder(message.length() + 64);
+
+		format(text, message, (args == null) ? NO_ARGS : args);
+
+		return text.toString();
+	}
+
+	/**
+	 * Append a formatted message.
+	 *
+	 * @return - number of arguments used.
+	 */
+	private static int format( StringBuilder text, String message,
+					Object[] args )
+	{
+		int used = 0;
+		int start = 0;
+		int next;
+
+		while ((used < args.length)
+						&& ((next = message.indexOf(PLACEHOLDER, start)) >= 0))
+		{
+			text.append(message, start, next).append(args[used++]);
+			start = next + PLACEHOLDER.length();
+		}
+
+		text.append(message, start, message.length());
+
+		return used;
+	}
+
+	/**
+	 * Messages logged in the current interval.
+	 */
+	private static final class Rate
+	{
+		private long intervalStart;
+		private int logged;
+		private long dropped;
+		private boolean started;
+
+		/**
+		 * Take one message from the current interval.
+		 *
+		 * @return - messages dropped since the last one logged, or -1 if this
+		 *         one is dropped.
+		 */
+		private synchronized long acquire( long now, int limit,
+						long intervalNanos )
+		{
+			// New interval.
+			if (!started || (now - intervalStart >= intervalNanos))
+			{
+				started = true;
+				intervalStart = now;
+				logged = 0;
+			}
+
+			// Over the limit, count it for the next message logged.
+			if (logged >= limit)
+			{
+				dropped++;
+
+				return -1;
+			}
+
+			logged++;
+
+			long reported = dropped;
+
+			dropped = 0;
+
+			return reported;
+		}
+	}
+}
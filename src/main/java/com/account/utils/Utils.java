@@ -136,6 +136,28 @@ public class Utils
 		}
 	}
 
+	/**
+	 * Retrieve the boolean value from the properties file according to the
+	 * key. If value is null, set to the default value.
+	 *  
+	 * @param key - property key
+	 * @param defaultVal - default value if the key not present in config file
+	 * @return - boolean property based on lookup key
+	 */
+	public static boolean getBooleanProperty( String key, boolean defaultVal )
+	{
+		// Retrieve the value according to the key.
+		String valueStr = getStringProperty(key);
+		
+		// If the property value is null, return the default value.
+		if (valueStr == null)
+		{
+			return defaultVal;
+		}
+		
+		return Boolean.parseBoolean(valueStr.trim());
+	}
+
 	/**
 	 * Initialise the configuration file for keyed access.
 	 */
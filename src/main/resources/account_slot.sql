@@ -0,0 +1,12 @@
+--Balance slots of hot accounts, run after the account data is loaded.
+
+DROP TABLE IF EXISTS AccountSlot;
+
+--Credits to a hot account are spread over its slots, its balance is the
+--Account row balance plus the sum of its slots. Accounts without slots keep
+--a single balance.
+CREATE TABLE AccountSlot (AccountId BIGINT NOT NULL,
+SlotId INT NOT NULL,
+Balance DECIMAL(19,4) NOT NULL,
+PRIMARY KEY (AccountId, SlotId)
+);
@@ -0,0 +1,14 @@
+--Idempotency keys of POST /transaction.
+
+DROP TABLE IF EXISTS IdempotencyKey;
+
+--Status 0 while the request is in progress, then its HTTP status.
+CREATE TABLE IdempotencyKey (IdempotencyKey VARCHAR(255) PRIMARY KEY NOT NULL,
+Fingerprint VARCHAR(255) NOT NULL,
+Status INT NOT NULL,
+Message VARCHAR(255),
+CreatedAt TIMESTAMP NOT NULL
+);
+
+--Expired keys are deleted by creation time.
+CREATE INDEX idx_idem_created on IdempotencyKey(CreatedAt);
@@ -0,0 +1,25 @@
+--Account ledger, run after the account data is loaded.
+
+DROP TABLE IF EXISTS Ledger;
+DROP SEQUENCE IF EXISTS Ledger_Seq;
+
+CREATE SEQUENCE Ledger_Seq START WITH 1 CACHE 1000;
+
+--One row per leg, only ever inserted. Balance is null when the balance after
+--the leg is not known, for legs of hot accounts whose slots are not locked.
+CREATE TABLE Ledger (LedgerId BIGINT DEFAULT NEXT VALUE FOR Ledger_Seq PRIMARY KEY NOT NULL,
+AccountId BIGINT NOT NULL,
+CounterAccountId BIGINT,
+Amount DECIMAL(19,4) NOT NULL,
+Balance DECIMAL(19,4),
+CurrencyCode VARCHAR(30),
+CreatedAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
+--Holds every column of the history query, so a page is one index range scan.
+CREATE INDEX idx_ledger_acc on Ledger(AccountId,LedgerId,CounterAccountId,Amount,Balance,CurrencyCode,CreatedAt);
+
+CREATE TRIGGER trg_ledger_immutable BEFORE UPDATE, DELETE ON Ledger FOR EACH ROW CALL "com.account.dao.impl.LedgerImmutableTrigger";
+
+--Opening legs, so each balance is the sum of its account's legs.
+INSERT INTO Ledger (AccountId,Amount,Balance,CurrencyCode) SELECT AccountId,Balance,Balance,CurrencyCode FROM Account WHERE Balance IS NOT NULL ORDER BY AccountId;
@@ -0,0 +1,5 @@
+--Unique user names, run after the user data is loaded.
+
+--idx_ue only rejects a repeated name and email pair, user names are unique
+--on their own so that a single insert can create a user.
+CREATE UNIQUE INDEX IF NOT EXISTS idx_user_name on User(UserName);
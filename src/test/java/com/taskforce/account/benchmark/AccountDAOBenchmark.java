@@ -0,0 +1,186 @@
+package com.taskforce.account.benchmark;
+
+import com.account.dao.AccountDAO;
+import com.account.dao.DAOFactory;
+import com.account.dao.impl.AccountDAOImpl;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.UserTransaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks for the account DAO.
+ *
+ * Runs against each factory type: DATA through the uncached AccountDAOImpl,
+ * MEMORY through the in-memory DAO. getAccountByIdCached always uses the
+ * factory DAO. Each write benchmark moves funds back and forth so balances
+ * stay bounded however long it runs.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark.includes=AccountDAOBenchmark
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.xml" )
+public class AccountDAOBenchmark
+{
+	// Balance of the accounts created for the benchmark.
+	private static final BigDecimal OPENING_BALANCE = new BigDecimal(
+					"1000000000.0000");
+
+	private static final BigDecimal AMOUNT = new BigDecimal("1.0000");
+
+	// Source of unique user names for per thread accounts.
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	/**
+	 * Database loaded with the demo data plus one hot account shared by every
+	 * thread.
+	 */
+	@State( Scope.Benchmark )
+	public static class Database
+	{
+		// DAOFactory.DATA or DAOFactory.MEMORY.
+		@Param( { "1", "2" } )
+		int factoryType;
+
+		DAOFactory daoFactory;
+		AccountDAO accountDAO;
+
+		long hotAccountId;
+
+		@Setup( Level.Trial )
+		public void setup() throws CustomException
+		{
+			daoFactory = DAOFactory.getDAOFactory(factoryType);
+			accountDAO = (factoryType == DAOFactory.DATA) ? new AccountDAOImpl()
+							: daoFactory.getAccountDAO();
+
+			daoFactory.populateTestData();
+
+			hotAccountId = accountDAO.createAccount(
+							new Account("benchhot", OPENING_BALANCE, "USD"))
+							.getAccountId();
+		}
+	}
+
+	/**
+	 * Pair of accounts owned by one benchmark thread.
+	 */
+	@State( Scope.Thread )
+	public static class ThreadAccounts
+	{
+		long accountId;
+		long otherAccountId;
+
+		// Flips on every write so funds go back and forth.
+		boolean forward;
+
+		@Setup( Level.Trial )
+		public void setup( Database database ) throws CustomException
+		{
+			String userName = "bench" + threadCount.incrementAndGet();
+
+			accountId = database.accountDAO.createAccount(
+							new Account(userName, OPENING_BALANCE, "USD"))
+							.getAccountId();
+			otherAccountId = database.accountDAO.createAccount(
+							new Account(userName + "b", OPENING_BALANCE, "USD"))
+							.getAccountId();
+		}
+
+		/**
+		 * Next direction to move funds in.
+		 */
+		boolean flip()
+		{
+			forward = !forward;
+
+			return forward;
+		}
+	}
+
+	/**
+	 * Read one account, uncached for DATA.
+	 */
+	@Benchmark
+	public Account getAccountById( Database database ) throws CustomException
+	{
+		return database.accountDAO.getAccountById(3L);
+	}
+
+	/**
+	 * Read one account through the factory DAO and its cache.
+	 */
+	@Benchmark
+	public Account getAccountByIdCached( Database database )
+					throws CustomException
+	{
+		return database.daoFactory.getAccountDAO().getAccountById(3L);
+	}
+
+	/**
+	 * Deposit to and withdraw from an account owned by the thread.
+	 */
+	@Benchmark
+	public Account updateAccountBalance( Database database,
+					ThreadAccounts accounts ) throws CustomException
+	{
+		BigDecimal delta = accounts.flip() ? AMOUNT : AMOUNT.negate();
+
+		return database.accountDAO.updateAccountBalance(accounts.accountId,
+						delta);
+	}
+
+	/**
+	 * Transfer between two accounts owned by the thread, so threads never
+	 * wait on each other's row locks.
+	 */
+	@Benchmark
+	public int transferUncontended( Database database, ThreadAccounts accounts )
+					throws CustomException
+	{
+		UserTransaction transaction = accounts.flip() ? new UserTransaction(
+						"USD", AMOUNT, accounts.accountId, accounts.otherAccountId)
+						: new UserTransaction("USD", AMOUNT,
+										accounts.otherAccountId, accounts.accountId);
+
+		return database.accountDAO.transferAccountBalance(transaction);
+	}
+
+	/**
+	 * Transfer between an account owned by the thread and the hot account
+	 * shared by all threads, so every transfer queues on one row lock.
+	 */
+	@Benchmark
+	@Threads( 4 )
+	public int transferHotAccount( Database database, ThreadAccounts accounts )
+					throws CustomException
+	{
+		UserTransaction transaction = accounts.flip() ? new UserTransaction(
+						"USD", AMOUNT, accounts.accountId, database.hotAccountId)
+						: new UserTransaction("USD", AMOUNT,
+										database.hotAccountId, accounts.accountId);
+
+		return database.accountDAO.transferAccountBalance(transaction);
+	}
+}
@@ -0,0 +1,92 @@
+package com.taskforce.account.benchmark;
+
+import com.account.model.Account;
+import com.account.model.UserTransaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the Jackson (de)serialisation of the request and response
+ * bodies, using the JSON shown in the README.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark.includes=JsonBenchmark
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.xml" )
+public class JsonBenchmark
+{
+	private static final String ACCOUNT_JSON = "{\"userName\":\"test1\","
+					+ "\"balance\":10.0000,\"currencyCode\":\"GBP\"}";
+
+	private static final String TRANSACTION_JSON = "{\"currencyCode\":\"EUR\","
+					+ "\"amount\":100000.0000,\"fromAccountId\":1,"
+					+ "\"toAccountId\":2}";
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private ObjectReader accountReader;
+	private ObjectWriter accountWriter;
+	private ObjectReader transactionReader;
+	private ObjectWriter transactionWriter;
+
+	private Account account;
+	private UserTransaction transaction;
+
+	@Setup
+	public void setup()
+	{
+		accountReader = mapper.readerFor(Account.class);
+		accountWriter = mapper.writerFor(Account.class);
+		transactionReader = mapper.readerFor(UserTransaction.class);
+		transactionWriter = mapper.writerFor(UserTransaction.class);
+
+		account = new Account(1L, "test1", new BigDecimal("10.0000"), "GBP");
+		transaction = new UserTransaction("EUR", new BigDecimal("100000.0000"),
+						1L, 2L);
+	}
+
+	@Benchmark
+	public Account readAccount() throws IOException
+	{
+		return accountReader.readValue(ACCOUNT_JSON);
+	}
+
+	@Benchmark
+	public String writeAccount() throws IOException
+	{
+		return accountWriter.writeValueAsString(account);
+	}
+
+	@Benchmark
+	public UserTransaction readTransaction() throws IOException
+	{
+		return transactionReader.readValue(TRANSACTION_JSON);
+	}
+
+	@Benchmark
+	public String writeTransaction() throws IOException
+	{
+		return transactionWriter.writeValueAsString(transaction);
+	}
+}
@@ -0,0 +1,100 @@
+package com.taskforce.account.benchmark;
+
+import com.account.model.Money;
+import com.account.model.MoneyUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the BigDecimal and long minor unit versions of the transfer
+ * balance check: debit the source, check it does not go negative, credit the
+ * destination.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark.includes=MoneyBenchmark
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MoneyBenchmark
+{
+	private BigDecimal fromBalance;
+	private BigDecimal toBalance;
+	private BigDecimal amount;
+
+	private long fromUnits;
+	private long toUnits;
+	private long amountUnits;
+
+	@Setup
+	public void setup()
+	{
+		fromBalance = new BigDecimal("1234.5678");
+		toBalance = new BigDecimal("876.5432");
+		amount = new BigDecimal("12.34");
+
+		fromUnits = Money.toMinorUnits(fromBalance);
+		toUnits = Money.toMinorUnits(toBalance);
+		amountUnits = Money.toMinorUnits(amount);
+	}
+
+	/**
+	 * Balance check as previously done in the DAO and service.
+	 */
+	@Benchmark
+	public void bigDecimalTransfer( Blackhole bh )
+	{
+		BigDecimal scaled = amount.setScale(4, RoundingMode.HALF_EVEN);
+		BigDecimal leftOver = fromBalance.subtract(scaled);
+
+		bh.consume(leftOver.compareTo(MoneyUtil.zeroAmount) >= 0);
+		bh.consume(leftOver);
+		bh.consume(toBalance.add(scaled));
+	}
+
+	/**
+	 * Balance check on minor units already held as longs.
+	 */
+	@Benchmark
+	public void longTransfer( Blackhole bh )
+	{
+		long leftOver = Money.subtract(fromUnits, amountUnits);
+
+		bh.consume(leftOver >= Money.ZERO);
+		bh.consume(leftOver);
+		bh.consume(Money.add(toUnits, amountUnits));
+	}
+
+	/**
+	 * Balance check on minor units, including the conversions at the JDBC
+	 * edges, as the DAO does for a single transfer.
+	 */
+	@Benchmark
+	public void longTransferWithConversion( Blackhole bh )
+	{
+		long units = Money.toMinorUnits(amount);
+		long leftOver = Money.subtract(Money.toMinorUnits(fromBalance), units);
+
+		bh.consume(leftOver >= Money.ZERO);
+		bh.consume(Money.toBigDecimal(leftOver));
+		bh.consume(Money.toBigDecimal(Money.add(
+						Money.toMinorUnits(toBalance), units)));
+	}
+}
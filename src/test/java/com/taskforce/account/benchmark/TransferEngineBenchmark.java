@@ -0,0 +1,114 @@
+package com.taskforce.account.benchmark;
+
+import com.account.dao.memory.MemoryAccountDAO;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.UserTransaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for in-memory transfers on the calling thread against the
+ * sharded transfer engine.
+ *
+ * Every thread moves funds between random accounts of a shared set, so
+ * transfers land both within and across shards.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark.includes=TransferEngineBenchmark
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.xml" )
+public class TransferEngineBenchmark
+{
+	// Balance of each account, large enough never to run out.
+	private static final BigDecimal OPENING_BALANCE = new BigDecimal(
+					"1000000000.0000");
+
+	private static final BigDecimal AMOUNT = new BigDecimal("1.0000");
+
+	/**
+	 * Accounts shared by every thread.
+	 */
+	@State( Scope.Benchmark )
+	public static class Accounts
+	{
+		// Transfer engine shards, 0 for the calling thread.
+		@Param( { "0", "4" } )
+		int shards;
+
+		@Param( { "64" } )
+		int accountCount;
+
+		MemoryAccountDAO accountDAO;
+
+		@Setup( Level.Trial )
+		public void setup() throws CustomException
+		{
+			accountDAO = new MemoryAccountDAO(1024, shards);
+
+			for ( int i = 0; i < accountCount; i++ )
+			{
+				accountDAO.createAccount(new Account("bench" + i,
+								OPENING_BALANCE, "USD"));
+			}
+		}
+	}
+
+	/**
+	 * Source of random account ids, one per thread.
+	 */
+	@State( Scope.Thread )
+	public static class Picker
+	{
+		final Random random = new Random();
+
+		/**
+		 * Pick an account id.
+		 */
+		long next( Accounts accounts )
+		{
+			return random.nextInt(accounts.accountCount) + 1;
+		}
+	}
+
+	/**
+	 * Transfer between two random accounts.
+	 */
+	@Benchmark
+	@Threads( 4 )
+	public int transfer( Accounts accounts, Picker picker )
+					throws CustomException
+	{
+		long from = picker.next(accounts);
+		long to = picker.next(accounts);
+
+		// Never to the same account.
+		if (from == to)
+		{
+			to = (to % accounts.accountCount) + 1;
+		}
+
+		return accounts.accountDAO.transferAccountBalance(new UserTransaction(
+						"USD", AMOUNT, from, to));
+	}
+}
@@ -0,0 +1,66 @@
+package com.taskforce.account.benchmark;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.UserDAO;
+import com.account.exception.CustomException;
+import com.account.model.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the user DAO against the in memory H2 database.
+ *
+ * Run with: mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark.includes=UserDAOBenchmark
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.xml" )
+public class UserDAOBenchmark
+{
+	private final DAOFactory daoFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	private UserDAO userDAO;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		daoFactory.populateTestData();
+
+		userDAO = daoFactory.getUserDAO();
+	}
+
+	/**
+	 * Look up an existing user by name.
+	 */
+	@Benchmark
+	public User getUserByName() throws CustomException
+	{
+		return userDAO.getUserByName("george");
+	}
+
+	/**
+	 * Look up a user name that does not exist.
+	 */
+	@Benchmark
+	public User getUnknownUserByName() throws CustomException
+	{
+		return userDAO.getUserByName("nobody");
+	}
+}
@@ -20,6 +20,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertTrue;
 
@@ -150,6 +151,86 @@ public class TestAccountBalance
 
 	}
 
+	/**
+	 * Test opposing transfers between the same two accounts from many
+	 * threads. With locks taken in account id order none of them deadlock
+	 * or time out, and the total balance is preserved.
+	 * 
+	 * @throws InterruptedException
+	 * @throws CustomException
+	 */
+	@Test
+	public void testAccountMultiThreadedBidirectionalTransfer()
+					throws InterruptedException, CustomException
+	{
+		final AccountDAO accountDAO = DataDaoFactory.getAccountDAO();
+		
+		// Transfer 1GBP at a time between accounts 7 and 8 in both directions.
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch latch = new CountDownLatch(THREADS_COUNT);
+		final AtomicInteger sevenToEight = new AtomicInteger();
+		final AtomicInteger eightToSeven = new AtomicInteger();
+		
+		for ( int i = 0; i < THREADS_COUNT; i++ )
+		{
+			final boolean forward = (i % 2 == 0);
+			
+			new Thread(new Runnable()
+			{
+				// @Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						
+						UserTransaction transaction = new UserTransaction(
+										"GBP",
+										new BigDecimal(1).setScale(4,
+														RoundingMode.HALF_EVEN),
+										forward ? 7L : 8L, forward ? 8L : 7L);
+						
+						if (accountDAO.transferAccountBalance(transaction) == 2)
+						{
+							(forward ? sevenToEight : eightToSeven)
+											.incrementAndGet();
+						}
+					}
+					catch (Exception e)
+					{
+						log.error("Error occurred during transfer ", e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+
+		long startTime = System.currentTimeMillis();
+		
+		start.countDown();
+		latch.await();
+		
+		log.info("Bidirectional transfers finished, time taken: "
+						+ (System.currentTimeMillis() - startTime) + "ms");
+
+		Account account7 = accountDAO.getAccountById(7);
+		Account account8 = accountDAO.getAccountById(8);
+
+		// Every transfer succeeded.
+		assertTrue(sevenToEight.get() + eightToSeven.get() == THREADS_COUNT);
+		
+		// Balances reflect the successful transfers and the total is kept.
+		int net = sevenToEight.get() - eightToSeven.get();
+		
+		assertTrue(account7.getBalance().compareTo(
+						new BigDecimal(700 - net)) == 0);
+		assertTrue(account8.getBalance().compareTo(
+						new BigDecimal(800 + net)) == 0);
+	}
+
 	/**
 	 * Test for transfer on Data base failure.
 	 * 
@@ -0,0 +1,158 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.cache.CacheStats;
+import com.account.dao.cache.CachingAccountDAO;
+import com.account.dao.cache.ExpiringLruCache;
+import com.account.dao.impl.AccountDAOImpl;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.UserTransaction;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the account cache.
+ */
+public class TestAccountCache
+{
+	private static final DAOFactory DataDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	private CachingAccountDAO accountDAO;
+
+	@BeforeClass
+	public static void setup()
+	{
+		// Prepare test database and test data. Test data are initialised from
+		// src/test/resources/demo.sql
+		DataDAOFactory.populateTestData();
+	}
+
+	@Before
+	public void createCache()
+	{
+		accountDAO = new CachingAccountDAO(new AccountDAOImpl(), 100, 60000);
+	}
+
+	/**
+	 * Test that repeated reads are served from the cache.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testRepeatedReadIsCacheHit() throws CustomException
+	{
+		Account first = accountDAO.getAccountById(3L);
+		Account second = accountDAO.getAccountById(3L);
+
+		CacheStats stats = accountDAO.getStats();
+
+		assertTrue(first.equals(second));
+		assertTrue(stats.getMissCount() == 1);
+		assertTrue(stats.getHitCount() == 1);
+	}
+
+	/**
+	 * Test that a balance update is visible through the cache.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testUpdateInvalidatesCachedAccount() throws CustomException
+	{
+		BigDecimal before = accountDAO.getAccountById(9L).getBalance();
+
+		accountDAO.updateAccountBalance(9L, new BigDecimal(5));
+
+		BigDecimal after = accountDAO.getAccountById(9L).getBalance();
+
+		assertTrue(after.compareTo(before.add(new BigDecimal(5))) == 0);
+	}
+
+	/**
+	 * Test that a transfer is visible through the cache for both accounts.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTransferInvalidatesCachedAccounts() throws CustomException
+	{
+		BigDecimal from = accountDAO.getAccountById(7L).getBalance();
+		BigDecimal to = accountDAO.getAccountById(8L).getBalance();
+
+		accountDAO.transferAccountBalance(new UserTransaction("GBP",
+						new BigDecimal(1), 7L, 8L));
+
+		assertTrue(accountDAO.getAccountById(7L).getBalance()
+						.compareTo(from.subtract(new BigDecimal(1))) == 0);
+		assertTrue(accountDAO.getAccountById(8L).getBalance()
+						.compareTo(to.add(new BigDecimal(1))) == 0);
+	}
+
+	/**
+	 * Test that the cache stays within its size bound.
+	 */
+	@Test
+	public void testSizeEviction()
+	{
+		ExpiringLruCache<Long, String> cache = new ExpiringLruCache<Long, String>(
+						4, 0);
+
+		for ( long i = 0; i < 10; i++ )
+		{
+			cache.put(i, "value" + i);
+		}
+
+		CacheStats stats = cache.getStats();
+
+		assertTrue(stats.getSize() == 4);
+		assertTrue(stats.getEvictionCount() == 6);
+
+		// Most recent entries are kept.
+		assertTrue(cache.get(9L) != null);
+		assertTrue(cache.get(0L) == null);
+	}
+
+	/**
+	 * Test that entries expire after the time to live.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testTtlExpiry() throws InterruptedException
+	{
+		ExpiringLruCache<Long, String> cache = new ExpiringLruCache<Long, String>(
+						4, 20);
+
+		cache.put(1L, "value");
+
+		Thread.sleep(50);
+
+		assertTrue(cache.get(1L) == null);
+		assertTrue(cache.getStats().getExpirationCount() == 1);
+	}
+
+	/**
+	 * Test that a value loaded before a write is not cached.
+	 */
+	@Test
+	public void testStaleLoadNotCached()
+	{
+		ExpiringLruCache<Long, String> cache = new ExpiringLruCache<Long, String>(
+						4, 0);
+
+		long stamp = cache.getWriteStamp(1L);
+
+		cache.invalidate(1L);
+
+		assertTrue(!cache.putIfUnchanged(1L, "stale", stamp));
+		assertTrue(cache.get(1L) == null);
+	}
+}
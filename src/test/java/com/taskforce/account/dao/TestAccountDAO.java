@@ -1,8 +1,14 @@
 package com.taskforce.account.dao;
 
+import com.account.dao.AccountDAO;
 import com.account.dao.DAOFactory;
+import com.account.dao.impl.AccountDAOImpl;
 import com.account.exception.CustomException;
+import com.account.exception.TransferException;
 import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.TransferStatus;
+import com.account.model.UserTransaction;
 
 import org.junit.After;
 import org.junit.BeforeClass;
@@ -10,6 +16,10 @@ import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 
 import static junit.framework.TestCase.assertTrue;
@@ -91,10 +101,12 @@ public class TestAccountDAO
 		
 		Account a = new Account("piere", balance, "CDN");
 		
-		long aid = DataDAOFactory.getAccountDAO().createAccount(a);
+		Account created = DataDAOFactory.getAccountDAO().createAccount(a);
 		
-		Account afterCreation = DataDAOFactory.getAccountDAO().getAccountById(aid);
+		Account afterCreation = DataDAOFactory.getAccountDAO().getAccountById(
+						created.getAccountId());
 		
+		assertTrue(created.equals(afterCreation));
 		assertTrue(afterCreation.getUserName().equals("piere"));
 		assertTrue(afterCreation.getCurrencyCode().equals("CDN"));
 		assertTrue(afterCreation.getBalance().equals(balance));
@@ -143,10 +155,10 @@ public class TestAccountDAO
 		BigDecimal afterDeposit = new BigDecimal(150).setScale(4,
 						RoundingMode.HALF_EVEN);
 		
-		int rowsUpdated = DataDAOFactory.getAccountDAO().updateAccountBalance(
+		Account updated = DataDAOFactory.getAccountDAO().updateAccountBalance(
 						1L, deltaDeposit);
 		
-		assertTrue(rowsUpdated == 1);
+		assertTrue(updated.getBalance().equals(afterDeposit));
 		
 		assertTrue(DataDAOFactory.getAccountDAO().getAccountById(1L)
 						.getBalance().equals(afterDeposit));
@@ -156,10 +168,10 @@ public class TestAccountDAO
 		BigDecimal afterWithDraw = new BigDecimal(100).setScale(4,
 						RoundingMode.HALF_EVEN);
 		
-		int rowsUpdatedW = DataDAOFactory.getAccountDAO().updateAccountBalance(
+		Account updatedW = DataDAOFactory.getAccountDAO().updateAccountBalance(
 						1L, deltaWithDraw);
 		
-		assertTrue(rowsUpdatedW == 1);
+		assertTrue(updatedW.getBalance().equals(afterWithDraw));
 		assertTrue(DataDAOFactory.getAccountDAO().getAccountById(1L)
 						.getBalance().equals(afterWithDraw));
 
@@ -175,10 +187,139 @@ public class TestAccountDAO
 	{
 		BigDecimal deltaWithDraw = new BigDecimal(-50000).setScale(4,
 						RoundingMode.HALF_EVEN);
-		int rowsUpdatedW = DataDAOFactory.getAccountDAO().updateAccountBalance(
-						1L, deltaWithDraw);
-		assertTrue(rowsUpdatedW == 0);
+		DataDAOFactory.getAccountDAO().updateAccountBalance(1L, deltaWithDraw);
+
+	}
+
+	/**
+	 * Test Custom Exception attempting to update the balance of an account
+	 * that does not exist.
+	 * 
+	 * @throws CustomException
+	 */
+	@Test( expected = CustomException.class )
+	public void testUpdateNonExistingAccountBalance() throws CustomException
+	{
+		BigDecimal deltaDeposit = new BigDecimal(50).setScale(4,
+						RoundingMode.HALF_EVEN);
+		
+		DataDAOFactory.getAccountDAO().updateAccountBalance(500L, deltaDeposit);
+	}
+
+	/**
+	 * Test that the account creation, a transfer, a batch transfer and a
+	 * withdrawal are written to the ledger, and that the history pages by
+	 * ledger id.
+	 * 
+	 * @throws CustomException
+	 */
+	@Test
+	public void testAccountHistory() throws CustomException
+	{
+		AccountDAO accountDAO = DataDAOFactory.getAccountDAO();
+		
+		long fromId = accountDAO.createAccount(
+						new Account("ledgerfrom", new BigDecimal("100.0000"),
+										"USD")).getAccountId();
+		long toId = accountDAO.createAccount(
+						new Account("ledgerto", new BigDecimal("0.0000"), "USD"))
+						.getAccountId();
+		
+		accountDAO.transferAccountBalance(new UserTransaction("USD",
+						new BigDecimal("30.0000"), fromId, toId));
+		assertTrue(accountDAO.transferAccountBalances(
+						Arrays.asList(new UserTransaction("USD", new BigDecimal(
+										"5.0000"), fromId, toId))).get(0)
+						.getStatus() == TransferStatus.OK);
+		accountDAO.updateAccountBalance(fromId, new BigDecimal("-20.0000"));
+		
+		List<LedgerEntry> history = accountDAO.getAccountHistory(fromId, 0, 0);
+		
+		assertTrue(history.size() == 4);
+		assertTrue(history.get(0).getAmount().equals(new BigDecimal("100.0000")));
+		assertTrue(history.get(0).getCounterAccountId() == null);
+		assertTrue(history.get(1).getAmount().equals(new BigDecimal("-30.0000")));
+		assertTrue(history.get(1).getCounterAccountId() == toId);
+		assertTrue(history.get(2).getBalance().equals(new BigDecimal("65.0000")));
+		assertTrue(history.get(3).getBalance().equals(new BigDecimal("45.0000")));
+		assertTrue(history.get(3).getCounterAccountId() == null);
+		
+		// Next page after the opening leg.
+		List<LedgerEntry> page = accountDAO.getAccountHistory(fromId, history
+						.get(0).getLedgerId(), 1);
+		
+		assertTrue(page.size() == 1);
+		assertTrue(page.get(0).getLedgerId() == history.get(1).getLedgerId());
+		
+		// Credit legs of the destination.
+		List<LedgerEntry> credits = accountDAO.getAccountHistory(toId, 0, 0);
+		
+		assertTrue(credits.size() == 3);
+		assertTrue(credits.get(1).getAmount().equals(new BigDecimal("30.0000")));
+		assertTrue(credits.get(1).getCounterAccountId() == fromId);
+		assertTrue(credits.get(2).getBalance().equals(new BigDecimal("35.0000")));
+	}
+
+	/**
+	 * Test that ledger rows cannot be changed.
+	 * 
+	 * @throws SQLException
+	 */
+	@Test( expected = SQLException.class )
+	public void testLedgerImmutable() throws SQLException
+	{
+		Connection conn = com.account.dao.DataDAOFactory.getConnection();
+		
+		try
+		{
+			conn.createStatement().executeUpdate(
+							"UPDATE Ledger SET Amount = 0 WHERE AccountId = 1");
+		}
+		finally
+		{
+			conn.close();
+		}
+	}
 
+	/**
+	 * Test that a transfer to an account locked by another transaction for
+	 * longer than the lock timeout fails with LOCK_FAIL and is rolled back.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testTransferLockTimeout() throws Exception
+	{
+		AccountDAO accountDAO = new AccountDAOImpl();
+		BigDecimal fromBalance = accountDAO.getAccountById(1).getBalance();
+		Connection conn = com.account.dao.DataDAOFactory.getConnection();
+		TransferStatus status = null;
+		
+		// Hold the lock of the destination.
+		try
+		{
+			conn.setAutoCommit(false);
+			
+			PreparedStatement lockStmt = conn.prepareStatement(
+							"SELECT * FROM Account WHERE AccountId = 3 FOR UPDATE");
+			lockStmt.executeQuery().next();
+			
+			accountDAO.transferAccountBalance(new UserTransaction("USD",
+							new BigDecimal(1), 1L, 3L));
+		}
+		catch (TransferException e)
+		{
+			status = e.getStatus();
+		}
+		finally
+		{
+			conn.rollback();
+			conn.close();
+		}
+		
+		assertTrue(status == TransferStatus.LOCK_FAIL);
+		assertTrue(accountDAO.getAccountById(1).getBalance()
+						.compareTo(fromBalance) == 0);
 	}
 
-}
\ No newline at end of file
+}
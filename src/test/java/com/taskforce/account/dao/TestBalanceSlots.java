@@ -0,0 +1,223 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.impl.AccountDAOImpl;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
+import com.account.model.UserTransaction;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the balance slots of hot accounts.
+ */
+public class TestBalanceSlots
+{
+	private static final DAOFactory DataDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	private static final AccountDAOImpl accountDAO = new AccountDAOImpl();
+
+	@BeforeClass
+	public static void setup()
+	{
+		// Prepare test database and test data. Test data are initialised from
+		// src/test/resources/demo.sql
+		DataDAOFactory.populateTestData();
+	}
+
+	/**
+	 * Test that concurrent credits to a hot account all count in its balance.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentCreditsToHotAccount() throws Exception
+	{
+		BigDecimal before = accountDAO.getAccountById(6L).getBalance();
+
+		Account hot = accountDAO.setBalanceSlots(6L, 4);
+
+		assertTrue(hot.getBalance().compareTo(before) == 0);
+
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+		try
+		{
+			for ( int i = 0; i < 16; i++ )
+			{
+				results.add(callers.submit(new Callable<Integer>()
+				{
+					public Integer call() throws CustomException
+					{
+						return accountDAO.transferAccountBalance(new UserTransaction(
+										"EUR", new BigDecimal(1), 4L, 6L));
+					}
+				}));
+			}
+
+			for ( Future<Integer> result : results )
+			{
+				assertTrue(result.get() == 2);
+			}
+		}
+		finally
+		{
+			callers.shutdownNow();
+		}
+
+		accountDAO.updateAccountBalance(6L, new BigDecimal(4));
+
+		BigDecimal expected = before.add(new BigDecimal(20));
+
+		assertTrue(accountDAO.getAccountById(6L).getBalance()
+						.compareTo(expected) == 0);
+
+		// Pages read the same balance.
+		for ( Account account : accountDAO.getAccounts(5L, 1) )
+		{
+			assertTrue(account.getBalance().compareTo(expected) == 0);
+		}
+
+		// Slot credits cannot know the balance after them, the source can.
+		for ( LedgerEntry entry : accountDAO.getAccountHistory(6L, 0L, 0) )
+		{
+			if (entry.getCounterAccountId() != null)
+			{
+				assertTrue(entry.getBalance() == null);
+			}
+		}
+
+		for ( LedgerEntry entry : accountDAO.getAccountHistory(4L, 0L, 0) )
+		{
+			assertTrue(entry.getBalance() != null);
+		}
+	}
+
+	/**
+	 * Test that a debit the account row cannot cover folds in the slots, and
+	 * fails only if the whole balance is short.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testDebitFoldsSlots() throws CustomException
+	{
+		BigDecimal before = accountDAO.getAccountById(9L).getBalance();
+
+		accountDAO.setBalanceSlots(9L, 4);
+		accountDAO.updateAccountBalance(9L, new BigDecimal(100));
+
+		Account debited = accountDAO.updateAccountBalance(9L,
+						before.add(new BigDecimal(50)).negate());
+
+		assertTrue(debited.getBalance().compareTo(new BigDecimal(50)) == 0);
+
+		boolean rejected = false;
+
+		try
+		{
+			accountDAO.updateAccountBalance(9L, new BigDecimal(-60));
+		}
+		catch (CustomException e)
+		{
+			rejected = true;
+		}
+
+		assertTrue(rejected);
+
+		accountDAO.updateAccountBalance(9L, new BigDecimal(30));
+		accountDAO.transferAccountBalance(new UserTransaction("GBP",
+						new BigDecimal(70), 9L, 8L));
+
+		assertTrue(accountDAO.getAccountById(9L).getBalance()
+						.compareTo(new BigDecimal(10)) == 0);
+
+		// The legs still add up to the balance.
+		BigDecimal total = BigDecimal.ZERO;
+
+		for ( LedgerEntry entry : accountDAO.getAccountHistory(9L, 0L, 0) )
+		{
+			total = total.add(entry.getAmount());
+		}
+
+		assertTrue(total.compareTo(new BigDecimal(10)) == 0);
+	}
+
+	/**
+	 * Test that a batch transfer from a hot account uses its slots, and that
+	 * removing the slots keeps the balance.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testBatchTransferAndRemoveSlots() throws CustomException
+	{
+		BigDecimal before = accountDAO.getAccountById(7L).getBalance();
+
+		accountDAO.setBalanceSlots(7L, 2);
+		accountDAO.updateAccountBalance(7L, new BigDecimal(25));
+
+		List<TransferResult> results = accountDAO
+						.transferAccountBalances(Collections
+										.singletonList(new UserTransaction("GBP",
+														before.add(new BigDecimal(5)), 7L,
+														8L)));
+
+		assertTrue(results.get(0).getStatus() == TransferStatus.OK);
+
+		Account single = accountDAO.setBalanceSlots(7L, 0);
+
+		assertTrue(single.getBalance().compareTo(new BigDecimal(20)) == 0);
+		assertTrue(accountDAO.getAccountById(7L).getBalance()
+						.compareTo(new BigDecimal(20)) == 0);
+	}
+
+	/**
+	 * Test that deleting a hot account removes it with its slots.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testDeleteHotAccount() throws CustomException
+	{
+		Account created = accountDAO.createAccount(new Account("george",
+						new BigDecimal(10), "CHF"));
+		long accountId = created.getAccountId();
+
+		accountDAO.setBalanceSlots(accountId, 2);
+		accountDAO.updateAccountBalance(accountId, new BigDecimal(5));
+
+		assertTrue(accountDAO.deleteAccountById(accountId) == 1);
+		assertTrue(accountDAO.getAccountById(accountId) == null);
+
+		boolean rejected = false;
+
+		try
+		{
+			accountDAO.updateAccountBalance(accountId, new BigDecimal(5));
+		}
+		catch (CustomException e)
+		{
+			rejected = true;
+		}
+
+		assertTrue(rejected);
+	}
+}
@@ -0,0 +1,263 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.pool.ConnectionPool;
+import com.account.dao.pool.PoolStats;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the JDBC connection pool.
+ */
+public class TestConnectionPool
+{
+	private static final String URL = "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1";
+
+	private ConnectionPool pool;
+
+	@Before
+	public void setup()
+	{
+		DbUtils.loadDriver("org.h2.Driver");
+
+		pool = new ConnectionPool(URL, "sa", "sa", 1, 2, 200, 30000, 2, 0, 2);
+	}
+
+	@After
+	public void tearDown()
+	{
+		pool.close();
+	}
+
+	/**
+	 * Test that a closed connection is reused rather than re-opened.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testConnectionReused() throws SQLException
+	{
+		for ( int i = 0; i < 10; i++ )
+		{
+			Connection conn = pool.getConnection();
+			conn.close();
+		}
+
+		PoolStats stats = pool.getStats();
+
+		assertTrue(stats.getCreatedCount() == 1);
+		assertTrue(stats.getAcquiredCount() == 10);
+		assertTrue(stats.getIdleConnections() == 1);
+		assertTrue(stats.getActiveConnections() == 0);
+	}
+
+	/**
+	 * Test that the pool does not hand out more than the maximum size and
+	 * times out waiting callers.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testAcquireTimeoutAtMaxSize() throws SQLException
+	{
+		Connection c1 = pool.getConnection();
+		Connection c2 = pool.getConnection();
+
+		boolean timedOut = false;
+
+		try
+		{
+			pool.getConnection();
+		}
+		catch (SQLTimeoutException e)
+		{
+			timedOut = true;
+		}
+
+		assertTrue(timedOut);
+		assertTrue(pool.getStats().getTimeoutCount() == 1);
+
+		// Releasing one makes it available again.
+		c1.close();
+
+		Connection c3 = pool.getConnection();
+
+		assertTrue(pool.getStats().getTotalConnections() == 2);
+
+		DbUtils.closeQuietly(c2);
+		DbUtils.closeQuietly(c3);
+	}
+
+	/**
+	 * Test that uncommitted work is rolled back when a connection is
+	 * returned, and auto-commit is restored.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testUncommittedWorkRolledBackOnRelease() throws SQLException
+	{
+		Connection conn = pool.getConnection();
+		Statement stmt = conn.createStatement();
+		stmt.execute("CREATE TABLE IF NOT EXISTS PoolTest (Id INT)");
+		stmt.execute("DELETE FROM PoolTest");
+
+		conn.setAutoCommit(false);
+		stmt.execute("INSERT INTO PoolTest VALUES (1)");
+
+		// Return without committing.
+		conn.close();
+
+		Connection next = pool.getConnection();
+
+		assertTrue(next.getAutoCommit());
+
+		Statement check = next.createStatement();
+		ResultSet rs = check.executeQuery("SELECT COUNT(*) FROM PoolTest");
+		rs.next();
+
+		assertTrue(rs.getInt(1) == 0);
+
+		DbUtils.closeQuietly(next, check, rs);
+	}
+
+	/**
+	 * Test that a returned handle cannot be used again.
+	 *
+	 * @throws SQLException
+	 */
+	@Test( expected = SQLException.class )
+	public void testUseAfterClose() throws SQLException
+	{
+		Connection conn = pool.getConnection();
+		conn.close();
+
+		assertTrue(conn.isClosed());
+
+		conn.createStatement();
+	}
+
+	/**
+	 * Test that a closed prepared statement is reused by the next caller of
+	 * the same connection, with its parameters cleared.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testPreparedStatementReused() throws SQLException
+	{
+		for ( int i = 0; i < 3; i++ )
+		{
+			Connection conn = pool.getConnection();
+			PreparedStatement stmt = conn.prepareStatement("SELECT ?");
+			stmt.setInt(1, i);
+
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+
+			assertTrue(rs.getInt(1) == i);
+
+			DbUtils.closeQuietly(conn, stmt, rs);
+
+			assertTrue(stmt.isClosed());
+		}
+
+		PoolStats stats = pool.getStats();
+
+		assertTrue(stats.getStatementCacheMissCount() == 1);
+		assertTrue(stats.getStatementCacheHitCount() == 2);
+
+		// The parameter set by the previous caller is gone.
+		Connection conn = pool.getConnection();
+		PreparedStatement stmt = conn.prepareStatement("SELECT ?");
+
+		boolean rejected = false;
+
+		try
+		{
+			stmt.executeQuery();
+		}
+		catch (SQLException e)
+		{
+			rejected = true;
+		}
+
+		assertTrue(rejected);
+
+		DbUtils.closeQuietly(conn);
+	}
+
+	/**
+	 * Test that a statement still in use is not shared, and that the least
+	 * recently used statement is evicted once the cache is full.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testStatementCacheInUseAndEviction() throws SQLException
+	{
+		Connection conn = pool.getConnection();
+
+		PreparedStatement first = conn.prepareStatement("SELECT 1");
+		PreparedStatement second = conn.prepareStatement("SELECT 1");
+
+		assertTrue(first != second);
+		assertTrue(first.executeQuery().next());
+		assertTrue(second.executeQuery().next());
+
+		DbUtils.closeQuietly(first);
+		DbUtils.closeQuietly(second);
+
+		// Fill the cache of two, evicting "SELECT 1".
+		DbUtils.closeQuietly(conn.prepareStatement("SELECT 2"));
+		DbUtils.closeQuietly(conn.prepareStatement("SELECT 3"));
+		DbUtils.closeQuietly(conn.prepareStatement("SELECT 1"));
+
+		PoolStats stats = pool.getStats();
+
+		assertTrue(stats.getStatementCacheHitCount() == 0);
+		assertTrue(stats.getStatementCacheMissCount() == 5);
+
+		conn.close();
+	}
+
+	/**
+	 * Test that a statement closed after its connection went back to the
+	 * pool does not disturb the next caller of the cached statement.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testLateStatementCloseIgnored() throws SQLException
+	{
+		Connection conn = pool.getConnection();
+		PreparedStatement stale = conn.prepareStatement("SELECT ?");
+		conn.close();
+
+		Connection next = pool.getConnection();
+		PreparedStatement stmt = next.prepareStatement("SELECT ?");
+		stmt.setInt(1, 7);
+
+		// Closed late by the first caller.
+		stale.close();
+
+		ResultSet rs = stmt.executeQuery();
+		rs.next();
+
+		assertTrue(rs.getInt(1) == 7);
+		assertTrue(pool.getStats().getStatementCacheHitCount() == 1);
+
+		DbUtils.closeQuietly(next, stmt, rs);
+	}
+}
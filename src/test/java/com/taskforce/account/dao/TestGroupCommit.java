@@ -0,0 +1,220 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.impl.AccountDAOImpl;
+import com.account.dao.impl.GroupCommitAccountDAO;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.UserTransaction;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the group commit of balance updates.
+ */
+public class TestGroupCommit
+{
+	private static final DAOFactory DataDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	private static ExecutorService callers;
+
+	// Long delay so that concurrent callers share batches.
+	private static GroupCommitAccountDAO accountDAO;
+
+	@BeforeClass
+	public static void setup()
+	{
+		// Prepare test database and test data. Test data are initialised from
+		// src/test/resources/demo.sql
+		DataDAOFactory.populateTestData();
+
+		accountDAO = new GroupCommitAccountDAO(new AccountDAOImpl(), 50000, 100,
+						10000);
+		callers = Executors.newFixedThreadPool(20);
+	}
+
+	@AfterClass
+	public static void tearDown()
+	{
+		callers.shutdownNow();
+	}
+
+	/**
+	 * Test that concurrent deposits are all applied, in fewer commits.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentUpdatesShareCommits() throws Exception
+	{
+		BigDecimal before = accountDAO.getAccountById(1L).getBalance();
+		long batchesBefore = accountDAO.getBatchCount();
+		long mutationsBefore = accountDAO.getMutationCount();
+
+		List<Future<Account>> results = new ArrayList<Future<Account>>();
+
+		for ( int i = 0; i < 20; i++ )
+		{
+			results.add(callers.submit(update(1L, new BigDecimal(1))));
+		}
+
+		for ( Future<Account> result : results )
+		{
+			assertTrue(result.get().getAccountId() == 1L);
+		}
+
+		BigDecimal after = accountDAO.getAccountById(1L).getBalance();
+
+		assertTrue(after.compareTo(before.add(new BigDecimal(20))) == 0);
+		assertTrue(accountDAO.getMutationCount() - mutationsBefore == 20);
+		assertTrue(accountDAO.getBatchCount() - batchesBefore < 20);
+	}
+
+	/**
+	 * Test that a withdrawal without sufficient funds fails alone, while the
+	 * rest of its batch commits.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testInsufficientFundsFailsAlone() throws Exception
+	{
+		BigDecimal balance2 = accountDAO.getAccountById(2L).getBalance();
+		BigDecimal balance4 = accountDAO.getAccountById(4L).getBalance();
+		BigDecimal balance5 = accountDAO.getAccountById(5L).getBalance();
+
+		Future<Account> overdraw = callers.submit(update(2L, new BigDecimal(
+						-100000)));
+		Future<Account> deposit = callers.submit(update(2L, new BigDecimal(10)));
+		Future<Account> transfer = callers.submit(transfer(4L, 5L,
+						new BigDecimal(10), "EUR"));
+
+		boolean rejected = false;
+
+		try
+		{
+			overdraw.get();
+		}
+		catch (ExecutionException e)
+		{
+			rejected = (e.getCause() instanceof CustomException)
+							&& e.getCause().getMessage()
+											.startsWith("Not sufficient Fund");
+		}
+
+		assertTrue(rejected);
+		assertTrue(deposit.get().getBalance()
+						.compareTo(balance2.add(new BigDecimal(10))) == 0);
+		transfer.get();
+
+		assertTrue(accountDAO.getAccountById(2L).getBalance()
+						.compareTo(balance2.add(new BigDecimal(10))) == 0);
+		assertTrue(accountDAO.getAccountById(4L).getBalance()
+						.compareTo(balance4.subtract(new BigDecimal(10))) == 0);
+		assertTrue(accountDAO.getAccountById(5L).getBalance()
+						.compareTo(balance5.add(new BigDecimal(10))) == 0);
+	}
+
+	/**
+	 * Test that opposing concurrent transfers keep the total balance.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testOpposingTransfersKeepTotal() throws Exception
+	{
+		BigDecimal before8 = accountDAO.getAccountById(8L).getBalance();
+		BigDecimal total = accountDAO.getAccountById(7L).getBalance()
+						.add(before8);
+
+		List<Future<Account>> results = new ArrayList<Future<Account>>();
+
+		for ( int i = 0; i < 20; i++ )
+		{
+			results.add(callers.submit((i % 2 == 0) ? transfer(7L, 8L,
+							new BigDecimal(5), "GBP") : transfer(8L, 7L,
+							new BigDecimal(3), "GBP")));
+		}
+
+		for ( Future<Account> result : results )
+		{
+			result.get();
+		}
+
+		BigDecimal balance7 = accountDAO.getAccountById(7L).getBalance();
+		BigDecimal balance8 = accountDAO.getAccountById(8L).getBalance();
+
+		assertTrue(balance7.add(balance8).compareTo(total) == 0);
+		assertTrue(balance8.compareTo(before8.add(new BigDecimal(20))) == 0);
+	}
+
+	/**
+	 * Test that a transfer to a missing account fails as a single transfer
+	 * would.
+	 */
+	@Test
+	public void testTransferToMissingAccountFails()
+	{
+		boolean rejected = false;
+
+		try
+		{
+			accountDAO.transferAccountBalance(new UserTransaction("USD",
+							new BigDecimal(1), 1L, 999L));
+		}
+		catch (CustomException e)
+		{
+			rejected = true;
+		}
+
+		assertTrue(rejected);
+	}
+
+	/**
+	 * Balance update made by a caller thread.
+	 */
+	private static Callable<Account> update( final long accountId,
+					final BigDecimal deltaAmount )
+	{
+		return new Callable<Account>()
+		{
+			public Account call() throws CustomException
+			{
+				return accountDAO.updateAccountBalance(accountId, deltaAmount);
+			}
+		};
+	}
+
+	/**
+	 * Transfer made by a caller thread.
+	 */
+	private static Callable<Account> transfer( final long fromAccountId,
+					final long toAccountId, final BigDecimal amount,
+					final String currencyCode )
+	{
+		return new Callable<Account>()
+		{
+			public Account call() throws CustomException
+			{
+				accountDAO.transferAccountBalance(new UserTransaction(
+								currencyCode, amount, fromAccountId, toAccountId));
+
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,95 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.IdempotencyDAO;
+import com.account.dao.memory.MemoryIdempotencyDAO;
+import com.account.exception.CustomException;
+import com.account.model.IdempotencyRecord;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the idempotency key Data Access Objects.
+ */
+public class TestIdempotencyDAO
+{
+	private static final DAOFactory DataDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	@BeforeClass
+	public static void setup()
+	{
+		// Prepare test database, with an empty key table.
+		DataDAOFactory.populateTestData();
+	}
+
+	/**
+	 * Test that only the first claim of a key succeeds, and later claims see
+	 * the request in progress and then its outcome.
+	 * 
+	 * @throws CustomException
+	 */
+	@Test
+	public void testClaimAndComplete() throws CustomException
+	{
+		IdempotencyDAO idempotencyDAO = DataDAOFactory.getIdempotencyDAO();
+		
+		assertTrue(idempotencyDAO.claimKey("claim-1", "1:2:10:USD") == null);
+		
+		IdempotencyRecord pending = idempotencyDAO.claimKey("claim-1",
+						"1:2:10:USD");
+		
+		assertTrue(!pending.isCompleted());
+		assertTrue(pending.getFingerprint().equals("1:2:10:USD"));
+		
+		idempotencyDAO.completeKey(pending.complete(200, null));
+		
+		IdempotencyRecord completed = idempotencyDAO.claimKey("claim-1",
+						"1:2:10:USD");
+		
+		assertTrue(completed.isCompleted());
+		assertTrue(completed.getStatus() == 200);
+		
+		// Released keys can be claimed again, completed keys cannot.
+		assertTrue(idempotencyDAO.claimKey("claim-2", "1:2:10:USD") == null);
+		idempotencyDAO.releaseKey("claim-2");
+		idempotencyDAO.releaseKey("claim-1");
+		
+		assertTrue(idempotencyDAO.claimKey("claim-2", "1:2:10:USD") == null);
+		assertTrue(idempotencyDAO.claimKey("claim-1", "1:2:10:USD")
+						.getStatus() == 200);
+	}
+
+	/**
+	 * Test that the in-memory keys are evicted once expired, or oldest first
+	 * once full.
+	 * 
+	 * @throws CustomException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testMemoryEviction() throws CustomException,
+					InterruptedException
+	{
+		MemoryIdempotencyDAO idempotencyDAO = new MemoryIdempotencyDAO(2, 50);
+		
+		idempotencyDAO.claimKey("a", "f");
+		idempotencyDAO.claimKey("b", "f");
+		idempotencyDAO.claimKey("c", "f");
+		
+		// Full, the oldest key went.
+		assertTrue(idempotencyDAO.size() == 2);
+		assertTrue(idempotencyDAO.claimKey("b", "f") != null);
+		assertTrue(idempotencyDAO.claimKey("a", "f") == null);
+		
+		Thread.sleep(100);
+		
+		// Expired, the key can be claimed again.
+		assertTrue(idempotencyDAO.claimKey("c", "f") == null);
+		assertTrue(idempotencyDAO.size() == 1);
+	}
+
+}
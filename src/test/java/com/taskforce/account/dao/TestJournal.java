@@ -0,0 +1,311 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.memory.Journal;
+import com.account.dao.memory.JournalAdapter;
+import com.account.dao.memory.MemoryAccountDAO;
+import com.account.dao.memory.MemoryUserDAO;
+import com.account.dao.memory.MutationHandler;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.User;
+import com.account.model.UserTransaction;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the journal of the in-memory DAOs.
+ */
+public class TestJournal
+{
+	// Small segments so the tests cover rotation.
+	private static final int SEGMENT_BYTES = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test that changes made through the DAOs are restored by a replay.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReplayRestoresChanges() throws Exception
+	{
+		File dir = folder.newFolder("journal");
+		Journal journal = new Journal(dir, SEGMENT_BYTES, true, 10);
+		MemoryUserDAO userDAO = new MemoryUserDAO();
+		MemoryAccountDAO accountDAO = new MemoryAccountDAO(16);
+
+		journal.start();
+		userDAO.setJournal(journal);
+		accountDAO.setJournal(journal);
+
+		writeChanges(userDAO, accountDAO);
+		journal.close();
+
+		MemoryUserDAO replayedUsers = new MemoryUserDAO();
+		MemoryAccountDAO replayedAccounts = new MemoryAccountDAO(16);
+		Journal replayed = new Journal(dir, SEGMENT_BYTES, true, 10);
+
+		assertTrue(replayed.replay(new JournalAdapter(replayedUsers,
+						replayedAccounts)));
+		assertChanges(replayedUsers, replayedAccounts);
+	}
+
+	/**
+	 * Test that a failed force fails the writers waiting for it rather than
+	 * hang them, and that the journal recovers once forces succeed again.
+	 *
+	 * @throws Exception
+	 */
+	@Test( timeout = 10000 )
+	public void testFailedForceFailsWriters() throws Exception
+	{
+		FailingJournal journal = new FailingJournal(folder.newFolder("journal"));
+		MemoryUserDAO userDAO = new MemoryUserDAO();
+
+		journal.start();
+		userDAO.setJournal(journal);
+		journal.failing = true;
+
+		boolean failed = false;
+
+		try
+		{
+			userDAO.insertUser(new User("failed", "failed@mail.com"));
+		}
+		catch (CustomException e)
+		{
+			failed = true;
+		}
+
+		assertTrue(failed);
+
+		journal.failing = false;
+		userDAO.insertUser(new User("recovered", "recovered@mail.com"));
+		journal.close();
+	}
+
+	/**
+	 * Test that a replay restores a snapshot followed by the later changes,
+	 * and that the checkpoint deletes the files it replaces.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCheckpoint() throws Exception
+	{
+		File dir = folder.newFolder("journal");
+		Journal journal = new Journal(dir, SEGMENT_BYTES, false, 10);
+		MemoryUserDAO userDAO = new MemoryUserDAO();
+		MemoryAccountDAO accountDAO = new MemoryAccountDAO(16);
+
+		journal.start();
+		userDAO.setJournal(journal);
+		accountDAO.setJournal(journal);
+
+		writeChanges(userDAO, accountDAO);
+		journal.checkpoint(new JournalAdapter(userDAO, accountDAO));
+
+		accountDAO.updateAccountBalance(6L, new BigDecimal("5.0000"));
+		journal.close();
+
+		// One snapshot and the segment written since.
+		assertTrue(dir.list().length == 2);
+
+		MemoryUserDAO replayedUsers = new MemoryUserDAO();
+		MemoryAccountDAO replayedAccounts = new MemoryAccountDAO(16);
+		Journal replayed = new Journal(dir, SEGMENT_BYTES, false, 10);
+
+		assertTrue(replayed.replay(new JournalAdapter(replayedUsers,
+						replayedAccounts)));
+		assertChanges(replayedUsers, replayedAccounts);
+		assertTrue(replayedAccounts.getAccountById(6L).getBalance()
+						.equals(new BigDecimal("105.0000")));
+	}
+
+	/**
+	 * Test that a replay stops at a record cut short by a crash.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testReplayIgnoresTornRecord() throws Exception
+	{
+		File dir = folder.newFolder("journal");
+		Journal journal = new Journal(dir, SEGMENT_BYTES, false, 10);
+
+		journal.start();
+		journal.setBalance(1L, 100L);
+		journal.setBalance(2L, 200L);
+		journal.close();
+
+		// Damage the second record, 25 bytes in.
+		RandomAccessFile segment = new RandomAccessFile(dir.listFiles()[0],
+						"rw");
+
+		try
+		{
+			segment.seek(30);
+			segment.write(0xFF);
+		}
+		finally
+		{
+			segment.close();
+		}
+
+		final List<Long> balances = new ArrayList<Long>();
+
+		new Journal(dir, SEGMENT_BYTES, false, 10)
+						.replay(new BalanceRecorder(balances));
+
+		assertTrue(balances.size() == 1);
+		assertTrue(balances.get(0) == 100L);
+	}
+
+	/**
+	 * Test that an empty journal reports nothing to replay.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testReplayEmpty() throws IOException
+	{
+		Journal journal = new Journal(folder.newFolder("journal"),
+						SEGMENT_BYTES, false, 10);
+
+		assertTrue(!journal.replay(new BalanceRecorder(new ArrayList<Long>())));
+	}
+
+	/**
+	 * Make users and accounts, filling more than one segment.
+	 */
+	private static void writeChanges( MemoryUserDAO userDAO,
+					MemoryAccountDAO accountDAO ) throws CustomException
+	{
+		for ( int i = 0; i < 100; i++ )
+		{
+			userDAO.insertUser(new User("user" + i, "user" + i + "@mail.com"));
+			accountDAO.createAccount(new Account("user" + i, new BigDecimal(
+							"100.0000"), "USD"));
+		}
+
+		userDAO.updateUser(1L, new User("renamed", "renamed@mail.com"));
+		userDAO.deleteUser(2L);
+
+		accountDAO.updateAccountBalance(1L, new BigDecimal("-10.0000"));
+		accountDAO.transferAccountBalance(new UserTransaction("USD",
+						new BigDecimal("25.0000"), 3L, 4L));
+		accountDAO.deleteAccountById(5L);
+	}
+
+	/**
+	 * Check the state left by writeChanges.
+	 */
+	private static void assertChanges( MemoryUserDAO userDAO,
+					MemoryAccountDAO accountDAO ) throws CustomException
+	{
+		assertTrue(userDAO.getAllUsers().size() == 99);
+		assertTrue(userDAO.getUserById(1L).getUserName().equals("renamed"));
+		assertTrue(userDAO.getUserById(2L) == null);
+		assertTrue(userDAO.getUserByName("user99").getUserId() == 100L);
+
+		assertTrue(accountDAO.getAllAccounts().size() == 99);
+		assertTrue(accountDAO.getAccountById(1L).getBalance()
+						.equals(new BigDecimal("90.0000")));
+		assertTrue(accountDAO.getAccountById(3L).getBalance()
+						.equals(new BigDecimal("75.0000")));
+		assertTrue(accountDAO.getAccountById(4L).getBalance()
+						.equals(new BigDecimal("125.0000")));
+		assertTrue(accountDAO.getAccountById(5L) == null);
+
+		// The unique index is restored too.
+		boolean duplicate = false;
+
+		try
+		{
+			accountDAO.createAccount(new Account("user0", BigDecimal.ONE, "USD"));
+		}
+		catch (CustomException e)
+		{
+			duplicate = true;
+		}
+
+		assertTrue(duplicate);
+	}
+
+	/**
+	 * Journal whose forces fail while failing is set, as a failed msync does.
+	 */
+	private static class FailingJournal extends Journal
+	{
+		private volatile boolean failing;
+
+		FailingJournal( File directory )
+		{
+			super(directory, SEGMENT_BYTES, true, 10);
+		}
+
+		protected void force( MappedByteBuffer segment ) throws IOException
+		{
+			if (failing)
+			{
+				throw new IOException("msync failed");
+			}
+
+			super.force(segment);
+		}
+	}
+
+	/**
+	 * Handler recording replayed balances.
+	 */
+	private static class BalanceRecorder implements MutationHandler
+	{
+		private final List<Long> balances;
+
+		BalanceRecorder( List<Long> balances )
+		{
+			this.balances = balances;
+		}
+
+		public void setBalance( long accountId, long balance )
+		{
+			balances.add(balance);
+		}
+
+		public void putAccount( long accountId, String userName,
+						long balance, String currencyCode )
+		{
+		}
+
+		public void setBalances( long fromAccountId, long fromBalance,
+						long toAccountId, long toBalance )
+		{
+		}
+
+		public void removeAccount( long accountId )
+		{
+		}
+
+		public void putUser( long userId, String userName, String emailAddress )
+		{
+		}
+
+		public void removeUser( long userId )
+		{
+		}
+	}
+}
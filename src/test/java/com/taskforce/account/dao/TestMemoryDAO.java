@@ -0,0 +1,253 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.AccountDAO;
+import com.account.dao.DAOFactory;
+import com.account.dao.UserDAO;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.LedgerEntry;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
+import com.account.model.User;
+import com.account.model.UserTransaction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the in-memory DAO factory. Test data are initialised from
+ * src/test/resources/demo.sql
+ */
+public class TestMemoryDAO
+{
+	private static final DAOFactory MemoryDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.MEMORY);
+
+	private final AccountDAO accountDAO = MemoryDAOFactory.getAccountDAO();
+	private final UserDAO userDAO = MemoryDAOFactory.getUserDAO();
+
+	@Before
+	public void setup()
+	{
+		// Reload the test data before every test.
+		MemoryDAOFactory.populateTestData();
+	}
+
+	/**
+	 * Test that the test data is loaded with its ids.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTestDataLoaded() throws CustomException
+	{
+		Account account = accountDAO.getAccountById(9L);
+
+		assertTrue(accountDAO.getAllAccounts().size() == 9);
+		assertTrue(account.getUserName().equals("samuel"));
+		assertTrue(account.getBalance().equals(new BigDecimal("900.0000")));
+		assertTrue(userDAO.getUserByName("george").getUserId() == 2L);
+	}
+
+	/**
+	 * Test account creation continues the id sequence and keeps user name
+	 * and currency unique.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testCreateAccount() throws CustomException
+	{
+		Account created = accountDAO.createAccount(new Account("test2",
+						new BigDecimal("10.12345"), "CNY"));
+
+		assertTrue(created.getAccountId() == 10L);
+		assertTrue(created.getBalance().equals(new BigDecimal("10.1234")));
+		assertTrue(accountDAO.getAccountById(10L).equals(created));
+
+		boolean duplicate = false;
+
+		try
+		{
+			accountDAO.createAccount(new Account("test2", BigDecimal.ONE,
+							"CNY"));
+		}
+		catch (CustomException e)
+		{
+			duplicate = true;
+		}
+
+		assertTrue(duplicate);
+	}
+
+	/**
+	 * Test deposit, withdrawal and the insufficient funds check.
+	 *
+	 * @throws CustomException
+	 */
+	@Test( expected = CustomException.class )
+	public void testUpdateAccountBalance() throws CustomException
+	{
+		Account updated = accountDAO.updateAccountBalance(1L, new BigDecimal(
+						"-50.5"));
+
+		assertTrue(updated.getBalance().equals(new BigDecimal("49.5000")));
+
+		accountDAO.updateAccountBalance(1L, new BigDecimal("-49.5001"));
+	}
+
+	/**
+	 * Test a transfer and its currency check.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTransfer() throws CustomException
+	{
+		int updated = accountDAO.transferAccountBalance(new UserTransaction(
+						"EUR", new BigDecimal(100), 4L, 5L));
+
+		assertTrue(updated == 2);
+		assertTrue(accountDAO.getAccountById(4L).getBalance()
+						.compareTo(new BigDecimal(300)) == 0);
+		assertTrue(accountDAO.getAccountById(5L).getBalance()
+						.compareTo(new BigDecimal(600)) == 0);
+
+		List<TransferResult> results = accountDAO
+						.transferAccountBalances(Arrays.asList(
+										new UserTransaction("USD",
+														new BigDecimal(1), 4L,
+														5L),
+										new UserTransaction("EUR",
+														new BigDecimal(301),
+														4L, 5L),
+										new UserTransaction("EUR",
+														new BigDecimal(1), 4L,
+														100L)));
+
+		assertTrue(results.get(0).getStatus() == TransferStatus.CURRENCY_MISMATCH);
+		assertTrue(results.get(1).getStatus() == TransferStatus.INSUFFICIENT_FUNDS);
+		assertTrue(results.get(2).getStatus() == TransferStatus.ACCOUNT_NOT_FOUND);
+	}
+
+	/**
+	 * Test that opposing concurrent transfers neither deadlock nor lose
+	 * funds.
+	 *
+	 * @throws InterruptedException
+	 * @throws CustomException
+	 */
+	@Test
+	public void testConcurrentTransfers() throws InterruptedException,
+					CustomException
+	{
+		final int threads = 20;
+		final CountDownLatch latch = new CountDownLatch(threads);
+
+		for ( int i = 0; i < threads; i++ )
+		{
+			final boolean forward = (i % 2) == 0;
+
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						for ( int j = 0; j < 1000; j++ )
+						{
+							accountDAO.transferAccountBalance(forward ? new UserTransaction(
+											"GBP", new BigDecimal("0.01"), 7L,
+											8L) : new UserTransaction("GBP",
+											new BigDecimal("0.01"), 8L, 7L));
+						}
+					}
+					catch (Exception e)
+					{
+						// Counted as a missing transfer below.
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+
+		latch.await();
+
+		// Equal transfers each way leave the balances unchanged.
+		assertTrue(accountDAO.getAccountById(7L).getBalance()
+						.compareTo(new BigDecimal(700)) == 0);
+		assertTrue(accountDAO.getAccountById(8L).getBalance()
+						.compareTo(new BigDecimal(800)) == 0);
+	}
+
+	/**
+	 * Test user creation keeps user name and email unique, and deleted users
+	 * are gone.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testUsers() throws CustomException
+	{
+		long userId = userDAO.insertUser(new User("test", "test@gmail.com"));
+
+		assertTrue(userId == 4L);
+		assertTrue(userDAO.getUserByName("test").getUserId() == userId);
+
+		boolean duplicate = false;
+
+		try
+		{
+			userDAO.insertUser(new User("test", "test@gmail.com"));
+		}
+		catch (CustomException e)
+		{
+			duplicate = true;
+		}
+
+		assertTrue(duplicate);
+		assertTrue(userDAO.updateUser(userId, new User("test2",
+						"test2@gmail.com")) == 1);
+		assertTrue(userDAO.getUserByName("test") == null);
+		assertTrue(userDAO.deleteUser(userId) == 1);
+		assertTrue(userDAO.getUserById(userId) == null);
+		assertTrue(userDAO.getUsers(1L, 10).size() == 2);
+	}
+	/**
+	 * Test that the opening balances and transfers are written to the
+	 * ledger, and kept after the account is deleted.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testAccountHistory() throws CustomException
+	{
+		accountDAO.transferAccountBalance(new UserTransaction("USD",
+						new BigDecimal("10.0000"), 1L, 2L));
+		accountDAO.deleteAccountById(1L);
+
+		List<LedgerEntry> history = accountDAO.getAccountHistory(1L, 0, 0);
+
+		assertTrue(history.size() == 2);
+		assertTrue(history.get(0).getLedgerId() == 1L);
+		assertTrue(history.get(0).getAmount().equals(new BigDecimal("100.0000")));
+		assertTrue(history.get(1).getAmount().equals(new BigDecimal("-10.0000")));
+		assertTrue(history.get(1).getCounterAccountId() == 2L);
+		assertTrue(history.get(1).getBalance().equals(new BigDecimal("90.0000")));
+
+		List<LedgerEntry> page = accountDAO.getAccountHistory(2L, 2L, 1);
+
+		assertTrue(page.size() == 1);
+		assertTrue(page.get(0).getBalance().equals(new BigDecimal("210.0000")));
+	}
+}
@@ -0,0 +1,113 @@
+package com.taskforce.account.dao;
+
+import com.account.model.Account;
+import com.account.model.Money;
+import com.account.model.MoneyUtil;
+import com.account.model.UserTransaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the long minor unit money arithmetic and currency code
+ * validation.
+ */
+public class TestMoney
+{
+	/**
+	 * Test that amounts convert to minor units and back at scale 4.
+	 */
+	@Test
+	public void testRoundTrip()
+	{
+		long units = Money.toMinorUnits(new BigDecimal("12.3456"));
+
+		assertTrue(units == 123456L);
+		assertTrue(Money.toBigDecimal(units).equals(new BigDecimal("12.3456")));
+		assertTrue(Money.toString(Money.toMinorUnits(new BigDecimal(100)))
+						.equals("100.0000"));
+	}
+
+	/**
+	 * Test that extra decimal places use financial rounding.
+	 */
+	@Test
+	public void testHalfEvenRounding()
+	{
+		assertTrue(Money.toMinorUnits(new BigDecimal("0.00005")) == 0L);
+		assertTrue(Money.toMinorUnits(new BigDecimal("0.00015")) == 2L);
+		assertTrue(Money.toMinorUnits(new BigDecimal("-0.00015")) == -2L);
+	}
+
+	/**
+	 * Test the balance check.
+	 */
+	@Test
+	public void testCanApply()
+	{
+		assertTrue(Money.canApply(100L, -100L));
+		assertTrue(!Money.canApply(100L, -101L));
+	}
+
+	/**
+	 * Test that arithmetic overflow is reported rather than wrapped.
+	 */
+	@Test( expected = ArithmeticException.class )
+	public void testOverflow()
+	{
+		Money.add(Long.MAX_VALUE, 1L);
+	}
+
+	/**
+	 * Test that amounts too large for a long are rejected.
+	 */
+	@Test( expected = ArithmeticException.class )
+	public void testAmountOutOfRange()
+	{
+		Money.toMinorUnits(new BigDecimal("1000000000000000"));
+	}
+
+	/**
+	 * Test currency code validation.
+	 */
+	@Test
+	public void testValidateCcyCode()
+	{
+		assertTrue(MoneyUtil.INSTANCE.validateCcyCode("EUR"));
+		assertTrue(!MoneyUtil.INSTANCE.validateCcyCode("eur"));
+		assertTrue(!MoneyUtil.INSTANCE.validateCcyCode("XYZ1"));
+		assertTrue(!MoneyUtil.INSTANCE.validateCcyCode(""));
+		assertTrue(!MoneyUtil.INSTANCE.validateCcyCode(null));
+	}
+
+	/**
+	 * Test that currency codes built at runtime, or read from JSON, share the
+	 * interned instance.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCanonicalCcyCode() throws IOException
+	{
+		String code = new String("GBP");
+
+		assertTrue(MoneyUtil.canonicalCcyCode(code) == "GBP");
+		assertTrue(new Account("test", BigDecimal.ONE, code)
+						.getCurrencyCode() == "GBP");
+
+		UserTransaction transaction = new ObjectMapper().readValue(
+						"{\"currencyCode\":\"GBP\",\"amount\":1,"
+										+ "\"fromAccountId\":1,\"toAccountId\":2}",
+						UserTransaction.class);
+
+		assertTrue(transaction.getCurrencyCode() == "GBP");
+
+		// Unknown codes are kept as they are.
+		assertTrue(MoneyUtil.canonicalCcyCode("XYZ1").equals("XYZ1"));
+	}
+}
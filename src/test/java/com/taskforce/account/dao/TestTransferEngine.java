@@ -0,0 +1,203 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.memory.MemoryAccountDAO;
+import com.account.exception.CustomException;
+import com.account.model.Account;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
+import com.account.model.UserTransaction;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for in-memory transfers run on the sharded transfer engine.
+ */
+public class TestTransferEngine
+{
+	// 4 shards, so ids 1 and 5 share a shard and ids 1 and 2 do not.
+	private final MemoryAccountDAO accountDAO = new MemoryAccountDAO(16, 4);
+
+	/**
+	 * Test transfers within one shard and across shards.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTransfer() throws CustomException
+	{
+		createAccounts(8, "100.0000", "USD");
+
+		// Same shard.
+		accountDAO.transferAccountBalance(new UserTransaction("USD",
+						new BigDecimal("10.0000"), 1L, 5L));
+		// Across shards.
+		accountDAO.transferAccountBalance(new UserTransaction("USD",
+						new BigDecimal("20.0000"), 1L, 2L));
+
+		assertTrue(balanceOf(1L).equals(new BigDecimal("70.0000")));
+		assertTrue(balanceOf(5L).equals(new BigDecimal("110.0000")));
+		assertTrue(balanceOf(2L).equals(new BigDecimal("120.0000")));
+	}
+
+	/**
+	 * Test the errors of a transfer across shards.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTransferErrors() throws CustomException
+	{
+		createAccounts(2, "100.0000", "USD");
+		accountDAO.createAccount(new Account("euro", new BigDecimal("100.0000"),
+						"EUR"));
+
+		assertTrue(transferFails(new UserTransaction("USD", new BigDecimal(
+						"100.0001"), 1L, 2L)));
+		assertTrue(transferFails(new UserTransaction("USD", BigDecimal.ONE, 1L,
+						3L)));
+
+		accountDAO.deleteAccountById(2L);
+
+		assertTrue(transferFails(new UserTransaction("USD", BigDecimal.ONE, 1L,
+						2L)));
+
+		// Failed transfers release their reservation.
+		assertTrue(balanceOf(1L).equals(new BigDecimal("100.0000")));
+		assertTrue(accountDAO.updateAccountBalance(1L,
+						new BigDecimal("-100.0000")).getBalance()
+						.equals(new BigDecimal("0.0000")));
+	}
+
+	/**
+	 * Test a batch keeps the order of its transactions.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTransferBatch() throws CustomException
+	{
+		createAccounts(4, "100.0000", "USD");
+
+		List<TransferResult> results = accountDAO.transferAccountBalances(Arrays
+						.asList(new UserTransaction("USD", new BigDecimal(
+										"60.0000"), 1L, 2L),
+										new UserTransaction("USD", new BigDecimal(
+														"60.0000"), 1L, 3L),
+										new UserTransaction("USD", new BigDecimal(
+														"60.0000"), 4L, 4L),
+										new UserTransaction("USD", new BigDecimal(
+														"60.0000"), 2L, 3L)));
+
+		assertTrue(results.get(0).getStatus() == TransferStatus.OK);
+		assertTrue(results.get(1).getStatus() == TransferStatus.INSUFFICIENT_FUNDS);
+		assertTrue(results.get(2).getStatus() == TransferStatus.INVALID_REQUEST);
+		assertTrue(results.get(3).getStatus() == TransferStatus.OK);
+		assertTrue(balanceOf(3L).equals(new BigDecimal("160.0000")));
+	}
+
+	/**
+	 * Test that concurrent transfers in both directions across shards
+	 * neither lose nor create funds, nor overdraw an account.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentTransfers() throws Exception
+	{
+		final int accountCount = 16;
+		final int threadCount = 8;
+		final CountDownLatch done = new CountDownLatch(threadCount);
+
+		createAccounts(accountCount, "100.0000", "USD");
+
+		for ( int i = 0; i < threadCount; i++ )
+		{
+			final Random random = new Random(i);
+
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						for ( int j = 0; j < 2000; j++ )
+						{
+							long from = random.nextInt(accountCount) + 1;
+							long to = random.nextInt(accountCount) + 1;
+
+							// Skip transfers to the same account.
+							if (from != to)
+							{
+								transferFails(new UserTransaction("USD",
+												new BigDecimal("7.0000"), from, to));
+							}
+						}
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+
+		done.await();
+
+		BigDecimal total = BigDecimal.ZERO;
+
+		for ( Account account : accountDAO.getAllAccounts() )
+		{
+			assertTrue(account.getBalance().signum() >= 0);
+
+			total = total.add(account.getBalance());
+		}
+
+		assertTrue(total.equals(new BigDecimal("1600.0000")));
+	}
+
+	/**
+	 * Create accounts with ids from 1, one user each.
+	 */
+	private void createAccounts( int count, String balance, String currencyCode )
+					throws CustomException
+	{
+		for ( int i = 0; i < count; i++ )
+		{
+			accountDAO.createAccount(new Account("user" + i, new BigDecimal(
+							balance), currencyCode));
+		}
+	}
+
+	/**
+	 * Retrieve an account balance.
+	 */
+	private BigDecimal balanceOf( long accountId ) throws CustomException
+	{
+		return accountDAO.getAccountById(accountId).getBalance();
+	}
+
+	/**
+	 * Run a transfer, reporting whether it was rejected.
+	 */
+	private boolean transferFails( UserTransaction transaction )
+	{
+		try
+		{
+			accountDAO.transferAccountBalance(transaction);
+
+			return false;
+		}
+		catch (CustomException e)
+		{
+			return true;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.taskforce.account.dao;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.cache.CacheStats;
+import com.account.dao.cache.CachingUserDAO;
+import com.account.dao.impl.UserDAOImpl;
+import com.account.exception.CustomException;
+import com.account.model.User;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the user cache.
+ */
+public class TestUserCache
+{
+	private static final DAOFactory DataDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	private CachingUserDAO userDAO;
+
+	@BeforeClass
+	public static void setup()
+	{
+		// Prepare test database and test data. Test data are initialised from
+		// src/test/resources/demo.sql
+		DataDAOFactory.populateTestData();
+	}
+
+	@Before
+	public void createCache()
+	{
+		userDAO = new CachingUserDAO(new UserDAOImpl(), 100, 60000, 60000);
+	}
+
+	/**
+	 * Test that a user loaded by name is then served by id and by name.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testBothIndexesServeLoadedUser() throws CustomException
+	{
+		User byName = userDAO.getUserByName("george");
+		User byId = userDAO.getUserById(byName.getUserId());
+		User again = userDAO.getUserByName("george");
+
+		CacheStats stats = userDAO.getStats();
+
+		assertTrue(byId.equals(byName));
+		assertTrue(again.equals(byName));
+		assertTrue(stats.getMissCount() == 1);
+		assertTrue(stats.getHitCount() == 2);
+	}
+
+	/**
+	 * Test that a missing name is cached, and that creating it replaces the
+	 * cached miss with the new user.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testMissingNameCachedUntilInserted() throws CustomException
+	{
+		assertTrue(userDAO.getUserByName("cachetest") == null);
+		assertTrue(userDAO.getUserByName("cachetest") == null);
+		assertTrue(userDAO.getNegativeHitCount() == 1);
+
+		long userId = userDAO.insertUser(new User("cachetest",
+						"cachetest@gmail.com"));
+
+		User byName = userDAO.getUserByName("cachetest");
+		User byId = userDAO.getUserById(userId);
+
+		assertTrue(byName.getUserId() == userId);
+		assertTrue(byId.getEmailAddress().equals("cachetest@gmail.com"));
+		assertTrue(userDAO.getStats().getMissCount() == 1);
+	}
+
+	/**
+	 * Test that renaming a user drops its old name and serves the new one.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testRenameUpdatesBothIndexes() throws CustomException
+	{
+		long userId = userDAO.insertUser(new User("renametest",
+						"renametest@gmail.com"));
+
+		assertTrue(userDAO.getUserByName("renamedtest") == null);
+
+		userDAO.updateUser(userId, new User("renamedtest",
+						"renamedtest@gmail.com"));
+
+		assertTrue(userDAO.getUserByName("renametest") == null);
+		assertTrue(userDAO.getUserByName("renamedtest").getUserId() == userId);
+		assertTrue(userDAO.getUserById(userId).getUserName()
+						.equals("renamedtest"));
+	}
+
+	/**
+	 * Test that a deleted user is no longer served under its id or name.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testDeleteDropsBothIndexes() throws CustomException
+	{
+		long userId = userDAO.insertUser(new User("deletetest",
+						"deletetest@gmail.com"));
+
+		assertTrue(userDAO.getUserById(userId) != null);
+
+		userDAO.deleteUser(userId);
+
+		assertTrue(userDAO.getUserById(userId) == null);
+		assertTrue(userDAO.getUserByName("deletetest") == null);
+	}
+}
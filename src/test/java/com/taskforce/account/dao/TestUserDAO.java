@@ -2,6 +2,7 @@ package com.taskforce.account.dao;
 
 import com.account.dao.DAOFactory;
 import com.account.exception.CustomException;
+import com.account.exception.DuplicateEntryException;
 import com.account.model.User;
 
 import org.apache.log4j.Logger;
@@ -108,6 +109,31 @@ public class TestUserDAO
 		assertTrue(u.getEmailAddress().equals("bertrande@gmail.com"));
 	}
 
+	/**
+	 * Test that a user name already taken is rejected, whatever the email.
+	 * 
+	 * @throws CustomException
+	 */
+	@Test
+	public void testCreateDuplicateUserName() throws CustomException
+	{
+		boolean duplicate = false;
+		
+		try
+		{
+			DataDAOFactory.getUserDAO().insertUser(new User("george",
+							"george2@gmail.com"));
+		}
+		catch (DuplicateEntryException e)
+		{
+			duplicate = true;
+		}
+		
+		assertTrue(duplicate);
+		assertTrue(DataDAOFactory.getUserDAO().getUserByName("george")
+						.getEmailAddress().equals("george@gmail.com"));
+	}
+
 	/**
 	 * Test to update existing user record.
 	 * @throws CustomException
@@ -0,0 +1,166 @@
+package com.taskforce.account.metrics;
+
+import com.account.dao.DAOFactory;
+import com.account.dao.impl.AccountDAOImpl;
+import com.account.dao.impl.GroupCommitAccountDAO;
+import com.account.exception.CustomException;
+import com.account.metrics.ContendedAccounts;
+import com.account.metrics.ContendedAccounts.Contention;
+import com.account.metrics.LatencyHistogram;
+import com.account.metrics.MetricsRegistry;
+import com.account.model.UserTransaction;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the contended accounts and the balance phase timings.
+ */
+public class TestContendedAccounts
+{
+	private static final DAOFactory DataDAOFactory = DAOFactory
+					.getDAOFactory(DAOFactory.DATA);
+
+	@BeforeClass
+	public static void setup()
+	{
+		// Prepare test database and test data. Test data are initialised from
+		// src/test/resources/demo.sql
+		DataDAOFactory.populateTestData();
+	}
+
+	/**
+	 * Test that waits shorter than the threshold are not counted, and that
+	 * the accounts are listed longest wait first.
+	 */
+	@Test
+	public void testListedLongestWaitFirst()
+	{
+		ContendedAccounts accounts = new ContendedAccounts(2, 100);
+
+		accounts.record(1, 99);
+		accounts.record(2, 100);
+		accounts.record(3, 500);
+		accounts.record(2, 300);
+		accounts.record(4, 200);
+
+		List<Contention> top = accounts.getTop();
+
+		assertTrue(top.size() == 2);
+		assertTrue(top.get(0).getAccountId() == 3);
+		assertTrue(top.get(1).getAccountId() == 2);
+		assertTrue(top.get(1).getWaitNanos() == 400);
+		assertTrue(top.get(1).getWaits() == 2);
+	}
+
+	/**
+	 * Test that the hot accounts are kept when many more accounts are seen
+	 * than there are counters.
+	 */
+	@Test
+	public void testHotAccountsKeptAmongMany()
+	{
+		ContendedAccounts accounts = new ContendedAccounts(2, 0);
+
+		for ( int i = 0; i < 10000; i++ )
+		{
+			// Two hot accounts, then a different cold account each time.
+			accounts.record(1, 1000);
+			accounts.record(2, 500);
+			accounts.record(100 + i, 10);
+		}
+
+		List<Contention> top = accounts.getTop();
+
+		assertTrue(top.get(0).getAccountId() == 1);
+		assertTrue(top.get(0).getWaitNanos() == 10000L * 1000);
+		assertTrue(top.get(0).getErrorNanos() == 0);
+		assertTrue(top.get(1).getAccountId() == 2);
+	}
+
+	/**
+	 * Test that a transfer times the lock of both accounts and each phase
+	 * once, exported with the metrics.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testTransferPhasesTimed() throws CustomException
+	{
+		AccountDAOImpl accountDAO = new AccountDAOImpl();
+		LatencyHistogram lock = phase("lock");
+		LatencyHistogram commit = phase("commit");
+
+		long locks = lock.getCount();
+		long commits = commit.getCount();
+
+		accountDAO.transferAccountBalance(new UserTransaction("USD",
+						new BigDecimal("1.0000"), 1L, 2L));
+
+		assertTrue(lock.getCount() == locks + 2);
+		assertTrue(commit.getCount() == commits + 1);
+		assertTrue(MetricsRegistry.getInstance().toPrometheus().contains(
+						"balance_phase_duration_seconds_count{operation=\"transfer\",phase=\"validate\"}"));
+	}
+
+	/**
+	 * Test that batch transfers and group commits time the lock of each
+	 * account of the group, and commit the group once.
+	 *
+	 * @throws CustomException
+	 */
+	@Test
+	public void testGroupPhasesTimed() throws CustomException
+	{
+		AccountDAOImpl accountDAO = new AccountDAOImpl();
+		LatencyHistogram batchLock = phase("batch", "lock");
+		LatencyHistogram batchCommit = phase("batch", "commit");
+
+		long locks = batchLock.getCount();
+		long commits = batchCommit.getCount();
+
+		accountDAO.transferAccountBalances(Arrays.asList(new UserTransaction(
+						"USD", new BigDecimal("1.0000"), 1L, 2L),
+						new UserTransaction("USD", new BigDecimal("1.0000"), 2L,
+										3L)));
+
+		assertTrue(batchLock.getCount() == locks + 3);
+		assertTrue(batchCommit.getCount() == commits + 1);
+
+		LatencyHistogram groupLock = phase("group_commit", "lock");
+
+		locks = groupLock.getCount();
+
+		new GroupCommitAccountDAO(accountDAO, 0, 1, 10000)
+						.transferAccountBalance(new UserTransaction("USD",
+										new BigDecimal("1.0000"), 3L, 1L));
+
+		assertTrue(groupLock.getCount() == locks + 2);
+	}
+
+	/**
+	 * Histogram of a transfer phase.
+	 */
+	private static LatencyHistogram phase( String phase )
+	{
+		return phase("transfer", phase);
+	}
+
+	/**
+	 * Histogram of a phase of an operation.
+	 */
+	private static LatencyHistogram phase( String operation, String phase )
+	{
+		return MetricsRegistry.getInstance().histogram(
+						"balance_phase_duration_seconds",
+						"Time spent in each phase of account balance updates and transfers.",
+						MetricsRegistry.labels("operation", operation, "phase",
+										phase));
+	}
+}
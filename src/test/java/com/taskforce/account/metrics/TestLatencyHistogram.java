@@ -0,0 +1,105 @@
+package com.taskforce.account.metrics;
+
+import com.account.metrics.LatencyHistogram;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the latency histogram.
+ */
+public class TestLatencyHistogram
+{
+	/**
+	 * Test that quantiles are within the bucket precision of the values
+	 * recorded.
+	 */
+	@Test
+	public void testQuantiles()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		// 1 to 1000 microseconds.
+		for ( int i = 1; i <= 1000; i++ )
+		{
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+		}
+
+		double[] quantiles = histogram.getQuantileSeconds(0.5, 0.99, 1.0);
+
+		assertTrue(histogram.getCount() == 1000);
+		assertTrue(within(quantiles[0], 500e-6));
+		assertTrue(within(quantiles[1], 990e-6));
+		assertTrue(quantiles[2] == 1000e-6);
+		assertTrue(histogram.getMaxSeconds() == 1000e-6);
+		assertTrue(Math.abs(histogram.getSumSeconds() - 500500e-6) < 1e-9);
+	}
+
+	/**
+	 * Test that an empty histogram and out of range values are handled.
+	 */
+	@Test
+	public void testEmptyAndOutOfRange()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		assertTrue(histogram.getQuantileSeconds(0.5)[0] == 0.0);
+
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+
+		double[] quantiles = histogram.getQuantileSeconds(0.5, 1.0);
+
+		assertTrue(quantiles[0] == 0.0);
+		assertTrue(quantiles[1] > 1000.0);
+	}
+
+	/**
+	 * Test that concurrent recording loses no values.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentRecording() throws InterruptedException
+	{
+		final LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for ( int t = 0; t < 8; t++ )
+		{
+			Thread thread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					for ( int i = 0; i < 10000; i++ )
+					{
+						histogram.record(i);
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+
+		assertTrue(histogram.getCount() == 80000);
+		assertTrue(histogram.getQuantileSeconds(1.0)[0] == 9999e-9);
+	}
+
+	/**
+	 * Check a quantile is within the bucket precision of the expected value.
+	 */
+	private static boolean within( double actual, double expected )
+	{
+		return Math.abs(actual - expected) <= expected / 16;
+	}
+}
@@ -9,6 +9,7 @@ import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 
 import com.account.model.Account;
+import com.account.model.LedgerEntry;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -184,4 +185,138 @@ public class TestAccountService extends TestService
 		assertTrue(statusCode == 404);
 	}
 
+	/**
+	 * Test to retrieve a page of accounts after an account id, with the next
+	 * page position in the header.
+	 */
+	@Test
+	public void testGetAccountsPage() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/account/all").setParameter("after", "5")
+						.setParameter("limit", "2").build();
+		HttpGet request = new HttpGet(uri);
+		HttpResponse response = client.execute(request);
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 200);
+		assertTrue(response.getFirstHeader("X-Next-After").getValue()
+						.equals("7"));
+
+		// check the content
+		String jsonString = EntityUtils.toString(response.getEntity());
+		Account[] accounts = mapper.readValue(jsonString, Account[].class);
+
+		assertTrue(accounts.length == 2);
+		assertTrue(accounts[0].getUserName().equals("samuel"));
+		assertTrue(accounts[0].getCurrencyCode().equals("EUR"));
+		assertTrue(accounts[1].getUserName().equals("frederick"));
+		assertTrue(accounts[1].getCurrencyCode().equals("GBP"));
+	}
+
+	/**
+	 * Test to stream accounts after an account id.
+	 */
+	@Test
+	public void testStreamAccounts() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/account/all").setParameter("after", "7")
+						.setParameter("limit", "2")
+						.setParameter("stream", "true").build();
+		HttpGet request = new HttpGet(uri);
+		HttpResponse response = client.execute(request);
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 200);
+
+		// check the content
+		String jsonString = EntityUtils.toString(response.getEntity());
+		Account[] accounts = mapper.readValue(jsonString, Account[].class);
+
+		assertTrue(accounts.length == 2);
+		assertTrue(accounts[0].getUserName().equals("george"));
+		assertTrue(accounts[1].getUserName().equals("samuel"));
+		assertTrue(accounts[1].getBalance().compareTo(new BigDecimal(900)) == 0);
+	}
+
+	/**
+	 * Test that a negative page limit is rejected with 400.
+	 */
+	@Test
+	public void testGetAccountsInvalidLimit() throws IOException,
+					URISyntaxException
+	{
+		URI uri = builder.setPath("/account/all").setParameter("limit", "-1")
+						.build();
+		HttpGet request = new HttpGet(uri);
+		HttpResponse response = client.execute(request);
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 400);
+	}
+
+	/**
+	 * Test to retrieve the first page of an account history, starting with
+	 * its opening balance.
+	 */
+	@Test
+	public void testGetAccountHistory() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/account/1/history")
+						.setParameter("limit", "1").build();
+		HttpGet request = new HttpGet(uri);
+		HttpResponse response = client.execute(request);
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 200);
+		assertTrue(response.getFirstHeader("X-Next-After").getValue()
+						.equals("1"));
+
+		// check the content
+		String jsonString = EntityUtils.toString(response.getEntity());
+		LedgerEntry[] entries = mapper.readValue(jsonString,
+						LedgerEntry[].class);
+
+		assertTrue(entries.length == 1);
+		assertTrue(entries[0].getAccountId() == 1L);
+		assertTrue(entries[0].getAmount().compareTo(new BigDecimal(100)) == 0);
+	}
+
+	/**
+	 * Test to spread an account over balance slots and back, keeping its
+	 * balance, and reject an invalid slot count with 400 BAD REQUEST
+	 */
+	@Test
+	public void testSetBalanceSlots() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/account/2/slots/4").build();
+		HttpResponse response = client.execute(new HttpPut(uri));
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 200);
+
+		// check the content
+		String jsonString = EntityUtils.toString(response.getEntity());
+		Account hot = mapper.readValue(jsonString, Account.class);
+
+		uri = builder.setPath("/account/2/slots/0").build();
+		response = client.execute(new HttpPut(uri));
+
+		assertTrue(response.getStatusLine().getStatusCode() == 200);
+
+		jsonString = EntityUtils.toString(response.getEntity());
+		Account single = mapper.readValue(jsonString, Account.class);
+
+		assertTrue(hot.getBalance().compareTo(single.getBalance()) == 0);
+
+		uri = builder.setPath("/account/2/slots/1000").build();
+		response = client.execute(new HttpPut(uri));
+		EntityUtils.consume(response.getEntity());
+
+		assertTrue(response.getStatusLine().getStatusCode() == 400);
+	}
 }
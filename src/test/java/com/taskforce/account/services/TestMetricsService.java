@@ -0,0 +1,98 @@
+package com.taskforce.account.services;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import com.account.model.UserTransaction;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integration testing for the metrics endpoint. Test data are initialised
+ * from src/test/resources/demo.sql
+ */
+public class TestMetricsService extends TestService
+{
+	/**
+	 * Test that requests, DAO calls and transfer outcomes are exported in
+	 * the Prometheus text format.
+	 */
+	@Test
+	public void testMetricsExported() throws IOException, URISyntaxException
+	{
+		// Read an account.
+		HttpResponse response = client.execute(new HttpGet(builder.setPath(
+						"/account/3").build()));
+		EntityUtils.consume(response.getEntity());
+		
+		assertTrue(response.getStatusLine().getStatusCode() == 200);
+		
+		// Transfer more than the source account holds.
+		UserTransaction transaction = new UserTransaction("USD",
+						new BigDecimal(100000), 3L, 2L);
+		
+		HttpPost request = new HttpPost(builder.setPath("/transaction")
+						.build());
+		request.setHeader("Content-type", "application/json");
+		request.setEntity(new StringEntity(mapper
+						.writeValueAsString(transaction)));
+		response = client.execute(request);
+		EntityUtils.consume(response.getEntity());
+		
+		assertTrue(response.getStatusLine().getStatusCode() != 200);
+		
+		String metrics = getMetrics();
+		
+		assertTrue(metrics.contains("# TYPE http_request_duration_seconds summary"));
+		assertTrue(valueOf(metrics, "http_request_duration_seconds_count{"
+						+ "resource=\"AccountService\",method=\"getAccount\"}") >= 1);
+		assertTrue(valueOf(metrics, "http_requests_total{"
+						+ "resource=\"AccountService\",method=\"getAccount\","
+						+ "status=\"2xx\"}") >= 1);
+		assertTrue(valueOf(metrics, "dao_call_duration_seconds_count{"
+						+ "dao=\"AccountDAO\",method=\"getAccountById\"}") >= 1);
+		assertTrue(valueOf(metrics,
+						"transfers_total{outcome=\"insufficient_funds\"}") >= 1);
+		assertTrue(valueOf(metrics, "db_pool_connections{state=\"idle\"}") >= 0);
+	}
+
+	/**
+	 * Read the metrics.
+	 */
+	private String getMetrics() throws IOException, URISyntaxException
+	{
+		HttpResponse response = client.execute(new HttpGet(builder.setPath(
+						"/metrics").build()));
+		
+		assertTrue(response.getStatusLine().getStatusCode() == 200);
+		assertTrue(response.getEntity().getContentType().getValue()
+						.startsWith("text/plain"));
+		
+		return EntityUtils.toString(response.getEntity());
+	}
+
+	/**
+	 * Find the value of a series, -1 if absent.
+	 */
+	private static double valueOf( String metrics, String series )
+	{
+		for ( String line : metrics.split("\n") )
+		{
+			if (line.startsWith(series + " "))
+			{
+				return Double.parseDouble(line.substring(series.length() + 1));
+			}
+		}
+		
+		return -1;
+	}
+}
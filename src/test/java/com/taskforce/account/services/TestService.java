@@ -2,7 +2,9 @@ package com.taskforce.account.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.account.dao.DAOFactory;
+import com.account.metrics.MetricsFeature;
 import com.account.service.AccountService;
+import com.account.service.MetricsService;
 import com.account.service.ServiceExceptionMapper;
 import com.account.service.TransactionService;
 import com.account.service.UserService;
@@ -38,6 +40,9 @@ public abstract class TestService
 	@BeforeClass
 	public static void setup() throws Exception
 	{
+		// Run the resource methods on the service executor.
+		System.setProperty("service_async_enabled", "true");
+		
 		dataDaoFactory.populateTestData();
 		
 		startServer();
@@ -72,6 +77,7 @@ public abstract class TestService
 			
 			ServletHolder servletHolder = context.addServlet(
 							ServletContainer.class, "/*");
+			servletHolder.setAsyncSupported(true);
 			
 			servletHolder.setInitParameter(
 							"jersey.config.server.provider.classnames",
@@ -84,6 +90,12 @@ public abstract class TestService
 															.getCanonicalName()
 											+ ","
 											+ TransactionService.class
+															.getCanonicalName()
+											+ ","
+											+ MetricsService.class
+															.getCanonicalName()
+											+ ","
+											+ MetricsFeature.class
 															.getCanonicalName());
 			
 			server.start();
@@ -1,6 +1,7 @@
 package com.taskforce.account.services;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
@@ -8,6 +9,9 @@ import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 
 import com.account.model.Account;
+import com.account.model.AsyncTransfer;
+import com.account.model.TransferResult;
+import com.account.model.TransferStatus;
 import com.account.model.UserTransaction;
 
 import java.io.IOException;
@@ -191,4 +195,211 @@ public class TestTransactionService extends TestService
 		assertTrue(statusCode == 500);
 	}
 
+	/**
+	 * Test a batch of transactions where each transaction has a different
+	 * outcome return 200 OK with the outcome of each transaction in order
+	 */
+	@Test
+	public void testBatchTransaction() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/transaction/batch").build();
+		
+		UserTransaction[] transactions = new UserTransaction[] {
+						new UserTransaction("GBP", new BigDecimal(10), 7L, 8L),
+						new UserTransaction("GBP", new BigDecimal(100000), 8L, 9L),
+						new UserTransaction("GBP", new BigDecimal(10), 9L, 4L),
+						new UserTransaction("XYZ", new BigDecimal(10), 7L, 8L),
+						new UserTransaction("GBP", new BigDecimal(10), 7L, 100L),
+						new UserTransaction("GBP", new BigDecimal(20), 8L, 7L) };
+
+		String jsonInString = mapper.writeValueAsString(transactions);
+		StringEntity entity = new StringEntity(jsonInString);
+		
+		HttpPost request = new HttpPost(uri);
+		request.setHeader("Content-type", "application/json");
+		request.setEntity(entity);
+		
+		HttpResponse response = client.execute(request);
+		
+		int statusCode = response.getStatusLine().getStatusCode();
+		
+		assertTrue(statusCode == 200);
+		
+		String jsonString = EntityUtils.toString(response.getEntity());
+		TransferResult[] results = mapper.readValue(jsonString,
+						TransferResult[].class);
+		
+		assertTrue(results.length == 6);
+		assertTrue(results[0].getStatus() == TransferStatus.OK);
+		assertTrue(results[1].getStatus() == TransferStatus.INSUFFICIENT_FUNDS);
+		assertTrue(results[2].getStatus() == TransferStatus.CURRENCY_MISMATCH);
+		assertTrue(results[3].getStatus() == TransferStatus.INVALID_CURRENCY);
+		assertTrue(results[4].getStatus() == TransferStatus.ACCOUNT_NOT_FOUND);
+		assertTrue(results[5].getStatus() == TransferStatus.OK);
+		
+		// check account 7 balance is 700 - 10 + 20
+		HttpResponse balanceResponse = client.execute(new HttpGet(builder
+						.setPath("/account/7").build()));
+		Account account7 = mapper.readValue(
+						EntityUtils.toString(balanceResponse.getEntity()),
+						Account.class);
+		
+		assertTrue(account7.getBalance().compareTo(new BigDecimal(710)) == 0);
+	}
+
+	/**
+	 * Test that a retried transaction with the same Idempotency-Key is
+	 * answered with the first outcome and transfers only once, and that the
+	 * key cannot be reused for another transaction
+	 */
+	@Test
+	public void testIdempotentTransaction() throws IOException,
+					URISyntaxException
+	{
+		URI uri = builder.setPath("/transaction").build();
+		
+		UserTransaction transaction = new UserTransaction("EUR",
+						new BigDecimal(10), 5L, 4L);
+		
+		HttpPost request = new HttpPost(uri);
+		request.setHeader("Content-type", "application/json");
+		request.setHeader("Idempotency-Key", "retry-5-4");
+		request.setEntity(new StringEntity(mapper
+						.writeValueAsString(transaction)));
+		
+		HttpResponse first = client.execute(request);
+		EntityUtils.consume(first.getEntity());
+		
+		assertTrue(first.getStatusLine().getStatusCode() == 200);
+		assertTrue(first.getFirstHeader("Idempotent-Replayed") == null);
+		
+		HttpResponse retry = client.execute(request);
+		EntityUtils.consume(retry.getEntity());
+		
+		assertTrue(retry.getStatusLine().getStatusCode() == 200);
+		assertTrue(retry.getFirstHeader("Idempotent-Replayed").getValue()
+						.equals("true"));
+		
+		// check account 5 balance is 500 - 10, debited once
+		HttpResponse balanceResponse = client.execute(new HttpGet(builder
+						.setPath("/account/5").build()));
+		Account account5 = mapper.readValue(
+						EntityUtils.toString(balanceResponse.getEntity()),
+						Account.class);
+		
+		assertTrue(account5.getBalance().compareTo(new BigDecimal(490)) == 0);
+		
+		// same key, different amount
+		request.setEntity(new StringEntity(mapper
+						.writeValueAsString(new UserTransaction("EUR",
+										new BigDecimal(20), 5L, 4L))));
+		
+		HttpResponse reused = client.execute(request);
+		EntityUtils.consume(reused.getEntity());
+		
+		assertTrue(reused.getStatusLine().getStatusCode() == 422);
+	}
+
+	/**
+	 * Test that a retry of a transaction rejected by the DAO with the same
+	 * Idempotency-Key is answered with the first rejection
+	 */
+	@Test
+	public void testIdempotentRejectedTransaction() throws IOException,
+					URISyntaxException
+	{
+		URI uri = builder.setPath("/transaction").build();
+		
+		UserTransaction transaction = new UserTransaction("EUR",
+						new BigDecimal(100000), 6L, 4L);
+		
+		HttpPost request = new HttpPost(uri);
+		request.setHeader("Content-type", "application/json");
+		request.setHeader("Idempotency-Key", "reject-6-4");
+		request.setEntity(new StringEntity(mapper
+						.writeValueAsString(transaction)));
+		
+		HttpResponse first = client.execute(request);
+		String firstBody = EntityUtils.toString(first.getEntity());
+		
+		assertTrue(first.getStatusLine().getStatusCode() == 500);
+		assertTrue(first.getFirstHeader("Idempotent-Replayed") == null);
+		
+		HttpResponse retry = client.execute(request);
+		String retryBody = EntityUtils.toString(retry.getEntity());
+		
+		assertTrue(retry.getStatusLine().getStatusCode() == 500);
+		assertTrue(retry.getFirstHeader("Idempotent-Replayed").getValue()
+						.equals("true"));
+		assertTrue(retryBody.equals(firstBody));
+	}
+
+	/**
+	 * Test that async transactions return 202 with a transfer id at once,
+	 * and that polling the id returns the outcome once applied
+	 */
+	@Test
+	public void testAsyncTransaction() throws IOException, URISyntaxException,
+					InterruptedException
+	{
+		AsyncTransfer applied = submitAndWait(new UserTransaction("EUR",
+						new BigDecimal(5), 6L, 4L));
+		
+		assertTrue(applied.getStatus() == TransferStatus.OK);
+		assertTrue(applied.getFromAccountId() == 6L);
+		
+		AsyncTransfer rejected = submitAndWait(new UserTransaction("EUR",
+						new BigDecimal(100000), 6L, 4L));
+		
+		assertTrue(rejected.getStatus() == TransferStatus.INSUFFICIENT_FUNDS);
+		
+		// unknown transfer id
+		HttpResponse response = client.execute(new HttpGet(builder.setPath(
+						"/transaction/100000").build()));
+		EntityUtils.consume(response.getEntity());
+		
+		assertTrue(response.getStatusLine().getStatusCode() == 404);
+	}
+
+	/**
+	 * Submit an async transaction, then poll until it has been applied.
+	 */
+	private AsyncTransfer submitAndWait( UserTransaction transaction )
+					throws IOException, URISyntaxException,
+					InterruptedException
+	{
+		HttpPost request = new HttpPost(builder.setPath("/transaction/async")
+						.build());
+		request.setHeader("Content-type", "application/json");
+		request.setEntity(new StringEntity(mapper
+						.writeValueAsString(transaction)));
+		
+		HttpResponse response = client.execute(request);
+		
+		assertTrue(response.getStatusLine().getStatusCode() == 202);
+		
+		AsyncTransfer transfer = mapper.readValue(
+						EntityUtils.toString(response.getEntity()),
+						AsyncTransfer.class);
+		
+		assertTrue(response.getFirstHeader("Location").getValue()
+						.endsWith("/transaction/" + transfer.getTransferId()));
+		
+		// Poll for the outcome.
+		for ( int i = 0; (i < 200)
+						&& (transfer.getStatus() == TransferStatus.PENDING); i++ )
+		{
+			Thread.sleep(25);
+			
+			HttpResponse poll = client.execute(new HttpGet(builder.setPath(
+							"/transaction/" + transfer.getTransferId()).build()));
+			
+			assertTrue(poll.getStatusLine().getStatusCode() == 200);
+			
+			transfer = mapper.readValue(EntityUtils.toString(poll.getEntity()),
+							AsyncTransfer.class);
+		}
+		
+		return transfer;
+	}
 }
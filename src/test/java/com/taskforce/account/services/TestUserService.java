@@ -214,4 +214,56 @@ public class TestUserService extends TestService
 		assertTrue(statusCode == 404);
 	}
 
+	/**
+	 * Test to retrieve the first page of users, with the next page position
+	 * in the header.
+	 */
+	@Test
+	public void testGetUsersPage() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/user/all").setParameter("limit", "1")
+						.build();
+
+		HttpGet request = new HttpGet(uri);
+		HttpResponse response = client.execute(request);
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 200);
+		assertTrue(response.getFirstHeader("X-Next-After").getValue()
+						.equals("1"));
+
+		// check the content
+		String jsonString = EntityUtils.toString(response.getEntity());
+
+		User[] users = mapper.readValue(jsonString, User[].class);
+
+		assertTrue(users.length == 1);
+		assertTrue(users[0].getUserName().equals("frederick"));
+	}
+
+	/**
+	 * Test to stream all users.
+	 */
+	@Test
+	public void testStreamUsers() throws IOException, URISyntaxException
+	{
+		URI uri = builder.setPath("/user/all").setParameter("stream", "true")
+						.build();
+
+		HttpGet request = new HttpGet(uri);
+		HttpResponse response = client.execute(request);
+
+		int statusCode = response.getStatusLine().getStatusCode();
+
+		assertTrue(statusCode == 200);
+
+		// check the content
+		String jsonString = EntityUtils.toString(response.getEntity());
+
+		User[] users = mapper.readValue(jsonString, User[].class);
+
+		assertTrue(users.length > 0);
+		assertTrue(users[0].getUserName().equals("frederick"));
+	}
 }
@@ -0,0 +1,126 @@
+package com.taskforce.account.utils;
+
+import com.account.utils.Log;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Test suite for the parameterised, rate limited log.
+ */
+public class TestLog
+{
+	private Logger logger;
+	private List<LoggingEvent> events;
+
+	@Before
+	public void createLogger()
+	{
+		events = new ArrayList<LoggingEvent>();
+
+		logger = Logger.getLogger("TestLog" + System.nanoTime());
+		logger.setAdditivity(false);
+		logger.setLevel(Level.DEBUG);
+		logger.addAppender(new AppenderSkeleton()
+		{
+			protected void append( LoggingEvent event )
+			{
+				events.add(event);
+			}
+
+			public void close()
+			{
+			}
+
+			public boolean requiresLayout()
+			{
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Test that arguments replace the placeholders in order, and that a
+	 * throwable left over is logged with the message.
+	 */
+	@Test
+	public void testParameterisedMessages()
+	{
+		Log log = new Log(logger, 0, 0);
+		SQLException error = new SQLException("test");
+
+		assertTrue(Log.format("from {} to {}", 1, "two").equals("from 1 to two"));
+		assertTrue(Log.format("only {}", "one", "extra").equals("only one"));
+		assertTrue(Log.format("none {} {}", "one").equals("none one {}"));
+
+		log.error("Error Deleting User :{}", 7L, error);
+
+		assertTrue(events.size() == 1);
+		assertTrue(events.get(0).getRenderedMessage().equals(
+						"Error Deleting User :7"));
+		assertTrue(events.get(0).getThrowableInformation().getThrowable() == error);
+	}
+
+	/**
+	 * Test that a disabled level is not formatted.
+	 */
+	@Test
+	public void testDisabledLevelNotFormatted()
+	{
+		Log log = new Log(logger, 0, 0);
+		Object failing = new Object()
+		{
+			public String toString()
+			{
+				throw new AssertionError("formatted a disabled message");
+			}
+		};
+
+		logger.setLevel(Level.INFO);
+		log.debug("Retrieve User: {}", failing);
+
+		assertTrue(events.isEmpty());
+	}
+
+	/**
+	 * Test that repeated errors are limited per message, and the number
+	 * suppressed reported with the next one logged.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testRepeatedErrorsRateLimited() throws InterruptedException
+	{
+		long interval = TimeUnit.MILLISECONDS.toNanos(200);
+		Log log = new Log(logger, 2, interval);
+
+		for ( int i = 0; i < 10; i++ )
+		{
+			log.error("Transfer failed for {}", i);
+		}
+
+		// Another message has its own limit.
+		log.warn("Other failure");
+
+		assertTrue(events.size() == 3);
+
+		TimeUnit.NANOSECONDS.sleep(interval + TimeUnit.MILLISECONDS.toNanos(50));
+
+		log.error("Transfer failed for {}", 10);
+
+		assertTrue(events.size() == 4);
+		assertTrue(events.get(3).getRenderedMessage().equals(
+						"Transfer failed for 10 (8 similar messages suppressed)"));
+	}
+}